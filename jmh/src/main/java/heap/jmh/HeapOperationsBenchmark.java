@@ -0,0 +1,197 @@
+package heap.jmh;
+
+import heap.Heap;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * HeapOperationsBenchmark
+ *
+ * JMH benchmarks for insert, deleteMin, decreaseKey, delete and meld in all
+ * four (lazyMelds, lazyDecreaseKeys) modes and heap sizes from 1K to 10M.
+ *
+ * The heap of the requested size is built once per trial. Every invocation
+ * performs BATCH operations of one kind. Whatever undoes them to restore the
+ * size (re-inserting after deleteMin, deleting after insert, ...) runs in an
+ * untimed per-invocation setup/teardown, so only the measured operation is timed.
+ * Note that -prof gc counts allocations of the whole iteration, so for deleteMin,
+ * delete and meld gc.alloc.rate.norm also contains the untimed refill.
+ *
+ * Run everything (slow):       java -jar jmh/target/benchmarks.jar -prof gc
+ * Only one operation and size: java -jar jmh/target/benchmarks.jar deleteMin -p size=100000 -prof gc
+ * Or the main() below, which adds the GC/allocation profiler itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class HeapOperationsBenchmark {
+
+    // Operations per invocation (keeps per-invocation setup cost away from the timer).
+    // Must stay below the smallest size so the sampled slots are distinct.
+    static final int BATCH = 512;
+
+    private static final int KEY_RANGE = 1 << 30;
+    private static final String INFO = "b";
+
+    @Param({"true", "false"})
+    public boolean lazyMelds;
+
+    @Param({"true", "false"})
+    public boolean lazyDecreaseKeys;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Heap heap;
+    private Heap.HeapItem[] handles;   // handles[i] is a live item for every i < size
+    private Random rnd;
+
+    private final int[] batchKeys = new int[BATCH];
+    private final int[] batchSlots = new int[BATCH];
+    private final Heap.HeapItem[] batchItems = new Heap.HeapItem[BATCH];
+
+    @Setup(Level.Trial)
+    public void buildHeap() {
+        rnd = new Random(20260115L);
+        heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        handles = new Heap.HeapItem[size];
+        for (int i = 0; i < size; i++) {
+            handles[i] = heap.insert(randomKey(), INFO);
+        }
+        // Start from a consolidated forest rather than n singleton roots (key 0 is the sentinel min)
+        heap.insert(0, INFO);
+        heap.deleteMin();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            batchKeys[i] = randomKey();
+        }
+        // Distinct random slots for decreaseKey/delete: one per stripe of size/BATCH handles
+        int stripe = size / BATCH;
+        for (int i = 0; i < BATCH; i++) {
+            batchSlots[i] = i * stripe + rnd.nextInt(stripe);
+        }
+    }
+
+    /** One-item heaps melded by the meld benchmark (only that benchmark pays for building them) */
+    @State(Scope.Thread)
+    public static class MeldSources {
+        final Heap[] sources = new Heap[BATCH];
+
+        @Setup(Level.Invocation)
+        public void build(HeapOperationsBenchmark bench) {
+            for (int i = 0; i < BATCH; i++) {
+                sources[i] = new Heap(bench.lazyMelds, bench.lazyDecreaseKeys);
+                sources[i].insert(bench.randomKey(), INFO);
+            }
+        }
+    }
+
+    // ================== Benchmarks ==================
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insert() {
+        for (int i = 0; i < BATCH; i++) {
+            batchItems[i] = heap.insert(batchKeys[i], INFO);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void restoreSize() {
+        // Remove whatever insert/meld added
+        for (int i = 0; i < BATCH; i++) {
+            if (batchItems[i] != null) {
+                heap.delete(batchItems[i]);
+                batchItems[i] = null;
+            }
+        }
+        // Refill whatever deleteMin/delete removed, re-pointing the removed batch slots
+        int k = 0;
+        while (heap.size() < size) {
+            Heap.HeapItem item = heap.insert(randomKey(), INFO);
+            while (k < BATCH && handles[batchSlots[k]].node != null) {
+                k++;
+            }
+            if (k < BATCH) {
+                handles[batchSlots[k++]] = item;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void deleteMin() {
+        for (int i = 0; i < BATCH; i++) {
+            heap.deleteMin();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decreaseKey() {
+        for (int i = 0; i < BATCH; i++) {
+            heap.decreaseKey(handles[batchSlots[i]], 1 + (batchKeys[i] & 7));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void delete() {
+        for (int i = 0; i < BATCH; i++) {
+            heap.delete(handles[batchSlots[i]]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void meld(MeldSources meldSources, Blackhole bh) {
+        for (int i = 0; i < BATCH; i++) {
+            Heap source = meldSources.sources[i];
+            batchItems[i] = source.findMin();
+            heap.meld(source);
+        }
+        bh.consume(heap.findMin());
+    }
+
+    // ================== Helpers ==================
+
+    private int randomKey() {
+        return 1 + rnd.nextInt(KEY_RANGE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(HeapOperationsBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
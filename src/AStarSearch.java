@@ -0,0 +1,210 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * AStarSearch
+ *
+ * Point-to-point A* on a CsrGraph with a pluggable heuristic, built for many
+ * queries on the same graph:
+ *  - one open-set Heap for all queries, emptied with clear() (only the vertices
+ *    left open by the previous query are touched)
+ *  - one HeapItem per vertex, created the first time the vertex is reached and
+ *    reinserted (Heap.reinsert) in later queries; the heap's node pool recycles
+ *    the nodes, so a warm engine allocates nothing per query
+ *  - per-vertex state is valid only if its generation stamp equals the current
+ *    query, so starting a query is O(1) instead of clearing O(n) arrays
+ *
+ * A heuristic must be admissible (never overestimate the remaining distance).
+ * If it is also consistent, every vertex is expanded at most once; otherwise a
+ * vertex reached again with a shorter path is reopened, and results stay exact.
+ *
+ * f = g + h is the heap key and must fit in an int (ArithmeticException otherwise).
+ * An engine is not thread safe: use one engine per thread (the graph and the
+ * heuristics can be shared).
+ */
+public final class AStarSearch {
+
+    public static final long UNREACHABLE = GraphAlgorithms.UNREACHABLE;
+
+    /** Lower bound of the distance from v to target */
+    public interface Heuristic {
+        int estimate(int v, int target);
+    }
+
+    /** h = 0: A* becomes Dijkstra with early exit */
+    public static final Heuristic ZERO = (v, target) -> 0;
+
+    private final CsrGraph graph;
+    private final Heap open;
+    private final Heap.HeapItem[] handle;
+    private final int[] gScore;
+    private final int[] parent;
+    private final int[] stamp;     // 2 * generation: seen and open, 2 * generation + 1: closed
+    private int generation;
+
+    private int source = -1;
+    private int target = -1;
+    public long expanded;        // Vertices taken out of the open set by the last query
+    public long decreaseKeys;    // decreaseKey calls of the last query
+    public long reopened;        // Closed vertices reopened by the last query (inconsistent heuristic)
+
+    public AStarSearch(CsrGraph graph, boolean lazyMelds, boolean lazyDecreaseKeys) {
+        this.graph = graph;
+        this.open = new Heap(lazyMelds, lazyDecreaseKeys);
+        this.open.setNodePoolCapacity(graph.n);
+        this.handle = new Heap.HeapItem[graph.n];
+        this.gScore = new int[graph.n];
+        this.parent = new int[graph.n];
+        this.stamp = new int[graph.n];
+    }
+
+    /** The open-set heap (for reading its counters; do not modify it) */
+    public Heap heap() {
+        return open;
+    }
+
+    // Complexity as Dijkstra restricted to the vertices with f < dist(source, target),
+    // plus O(size of the open set left by the previous query)
+    /**
+     * Length of the shortest path source -> target, UNREACHABLE if there is none.
+     * The path itself is available from path() until the next query.
+     */
+    public long query(int source, int target, Heuristic h) {
+        startQuery(source, target);
+        int open0 = 2 * generation;
+        int closed0 = open0 + 1;
+
+        stamp[source] = open0;
+        gScore[source] = 0;
+        parent[source] = -1;
+        push(source, fScore(0, source, target, h));
+
+        while (open.findMin() != null) {
+            int u = (int) open.findMin().id;
+            open.deleteMin();
+            stamp[u] = closed0;
+            expanded++;
+            if (u == target) {
+                return gScore[u];
+            }
+
+            long gu = gScore[u];
+            for (int e = graph.edgeStart(u), end = graph.edgeEnd(u); e < end; e++) {
+                int v = graph.target(e);
+                long g = gu + graph.weight(e);
+                int sv = stamp[v];
+                boolean seen = sv == open0 || sv == closed0;
+                if (seen && g >= gScore[v]) continue;
+                int f = fScore(g, v, target, h);
+
+                if (sv == open0) {
+                    Heap.HeapItem item = handle[v];
+                    open.decreaseKey(item, item.key - f);
+                    decreaseKeys++;
+                } else {
+                    if (sv == closed0) reopened++;
+                    stamp[v] = open0;
+                    push(v, f);
+                }
+                gScore[v] = (int) g;
+                parent[v] = u;
+            }
+        }
+        return UNREACHABLE;
+    }
+
+    /** Vertices of the shortest path found by the last query, empty if none */
+    public int[] path() {
+        if (target < 0 || stamp[target] != 2 * generation + 1) return new int[0];
+        int length = 1;
+        for (int v = target; v != source; v = parent[v]) length++;
+        int[] path = new int[length];
+        for (int v = target, i = length - 1; i >= 0; v = parent[v], i--) path[i] = v;
+        return path;
+    }
+
+    private void startQuery(int source, int target) {
+        if (source < 0 || source >= graph.n || target < 0 || target >= graph.n) {
+            throw new IllegalArgumentException("vertex out of range [0, " + graph.n + ")");
+        }
+        open.clear();
+        generation++;
+        if (generation > (Integer.MAX_VALUE - 1) / 2) {
+            // Stamps of old queries could collide with new ones: forget them all once
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        this.source = source;
+        this.target = target;
+        expanded = 0;
+        decreaseKeys = 0;
+        reopened = 0;
+    }
+
+    private void push(int v, int f) {
+        Heap.HeapItem item = handle[v];
+        if (item == null) {
+            handle[v] = open.insert(f, null, v);
+        } else {
+            open.reinsert(item, f);
+        }
+    }
+
+    private static int fScore(long g, int v, int target, Heuristic h) {
+        long f = g + h.estimate(v, target);
+        if (f > Integer.MAX_VALUE || g > Integer.MAX_VALUE) {
+            throw new ArithmeticException("path length " + f + " does not fit in an int heap key");
+        }
+        return (int) f;
+    }
+
+    // ================== Heuristics ==================
+
+    // Complexity O(1) per estimate
+    /**
+     * Manhattan distance on a CsrGraph.grid(rows, cols, ...) graph, scaled by
+     * the smallest edge weight (1 for the generated grids).
+     */
+    public static Heuristic manhattan(int cols, int minWeight) {
+        return (v, target) -> minWeight * (Math.abs(v / cols - target / cols) + Math.abs(v % cols - target % cols));
+    }
+
+    // Complexity O(landmarks * (m + n log n)) to build, O(landmarks) per estimate
+    /**
+     * ALT heuristic (A*, landmarks, triangle inequality) for undirected graphs:
+     * exact distances from a few landmark vertices give the lower bound
+     * max over landmarks L of |d(L, target) - d(L, v)|.
+     * Landmarks are picked farthest-first, starting from a random vertex.
+     * Costs 4 bytes per vertex and landmark.
+     */
+    public static Heuristic landmarks(CsrGraph g, int count, long seed) {
+        int[][] dist = new int[count][];
+        int next = new Random(seed).nextInt(g.n);
+        long[] minDist = new long[g.n];
+        Arrays.fill(minDist, Long.MAX_VALUE);
+
+        for (int l = 0; l < count; l++) {
+            long[] d = GraphAlgorithms.dijkstra(g, next, new Heap(true, true)).dist;
+            dist[l] = new int[g.n];
+            int farthest = next;
+            for (int v = 0; v < g.n; v++) {
+                // Unreachable vertices keep -1: no bound from this landmark
+                dist[l][v] = d[v] == UNREACHABLE ? -1 : (int) d[v];
+                minDist[v] = Math.min(minDist[v], d[v]);
+                if (minDist[v] != UNREACHABLE && minDist[v] > minDist[farthest]) farthest = v;
+            }
+            next = farthest;
+        }
+        return (v, target) -> {
+            int best = 0;
+            for (int[] d : dist) {
+                int dv = d[v];
+                int dt = d[target];
+                if (dv < 0 || dt < 0) continue;
+                int bound = Math.abs(dt - dv);
+                if (bound > best) best = bound;
+            }
+            return best;
+        };
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * CsrGraph
+ *
+ * Immutable weighted directed graph in compressed sparse row form:
+ * the out-edges of vertex v are targets[offsets[v] .. offsets[v+1]-1] with the
+ * matching weights. Vertices are 0..n-1, weights are non-negative ints.
+ * An undirected graph stores every edge in both directions.
+ *
+ * Three int arrays and no per-edge objects: 8 bytes per directed edge plus
+ * 4 bytes per vertex, and the edges of a vertex are contiguous in memory.
+ *
+ * Also contains the generators used by GraphBenchmark (grid, scale-free).
+ */
+public final class CsrGraph {
+
+    public final int n;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] weights;
+
+    private CsrGraph(int n, int[] offsets, int[] targets, int[] weights) {
+        this.n = n;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    // Complexity O(n + m)
+    /**
+     * Build from an edge list (from[i] -> to[i] with weight w[i], i < m).
+     * With undirected = true every edge is also added in the other direction.
+     * Edges of each vertex keep their order in the list (counting sort).
+     */
+    public static CsrGraph fromEdges(int n, int m, int[] from, int[] to, int[] w, boolean undirected) {
+        if (n < 0 || m < 0 || m > from.length || m > to.length || m > w.length) {
+            throw new IllegalArgumentException("bad graph size n=" + n + " m=" + m);
+        }
+        long directed = undirected ? 2L * m : m;
+        if (directed > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many edges: " + directed);
+        }
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < m; i++) {
+            checkEdge(n, from[i], to[i], w[i]);
+            offsets[from[i] + 1]++;
+            if (undirected) offsets[to[i] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+
+        int[] targets = new int[(int) directed];
+        int[] weights = new int[(int) directed];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int i = 0; i < m; i++) {
+            int e = fill[from[i]]++;
+            targets[e] = to[i];
+            weights[e] = w[i];
+            if (undirected) {
+                e = fill[to[i]]++;
+                targets[e] = from[i];
+                weights[e] = w[i];
+            }
+        }
+        return new CsrGraph(n, offsets, targets, weights);
+    }
+
+    private static void checkEdge(int n, int u, int v, int w) {
+        if (u < 0 || u >= n || v < 0 || v >= n) {
+            throw new IllegalArgumentException("edge " + u + "->" + v + " out of range [0, " + n + ")");
+        }
+        if (w < 0) {
+            throw new IllegalArgumentException("negative weight " + w + " on edge " + u + "->" + v);
+        }
+    }
+
+    /** Number of directed edges (twice the edge count of an undirected graph) */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /** Index of the first out-edge of v; the last one is edgeEnd(v) - 1 */
+    public int edgeStart(int v) {
+        return offsets[v];
+    }
+
+    public int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    public int weight(int edge) {
+        return weights[edge];
+    }
+
+    // ================== Generators ==================
+
+    // Complexity O(rows * cols)
+    /**
+     * Undirected rows x cols grid, 4-neighbourhood, weights uniform in
+     * [1, maxWeight]. A road-network-like graph: small degree, large diameter.
+     */
+    public static CsrGraph grid(int rows, int cols, int maxWeight, long seed) {
+        long nl = (long) rows * cols;
+        if (rows <= 0 || cols <= 0 || nl > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("bad grid size " + rows + "x" + cols);
+        }
+        int n = (int) nl;
+        int m = rows * (cols - 1) + (rows - 1) * cols;
+        int[] from = new int[m];
+        int[] to = new int[m];
+        int[] w = new int[m];
+        Random rnd = new Random(seed);
+        int e = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int v = r * cols + c;
+                if (c + 1 < cols) {
+                    from[e] = v; to[e] = v + 1; w[e++] = 1 + rnd.nextInt(maxWeight);
+                }
+                if (r + 1 < rows) {
+                    from[e] = v; to[e] = v + cols; w[e++] = 1 + rnd.nextInt(maxWeight);
+                }
+            }
+        }
+        return fromEdges(n, m, from, to, w, true);
+    }
+
+    // Complexity O(n * edgesPerVertex)
+    /**
+     * Undirected scale-free graph (Barabasi-Albert preferential attachment):
+     * every new vertex attaches edgesPerVertex edges to existing vertices chosen
+     * with probability proportional to their degree. Weights uniform in [1, maxWeight].
+     * Parallel edges may occur; they do not change shortest paths or MST weight.
+     */
+    public static CsrGraph scaleFree(int n, int edgesPerVertex, int maxWeight, long seed) {
+        if (n <= edgesPerVertex || edgesPerVertex < 1) {
+            throw new IllegalArgumentException("need n > edgesPerVertex >= 1");
+        }
+        long ml = (long) (n - edgesPerVertex) * edgesPerVertex;
+        if (ml > Integer.MAX_VALUE / 4) {
+            throw new IllegalArgumentException("too many edges: " + ml);
+        }
+        int m = (int) ml;
+        int[] from = new int[m];
+        int[] to = new int[m];
+        int[] w = new int[m];
+        // Every edge endpoint is recorded once, so a uniform pick from ends is degree-proportional
+        int[] ends = new int[2 * m + edgesPerVertex];
+        int endCount = 0;
+        for (int v = 0; v < edgesPerVertex; v++) ends[endCount++] = v;
+
+        Random rnd = new Random(seed);
+        int e = 0;
+        for (int v = edgesPerVertex; v < n; v++) {
+            int endsBefore = endCount;
+            for (int k = 0; k < edgesPerVertex; k++) {
+                int u = ends[rnd.nextInt(endsBefore)];
+                from[e] = v;
+                to[e] = u;
+                w[e++] = 1 + rnd.nextInt(maxWeight);
+                ends[endCount++] = u;
+                ends[endCount++] = v;
+            }
+        }
+        return fromEdges(n, m, from, to, w, true);
+    }
+}
@@ -0,0 +1,325 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * DeltaStepping
+ *
+ * Parallel single-source shortest paths (Meyer and Sanders' delta-stepping)
+ * on a CsrGraph with non-negative weights.
+ *
+ * Tentative distances are kept in buckets of width delta; bucket i holds the
+ * vertices with distance in [i * delta, (i+1) * delta). Buckets are settled in
+ * order. A bucket is handled in one of two ways:
+ *  - large frontier (>= parallelThreshold vertices): edges are relaxed in
+ *    parallel on a ForkJoinPool. Light edges (weight <= delta) are relaxed
+ *    until the bucket stops refilling, then the heavy edges of all its vertices
+ *    once. Distances are lowered with compare-and-set, so the threads need no locks.
+ *  - small frontier: the bucket is settled by a Heap-driven Dijkstra restricted
+ *    to the bucket (keys relative to the bucket start), since fork/join overhead
+ *    would dominate. This is the common case on the first and last buckets of a
+ *    search and on graphs with small frontiers (grids).
+ *
+ * Only ceil(maxWeight / delta) + 1 buckets are alive at once, so they are used
+ * cyclically. Stale bucket entries are skipped: a vertex is expanded only if
+ * its distance is in the current bucket and lower than when it was last expanded.
+ *
+ * delta trades work for parallelism: delta = 1 (integer weights) is Dijkstra
+ * with one bucket per distance, a huge delta is parallel Bellman-Ford. A good
+ * start is the average edge weight times a small factor.
+ *
+ * Computes distances only: with concurrent relaxations a predecessor written
+ * next to a distance could belong to a different, longer path.
+ */
+public final class DeltaStepping {
+
+    public static final long UNREACHABLE = GraphAlgorithms.UNREACHABLE;
+
+    private final CsrGraph graph;
+    private final int delta;
+    private final int maxWeight;
+
+    // Buckets with fewer vertices are settled by the sequential Heap path
+    public int parallelThreshold = 4096;
+    // Frontier slice relaxed by one task
+    public int minSegment = 512;
+    public ForkJoinPool pool = ForkJoinPool.commonPool();
+    // Heap mode of the sequential path
+    public boolean lazyMelds = true;
+    public boolean lazyDecreaseKeys = true;
+
+    /** Distances of one run, with counts of how the buckets were processed */
+    public static final class Result {
+        public final long[] dist;
+        public long buckets;          // Non-empty buckets settled
+        public long parallelBuckets;  // ... of which on the parallel path
+        public long parallelPhases;   // Light-edge rounds of the parallel path
+        public long expansions;       // Vertex expansions (> n when vertices are re-expanded)
+
+        Result(long[] dist) {
+            this.dist = dist;
+        }
+    }
+
+    public DeltaStepping(CsrGraph graph, int delta) {
+        if (delta < 1) {
+            throw new IllegalArgumentException("delta must be >= 1");
+        }
+        this.graph = graph;
+        this.delta = delta;
+        int max = 0;
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            max = Math.max(max, graph.weight(e));
+        }
+        this.maxWeight = max;
+    }
+
+    // Complexity O(n + m + work of re-expansions); parallel depth ~ number of buckets * light rounds
+    public Result run(int source) {
+        int n = graph.n;
+        AtomicLongArray dist = new AtomicLongArray(n);
+        long[] expandedAt = new long[n];     // distance of the last expansion of the vertex
+        for (int v = 0; v < n; v++) {
+            dist.set(v, UNREACHABLE);
+        }
+        Arrays.fill(expandedAt, UNREACHABLE);
+
+        int ring = maxWeight / delta + 2;
+        IntList[] buckets = new IntList[ring];
+        for (int i = 0; i < ring; i++) {
+            buckets[i] = new IntList();
+        }
+        Result result = new Result(new long[n]);
+
+        // Sequential path state, reused for every small bucket
+        Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        heap.setNodePoolCapacity(1024);
+        Heap.HeapItem[] handle = new Heap.HeapItem[n];
+        // Parallel path scratch: frontier membership (stamped) and the vertices expanded in the bucket
+        int[] stamp = new int[n];
+        int stampValue = 0;
+        IntList frontier = new IntList();
+        IntList expanded = new IntList();
+
+        dist.set(source, 0);
+        buckets[0].add(source);
+        long pending = 1;
+        long current = 0;
+
+        while (pending > 0) {
+            IntList bucket = buckets[(int) (current % ring)];
+            if (bucket.size == 0) {
+                current++;
+                continue;
+            }
+            pending -= bucket.size;
+            long lo = current * delta;
+            long hi = lo + delta;
+
+            // Valid entries: distance in this bucket and not expanded at that distance yet
+            frontier.clear();
+            stampValue++;
+            for (int i = 0; i < bucket.size; i++) {
+                int v = bucket.data[i];
+                long d = dist.get(v);
+                if (d >= lo && d < hi && d < expandedAt[v] && stamp[v] != stampValue) {
+                    stamp[v] = stampValue;
+                    frontier.add(v);
+                }
+            }
+            bucket.clear();
+            if (frontier.size == 0) {
+                current++;
+                continue;
+            }
+            result.buckets++;
+
+            if (frontier.size < parallelThreshold) {
+                pending += settleWithHeap(frontier, lo, hi, dist, expandedAt, heap, handle, buckets, result);
+            } else {
+                result.parallelBuckets++;
+                expanded.clear();
+                while (frontier.size > 0) {
+                    result.parallelPhases++;
+                    for (int i = 0; i < frontier.size; i++) {
+                        int v = frontier.data[i];
+                        expandedAt[v] = dist.get(v);
+                        expanded.add(v);
+                    }
+                    result.expansions += frontier.size;
+                    IntList improved = pool.invoke(new RelaxTask(frontier.data, 0, frontier.size, true, dist));
+
+                    // Light edges can only refill this bucket or later ones
+                    frontier.clear();
+                    stampValue++;
+                    for (int i = 0; i < improved.size; i++) {
+                        int u = improved.data[i];
+                        long d = dist.get(u);
+                        if (d < hi) {
+                            if (d < expandedAt[u] && stamp[u] != stampValue) {
+                                stamp[u] = stampValue;
+                                frontier.add(u);
+                            }
+                        } else {
+                            buckets[(int) ((d / delta) % ring)].add(u);
+                            pending++;
+                        }
+                    }
+                }
+
+                // Heavy edges once, from the final distances of the bucket (they all land in later buckets)
+                stampValue++;
+                IntList unique = new IntList();
+                for (int i = 0; i < expanded.size; i++) {
+                    int v = expanded.data[i];
+                    if (stamp[v] != stampValue) {
+                        stamp[v] = stampValue;
+                        unique.add(v);
+                    }
+                }
+                IntList improved = pool.invoke(new RelaxTask(unique.data, 0, unique.size, false, dist));
+                for (int i = 0; i < improved.size; i++) {
+                    int u = improved.data[i];
+                    buckets[(int) ((dist.get(u) / delta) % ring)].add(u);
+                    pending++;
+                }
+            }
+            current++;
+        }
+
+        for (int v = 0; v < n; v++) {
+            result.dist[v] = dist.get(v);
+        }
+        return result;
+    }
+
+    // Complexity O(k log k + edges of the k settled vertices) for a frontier of k vertices
+    // Dijkstra over [lo, hi): keys are dist - lo (< delta, so they fit in an int).
+    // Returns the number of entries added to later buckets.
+    private int settleWithHeap(IntList frontier, long lo, long hi, AtomicLongArray dist, long[] expandedAt,
+                               Heap heap, Heap.HeapItem[] handle, IntList[] buckets, Result result) {
+        int ring = buckets.length;
+        int added = 0;
+        for (int i = 0; i < frontier.size; i++) {
+            int v = frontier.data[i];
+            push(heap, handle, v, (int) (dist.get(v) - lo));
+        }
+
+        while (heap.findMin() != null) {
+            int u = (int) heap.findMin().id;
+            heap.deleteMin();
+            long du = dist.get(u);
+            expandedAt[u] = du;
+            result.expansions++;
+
+            for (int e = graph.edgeStart(u), end = graph.edgeEnd(u); e < end; e++) {
+                int v = graph.target(e);
+                long nd = du + graph.weight(e);
+                long dv = dist.get(v);
+                if (nd >= dv) continue;
+                dist.set(v, nd);
+
+                if (nd < hi) {
+                    Heap.HeapItem item = handle[v];
+                    if (item != null && item.node != null) {
+                        heap.decreaseKey(item, (int) (dv - nd));
+                    } else {
+                        push(heap, handle, v, (int) (nd - lo));
+                    }
+                } else {
+                    buckets[(int) ((nd / delta) % ring)].add(v);
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    private static void push(Heap heap, Heap.HeapItem[] handle, int v, int key) {
+        Heap.HeapItem item = handle[v];
+        if (item == null) {
+            handle[v] = heap.insert(key, null, v);
+        } else {
+            heap.reinsert(item, key);
+        }
+    }
+
+    /** Relaxes the light (or heavy) edges of a frontier slice; returns the improved vertices */
+    private final class RelaxTask extends RecursiveTask<IntList> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] vertices;
+        private final int from;
+        private final int to;
+        private final boolean light;
+        private final AtomicLongArray dist;
+
+        RelaxTask(int[] vertices, int from, int to, boolean light, AtomicLongArray dist) {
+            this.vertices = vertices;
+            this.from = from;
+            this.to = to;
+            this.light = light;
+            this.dist = dist;
+        }
+
+        @Override
+        protected IntList compute() {
+            if (to - from <= minSegment) {
+                IntList improved = new IntList();
+                for (int i = from; i < to; i++) {
+                    int v = vertices[i];
+                    long dv = dist.get(v);
+                    for (int e = graph.edgeStart(v), end = graph.edgeEnd(v); e < end; e++) {
+                        int w = graph.weight(e);
+                        if ((w <= delta) != light) continue;
+                        int u = graph.target(e);
+                        long nd = dv + w;
+                        long du = dist.get(u);
+                        while (nd < du) {
+                            if (dist.compareAndSet(u, du, nd)) {
+                                improved.add(u);
+                                break;
+                            }
+                            du = dist.get(u);
+                        }
+                    }
+                }
+                return improved;
+            }
+            int mid = (from + to) >>> 1;
+            RelaxTask left = new RelaxTask(vertices, from, mid, light, dist);
+            RelaxTask right = new RelaxTask(vertices, mid, to, light, dist);
+            left.fork();
+            IntList r = right.compute();
+            IntList l = left.join();
+            l.addAll(r);
+            return l;
+        }
+    }
+
+    /** Growable int array */
+    static final class IntList {
+        int[] data = new int[16];
+        int size;
+
+        void add(int v) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * size);
+            }
+            data[size++] = v;
+        }
+
+        void addAll(IntList other) {
+            if (size + other.size > data.length) {
+                data = Arrays.copyOf(data, Math.max(2 * data.length, size + other.size));
+            }
+            System.arraycopy(other.data, 0, data, size, other.size);
+            size += other.size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
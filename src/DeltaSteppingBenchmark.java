@@ -0,0 +1,82 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * DeltaSteppingBenchmark.java
+ *
+ * Compares DeltaStepping with sequential Heap Dijkstra (GraphAlgorithms.dijkstra,
+ * Fibonacci mode) on the graphs of GraphBenchmark, for several bucket widths.
+ *
+ *   java DeltaSteppingBenchmark [gridSide] [scaleFreeN] [edgesPerVertex] [threads]
+ *
+ * threads defaults to the number of available processors. Every delta-stepping
+ * result is checked against the Dijkstra distances. Times are the fastest of
+ * RUNS repetitions, after one warm-up.
+ */
+public class DeltaSteppingBenchmark {
+
+    private static final int DEFAULT_GRID_SIDE = 1000;
+    private static final int DEFAULT_SCALE_FREE_N = 1_000_000;
+    private static final int DEFAULT_EDGES_PER_VERTEX = 4;
+    private static final int MAX_WEIGHT = 1000;
+    private static final int[] DELTAS = {100, 500, 1000, 4000};
+    private static final int RUNS = 3;
+    private static final long SEED = 20260115L;
+
+    public static void main(String[] args) {
+        int side = DEFAULT_GRID_SIDE;
+        int scaleFreeN = DEFAULT_SCALE_FREE_N;
+        int edgesPerVertex = DEFAULT_EDGES_PER_VERTEX;
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length >= 1) side = Integer.parseInt(args[0]);
+        if (args.length >= 2) scaleFreeN = Integer.parseInt(args[1]);
+        if (args.length >= 3) edgesPerVertex = Integer.parseInt(args[2]);
+        if (args.length >= 4) threads = Integer.parseInt(args[3]);
+
+        System.out.println("threads=" + threads + ", available processors=" + Runtime.getRuntime().availableProcessors());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            benchmark("grid " + side + "x" + side, CsrGraph.grid(side, side, MAX_WEIGHT, SEED), pool);
+            benchmark("scale-free n=" + scaleFreeN + " m/v=" + edgesPerVertex,
+                    CsrGraph.scaleFree(scaleFreeN, edgesPerVertex, MAX_WEIGHT, SEED), pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void benchmark(String name, CsrGraph g, ForkJoinPool pool) {
+        System.out.println("\n===== " + name + ": n=" + g.n + ", directed edges=" + g.edgeCount() + " =====");
+        int source = new Random(SEED).nextInt(g.n);
+
+        long[] expected = null;
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run <= RUNS; run++) {
+            long t0 = System.nanoTime();
+            long[] dist = GraphAlgorithms.dijkstra(g, source, new Heap(true, true)).dist;
+            double ms = (System.nanoTime() - t0) / 1e6;
+            if (run > 0) best = Math.min(best, ms);
+            expected = dist;
+        }
+        double dijkstraMs = best;
+        System.out.printf("heap dijkstra          -> timeMs=%.2f%n", dijkstraMs);
+
+        for (int delta : DELTAS) {
+            DeltaStepping ds = new DeltaStepping(g, delta);
+            ds.pool = pool;
+            DeltaStepping.Result r = null;
+            best = Double.MAX_VALUE;
+            for (int run = 0; run <= RUNS; run++) {
+                long t0 = System.nanoTime();
+                r = ds.run(source);
+                double ms = (System.nanoTime() - t0) / 1e6;
+                if (run > 0) best = Math.min(best, ms);
+            }
+            if (!Arrays.equals(expected, r.dist)) {
+                throw new IllegalStateException("delta-stepping (delta=" + delta + ") disagrees with Dijkstra");
+            }
+            System.out.printf("delta-stepping d=%-6d -> timeMs=%.2f | speedup=%.2f | buckets=%d | parallelBuckets=%d | lightRounds=%d | expansions=%d%n",
+                    delta, best, dijkstraMs / best, r.buckets, r.parallelBuckets, r.parallelPhases, r.expansions);
+        }
+    }
+}
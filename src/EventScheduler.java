@@ -0,0 +1,352 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * EventScheduler
+ *
+ * Discrete-event simulation queue on a Heap: events of type E with long
+ * timestamps, dispatched in (time, sequence number) order, where the sequence
+ * number is the scheduling order, so equal timestamps fire stably (first
+ * scheduled, first fired).
+ *
+ *   EventScheduler<Msg> sim = new EventScheduler<>(true, true);
+ *   EventScheduler.Handle<Msg> h = sim.schedule(10, msg);
+ *   sim.reschedule(h, 5);   // earlier: one decreaseKey
+ *   sim.cancel(h);          // Heap.delete, the event is really removed
+ *   sim.run((s, time, event) -> ..., Long.MAX_VALUE);
+ *
+ * Timestamps and the int keys of the Heap:
+ *  keys are time - epoch. Events further than Integer.MAX_VALUE - 1 ticks past
+ *  the epoch wait in an overflow list; when the heap runs empty the epoch jumps
+ *  to the earliest overflow event and the overflow events within the new
+ *  range move into the heap. Every heap event is earlier than every overflow
+ *  event, so the order stays exact.
+ *
+ * Ties: all events of the minimal timestamp are extracted as one batch
+ * (repeated deleteMin while the min key is unchanged) and sorted by sequence
+ * number before dispatch. Events scheduled at the current time while a batch
+ * is dispatched get larger sequence numbers and form the next batch.
+ *
+ * Every pending event owns a slot with one HeapItem; slots, items and heap nodes
+ * are recycled, so steady-state scheduling allocates only the Handle.
+ * Not thread safe.
+ */
+public final class EventScheduler<E> {
+
+    /** Receives the events in order; may schedule, reschedule and cancel */
+    public interface EventHandler<E> {
+        void onEvent(EventScheduler<E> scheduler, long time, E event);
+    }
+
+    /** A scheduled event, used to cancel or reschedule it */
+    public static final class Handle<E> {
+        public final E event;
+        long time;
+        long seq;
+        int slot = -1;          // slot while in the heap or the batch, -1 otherwise
+        int farIndex = -1;      // index in the overflow list, -1 otherwise
+        boolean done;           // fired or cancelled
+
+        Handle(E event) {
+            this.event = event;
+        }
+
+        public long time() {
+            return time;
+        }
+
+        /** True until the event fired or was cancelled */
+        public boolean isPending() {
+            return !done;
+        }
+    }
+
+    private static final Comparator<Handle<?>> BY_SEQ = Comparator.comparingLong(h -> h.seq);
+    private static final long HORIZON = Integer.MAX_VALUE - 1L;
+
+    private final Heap heap;
+    private long epoch;
+    private long now;
+    private long nextSeq;
+
+    // Slot i: the item in the heap and the handle it belongs to
+    private Heap.HeapItem[] items = new Heap.HeapItem[64];
+    private Handle<E>[] slotHandles = newHandleArray(64);
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int slotCount;
+
+    private final ArrayList<Handle<E>> far = new ArrayList<>();
+
+    // The batch being dispatched (sorted by seq) and the next position in it
+    private Handle<E>[] batch = newHandleArray(16);
+    private int batchSize;
+    private int batchPos;
+
+    private int pending;
+    public long dispatched;
+    public long batches;
+
+    public EventScheduler(boolean lazyMelds, boolean lazyDecreaseKeys) {
+        this.heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        this.heap.setNodePoolCapacity(Integer.MAX_VALUE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> Handle<E>[] newHandleArray(int n) {
+        return (Handle<E>[]) new Handle<?>[n];
+    }
+
+    /** Current simulation time: the timestamp of the last dispatched event */
+    public long now() {
+        return now;
+    }
+
+    /** Number of pending (scheduled, not fired, not cancelled) events */
+    public int size() {
+        return pending;
+    }
+
+    /** The underlying heap (for its counters; do not modify it) */
+    public Heap heap() {
+        return heap;
+    }
+
+    // Complexity O(1) amortized with lazyMelds (a Heap insert)
+    /** Schedule event at time (>= now()) */
+    public Handle<E> schedule(long time, E event) {
+        if (time < now) {
+            throw new IllegalArgumentException("time " + time + " is before now " + now);
+        }
+        Handle<E> h = new Handle<>(event);
+        h.time = time;
+        h.seq = nextSeq++;
+        pending++;
+        enqueue(h);
+        return h;
+    }
+
+    /** Schedule event delay ticks after now() */
+    public Handle<E> scheduleAfter(long delay, E event) {
+        if (delay < 0 || now + delay < now) {
+            throw new IllegalArgumentException("bad delay " + delay);
+        }
+        return schedule(now + delay, event);
+    }
+
+    // Complexity O(log n) amortized (Heap.delete), O(1) for an overflow or batch event
+    /** Remove a pending event; returns false if it already fired or was cancelled */
+    public boolean cancel(Handle<E> h) {
+        if (h.done) {
+            return false;
+        }
+        h.done = true;
+        pending--;
+        if (h.farIndex >= 0) {
+            removeFar(h);
+        } else if (isInHeap(h)) {
+            heap.delete(items[h.slot]);
+            freeSlot(h.slot);
+        }
+        // else: in the current batch, skipped when its turn comes (its slot is freed then)
+        return true;
+    }
+
+    // Complexity O(1) amortized (decreaseKey) when moved earlier within the heap range,
+    // otherwise a cancel and a schedule
+    /**
+     * Move a pending event to newTime (>= now()). It is ordered as if it had been
+     * scheduled now: it fires after the events already scheduled at newTime.
+     */
+    public void reschedule(Handle<E> h, long newTime) {
+        if (h.done) {
+            throw new IllegalStateException("event already fired or cancelled");
+        }
+        if (newTime < now) {
+            throw new IllegalArgumentException("time " + newTime + " is before now " + now);
+        }
+        h.seq = nextSeq++;
+        if (isInHeap(h) && newTime <= h.time) {
+            Heap.HeapItem item = items[h.slot];
+            int diff = (int) (h.time - newTime);
+            h.time = newTime;
+            if (diff > 0) {
+                heap.decreaseKey(item, diff);
+            }
+            return;
+        }
+        if (h.farIndex >= 0) {
+            removeFar(h);
+        } else if (isInHeap(h)) {
+            heap.delete(items[h.slot]);
+            freeSlot(h.slot);
+        } else {
+            // In the current batch: the batch entry is skipped, enqueue a fresh copy below
+            int slot = h.slot;
+            h.slot = -1;
+            detachFromBatch(h, slot);
+        }
+        h.time = newTime;
+        enqueue(h);
+    }
+
+    // Complexity O(k log k) for a batch of k events, plus k deleteMins
+    /**
+     * Dispatch events in order until none is left or the next one is later than
+     * until. Returns the number of events dispatched.
+     */
+    public long run(EventHandler<E> handler, long until) {
+        long count = 0;
+        while (true) {
+            if (batchPos == batchSize) {
+                if (!nextBatch(until)) {
+                    return count;
+                }
+            }
+            Handle<E> h = batch[batchPos];
+            batch[batchPos++] = null;
+            if (h == null) {
+                continue; // rescheduled away
+            }
+            freeSlot(h.slot);
+            h.slot = -1;
+            if (h.done) {
+                continue; // cancelled while waiting in the batch
+            }
+            h.done = true;
+            pending--;
+            dispatched++;
+            count++;
+            handler.onEvent(this, h.time, h.event);
+        }
+    }
+
+    // ================== Internals ==================
+
+    // Moves all heap events of the earliest timestamp (<= until) into the batch
+    private boolean nextBatch(long until) {
+        batchSize = 0;
+        batchPos = 0;
+        if (heap.findMin() == null && !far.isEmpty()) {
+            // Only when that event is dispatched right away: now must never fall behind the epoch
+            long earliest = Long.MAX_VALUE;
+            for (Handle<E> h : far) {
+                earliest = Math.min(earliest, h.time);
+            }
+            if (earliest > until) {
+                return false;
+            }
+            rebase(earliest);
+        }
+        Heap.HeapItem min = heap.findMin();
+        if (min == null || epoch + min.key > until) {
+            return false;
+        }
+        int key = min.key;
+        now = epoch + key;
+        do {
+            Handle<E> h = slotHandles[(int) min.id];
+            heap.deleteMin();
+            if (batchSize == batch.length) {
+                batch = Arrays.copyOf(batch, 2 * batchSize);
+            }
+            batch[batchSize++] = h;
+            min = heap.findMin();
+        } while (min != null && min.key == key);
+
+        if (batchSize > 1) {
+            Arrays.sort(batch, 0, batchSize, BY_SEQ);
+        }
+        batches++;
+        return true;
+    }
+
+    private void enqueue(Handle<E> h) {
+        if (heap.findMin() == null && batchPos == batchSize && far.isEmpty()) {
+            epoch = now; // nothing depends on the old epoch: keep keys small
+        }
+        long key = h.time - epoch;
+        if (key > HORIZON) {
+            h.farIndex = far.size();
+            far.add(h);
+            return;
+        }
+        int slot = allocSlot(h);
+        Heap.HeapItem item = items[slot];
+        if (item == null) {
+            items[slot] = heap.insert((int) key, null, slot);
+        } else {
+            heap.reinsert(item, (int) key);
+        }
+    }
+
+    // Heap is empty: jump the epoch to the earliest overflow event and pull in what now fits
+    private void rebase(long earliest) {
+        epoch = earliest;
+        ArrayList<Handle<E>> stay = new ArrayList<>();
+        for (Handle<E> h : far) {
+            h.farIndex = -1;
+            if (h.time - epoch > HORIZON) {
+                h.farIndex = stay.size();
+                stay.add(h);
+            } else {
+                enqueue(h);
+            }
+        }
+        far.clear();
+        far.addAll(stay);
+    }
+
+    private void removeFar(Handle<E> h) {
+        int i = h.farIndex;
+        Handle<E> last = far.remove(far.size() - 1);
+        if (last != h) {
+            far.set(i, last);
+            last.farIndex = i;
+        }
+        h.farIndex = -1;
+    }
+
+    private boolean isInHeap(Handle<E> h) {
+        return h.slot >= 0 && items[h.slot].node != null;
+    }
+
+    // The batch keeps the slot until dispatch; drop the entry now instead
+    private void detachFromBatch(Handle<E> h, int slot) {
+        for (int i = batchPos; i < batchSize; i++) {
+            if (batch[i] == h) {
+                batch[i] = null;
+                break;
+            }
+        }
+        freeSlot(slot);
+    }
+
+    private int allocSlot(Handle<E> h) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = slotCount++;
+            if (slot == items.length) {
+                items = Arrays.copyOf(items, 2 * slot);
+                slotHandles = Arrays.copyOf(slotHandles, 2 * slot);
+            }
+        }
+        slotHandles[slot] = h;
+        h.slot = slot;
+        return slot;
+    }
+
+    private void freeSlot(int slot) {
+        if (slot < 0) {
+            return;
+        }
+        slotHandles[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, 2 * freeCount);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+}
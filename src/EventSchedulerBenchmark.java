@@ -0,0 +1,178 @@
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * EventSchedulerBenchmark.java
+ *
+ * Hold-model simulation: PENDING events are kept scheduled; every dispatched
+ * event schedules one new event at now + exponential delay, and with some
+ * probability also cancels (and replaces) or reschedules earlier a random
+ * pending event. Measures events/sec of
+ *  - EventScheduler on each of the 4 heap types (cancel = Heap.delete,
+ *    earlier reschedule = decreaseKey)
+ *  - java.util.PriorityQueue ordered by (time, seq) with cancel-by-tombstone
+ *    (cancelled entries stay in the queue and are skipped when polled;
+ *    a reschedule is a tombstone plus a new entry)
+ *
+ *   java EventSchedulerBenchmark [pending] [events] [cancelPercent] [reschedulePercent]
+ *
+ * Both sides consume the same random stream, so they perform the same
+ * operations; the dispatch order checksum must match.
+ */
+public class EventSchedulerBenchmark {
+
+    private static final int DEFAULT_PENDING = 1_000_000;
+    private static final long DEFAULT_EVENTS = 5_000_000;
+    private static final int DEFAULT_CANCEL_PERCENT = 30;
+    private static final int DEFAULT_RESCHEDULE_PERCENT = 20;
+    private static final double MEAN_DELAY = 1000;
+    private static final long SEED = 20260115L;
+
+    public static void main(String[] args) {
+        int pending = DEFAULT_PENDING;
+        long events = DEFAULT_EVENTS;
+        int cancelPercent = DEFAULT_CANCEL_PERCENT;
+        int reschedulePercent = DEFAULT_RESCHEDULE_PERCENT;
+        if (args.length >= 1) pending = Integer.parseInt(args[0]);
+        if (args.length >= 2) events = Long.parseLong(args[1]);
+        if (args.length >= 3) cancelPercent = Integer.parseInt(args[2]);
+        if (args.length >= 4) reschedulePercent = Integer.parseInt(args[3]);
+
+        System.out.println("pending=" + pending + ", events=" + events + ", cancel=" + cancelPercent
+                + "%, reschedule=" + reschedulePercent + "%");
+
+        // Warm-up on a small run, then measure
+        runPriorityQueue(pending / 10 + 1, events / 10 + 1, cancelPercent, reschedulePercent);
+        long[] pq = runPriorityQueue(pending, events, cancelPercent, reschedulePercent);
+        System.out.printf("%-20s -> eventsPerSec=%.0f | dispatched=%d | tombstonesPolled=%d%n",
+                "PriorityQueue", pq[0] * 1e9 / pq[1], pq[0], pq[3]);
+
+        for (HeapType type : HeapType.values()) {
+            runScheduler(type, pending / 10 + 1, events / 10 + 1, cancelPercent, reschedulePercent);
+            long[] r = runScheduler(type, pending, events, cancelPercent, reschedulePercent);
+            if (r[2] != pq[2]) {
+                throw new IllegalStateException(type + " dispatched in a different order than PriorityQueue");
+            }
+            System.out.printf("%-20s -> eventsPerSec=%.0f | dispatched=%d | batches=%d | speedup=%.2f%n",
+                    type.name(), r[0] * 1e9 / r[1], r[0], r[3], (double) pq[1] / r[1]);
+        }
+    }
+
+    /** Returns {dispatched, nanos, order checksum, batches} */
+    private static long[] runScheduler(HeapType type, int pending, long events, int cancelPercent, int reschedulePercent) {
+        EventScheduler<Long> sim = new EventScheduler<>(type.lazyMelds, type.lazyDecreaseKeys);
+        SplittableRandom rnd = new SplittableRandom(SEED);
+        @SuppressWarnings("unchecked")
+        EventScheduler.Handle<Long>[] recent = (EventScheduler.Handle<Long>[]) new EventScheduler.Handle<?>[pending];
+        long[] next = {0};   // id of the next event
+        long[] checksum = {0};
+
+        for (int i = 0; i < pending; i++) {
+            recent[i] = sim.schedule(delay(rnd), next[0]++);
+        }
+
+        long t0 = System.nanoTime();
+        sim.run((s, time, id) -> {
+            checksum[0] = checksum[0] * 31 + id;
+            if (next[0] >= events) {
+                return; // drain
+            }
+            int slot = (int) (id % pending);
+            recent[slot] = s.schedule(time + delay(rnd), next[0]++);
+
+            int roll = rnd.nextInt(100);
+            int v = rnd.nextInt(pending);
+            EventScheduler.Handle<Long> victim = recent[v];
+            if (roll < cancelPercent) {
+                if (victim.isPending()) {
+                    s.cancel(victim);
+                    recent[v] = s.schedule(time + delay(rnd), next[0]++);
+                }
+            } else if (roll < cancelPercent + reschedulePercent) {
+                if (victim.isPending() && victim.time() > time) {
+                    s.reschedule(victim, time + (victim.time() - time) / 2);
+                }
+            }
+        }, Long.MAX_VALUE);
+        long nanos = System.nanoTime() - t0;
+        return new long[]{sim.dispatched, nanos, checksum[0], sim.batches};
+    }
+
+    /** PriorityQueue entry; cancelled entries are tombstones */
+    private static final class PqEvent {
+        final long time;
+        final long seq;
+        final long id;
+        boolean cancelled;
+        boolean fired;
+
+        PqEvent(long time, long seq, long id) {
+            this.time = time;
+            this.seq = seq;
+            this.id = id;
+        }
+    }
+
+    /** Returns {dispatched, nanos, order checksum, tombstones polled} */
+    private static long[] runPriorityQueue(int pending, long events, int cancelPercent, int reschedulePercent) {
+        PriorityQueue<PqEvent> pq = new PriorityQueue<>(pending,
+                (a, b) -> a.time != b.time ? Long.compare(a.time, b.time) : Long.compare(a.seq, b.seq));
+        SplittableRandom rnd = new SplittableRandom(SEED);
+        PqEvent[] recent = new PqEvent[pending];
+        long next = 0;
+        long seq = 0;
+        long checksum = 0;
+        long dispatched = 0;
+        long tombstones = 0;
+
+        for (int i = 0; i < pending; i++) {
+            recent[i] = new PqEvent(delay(rnd), seq++, next++);
+            pq.add(recent[i]);
+        }
+
+        long t0 = System.nanoTime();
+        PqEvent e;
+        while ((e = pq.poll()) != null) {
+            if (e.cancelled) {
+                tombstones++;
+                continue;
+            }
+            e.fired = true;
+            dispatched++;
+            long time = e.time;
+            checksum = checksum * 31 + e.id;
+            if (next >= events) {
+                continue;
+            }
+            int slot = (int) (e.id % pending);
+            recent[slot] = new PqEvent(time + delay(rnd), seq++, next++);
+            pq.add(recent[slot]);
+
+            int roll = rnd.nextInt(100);
+            int v = rnd.nextInt(pending);
+            PqEvent victim = recent[v];
+            boolean live = !victim.cancelled && !victim.fired;
+            if (roll < cancelPercent) {
+                if (live) {
+                    victim.cancelled = true;
+                    PqEvent replacement = new PqEvent(time + delay(rnd), seq++, next++);
+                    recent[v] = replacement;
+                    pq.add(replacement);
+                }
+            } else if (roll < cancelPercent + reschedulePercent) {
+                if (live && victim.time > time) {
+                    victim.cancelled = true;
+                    PqEvent moved = new PqEvent(time + (victim.time - time) / 2, seq++, victim.id);
+                    recent[v] = moved;
+                    pq.add(moved);
+                }
+            }
+        }
+        long nanos = System.nanoTime() - t0;
+        return new long[]{dispatched, nanos, checksum, tombstones};
+    }
+
+    private static long delay(SplittableRandom rnd) {
+        return 1 + (long) (-MEAN_DELAY * Math.log(1 - rnd.nextDouble()));
+    }
+}
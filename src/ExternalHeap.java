@@ -0,0 +1,410 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * ExternalHeap
+ *
+ * Min priority queue of (int key, long id) records whose memory use is bounded:
+ * what does not fit spills to sorted run files in dir.
+ *
+ *   try (ExternalHeap q = new ExternalHeap(64 << 20, dir, true, true)) {
+ *       q.insert(key, id);
+ *       while (!q.isEmpty()) { use(q.minKey(), q.minId()); q.deleteMin(); }
+ *   }
+ *
+ * Layout:
+ *  - memory: a Heap with at most heapCapacity() records, all with keys < boundary
+ *  - staging: an unsorted buffer for inserted keys >= boundary; when full it is
+ *    sorted and written as a run
+ *  - runs: sorted files of 12-byte records (key, id), read sequentially through
+ *    memory-mapped windows; their current records form a k-way merge in a
+ *    second, small Heap keyed by each run's head key
+ *
+ * Inserting into a full memory heap splits it: the heap is drained in order,
+ * the smaller half goes back, the larger half becomes a run and boundary drops
+ * to its first key. A split moves heapCapacity / 2 records, so it costs
+ * O(log n) amortized per insert.
+ *
+ * Runs are merged back lazily: deleteMin takes the smaller of the memory minimum
+ * and the smallest run head, and reads on in that run only when its head is the
+ * global minimum. Staging is flushed when its minimum is the global minimum.
+ * Results are exact: the same sequence of minima as an unbounded heap (equal
+ * keys may come out in a different order). With more than maxRuns runs they
+ * are compacted into one.
+ *
+ * The budget covers the Heap nodes and items (HeapFootprint sizes), the split
+ * and staging buffers; mapped windows live in the OS page cache. No decreaseKey:
+ * a spilled record has no handle. Not thread safe.
+ */
+public final class ExternalHeap implements AutoCloseable {
+
+    public static final int RECORD_BYTES = 12;
+    private static final int NONE = 0;
+    private static final int MEMORY = 1;
+    private static final int RUN = 2;
+
+    private final Path dir;
+    private final int heapCapacity;
+    private final int stagingCapacity;
+    public int windowRecords = 1 << 16;
+    public int maxRuns = 64;
+
+    private final Heap memory;
+    private final Heap.HeapItem[] drained;   // split scratch
+    private int boundary = Integer.MAX_VALUE;
+
+    private final int[] stagingKeys;
+    private final long[] stagingIds;
+    private final long[] stagingOrder;       // sort scratch: key << 32 | index
+    private int stagingSize;
+    private int stagingMin = Integer.MAX_VALUE;
+
+    private final Heap runHeap;
+    private final ArrayList<SpillReader> runs = new ArrayList<>();   // indexed by runHeap item id, null when done
+    private final ArrayList<Heap.HeapItem> runItems = new ArrayList<>();
+    private int activeRuns;
+
+    private long size;
+    public long splits;
+    public long spilledRecords;   // Records written to runs (again when compacted)
+    public long runsWritten;
+    public long compactions;
+
+    public ExternalHeap(long memoryBytes, Path dir, boolean lazyMelds, boolean lazyDecreaseKeys) {
+        long perHeapRecord = HeapFootprint.NODE_BYTES + HeapFootprint.ITEM_BYTES + HeapFootprint.REFERENCE_BYTES;
+        long perStagingRecord = 4 + 8 + 8;
+        long heapCapacity = memoryBytes * 3 / 4 / perHeapRecord;
+        long stagingCapacity = memoryBytes / 4 / perStagingRecord;
+        if (heapCapacity < 2 || stagingCapacity < 1) {
+            throw new IllegalArgumentException("memory budget too small: " + memoryBytes + " bytes");
+        }
+        this.dir = dir;
+        this.heapCapacity = (int) Math.min(heapCapacity, Integer.MAX_VALUE - 8);
+        this.stagingCapacity = (int) Math.min(stagingCapacity, Integer.MAX_VALUE - 8);
+        this.memory = new Heap(lazyMelds, lazyDecreaseKeys);
+        this.memory.setNodePoolCapacity(this.heapCapacity);   // nodes in the heap + spare <= heapCapacity
+        this.drained = new Heap.HeapItem[this.heapCapacity];
+        this.stagingKeys = new int[this.stagingCapacity];
+        this.stagingIds = new long[this.stagingCapacity];
+        this.stagingOrder = new long[this.stagingCapacity];
+        this.runHeap = new Heap(true, false);
+    }
+
+    /** Records held by the memory heap at most */
+    public int heapCapacity() {
+        return heapCapacity;
+    }
+
+    /** Number of records */
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Records in the memory heap */
+    public int inMemory() {
+        return memory.size();
+    }
+
+    /** Run files not fully read yet */
+    public int runCount() {
+        return activeRuns;
+    }
+
+    // Complexity O(1) amortized with lazyMelds below boundary (plus O(log n) amortized for splits),
+    // O(1) amortized into staging (plus O(log s) per record when a staging buffer of s is flushed)
+    public void insert(int key, long id) throws IOException {
+        size++;
+        if (key < boundary) {
+            if (memory.size() == heapCapacity) {
+                split();
+            }
+            if (key < boundary) {
+                memory.insert(key, null, id);
+                return;
+            }
+        }
+        if (stagingSize == stagingCapacity) {
+            flushStaging();
+        }
+        stagingKeys[stagingSize] = key;
+        stagingIds[stagingSize++] = id;
+        stagingMin = Math.min(stagingMin, key);
+    }
+
+    /** Smallest key; throws IllegalStateException when empty */
+    public int minKey() throws IOException {
+        switch (locateMin()) {
+            case MEMORY: return memory.findMin().key;
+            case RUN: return runHeap.findMin().key;
+            default: throw new IllegalStateException("empty");
+        }
+    }
+
+    /** Id of the record with the smallest key; throws IllegalStateException when empty */
+    public long minId() throws IOException {
+        switch (locateMin()) {
+            case MEMORY: return memory.findMin().id;
+            case RUN: return runs.get((int) runHeap.findMin().id).headId;
+            default: throw new IllegalStateException("empty");
+        }
+    }
+
+    // Complexity O(log n) amortized (a deleteMin on the memory heap or the run heap)
+    /** Removes the record with the smallest key; no-op when empty */
+    public void deleteMin() throws IOException {
+        switch (locateMin()) {
+            case MEMORY:
+                memory.deleteMin();
+                size--;
+                break;
+            case RUN:
+                Heap.HeapItem item = runHeap.findMin();
+                runHeap.deleteMin();
+                advanceRun((int) item.id);
+                size--;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Deletes all run files */
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < runs.size(); i++) {
+            SpillReader r = runs.get(i);
+            if (r != null) {
+                r.closeAndDelete();
+                runs.set(i, null);
+            }
+        }
+        activeRuns = 0;
+        runHeap.clear();
+    }
+
+    // ================== Internals ==================
+
+    // Where the minimum is; staging is flushed first if it holds it
+    private int locateMin() throws IOException {
+        Heap.HeapItem m = memory.findMin();
+        Heap.HeapItem r = runHeap.findMin();
+        long best = Math.min(m == null ? Long.MAX_VALUE : m.key, r == null ? Long.MAX_VALUE : r.key);
+        if (stagingSize > 0 && stagingMin < best) {
+            flushStaging();
+            r = runHeap.findMin();
+        }
+        if (r != null && (m == null || r.key < m.key)) {
+            return RUN;
+        }
+        return m == null ? NONE : MEMORY;
+    }
+
+    // Complexity O(c log c) for capacity c: keep the smaller half, spill the larger one
+    private void split() throws IOException {
+        int n = memory.size();
+        for (int i = 0; i < n; i++) {
+            drained[i] = memory.findMin();
+            memory.deleteMin();
+        }
+        int keep = n / 2;
+        boundary = drained[keep].key;
+        try (SpillWriter w = new SpillWriter(newRunFile(), windowRecords)) {
+            for (int i = keep; i < n; i++) {
+                w.write(drained[i].key, drained[i].id);
+                drained[i] = null;
+            }
+            addRun(w);
+        }
+        for (int i = 0; i < keep; i++) {
+            memory.reinsert(drained[i], drained[i].key);
+            drained[i] = null;
+        }
+        splits++;
+    }
+
+    // Staging keys are all >= boundary; once written, nothing constrains the memory heap any more
+    private void flushStaging() throws IOException {
+        for (int i = 0; i < stagingSize; i++) {
+            stagingOrder[i] = ((long) stagingKeys[i] << 32) | i;
+        }
+        Arrays.sort(stagingOrder, 0, stagingSize);
+        try (SpillWriter w = new SpillWriter(newRunFile(), windowRecords)) {
+            for (int i = 0; i < stagingSize; i++) {
+                int j = (int) stagingOrder[i];
+                w.write(stagingKeys[j], stagingIds[j]);
+            }
+            addRun(w);
+        }
+        stagingSize = 0;
+        stagingMin = Integer.MAX_VALUE;
+        boundary = Integer.MAX_VALUE;
+    }
+
+    private Path newRunFile() throws IOException {
+        return Files.createTempFile(dir, "spill", ".run");
+    }
+
+    // Opens a finished run and enters its first record into the run heap
+    private void addRun(SpillWriter w) throws IOException {
+        w.finish();
+        spilledRecords += w.written;
+        runsWritten++;
+        SpillReader r = new SpillReader(w.file, windowRecords);
+        int index = runs.indexOf(null);
+        if (index < 0) {
+            index = runs.size();
+            runs.add(null);
+            runItems.add(null);
+        }
+        runs.set(index, r);
+        activeRuns++;
+        if (!r.advance()) {
+            finishRun(index);
+            return;
+        }
+        Heap.HeapItem item = runItems.get(index);
+        if (item == null) {
+            runItems.set(index, runHeap.insert(r.headKey, null, index));
+        } else {
+            runHeap.reinsert(item, r.headKey);
+        }
+        if (activeRuns > maxRuns) {
+            compact();
+        }
+    }
+
+    // The head of run index was consumed (it is no longer in the run heap)
+    private void advanceRun(int index) throws IOException {
+        SpillReader r = runs.get(index);
+        if (r.advance()) {
+            runHeap.reinsert(runItems.get(index), r.headKey);
+        } else {
+            finishRun(index);
+        }
+    }
+
+    private void finishRun(int index) throws IOException {
+        runs.get(index).closeAndDelete();
+        runs.set(index, null);
+        activeRuns--;
+    }
+
+    // Complexity O(r log k) for r records in k runs: merge all runs into one
+    private void compact() throws IOException {
+        try (SpillWriter w = new SpillWriter(newRunFile(), windowRecords)) {
+            Heap.HeapItem min;
+            while ((min = runHeap.findMin()) != null) {
+                int index = (int) min.id;
+                SpillReader r = runs.get(index);
+                w.write(r.headKey, r.headId);
+                runHeap.deleteMin();
+                advanceRun(index);
+            }
+            compactions++;
+            addRun(w);
+        }
+    }
+
+    // ================== Run files ==================
+
+    /** Reads (key, id) records through consecutive mapped windows */
+    private static final class SpillReader {
+        final Path file;
+        private final FileChannel channel;
+        private final long size;
+        private final long windowBytes;
+        private long position;      // file offset after the window
+        private MappedByteBuffer window;
+        int headKey;
+        long headId;
+
+        SpillReader(Path file, int windowRecords) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.size = channel.size();
+            this.windowBytes = (long) windowRecords * RECORD_BYTES;
+        }
+
+        boolean advance() throws IOException {
+            if (window == null || !window.hasRemaining()) {
+                if (position >= size) {
+                    return false;
+                }
+                long len = Math.min(windowBytes, size - position);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, len);
+                window.order(ByteOrder.LITTLE_ENDIAN);
+                position += len;
+            }
+            headKey = window.getInt();
+            headId = window.getLong();
+            return true;
+        }
+
+        void closeAndDelete() throws IOException {
+            window = null;
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** Writes (key, id) records through consecutive mapped windows */
+    private static final class SpillWriter implements AutoCloseable {
+        final Path file;
+        private final FileChannel channel;
+        private final long windowBytes;
+        private long position;      // file offset of the window
+        private MappedByteBuffer window;
+        long written;
+        private boolean finished;
+
+        SpillWriter(Path file, int windowRecords) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.windowBytes = (long) windowRecords * RECORD_BYTES;
+        }
+
+        void write(int key, long id) throws IOException {
+            if (window == null || !window.hasRemaining()) {
+                if (window != null) {
+                    position += windowBytes;
+                }
+                window = channel.map(FileChannel.MapMode.READ_WRITE, position, windowBytes);
+                window.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            window.putInt(key);
+            window.putLong(id);
+            written++;
+        }
+
+        /** Truncates the file to the records written and closes it */
+        void finish() throws IOException {
+            if (!finished) {
+                finished = true;
+                window = null;
+                channel.truncate(written * RECORD_BYTES);
+                channel.close();
+            }
+        }
+
+        /** Deletes the file unless finish() handed it over */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                finish();
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ExternalSort
+ *
+ * Sorts files of little-endian int32 keys that do not fit in memory:
+ *  1. run formation: the input is read in chunks of memoryBytes, each chunk is
+ *     sorted in memory and written to a run file in tmpDir
+ *  2. k-way merge of the runs with a Heap (one reusable HeapItem per run, key =
+ *     the run's head key); with more than fanIn runs, groups of fanIn runs are
+ *     merged into longer runs first
+ *
+ *   ExternalSort sorter = new ExternalSort(64 << 20, tmpDir);
+ *   long records = sorter.sort(input, output);
+ *
+ * All file access goes through memory-mapped windows of windowBytes, read and
+ * written strictly sequentially.
+ *
+ * Replacing the minimum: a run's next key is never smaller than its current one,
+ * and Heap can only decrease keys, so the minimum is not re-keyed in place.
+ * Instead the run holding the minimum is kept out of the heap and copied while
+ * its head is <= the smallest head in the heap (findMin, O(1)); only when
+ * another run takes over does it go back with one reinsert + deleteMin. Runs with
+ * long stretches of consecutive output (presorted or clustered data) are copied
+ * with no heap work at all.
+ */
+public final class ExternalSort {
+
+    public static final int DEFAULT_WINDOW_BYTES = 8 << 20;
+    public static final int DEFAULT_FAN_IN = 512;
+
+    private final long memoryBytes;
+    private final Path tmpDir;
+    public int windowBytes = DEFAULT_WINDOW_BYTES;
+    public int fanIn = DEFAULT_FAN_IN;
+    public boolean lazyMelds = true;
+    public boolean lazyDecreaseKeys = true;
+
+    // Counters, reset by sort()
+    public long runsCreated;
+    public long mergePasses;   // Passes of sort() over the data after run formation
+    public long runSwitches;   // Times the output switched to another run (one reinsert + deleteMin each)
+
+    public ExternalSort(long memoryBytes, Path tmpDir) {
+        if (memoryBytes < 4 || memoryBytes / 4 > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("memoryBytes out of range: " + memoryBytes);
+        }
+        this.memoryBytes = memoryBytes;
+        this.tmpDir = tmpDir;
+    }
+
+    // Complexity O(n log n) comparisons, O(n * passes) I/O with passes = 1 + ceil(log_fanIn(n / memory)) - 1
+    /** Sorts input into output; returns the number of records */
+    public long sort(Path input, Path output) throws IOException {
+        runsCreated = 0;
+        mergePasses = 0;
+        runSwitches = 0;
+        List<Path> runs = createRuns(input);
+        try {
+            while (runs.size() > fanIn) {
+                List<Path> next = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += fanIn) {
+                    List<Path> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                    Path merged = Files.createTempFile(tmpDir, "merge", ".run");
+                    next.add(merged);
+                    merge(group, merged);
+                    deleteAll(group);
+                }
+                runs = next;
+                mergePasses++;
+            }
+            mergePasses++;
+            return merge(runs, output);
+        } finally {
+            deleteAll(runs);
+        }
+    }
+
+    // Complexity O(n log m) for n records in chunks of m
+    /** Splits input into sorted run files of at most memoryBytes each */
+    public List<Path> createRuns(Path input) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size % 4 != 0) {
+                throw new IllegalArgumentException(input + ": size " + size + " is not a multiple of 4");
+            }
+            int[] chunk = new int[(int) Math.min(memoryBytes / 4, size / 4)];
+            RunReader reader = new RunReader(in, windowBytes);
+            while (reader.remaining() > 0) {
+                int n = (int) Math.min(chunk.length, reader.remaining());
+                reader.read(chunk, n);
+                Arrays.sort(chunk, 0, n);
+                Path run = Files.createTempFile(tmpDir, "run", ".run");
+                runs.add(run);
+                try (RunWriter w = new RunWriter(run, windowBytes)) {
+                    w.write(chunk, n);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteAll(runs);
+            throw e;
+        }
+        runsCreated = runs.size();
+        return runs;
+    }
+
+    // Complexity O(n log k) for n records in k runs, O(n) when the runs do not interleave
+    /** Merges sorted run files into output; returns the number of records */
+    public long merge(List<Path> runs, Path output) throws IOException {
+        int k = runs.size();
+        RunReader[] readers = new RunReader[k];
+        Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        heap.setNodePoolCapacity(k);
+        Heap.HeapItem[] items = new Heap.HeapItem[k];
+        long records = 0;
+        try (RunWriter out = new RunWriter(output, windowBytes)) {
+            for (int r = 0; r < k; r++) {
+                readers[r] = new RunReader(FileChannel.open(runs.get(r), StandardOpenOption.READ), windowBytes);
+                if (readers[r].advance()) {
+                    items[r] = heap.insert(readers[r].head, null, r);
+                }
+            }
+            int current = popMin(heap);
+            while (current >= 0) {
+                RunReader run = readers[current];
+                Heap.HeapItem min = heap.findMin();
+                int bound = min == null ? Integer.MAX_VALUE : min.key;   // null: last run, copy the rest
+                boolean more;
+                do {
+                    out.write(run.head);
+                    records++;
+                    more = run.advance();
+                } while (more && run.head <= bound);
+                if (more) {
+                    heap.reinsert(items[current], run.head);
+                }
+                current = popMin(heap);
+                if (current >= 0) {
+                    runSwitches++;
+                }
+            }
+        } finally {
+            for (RunReader r : readers) {
+                if (r != null) r.close();
+            }
+        }
+        return records;
+    }
+
+    private static int popMin(Heap heap) {
+        Heap.HeapItem min = heap.findMin();
+        if (min == null) {
+            return -1;
+        }
+        heap.deleteMin();
+        return (int) min.id;
+    }
+
+    private static void deleteAll(List<Path> files) throws IOException {
+        for (Path f : files) {
+            Files.deleteIfExists(f);
+        }
+    }
+
+    // ================== Sequential mapped I/O ==================
+
+    /** Reads int32 keys through consecutive mapped windows */
+    static final class RunReader implements AutoCloseable {
+        private final FileChannel channel;
+        private final int windowBytes;
+        private final long size;
+        private long position;      // file offset after the window
+        private IntBuffer window = IntBuffer.allocate(0);
+        int head;                   // the current key, valid after advance() returned true
+
+        RunReader(FileChannel channel, int windowBytes) throws IOException {
+            this.channel = channel;
+            this.windowBytes = windowBytes & ~3;
+            this.size = channel.size() & ~3L;
+        }
+
+        /** Keys not read yet */
+        long remaining() {
+            return (size - position) / 4 + window.remaining();
+        }
+
+        /** Moves to the next key; false at the end of the run */
+        boolean advance() throws IOException {
+            if (!window.hasRemaining() && !nextWindow()) {
+                return false;
+            }
+            head = window.get();
+            return true;
+        }
+
+        /** Reads the next n keys into dst */
+        void read(int[] dst, int n) throws IOException {
+            int done = 0;
+            while (done < n) {
+                if (!window.hasRemaining() && !nextWindow()) {
+                    throw new IOException("run ended after " + done + " of " + n + " keys");
+                }
+                int len = Math.min(n - done, window.remaining());
+                window.get(dst, done, len);
+                done += len;
+            }
+        }
+
+        private boolean nextWindow() throws IOException {
+            if (position >= size) {
+                return false;
+            }
+            long len = Math.min(windowBytes, size - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, len).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            position += len;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /** Writes int32 keys through consecutive mapped windows; truncates to the written size on close */
+    static final class RunWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private final int windowBytes;
+        private long position;      // file offset of the window
+        private IntBuffer window = IntBuffer.allocate(0);
+        private long written;
+
+        RunWriter(Path file, int windowBytes) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.windowBytes = windowBytes & ~3;
+        }
+
+        void write(int key) throws IOException {
+            if (!window.hasRemaining()) {
+                nextWindow();
+            }
+            window.put(key);
+            written++;
+        }
+
+        void write(int[] src, int n) throws IOException {
+            int done = 0;
+            while (done < n) {
+                if (!window.hasRemaining()) {
+                    nextWindow();
+                }
+                int len = Math.min(n - done, window.remaining());
+                window.put(src, done, len);
+                done += len;
+            }
+            written += n;
+        }
+
+        private void nextWindow() throws IOException {
+            position += 4L * window.capacity();
+            window = channel.map(FileChannel.MapMode.READ_WRITE, position, windowBytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.truncate(4 * written);
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * ExternalSortBenchmark.java
+ *
+ * Sorts a generated file of int32 keys with ExternalSort and times the k-way
+ * merge of its runs in GB/s (input bytes per second):
+ *  - ExternalSort.merge on each of the 4 heap types
+ *  - a java.util.PriorityQueue merge over the same mapped run readers
+ *    (poll + offer per record)
+ *
+ *   java ExternalSortBenchmark [megabytes] [memoryMegabytes] [tmpDir]
+ *
+ * Two inputs: uniformly random keys (runs interleave record by record) and
+ * clustered keys (increasing with local noise, so runs take turns in stretches).
+ * Every merge output is compared with the PriorityQueue output. Times are the
+ * fastest of RUNS repetitions, after one warm-up.
+ */
+public class ExternalSortBenchmark {
+
+    private static final int DEFAULT_MEGABYTES = 256;
+    private static final int DEFAULT_MEMORY_MEGABYTES = 8;
+    private static final int RUNS = 3;
+    private static final long SEED = 20260115L;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = DEFAULT_MEGABYTES;
+        int memoryMegabytes = DEFAULT_MEMORY_MEGABYTES;
+        Path tmpDir = Path.of(System.getProperty("java.io.tmpdir"));
+        if (args.length >= 1) megabytes = Integer.parseInt(args[0]);
+        if (args.length >= 2) memoryMegabytes = Integer.parseInt(args[1]);
+        if (args.length >= 3) tmpDir = Path.of(args[2]);
+
+        long records = (long) megabytes << 18;
+        for (String dataset : new String[]{"random", "clustered"}) {
+            Path input = Files.createTempFile(tmpDir, "input", ".bin");
+            try {
+                generate(input, records, dataset.equals("clustered"));
+                benchmark(dataset, input, records, (long) memoryMegabytes << 20, tmpDir);
+            } finally {
+                Files.deleteIfExists(input);
+            }
+        }
+    }
+
+    private static void benchmark(String dataset, Path input, long records, long memoryBytes, Path tmpDir) throws IOException {
+        double gigabytes = 4.0 * records / 1e9;
+        ExternalSort sorter = new ExternalSort(memoryBytes, tmpDir);
+
+        long t0 = System.nanoTime();
+        List<Path> runs = sorter.createRuns(input);
+        double runSeconds = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("%n===== %s: %.2f GB, %d runs =====%n", dataset, gigabytes, runs.size());
+        System.out.printf("%-20s -> GBps=%.3f%n", "run formation", gigabytes / runSeconds);
+
+        Path expected = Files.createTempFile(tmpDir, "expected", ".bin");
+        Path output = Files.createTempFile(tmpDir, "output", ".bin");
+        try {
+            double best = Double.MAX_VALUE;
+            for (int run = 0; run <= RUNS; run++) {
+                long s = System.nanoTime();
+                long n = mergeWithPriorityQueue(runs, expected, sorter.windowBytes);
+                double seconds = (System.nanoTime() - s) / 1e9;
+                if (run > 0) best = Math.min(best, seconds);
+                if (n != records) throw new IllegalStateException("PriorityQueue merge wrote " + n + " records");
+            }
+            double pqSeconds = best;
+            System.out.printf("%-20s -> GBps=%.3f%n", "PriorityQueue", gigabytes / pqSeconds);
+
+            for (HeapType type : HeapType.values()) {
+                sorter.lazyMelds = type.lazyMelds;
+                sorter.lazyDecreaseKeys = type.lazyDecreaseKeys;
+                best = Double.MAX_VALUE;
+                for (int run = 0; run <= RUNS; run++) {
+                    sorter.runSwitches = 0;
+                    long s = System.nanoTime();
+                    sorter.merge(runs, output);
+                    double seconds = (System.nanoTime() - s) / 1e9;
+                    if (run > 0) best = Math.min(best, seconds);
+                }
+                if (Files.mismatch(expected, output) != -1) {
+                    throw new IllegalStateException(type + " merge differs from the PriorityQueue merge");
+                }
+                System.out.printf("%-20s -> GBps=%.3f | speedup=%.2f | heapOpsPerRecord=%.3f%n",
+                        type.name(), gigabytes / best, pqSeconds / best, 2.0 * sorter.runSwitches / records);
+            }
+        } finally {
+            Files.deleteIfExists(expected);
+            Files.deleteIfExists(output);
+            for (Path r : runs) Files.deleteIfExists(r);
+        }
+    }
+
+    /** Run reader with its head, ordered for the PriorityQueue */
+    private static final class Cursor {
+        final ExternalSort.RunReader reader;
+
+        Cursor(ExternalSort.RunReader reader) {
+            this.reader = reader;
+        }
+    }
+
+    private static long mergeWithPriorityQueue(List<Path> runs, Path output, int windowBytes) throws IOException {
+        PriorityQueue<Cursor> pq = new PriorityQueue<>(Math.max(1, runs.size()),
+                (a, b) -> Integer.compare(a.reader.head, b.reader.head));
+        Cursor[] cursors = new Cursor[runs.size()];
+        long records = 0;
+        try (ExternalSort.RunWriter out = new ExternalSort.RunWriter(output, windowBytes)) {
+            for (int r = 0; r < runs.size(); r++) {
+                cursors[r] = new Cursor(new ExternalSort.RunReader(
+                        java.nio.channels.FileChannel.open(runs.get(r), java.nio.file.StandardOpenOption.READ), windowBytes));
+                if (cursors[r].reader.advance()) pq.add(cursors[r]);
+            }
+            Cursor c;
+            while ((c = pq.poll()) != null) {
+                out.write(c.reader.head);
+                records++;
+                if (c.reader.advance()) pq.add(c);
+            }
+        } finally {
+            for (Cursor c : cursors) {
+                if (c != null) c.reader.close();
+            }
+        }
+        return records;
+    }
+
+    private static void generate(Path file, long records, boolean clustered) throws IOException {
+        SplittableRandom rnd = new SplittableRandom(SEED);
+        double step = (double) Integer.MAX_VALUE / records;
+        try (ExternalSort.RunWriter out = new ExternalSort.RunWriter(file, ExternalSort.DEFAULT_WINDOW_BYTES)) {
+            for (long i = 0; i < records; i++) {
+                if (clustered) {
+                    // Increasing with noise of a few thousand positions
+                    long key = (long) (i * step) + rnd.nextInt(4096) * (long) Math.max(1, step);
+                    out.write((int) Math.min(Integer.MAX_VALUE, key));
+                } else {
+                    out.write(rnd.nextInt(Integer.MAX_VALUE));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Random;
+
+/**
+ * ExtractUpToBenchmark.java
+ *
+ * Removing every item due by a threshold from a heap of N items, for each of
+ * the 4 heap types and several fractions of the heap being due:
+ *  - Heap.extractUpTo(threshold, consumer): one pruned walk, one consolidation
+ *  - the loop it replaces: findMin / deleteMin while the min is due
+ *
+ *   java ExtractUpToBenchmark [n]
+ *
+ * Reports the time per extracted item and the links of each approach. Both
+ * must remove the same number of items. Times are the fastest of RUNS
+ * repetitions, after one warm-up.
+ */
+public class ExtractUpToBenchmark {
+
+    private static final int DEFAULT_N = 1_000_000;
+    private static final int RUNS = 3;
+    private static final long SEED = 20260115L;
+    private static final double[] DUE_FRACTIONS = {0.001, 0.01, 0.1, 0.5};
+
+    public static void main(String[] args) {
+        int n = DEFAULT_N;
+        if (args.length >= 1) n = Integer.parseInt(args[0]);
+
+        int[] keys = new int[n];
+        Random rnd = new Random(SEED);
+        for (int i = 0; i < n; i++) {
+            keys[i] = 1 + rnd.nextInt(Integer.MAX_VALUE - 1);
+        }
+
+        System.out.println("n=" + n);
+        for (HeapType type : HeapType.values()) {
+            for (double fraction : DUE_FRACTIONS) {
+                int threshold = (int) (fraction * Integer.MAX_VALUE);
+                double extractBest = Double.MAX_VALUE;
+                double loopBest = Double.MAX_VALUE;
+                long extractLinks = 0;
+                long loopLinks = 0;
+                int due = 0;
+                for (int run = 0; run <= RUNS; run++) {
+                    Heap heap = build(type, keys);
+                    long links = heap.totalLinks();
+                    long t0 = System.nanoTime();
+                    int extracted = heap.extractUpTo(threshold, item -> { });
+                    double seconds = (System.nanoTime() - t0) / 1e9;
+                    extractLinks = heap.totalLinks() - links;
+
+                    heap = build(type, keys);
+                    links = heap.totalLinks();
+                    t0 = System.nanoTime();
+                    int popped = 0;
+                    Heap.HeapItem min;
+                    while ((min = heap.findMin()) != null && min.key <= threshold) {
+                        heap.deleteMin();
+                        popped++;
+                    }
+                    double loopSeconds = (System.nanoTime() - t0) / 1e9;
+                    loopLinks = heap.totalLinks() - links;
+
+                    if (extracted != popped) {
+                        throw new IllegalStateException(type + ": extractUpTo removed " + extracted + ", deleteMin loop " + popped);
+                    }
+                    due = extracted;
+                    if (run > 0) {
+                        extractBest = Math.min(extractBest, seconds);
+                        loopBest = Math.min(loopBest, loopSeconds);
+                    }
+                }
+                System.out.printf("%-20s -> due=%-7d | extractNsPerItem=%.1f | deleteMinLoopNsPerItem=%.1f | speedup=%.2f"
+                                + " | extractLinks=%d | loopLinks=%d%n",
+                        type.name(), due, extractBest * 1e9 / due, loopBest * 1e9 / due, loopBest / extractBest,
+                        extractLinks, loopLinks);
+            }
+        }
+    }
+
+    // Inserted and consolidated once (as a heap in use would be)
+    private static Heap build(HeapType type, int[] keys) {
+        Heap heap = type.newHeap();
+        for (int i = 0; i < keys.length; i++) {
+            heap.insert(keys[i], null, i + 1);
+        }
+        heap.insert(0, null, 0);
+        heap.deleteMin();
+        return heap;
+    }
+}
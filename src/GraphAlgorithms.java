@@ -0,0 +1,185 @@
+import java.util.Arrays;
+
+/**
+ * GraphAlgorithms
+ *
+ * Dijkstra (single source and point-to-point) and Prim on a CsrGraph, driven
+ * by a Heap. Every vertex has at most one HeapItem at a time: it is inserted
+ * when first reached and improved with decreaseKey, never inserted twice.
+ * The vertex of an item is its id (Heap.insert(key, info, id)), so the only
+ * per-vertex state is the handle array.
+ *
+ * The heap is passed in, so the caller chooses the mode and can read its
+ * counters afterwards; it must be empty and is empty again on return (except
+ * after an early exit of shortestPath, which leaves the open vertices in it).
+ *
+ * Heap keys are ints: path lengths (and for Prim, edge weights) must fit in an
+ * int, otherwise an ArithmeticException is thrown.
+ */
+public final class GraphAlgorithms {
+
+    public static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private GraphAlgorithms() {
+    }
+
+    /** Shortest-path tree of one source */
+    public static final class ShortestPaths {
+        public final int source;
+        public final long[] dist;   // UNREACHABLE for vertices not reached
+        public final int[] parent;  // -1 for the source and unreached vertices
+        public long settled;
+        public long decreaseKeys;
+
+        ShortestPaths(int source, int n) {
+            this.source = source;
+            this.dist = new long[n];
+            this.parent = new int[n];
+            Arrays.fill(dist, UNREACHABLE);
+            Arrays.fill(parent, -1);
+        }
+
+        /** Vertices of the path source -> target, empty if target is unreachable */
+        public int[] pathTo(int target) {
+            if (dist[target] == UNREACHABLE) return new int[0];
+            int length = 1;
+            for (int v = target; v != source; v = parent[v]) length++;
+            int[] path = new int[length];
+            for (int v = target, i = length - 1; i >= 0; v = parent[v], i--) path[i] = v;
+            return path;
+        }
+    }
+
+    /** Minimum spanning forest */
+    public static final class SpanningForest {
+        public final int[] parent;  // -1 for the root of every tree
+        public long totalWeight;
+        public int trees;
+        public long decreaseKeys;
+
+        SpanningForest(int n) {
+            this.parent = new int[n];
+            Arrays.fill(parent, -1);
+        }
+    }
+
+    // Complexity O(m + n log n) with lazyDecreaseKeys (Fibonacci), O(m log n) otherwise
+    public static ShortestPaths dijkstra(CsrGraph g, int source, Heap heap) {
+        ShortestPaths sp = new ShortestPaths(source, g.n);
+        run(g, source, -1, heap, sp);
+        return sp;
+    }
+
+    // Complexity as dijkstra, but stops as soon as target is settled
+    /**
+     * Shortest path source -> target: dist[target] (UNREACHABLE if there is
+     * none) and pathTo(target) are exact. Only the vertices closer than target
+     * are settled; dist of the other vertices is an upper bound.
+     */
+    public static ShortestPaths shortestPath(CsrGraph g, int source, int target, Heap heap) {
+        ShortestPaths sp = new ShortestPaths(source, g.n);
+        run(g, source, target, heap, sp);
+        return sp;
+    }
+
+    // Labels of all vertices are final once settled; stops after settling stopAt (if >= 0)
+    private static void run(CsrGraph g, int source, int stopAt, Heap heap, ShortestPaths sp) {
+        checkEmpty(heap);
+        Heap.HeapItem[] handle = new Heap.HeapItem[g.n];
+        boolean[] settled = new boolean[g.n];
+        long[] dist = sp.dist;
+        int[] parent = sp.parent;
+
+        dist[source] = 0;
+        handle[source] = heap.insert(0, null, source);
+
+        while (heap.findMin() != null) {
+            Heap.HeapItem min = heap.findMin();
+            int u = (int) min.id;
+            heap.deleteMin();
+            settled[u] = true;
+            handle[u] = null;
+            sp.settled++;
+            if (u == stopAt) {
+                return;
+            }
+
+            long du = dist[u];
+            for (int e = g.edgeStart(u), end = g.edgeEnd(u); e < end; e++) {
+                int v = g.target(e);
+                if (settled[v]) continue;
+                long nd = du + g.weight(e);
+                if (nd >= dist[v]) continue;
+                checkKey(nd);
+
+                if (handle[v] == null) {
+                    handle[v] = heap.insert((int) nd, null, v);
+                } else {
+                    heap.decreaseKey(handle[v], (int) (dist[v] - nd));
+                    sp.decreaseKeys++;
+                }
+                dist[v] = nd;
+                parent[v] = u;
+            }
+        }
+    }
+
+    // Complexity O(m + n log n) with lazyDecreaseKeys (Fibonacci), O(m log n) otherwise
+    /**
+     * Prim's minimum spanning forest of an undirected graph (every edge stored
+     * in both directions, as CsrGraph.fromEdges(..., true) does).
+     */
+    public static SpanningForest prim(CsrGraph g, Heap heap) {
+        checkEmpty(heap);
+        SpanningForest forest = new SpanningForest(g.n);
+        Heap.HeapItem[] handle = new Heap.HeapItem[g.n];
+        boolean[] inTree = new boolean[g.n];
+        int[] best = new int[g.n];       // weight of the cheapest known edge into the tree
+        int[] parent = forest.parent;
+
+        for (int root = 0; root < g.n; root++) {
+            if (inTree[root]) continue;
+            forest.trees++;
+            handle[root] = heap.insert(0, null, root);
+            best[root] = 0;
+
+            while (heap.findMin() != null) {
+                Heap.HeapItem min = heap.findMin();
+                int u = (int) min.id;
+                heap.deleteMin();
+                inTree[u] = true;
+                handle[u] = null;
+                forest.totalWeight += best[u];
+
+                for (int e = g.edgeStart(u), end = g.edgeEnd(u); e < end; e++) {
+                    int v = g.target(e);
+                    if (inTree[v]) continue;
+                    int w = g.weight(e);
+                    if (handle[v] == null) {
+                        handle[v] = heap.insert(w, null, v);
+                    } else if (w < best[v]) {
+                        heap.decreaseKey(handle[v], best[v] - w);
+                        forest.decreaseKeys++;
+                    } else {
+                        continue;
+                    }
+                    best[v] = w;
+                    parent[v] = u;
+                }
+            }
+        }
+        return forest;
+    }
+
+    private static void checkEmpty(Heap heap) {
+        if (heap.size() != 0) {
+            throw new IllegalArgumentException("heap must be empty, size=" + heap.size());
+        }
+    }
+
+    private static void checkKey(long key) {
+        if (key > Integer.MAX_VALUE) {
+            throw new ArithmeticException("path length " + key + " does not fit in an int heap key");
+        }
+    }
+}
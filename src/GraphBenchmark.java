@@ -0,0 +1,181 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * GraphBenchmark.java
+ *
+ * Runs GraphAlgorithms on generated graphs with all 4 heap types:
+ *  - grid: side x side road-like grid (small degree, long paths)
+ *  - scale-free: Barabasi-Albert graph (few hubs with huge degree)
+ * and for each graph
+ *  - dijkstra: full single-source shortest paths from SOURCES random sources
+ *  - p2p: shortestPath between QUERIES random pairs (early exit)
+ *  - prim: minimum spanning forest
+ *  - astar: the same pairs as p2p with AStarSearch and a landmark heuristic,
+ *    one engine per heap type reused across all queries; reports the time and
+ *    the bytes allocated per query (0 once the engine is warm)
+ *
+ *   java GraphBenchmark [gridSide] [scaleFreeN] [edgesPerVertex]
+ *
+ * Every heap type sees the same graphs, sources and pairs. The results of the
+ * first heap type are checked against the others (same distances and MST
+ * weight). Times are the fastest of RUNS repetitions, after one warm-up.
+ */
+public class GraphBenchmark {
+
+    private static final int DEFAULT_GRID_SIDE = 1000;
+    private static final int DEFAULT_SCALE_FREE_N = 1_000_000;
+    private static final int DEFAULT_EDGES_PER_VERTEX = 4;
+    private static final int MAX_WEIGHT = 1000;
+    private static final int SOURCES = 3;
+    private static final int QUERIES = 50;
+    private static final int RUNS = 3;
+    private static final int LANDMARKS = 8;
+    private static final long SEED = 20260115L;
+
+    /** Totals of one algorithm over its repetitions' fastest run */
+    private static final class Measure {
+        double timeMs = Double.MAX_VALUE;
+        long links;
+        long cuts;
+        long heapify;
+        long decreaseKeys;
+        long check; // sum of distances / MST weight, compared across heap types
+        long bytesPerQuery = -1;
+
+        String line() {
+            return String.format("timeMs=%.2f | links=%d | cuts=%d | heapifyUp=%d | decreaseKeys=%d",
+                    timeMs, links, cuts, heapify, decreaseKeys);
+        }
+    }
+
+    public static void main(String[] args) {
+        int side = DEFAULT_GRID_SIDE;
+        int scaleFreeN = DEFAULT_SCALE_FREE_N;
+        int edgesPerVertex = DEFAULT_EDGES_PER_VERTEX;
+        if (args.length >= 1) side = Integer.parseInt(args[0]);
+        if (args.length >= 2) scaleFreeN = Integer.parseInt(args[1]);
+        if (args.length >= 3) edgesPerVertex = Integer.parseInt(args[2]);
+
+        CsrGraph grid = CsrGraph.grid(side, side, MAX_WEIGHT, SEED);
+        benchmark("grid " + side + "x" + side, grid);
+
+        CsrGraph scaleFree = CsrGraph.scaleFree(scaleFreeN, edgesPerVertex, MAX_WEIGHT, SEED);
+        benchmark("scale-free n=" + scaleFreeN + " m/v=" + edgesPerVertex, scaleFree);
+    }
+
+    private static void benchmark(String name, CsrGraph g) {
+        System.out.println("\n===== " + name + ": n=" + g.n + ", directed edges=" + g.edgeCount() + " =====");
+
+        Random rnd = new Random(SEED);
+        int[] sources = new int[SOURCES];
+        for (int i = 0; i < SOURCES; i++) sources[i] = rnd.nextInt(g.n);
+        int[] pairs = new int[2 * QUERIES];
+        for (int i = 0; i < pairs.length; i++) pairs[i] = rnd.nextInt(g.n);
+
+        long t0 = System.nanoTime();
+        AStarSearch.Heuristic landmarks = AStarSearch.landmarks(g, LANDMARKS, SEED);
+        System.out.printf("%d landmarks computed in %.2f ms%n", LANDMARKS, (System.nanoTime() - t0) / 1e6);
+
+        String[] algorithms = {"dijkstra", "p2p", "prim", "astar"};
+        long[] expected = new long[algorithms.length];
+        expected[3] = -1;
+        for (HeapType type : HeapType.values()) {
+            System.out.println("--- " + type.name() + " ---");
+            AStarSearch engine = new AStarSearch(g, type.lazyMelds, type.lazyDecreaseKeys);
+            for (int a = 0; a < algorithms.length; a++) {
+                Measure m = null;
+                for (int run = 0; run <= RUNS; run++) {
+                    Measure r = algorithms[a].equals("astar")
+                            ? measureAStar(engine, landmarks, pairs)
+                            : measure(algorithms[a], g, type, sources, pairs);
+                    if (run == 0) continue; // warm-up
+                    if (m == null || r.timeMs < m.timeMs) m = r;
+                }
+                if (algorithms[a].equals("astar") && m.check != expected[1]) {
+                    throw new IllegalStateException("astar with " + type + " disagrees with p2p: "
+                            + m.check + " != " + expected[1]);
+                } else if (type.ordinal() == 0) {
+                    expected[a] = m.check;
+                } else if (m.check != expected[a]) {
+                    throw new IllegalStateException(algorithms[a] + " with " + type + " disagrees with "
+                            + HeapType.values()[0] + ": " + m.check + " != " + expected[a]);
+                }
+                String extra = m.bytesPerQuery < 0 ? "" : String.format(" | usPerQuery=%.1f | bytesPerQuery=%d",
+                        m.timeMs * 1000 / QUERIES, m.bytesPerQuery);
+                System.out.println(String.format("%-8s -> ", algorithms[a]) + m.line() + extra);
+            }
+        }
+    }
+
+    private static Measure measure(String algorithm, CsrGraph g, HeapType type, int[] sources, int[] pairs) {
+        Measure m = new Measure();
+        long t0 = System.nanoTime();
+        switch (algorithm) {
+            case "dijkstra":
+                for (int s : sources) {
+                    Heap heap = type.newHeap();
+                    GraphAlgorithms.ShortestPaths sp = GraphAlgorithms.dijkstra(g, s, heap);
+                    for (long d : sp.dist) if (d != GraphAlgorithms.UNREACHABLE) m.check += d;
+                    m.decreaseKeys += sp.decreaseKeys;
+                    add(m, heap);
+                }
+                break;
+            case "p2p":
+                for (int i = 0; i < pairs.length; i += 2) {
+                    Heap heap = type.newHeap();
+                    GraphAlgorithms.ShortestPaths sp = GraphAlgorithms.shortestPath(g, pairs[i], pairs[i + 1], heap);
+                    long d = sp.dist[pairs[i + 1]];
+                    if (d != GraphAlgorithms.UNREACHABLE) m.check += d;
+                    m.decreaseKeys += sp.decreaseKeys;
+                    add(m, heap);
+                }
+                break;
+            default: {
+                Heap heap = type.newHeap();
+                GraphAlgorithms.SpanningForest f = GraphAlgorithms.prim(g, heap);
+                m.check = f.totalWeight;
+                m.decreaseKeys = f.decreaseKeys;
+                add(m, heap);
+            }
+        }
+        m.timeMs = (System.nanoTime() - t0) / 1_000_000.0;
+        return m;
+    }
+
+    private static Measure measureAStar(AStarSearch engine, AStarSearch.Heuristic h, int[] pairs) {
+        Measure m = new Measure();
+        Heap heap = engine.heap();
+        long links0 = heap.totalLinks();
+        long cuts0 = heap.totalCuts();
+        long heapify0 = heap.totalHeapifyCosts();
+        long bytes0 = allocatedBytes();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < pairs.length; i += 2) {
+            long d = engine.query(pairs[i], pairs[i + 1], h);
+            if (d != AStarSearch.UNREACHABLE) m.check += d;
+            m.decreaseKeys += engine.decreaseKeys;
+        }
+        m.timeMs = (System.nanoTime() - t0) / 1_000_000.0;
+        m.bytesPerQuery = (allocatedBytes() - bytes0) / QUERIES;
+        m.links = heap.totalLinks() - links0;
+        m.cuts = heap.totalCuts() - cuts0;
+        m.heapify = heap.totalHeapifyCosts() - heapify0;
+        return m;
+    }
+
+    // Bytes allocated so far by this thread (HotSpot), 0 if not supported
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void add(Measure m, Heap heap) {
+        m.links += heap.totalLinks();
+        m.cuts += heap.totalCuts();
+        m.heapify += heap.totalHeapifyCosts();
+    }
+}
@@ -11,6 +11,13 @@
  */
 
 import java.lang.Math;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 /**
  * Heap
  *
@@ -29,9 +36,50 @@ public class Heap
     public int numTrees;         // For numTrees()
     public int markedNodes;      // For numMarkedNodes()
 
-    public int linksCount;       // For totalLinks()
-    public int cutsCount;        // For totalCuts()
-    public int heapifyCostCount; // For totalHeapifyCosts()
+    // 64-bit so long-running heaps do not overflow
+    public long linksCount;       // For totalLinks()
+    public long cutsCount;        // For totalCuts()
+    public long heapifyCostCount; // For totalHeapifyCosts()
+    public long deleteMinCount;   // For totalDeleteMins() (calls on this instance, not inherited by meld)
+    public long inheritedLinks;   // Part of linksCount taken over from melded heaps (see HeapMonitor rates)
+    public long inheritedCuts;    // Part of cutsCount taken over from melded heaps
+
+    // Cheap shape statistics maintained on the fly (reset by resetShapePeaks())
+    public int peakNumTrees;           // Longest root list seen
+    public long consolidationsCount;   // Number of successive linking passes
+    public int maxConsolidationRoots;  // Longest root list a single pass had to link
+
+    public long payloadBytes;          // Retained bytes of the info Strings, for footprint()
+
+    private HeapListener listener; // null unless someone listens to structural events
+
+    private HeapOpStats opStats; // null unless per-operation recording is enabled
+
+    // Cost (links + cuts + heapify swaps) of the most expensive single operation
+    public long maxOpCost;       // For maxOpCost()
+    public OpType maxOpCostType; // For maxOpCostType()
+
+    private SlowOpListener slowOpListener; // null unless the slow-operation detector is on
+    private long slowOpCostThreshold;
+    private long slowOpNanosThreshold;     // 0 = no time threshold (no clock reads)
+
+    // Removed nodes kept for reuse by later inserts (linked through next), see setNodePoolCapacity()
+    private HeapNode spareNodes;
+    private int spareNodeCount;
+    private int nodePoolCapacity;
+
+    private HeapNode[] bucketScratch; // Buckets of the sequential successive linking, empty between passes
+
+    private int modCount; // Public modifications, so that ordered iterators fail fast
+
+    private HeapIdIndex idIndex; // null unless enableIdIndex() was called
+
+    // Defaults of setParallelLinking(), overridable with -Dheap.parallelLinkingThreshold / -Dheap.parallelLinkingMinSegment
+    public static final int DEFAULT_PARALLEL_LINKING_THRESHOLD = Integer.getInteger("heap.parallelLinkingThreshold", 100_000);
+    public static final int DEFAULT_PARALLEL_LINKING_MIN_SEGMENT = Integer.getInteger("heap.parallelLinkingMinSegment", 8_192);
+
+    private int parallelLinkingThreshold = DEFAULT_PARALLEL_LINKING_THRESHOLD; // Root lists at least this long go to the ForkJoinPool
+    private int parallelLinkingMinSegment = DEFAULT_PARALLEL_LINKING_MIN_SEGMENT; // Smallest root segment of one linking task
     
     /**
      *
@@ -65,31 +113,133 @@ public class Heap
     // If lazyMelds = true then O(1)
     // If lazyMelds = false then O(log(n)) and Worst Case O(n) (in case almost each node is a singleton-tree)
     public HeapItem insert(int key, String info) 
+    {
+        return insert(key, info, 0);
+    }
+
+    /**
+     *
+     * Insert (key,info) like insert(key, info), storing id in the new item.
+     * id is not interpreted by the heap: it lets callers map an item coming
+     * back from findMin() to their own data (e.g. a vertex number) without a
+     * side table.
+     *
+     */
+
+    // Complexity same as insert(key, info)
+    public HeapItem insert(int key, String info, long id)
+    {
+        if (this.idIndex != null && id != 0 && this.idIndex.get(id) != null) {
+            throw new IllegalArgumentException("id " + id + " is already in the heap");
+        }
+        long startCost = structuralCost();
+        long startNanos = timedOps() ? System.nanoTime() : 0;
+        HeapItem newItem = doInsert(key, info, id);
+        endOp(OpType.INSERT, startCost, startNanos);
+        if (this.listener != null) {
+            this.listener.onInsert(newItem);
+        }
+        return newItem;
+    }
+
+    private HeapItem doInsert(int key, String info, long id)
     {
         //Create the Item first (passing null for node initially to avoid cycle)
         HeapItem newItem = new HeapItem(null, key, info);
+        newItem.id = id;
+        insertItem(newItem);
+        if (this.idIndex != null && id != 0) {
+            this.idIndex.put(newItem);
+        }
+
+        // Return the new item
+        return newItem;
+    }
+
+    /**
+     *
+     * pre: item is not in any heap (item.node == null), e.g. it was removed
+     * by deleteMin() or delete(), or its heap was cleared
+     *
+     * Insert item again with the given key, keeping its info and id.
+     * Together with setNodePoolCapacity() this inserts without allocating.
+     *
+     */
+
+    // Complexity same as insert(key, info)
+    public HeapItem reinsert(HeapItem item, int key)
+    {
+        if (item == null || item.node != null) {
+            throw new IllegalArgumentException("item is still in a heap");
+        }
+        if (this.idIndex != null && item.id != 0 && this.idIndex.get(item.id) != null) {
+            throw new IllegalArgumentException("id " + item.id + " is already in the heap");
+        }
+        long startCost = structuralCost();
+        long startNanos = timedOps() ? System.nanoTime() : 0;
+        item.key = key;
+        insertItem(item);
+        if (this.idIndex != null && item.id != 0) {
+            this.idIndex.put(item);
+        }
+        endOp(OpType.INSERT, startCost, startNanos);
+        if (this.listener != null) {
+            this.listener.onInsert(item);
+        }
+        return item;
+    }
 
-        // Create the Node, linking it to the Item
-        HeapNode newNode = new HeapNode(newItem, null, null, null, null, 0);
+    // Same result as melding a heap holding only item, without creating that heap
+    private void insertItem(HeapItem item)
+    {
+        // Create the Node (or take a spare one), linking it to the Item
+        HeapNode newNode = this.spareNodes;
+        if (newNode != null) {
+            this.spareNodes = newNode.next;
+            this.spareNodeCount--;
+            newNode.item = item;
+        } else {
+            newNode = new HeapNode(item, null, null, null, null, 0);
+        }
 
         // Fix the back-pointer: Item -> Node
-        newItem.node = newNode;
+        item.node = newNode;
 
         // Ensure circular linking: A single node points to itself
         newNode.next = newNode;
         newNode.prev = newNode;
 
-        // Create a temporary heap (a heap with just this one node)
-        Heap singleHeap = new Heap(this.lazyMelds, this.lazyDecreaseKeys);
-        singleHeap.min = newItem;
-        singleHeap.size = 1;      // It has 1 element
-        singleHeap.numTrees = 1;  // It has 1 tree (of rank 0)
+        this.payloadBytes += HeapFootprint.stringBytes(item.info);
+        this.size++;
+
+        if (this.min == null) {
+            this.min = item;
+            this.numTrees = 1;
+            if (this.peakNumTrees < 1) {
+                this.peakNumTrees = 1;
+            }
+            return;
+        }
 
-        // Meld the singleton heap into the current heap ("this")
-        this.meld(singleHeap);
+        // Add the singleton tree as the last root
+        this.numTrees++;
+        if (this.numTrees > this.peakNumTrees) {
+            this.peakNumTrees = this.numTrees;
+        }
+        HeapNode head = this.min.node;
+        HeapNode tail = head.prev;
+        tail.next = newNode;
+        newNode.prev = tail;
+        newNode.next = head;
+        head.prev = newNode;
 
-        // Return the new item
-        return newItem;
+        if (this.lazyMelds) {
+            if (item.key < this.min.key) {
+                this.min = item;
+            }
+        } else {
+            successiveLinking();
+        }
     }
 
 
@@ -105,6 +255,46 @@ public class Heap
         return this.min;
     }
 
+    /**
+     *
+     * Return the k smallest items (fewer if the heap is smaller) in ascending
+     * key order, without removing them: the heap, its shape and its counters
+     * are unchanged. Items with equal keys come in no particular order.
+     *
+     */
+
+    // Complexity: O(T + k * log(n) * log(T + k * log(n))), T = numTrees
+    // (see orderedIterator(); O(k log k)-like on a consolidated heap)
+    public HeapItem[] peekK(int k)
+    {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must be >= 0");
+        }
+        HeapItem[] items = new HeapItem[Math.min(k, this.size)];
+        Iterator<HeapItem> it = orderedIterator();
+        for (int i = 0; i < items.length; i++) {
+            items[i] = it.next();
+        }
+        return items;
+    }
+
+    /**
+     *
+     * Iterate over the items in ascending key order, without removing them.
+     * The forest is explored lazily: a frontier heap starts with the roots and
+     * every item returned adds its children, so taking the first k items costs
+     * O(T + k log n) frontier operations whatever the size of the heap. Any
+     * public modification of the heap (insert, deleteMin, decreaseKey, delete,
+     * meld, extractUpTo, clear) makes next() throw ConcurrentModificationException.
+     *
+     */
+
+    // Complexity: O(T) to start, O(log(n) * log(frontier)) per item
+    public Iterator<HeapItem> orderedIterator()
+    {
+        return new OrderedIterator(this);
+    }
+
     /**
      * 
      * Delete the minimal item.
@@ -114,6 +304,17 @@ public class Heap
     // O(log(n)) amortized
     // Worst Case Complexity: O(n)
     public void deleteMin() {
+        this.deleteMinCount++;
+        if (this.listener != null && this.min != null) {
+            this.listener.onDeleteMin(this.min);
+        }
+        long startCost = structuralCost();
+        long startNanos = timedOps() ? System.nanoTime() : 0;
+        doDeleteMin();
+        endOp(OpType.DELETE_MIN, startCost, startNanos);
+    }
+
+    private void doDeleteMin() {
         if (this.min == null) {
             return;
         }
@@ -179,6 +380,8 @@ public class Heap
 
         // Update Heap State
         this.size--;
+        // The children replace the deleted root, so numTrees is the root count before linking
+        this.numTrees += nodeToDelete.rank - 1;
 
         // Cleanly detach the deleted node to prevent accidental access
         nodeToDelete.prev = null;
@@ -188,7 +391,12 @@ public class Heap
 
         if (nodeToDelete.item != null) {
             nodeToDelete.item.node = null;
+            this.payloadBytes -= HeapFootprint.stringBytes(nodeToDelete.item.info);
+            if (this.idIndex != null && nodeToDelete.item.id != 0) {
+                this.idIndex.remove(nodeToDelete.item.id);
+            }
         }
+        recycle(nodeToDelete);
 
 
         // Consolidate the trees (Successive Linking)
@@ -205,7 +413,18 @@ public class Heap
     // Complexity O(1)
     private void link(HeapNode y, HeapNode x) {
         // For successive linkign only
+        linkNodes(y, x);
+        this.linksCount++;
+
+        if (this.listener != null) {
+            this.listener.onLink(x.item, y.item);
+        }
+    }
 
+
+    // Complexity O(1)
+    // Structural part of link(), without touching the heap counters (safe to run on worker threads)
+    private static void linkNodes(HeapNode y, HeapNode x) {
         // Make y a child of x
         y.parent = x;
 
@@ -225,35 +444,70 @@ public class Heap
             childHead.prev = y;
         }
 
-        // Update Rank and State and linksCount
+        // Update Rank and State
         x.rank++;
         y.mark = false; // Roots lose their mark when becoming children
-        this.linksCount++;
     }
 
 
     // Complexity O(log(n)) amortized
     // Worst Case Complexity: O(n) in case when almost each node is a singleton
     private void successiveLinking() {
-        // Put heap-roots to buckets
-        HeapNode[] buckets = toBuckets();
+        HeapListener listener = this.listener;
+        long linksBefore = this.linksCount;
+        int rootsBefore = this.numTrees;
+        this.consolidationsCount++;
+        if (rootsBefore > this.maxConsolidationRoots) {
+            this.maxConsolidationRoots = rootsBefore;
+        }
+        if (rootsBefore > this.peakNumTrees) {
+            this.peakNumTrees = rootsBefore;
+        }
+        if (listener != null) {
+            listener.onConsolidationStart(rootsBefore);
+        }
+
+        HeapJfrEvents.Consolidation jfrEvent = new HeapJfrEvents.Consolidation();
+        jfrEvent.begin();
+
+        // Put heap-roots to buckets (split between cores for very long root lists).
+        // Link events are delivered on this thread, so a listener keeps the pass sequential.
+        HeapNode[] buckets;
+        int bucketCount = bucketCount();
+        boolean parallel = (rootsBefore >= parallelLinkingThreshold && listener == null);
+        if (parallel) {
+            buckets = toBucketsParallel(bucketCount);
+        } else {
+            buckets = toBuckets(bucketCount);
+        }
 
         // Rebuild the heap from the buckets
         fromBuckets(buckets);
+
+        if (jfrEvent.shouldCommit()) {
+            jfrEvent.rootsBefore = rootsBefore;
+            jfrEvent.rootsAfter = this.numTrees;
+            jfrEvent.links = this.linksCount - linksBefore;
+            jfrEvent.bucketCount = bucketCount; // buckets may be the larger scratch array
+            jfrEvent.parallel = parallel;
+            jfrEvent.commit();
+        }
+
+        if (listener != null) {
+            listener.onConsolidationEnd(this.numTrees, this.linksCount - linksBefore);
+        }
     }
 
 
     // Complexity O(log(n))
     // Worst Case Complexity: O(n)
-    private HeapNode[] toBuckets() {
-        // Initialize buckets
-        // Initially did with the Phi but then changed to *2 for safety
-        int n = Math.max(1, this.size);
-        int log2 = (int) Math.floor(Math.log(n) / Math.log(2));
-        int result_bucket_size = 2 * log2 + 10;
-
-
-        HeapNode[] buckets = new HeapNode[result_bucket_size];
+    private HeapNode[] toBuckets(int bucketCount) {
+        // Reused between passes (fromBuckets() leaves it empty), so consolidating allocates nothing
+        HeapNode[] buckets = this.bucketScratch;
+        if (buckets == null || buckets.length < bucketCount) {
+            buckets = new HeapNode[bucketCount];
+            this.bucketScratch = buckets;
+        }
 
         if (this.min == null) {
             return buckets;
@@ -302,6 +556,132 @@ public class Heap
     }
 
 
+    // Complexity O(1)
+    private int bucketCount() {
+        // Initially did with the Phi but then changed to *2 for safety
+        int n = Math.max(1, this.size);
+        int log2 = (int) Math.floor(Math.log(n) / Math.log(2));
+        return 2 * log2 + 10;
+    }
+
+
+    // Complexity O(n / p + p * log(n)) for p worker threads
+    // Same final set of ranks (and so the same number of links) as toBuckets():
+    // every link turns two trees of rank r into one of rank r+1, so the sum of 2^rank
+    // over the roots never changes and the buckets always end up as its binary digits.
+    private HeapNode[] toBucketsParallel(int bucketCount) {
+        if (this.min == null) {
+            return new HeapNode[bucketCount];
+        }
+
+        // Snapshot the root ring into an array so it can be split into segments
+        HeapNode[] roots = new HeapNode[Math.max(1, this.numTrees)];
+        int count = 0;
+        HeapNode start = this.min.node;
+        HeapNode current = start;
+        do {
+            if (count == roots.length) {
+                roots = Arrays.copyOf(roots, 2 * roots.length);
+            }
+            roots[count++] = current;
+            current = current.next;
+        } while (current != start);
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int segment = Math.max(parallelLinkingMinSegment, count / (4 * pool.getParallelism()));
+
+        LinkSegmentTask task = new LinkSegmentTask(roots, 0, count, bucketCount, segment);
+        HeapNode[] buckets = pool.invoke(task);
+
+        this.linksCount += task.links;
+        return buckets;
+    }
+
+
+    // Complexity O(rank) amortized
+    // Drops a single tree into the buckets, linking equal ranks upwards. Returns the number of links.
+    private static int addToBuckets(HeapNode[] buckets, HeapNode x) {
+        int links = 0;
+        int r = x.rank;
+
+        while (buckets[r] != null) {
+            HeapNode y = buckets[r];
+
+            if (x.item.key > y.item.key) {
+                HeapNode temp = x;
+                x = y;
+                y = temp;
+            }
+
+            linkNodes(y, x);
+            links++;
+            buckets[r] = null;
+            r++;
+        }
+
+        buckets[r] = x;
+        return links;
+    }
+
+
+    /**
+     * Links one segment of the root list into its own bucket array.
+     * Large segments are split in two and the halves' buckets merged afterwards.
+     */
+    private static final class LinkSegmentTask extends RecursiveTask<HeapNode[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final HeapNode[] roots;
+        private final int from;
+        private final int to;
+        private final int bucketCount;
+        private final int segment;
+        long links;
+
+        LinkSegmentTask(HeapNode[] roots, int from, int to, int bucketCount, int segment) {
+            this.roots = roots;
+            this.from = from;
+            this.to = to;
+            this.bucketCount = bucketCount;
+            this.segment = segment;
+        }
+
+        @Override
+        protected HeapNode[] compute() {
+            if (to - from <= segment) {
+                HeapNode[] buckets = new HeapNode[bucketCount];
+                for (int i = from; i < to; i++) {
+                    HeapNode x = roots[i];
+                    roots[i] = null;
+
+                    // Isolate the root so it can be linked cleanly
+                    x.next = x;
+                    x.prev = x;
+
+                    links += addToBuckets(buckets, x);
+                }
+                return buckets;
+            }
+
+            int mid = (from + to) >>> 1;
+            LinkSegmentTask left = new LinkSegmentTask(roots, from, mid, bucketCount, segment);
+            LinkSegmentTask right = new LinkSegmentTask(roots, mid, to, bucketCount, segment);
+            left.fork();
+            HeapNode[] rightBuckets = right.compute();
+            HeapNode[] leftBuckets = left.join();
+
+            // Merge like binary addition: the carries are the extra links
+            links = left.links + right.links;
+            for (int r = 0; r < bucketCount; r++) {
+                if (rightBuckets[r] != null) {
+                    links += addToBuckets(leftBuckets, rightBuckets[r]);
+                }
+            }
+            return leftBuckets;
+        }
+    }
+
+
     // Complexity O(log(n)) amortized and worst
 
     private void fromBuckets(HeapNode[] buckets) {
@@ -316,6 +696,7 @@ public class Heap
         for (int i = 0; i < buckets.length; i++) {
             if (buckets[i] != null) {
                 HeapNode node = buckets[i];
+                buckets[i] = null;
                 this.numTrees++; // Count this tree
 
                 if (first == null) {
@@ -360,6 +741,17 @@ public class Heap
     //   - If lazyMelds = false: O(log n) worst case (successive linking after each cut)
     // If lazyDecreaseKeys = false then O(log(n))
     public void decreaseKey(HeapItem x, int diff) 
+    {
+        if (this.listener != null && x != null && x.node != null && diff > 0) {
+            this.listener.onDecreaseKey(x, diff);
+        }
+        long startCost = structuralCost();
+        long startNanos = timedOps() ? System.nanoTime() : 0;
+        doDecreaseKey(x, diff);
+        endOp(OpType.DECREASE_KEY, startCost, startNanos);
+    }
+
+    private void doDecreaseKey(HeapItem x, int diff)
     {
         // Checking the rightness of input
         if(x == null || x.node == null) {
@@ -380,16 +772,26 @@ public class Heap
 
 
         if(this.lazyDecreaseKeys == false) {
+            HeapJfrEvents.HeapifyUp jfrEvent = new HeapJfrEvents.HeapifyUp();
+            jfrEvent.begin();
+            int swaps = 0;
+
             HeapNode node_x = x.node;
             //heapifyUp by values and not nodes(so no million pointers changes needed)
             while(node_x.parent != null && node_x.item.key < node_x.parent.item.key) {
                 swapItems(node_x, node_x.parent);
                 this.heapifyCostCount++;
+                swaps++;
 
                 //x had moved to its parent's node after saw so the node_x has to be updated to a new to x.node
                 node_x = x.node;
             }
 
+            if (swaps > 0 && jfrEvent.shouldCommit()) {
+                jfrEvent.swaps = swaps;
+                jfrEvent.commit();
+            }
+
             if (this.min == null || x.key < this.min.key) {
                 this.min = x;
             }
@@ -406,8 +808,22 @@ public class Heap
 
             //we make a flag if our node's parent is a Root
             boolean parentWasRootBeforeCut = (parentNode.parent == null);
+
+            HeapJfrEvents.CutCascade jfrEvent = new HeapJfrEvents.CutCascade();
+            jfrEvent.begin();
+
             cut(itemNode);
-            cascadingCut(parentNode, parentWasRootBeforeCut);
+            int depth = cascadingCut(parentNode, parentWasRootBeforeCut);
+
+            if (jfrEvent.shouldCommit()) {
+                jfrEvent.depth = depth;
+                jfrEvent.cuts = depth + 1;
+                jfrEvent.commit();
+            }
+
+            if (this.listener != null) {
+                this.listener.onCascadingCut(x, depth);
+            }
         }
 
         if (this.min == null || x.key < this.min.key) {
@@ -478,6 +894,10 @@ public class Heap
         // cut counter update
         this.cutsCount++;
 
+        if (this.listener != null) {
+            this.listener.onCut(cutNode.item);
+        }
+
         // making a singleton circular list
         cutNode.next = cutNode;
         cutNode.prev = cutNode;
@@ -518,6 +938,9 @@ public class Heap
         rootListHead.prev = rootToAdd;
 
         this.numTrees++;
+        if (this.numTrees > this.peakNumTrees) {
+            this.peakNumTrees = this.numTrees;
+        }
 
         if(rootToAdd.item != null && rootToAdd.item.key < this.min.key) {
             this.min = rootToAdd.item;
@@ -528,36 +951,43 @@ public class Heap
 
     // we go all the way up until we see unmarked parent node
     // also if the parent is root then we stop (the flag we created)
+    // returns the depth of the cascade (number of extra cuts)
     // Complexity O(1) (amortized)
     // Worst Case Complexity: O(log(n))
-    private void cascadingCut(HeapNode nodeThatLostChild, boolean wasRootWhenChildWasLost) {
-        if(nodeThatLostChild == null) {
-            return;
-        }
+    private int cascadingCut(HeapNode nodeThatLostChild, boolean wasRootWhenChildWasLost) {
+        int depth = 0;
 
-        //if it was root and lost teh child we stop(roots are not marked/cut)
-        if(wasRootWhenChildWasLost) {
-            // make sure everything is ok
-            if(nodeThatLostChild.mark) {
-                nodeThatLostChild.mark = false;
-                this.markedNodes--;
+        // loop instead of recursion, going up one parent per cut
+        while(nodeThatLostChild != null) {
+
+            //if it was root and lost teh child we stop(roots are not marked/cut)
+            if(wasRootWhenChildWasLost) {
+                // make sure everything is ok
+                if(nodeThatLostChild.mark) {
+                    nodeThatLostChild.mark = false;
+                    this.markedNodes--;
+                }
+                return depth;
             }
-            return;
-        }
 
-        // Node was not a root and was not marked
-        if(nodeThatLostChild.mark == false) {
-            nodeThatLostChild.mark = true;
-            this.markedNodes++;
-            return;
-        }
+            // Node was not a root and was not marked
+            if(nodeThatLostChild.mark == false) {
+                nodeThatLostChild.mark = true;
+                this.markedNodes++;
+                return depth;
+            }
 
-        // Node was already marked then we cut it and continue up
-        HeapNode parentOfNode = nodeThatLostChild.parent;
-        boolean parentWasRootWhenChildWasLost = (parentOfNode != null && parentOfNode.parent == null);
-        cut(nodeThatLostChild); //we cut the node if lost more than one child
-        cascadingCut(parentOfNode, parentWasRootWhenChildWasLost); //recursion going up and doing cascading cuts
+            // Node was already marked then we cut it and continue up
+            HeapNode parentOfNode = nodeThatLostChild.parent;
+            boolean parentWasRootWhenChildWasLost = (parentOfNode != null && parentOfNode.parent == null);
+            cut(nodeThatLostChild); //we cut the node if lost more than one child
+            depth++;
+
+            nodeThatLostChild = parentOfNode;
+            wasRootWhenChildWasLost = parentWasRootWhenChildWasLost;
+        }
 
+        return depth;
     }
 
 
@@ -570,6 +1000,17 @@ public class Heap
     // Complexity: O(log(n)) amortized
     // Worst Case Complexity: O(n)
     public void delete(HeapItem x) 
+    {
+        if (this.listener != null && x != null && x.node != null && this.min != null) {
+            this.listener.onDelete(x);
+        }
+        long startCost = structuralCost();
+        long startNanos = timedOps() ? System.nanoTime() : 0;
+        doDelete(x);
+        endOp(OpType.DELETE, startCost, startNanos);
+    }
+
+    private void doDelete(HeapItem x)
     {
         //I assume that all value in Heaps are positive numbers or == 0 (written in forum)
         if(x == null || this.min == null || x.node == null) {
@@ -578,76 +1019,378 @@ public class Heap
 
 
         if(x == this.min) {
-            this.deleteMin();
+            this.doDeleteMin();
             return;
         }
 
         if(x.key == Integer.MAX_VALUE) {
-            this.decreaseKey(x, Integer.MAX_VALUE);
-            this.decreaseKey(x, 1);
-            this.deleteMin();
+            this.doDecreaseKey(x, Integer.MAX_VALUE);
+            this.doDecreaseKey(x, 1);
+            this.doDeleteMin();
             return;
         }
 
-        this.decreaseKey(x, x.key+1); //now it's negative and it should be the minimum since all non-negative
+        this.doDecreaseKey(x, x.key+1); //now it's negative and it should be the minimum since all non-negative
 
-        this.deleteMin();
+        this.doDeleteMin();
 
     }
 
 
     /**
-     * 
-     * Meld the heap with heap2
-     * pre: heap2.lazyMelds = this.lazyMelds AND heap2.lazyDecreaseKeys = this.lazyDecreaseKeys
+     *
+     * Remove every item with key <= threshold and hand each to consumer (after
+     * the heap is consistent again), in heap order: an item comes before the
+     * items below it, otherwise in no particular order. Return the number of
+     * items removed. A listener sees one onExtractUpTo (by default one onDelete
+     * per item) once all of them are removed and the heap is consistent again
+     * (so a listener that throws leaves a valid heap; the consumer is then not
+     * called).
+     *
+     * The removed nodes form the top of their trees (a parent's key is never
+     * larger than its children's), so a walk from the roots that stops at keys
+     * above threshold finds them all; the children it stops at become roots
+     * and the root list is consolidated once, however many items are removed.
      *
      */
 
-    // If lazyMelds = true then O(1)
-    // If lazyMelds = false then O(log(n)) amortized
-    // Worst Case: O(n)
-    public void meld(Heap heap2)
+    // Complexity: O(T + m + promoted children) plus one successive linking, m = items removed
+    public int extractUpTo(int threshold, Consumer<HeapItem> consumer)
     {
-        // Checking if heap2 is empty or null
-        if (heap2 == null || heap2.min == null) {
-            return;
+        if (this.min == null || this.min.key > threshold) {
+            return 0;
         }
-        // Accumulating history statistics from heap2
-        // The melded heap inherits the history (links, cuts, costs) of the heaps that created it
-        this.linksCount += heap2.linksCount;
-        this.cutsCount += heap2.cutsCount;
-        this.heapifyCostCount += heap2.heapifyCostCount;
+        long startCost = structuralCost();
+        long startNanos = timedOps() ? System.nanoTime() : 0;
+        HeapItem[] removed = doExtractUpTo(threshold);
+        endOp(OpType.EXTRACT_UP_TO, startCost, startNanos);
+        if (this.listener != null) {
+            this.listener.onExtractUpTo(threshold, removed);
+        }
+        for (HeapItem item : removed) {
+            consumer.accept(item);
+        }
+        return removed.length;
+    }
 
-        // Handling the case where the current heap (this) is empty.
-        // We take ownership of heap2's data.
-        if (this.min == null) {
-            this.min = heap2.min;
-            this.size = heap2.size;
-            this.numTrees = heap2.numTrees;
-            this.markedNodes = heap2.markedNodes;
+    private HeapItem[] doExtractUpTo(int threshold)
+    {
+        HeapItem[] removed = new HeapItem[16];
+        int count = 0;
 
-            // Clear heap2 so it is no longer usable (not neccessry)
-            heap2.min = null;
-            heap2.size = 0;
-            heap2.numTrees = 0;
-            heap2.markedNodes = 0;
-            heap2.linksCount = 0;
-            heap2.cutsCount = 0;
-            heap2.heapifyCostCount = 0;
-            return;
+        // Walk the root ring as a list; a removed node's children are spliced in
+        // front of the remaining work, survivors are chained into a new root ring
+        HeapNode node = this.min.node;
+        node.prev.next = null;
+        HeapNode first = null;
+        HeapNode last = null;
+        int roots = 0;
+        while (node != null) {
+            HeapNode next = node.next;
+            if (node.item.key <= threshold) {
+                HeapNode child = node.child;
+                if (child != null) {
+                    child.prev.next = next;
+                    next = child;
+                }
+                HeapItem item = node.item;
+                if (node.mark) {
+                    this.markedNodes--;
+                }
+                node.next = null;
+                node.prev = null;
+                node.child = null;
+                node.parent = null;
+                item.node = null;
+                this.payloadBytes -= HeapFootprint.stringBytes(item.info);
+                if (this.idIndex != null && item.id != 0) {
+                    this.idIndex.remove(item.id);
+                }
+                this.size--;
+                recycle(node);
+                if (count == removed.length) {
+                    removed = Arrays.copyOf(removed, 2 * count);
+                }
+                removed[count++] = item;
+            } else {
+                // A promoted child loses its parent and its mark
+                node.parent = null;
+                if (node.mark) {
+                    node.mark = false;
+                    this.markedNodes--;
+                }
+                if (first == null) {
+                    first = node;
+                } else {
+                    last.next = node;
+                    node.prev = last;
+                }
+                last = node;
+                roots++;
+            }
+            node = next;
         }
-        // Updating current structure counters (size, trees, marks).
-        this.size += heap2.size;
-        this.numTrees += heap2.numTrees;
-        this.markedNodes += heap2.markedNodes;
 
-        // Merging the two circular doubly linked lists
-        HeapNode min1 = this.min.node;       // Head of this list
-        HeapNode tail1 = min1.prev;          // Tail of this list
-        HeapNode min2 = heap2.min.node;      // Head of heap2 list
-        HeapNode tail2 = min2.prev;          // Tail of heap2 list
+        if (first == null) {
+            this.min = null;
+            this.numTrees = 0;
+        } else {
+            first.prev = last;
+            last.next = first;
+            this.min = first.item;
+            this.numTrees = roots;
+            successiveLinking();
+        }
+        return count == removed.length ? removed : Arrays.copyOf(removed, count);
+    }
 
-        tail1.next = min2;
+    /**
+     *
+     * Keep an index from ids to items, so that items can be found by the id
+     * given to insert(key, info, id) without a side table: see findById(),
+     * contains(), decreaseKeyById() and deleteById(). The index is built from
+     * the current items and then maintained by every insert and removal; a
+     * meld indexes the items of heap2. Items with id 0 are not indexed. While
+     * the index is on, an id already in the heap is rejected by insert,
+     * reinsert and meld (IllegalArgumentException), and a meld costs O(size
+     * of heap2) for indexing.
+     *
+     */
+
+    // Complexity O(n) to build, then O(1) expected per insert and removal
+    public void enableIdIndex()
+    {
+        if (this.idIndex != null) {
+            return;
+        }
+        HeapIdIndex index = new HeapIdIndex(this.size);
+        for (HeapItem item : collectItems()) {
+            if (item.id != 0 && !index.put(item)) {
+                throw new IllegalArgumentException("id " + item.id + " is in the heap twice");
+            }
+        }
+        this.idIndex = index;
+    }
+
+    // Complexity O(1)
+    public void disableIdIndex()
+    {
+        this.idIndex = null;
+    }
+
+    // Complexity O(1)
+    public boolean hasIdIndex()
+    {
+        return this.idIndex != null;
+    }
+
+    /**
+     *
+     * pre: enableIdIndex() was called
+     *
+     * Return the item with this id, null if none is in the heap.
+     *
+     */
+
+    // Complexity O(1) expected
+    public HeapItem findById(long id)
+    {
+        if (this.idIndex == null) {
+            throw new IllegalStateException("id index not enabled");
+        }
+        return this.idIndex.get(id);
+    }
+
+    // Complexity O(1) expected
+    public boolean contains(long id)
+    {
+        return findById(id) != null;
+    }
+
+    /**
+     *
+     * pre: enableIdIndex() was called
+     *
+     * decreaseKey() on the item with this id; false if there is none.
+     *
+     */
+
+    // Complexity same as decreaseKey(), plus O(1) expected
+    public boolean decreaseKeyById(long id, int diff)
+    {
+        HeapItem item = findById(id);
+        if (item == null) {
+            return false;
+        }
+        decreaseKey(item, diff);
+        return true;
+    }
+
+    /**
+     *
+     * pre: enableIdIndex() was called
+     *
+     * delete() the item with this id; false if there is none.
+     *
+     */
+
+    // Complexity same as delete(), plus O(1) expected
+    public boolean deleteById(long id)
+    {
+        HeapItem item = findById(id);
+        if (item == null) {
+            return false;
+        }
+        delete(item);
+        return true;
+    }
+
+    // Complexity O(1) expected
+    // Indexes an id given to an item after it entered this heap (or while it is melded in), e.g. by HeapWal
+    void indexAssignedId(HeapItem item)
+    {
+        if (this.idIndex != null && item.id != 0) {
+            this.idIndex.put(item);
+        }
+    }
+
+    // Complexity O(size of heap2)
+    // Adds heap2's items to the index before the meld; nothing changes if an id is taken
+    private void indexMelded(Heap heap2)
+    {
+        HeapItem[] items = heap2.collectItems();
+        for (int i = 0; i < items.length; i++) {
+            HeapItem item = items[i];
+            if (item.id != 0 && !this.idIndex.put(item)) {
+                for (int j = 0; j < i; j++) {
+                    if (items[j].id != 0) {
+                        this.idIndex.remove(items[j].id);
+                    }
+                }
+                throw new IllegalArgumentException("id " + item.id + " is in both heaps");
+            }
+        }
+    }
+
+    // Complexity O(n)
+    // Every item, in no particular order (explicit stack instead of recursion)
+    private HeapItem[] collectItems()
+    {
+        HeapItem[] items = new HeapItem[this.size];
+        if (this.min == null) {
+            return items;
+        }
+        int count = 0;
+        HeapNode[] stack = new HeapNode[16];
+        int top = 0;
+        HeapNode root = this.min.node;
+        do {
+            stack[top++] = root;
+            while (top > 0) {
+                HeapNode node = stack[--top];
+                items[count++] = node.item;
+                HeapNode child = node.child;
+                if (child != null) {
+                    do {
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, 2 * top);
+                        }
+                        stack[top++] = child;
+                        child = child.next;
+                    } while (child != node.child);
+                }
+            }
+            root = root.next;
+        } while (root != this.min.node);
+        return items;
+    }
+
+    /**
+     * 
+     * Meld the heap with heap2
+     * pre: heap2.lazyMelds = this.lazyMelds AND heap2.lazyDecreaseKeys = this.lazyDecreaseKeys
+     *
+     */
+
+    // If lazyMelds = true then O(1)
+    // If lazyMelds = false then O(log(n)) amortized
+    // Worst Case: O(n)
+    public void meld(Heap heap2)
+    {
+        if (this.idIndex != null && heap2 != null && heap2.min != null) {
+            indexMelded(heap2);
+        }
+        if (this.listener != null && heap2 != null && heap2.min != null) {
+            this.listener.onMeld(heap2);
+        }
+        // heap2's history is added to our counters, it is not work done by this meld
+        // (an empty heap2 is left alone, history included)
+        long startCost = structuralCost() + (heap2 == null || heap2.min == null ? 0 : heap2.structuralCost());
+        long startNanos = timedOps() ? System.nanoTime() : 0;
+        doMeld(heap2);
+        if (heap2 != null) {
+            heap2.modCount++;
+            if (heap2.idIndex != null) {
+                heap2.idIndex.clear();
+            }
+        }
+        endOp(OpType.MELD, startCost, startNanos);
+    }
+
+    private void doMeld(Heap heap2)
+    {
+        // Checking if heap2 is empty or null
+        if (heap2 == null || heap2.min == null) {
+            return;
+        }
+        // Accumulating history statistics from heap2
+        // The melded heap inherits the history (links, cuts, costs) of the heaps that created it
+        this.linksCount += heap2.linksCount;
+        this.cutsCount += heap2.cutsCount;
+        this.heapifyCostCount += heap2.heapifyCostCount;
+        this.inheritedLinks += heap2.linksCount;
+        this.inheritedCuts += heap2.cutsCount;
+        this.payloadBytes += heap2.payloadBytes;
+
+        // Handling the case where the current heap (this) is empty.
+        // We take ownership of heap2's data.
+        if (this.min == null) {
+            this.min = heap2.min;
+            this.size = heap2.size;
+            this.numTrees = heap2.numTrees;
+            this.markedNodes = heap2.markedNodes;
+            if (this.numTrees > this.peakNumTrees) {
+                this.peakNumTrees = this.numTrees;
+            }
+
+            // Clear heap2 so it is no longer usable (not neccessry)
+            heap2.min = null;
+            heap2.size = 0;
+            heap2.numTrees = 0;
+            heap2.markedNodes = 0;
+            heap2.linksCount = 0;
+            heap2.cutsCount = 0;
+            heap2.heapifyCostCount = 0;
+            heap2.inheritedLinks = 0;
+            heap2.inheritedCuts = 0;
+            heap2.payloadBytes = 0;
+            return;
+        }
+        // Updating current structure counters (size, trees, marks).
+        this.size += heap2.size;
+        this.numTrees += heap2.numTrees;
+        this.markedNodes += heap2.markedNodes;
+        if (this.numTrees > this.peakNumTrees) {
+            this.peakNumTrees = this.numTrees;
+        }
+
+        // Merging the two circular doubly linked lists
+        HeapNode min1 = this.min.node;       // Head of this list
+        HeapNode tail1 = min1.prev;          // Tail of this list
+        HeapNode min2 = heap2.min.node;      // Head of heap2 list
+        HeapNode tail2 = min2.prev;          // Tail of heap2 list
+
+        tail1.next = min2;
         min2.prev = tail1;
         tail2.next = min1;
         min1.prev = tail2;
@@ -672,9 +1415,126 @@ public class Heap
         heap2.linksCount = 0;
         heap2.cutsCount = 0;
         heap2.heapifyCostCount = 0;
+        heap2.inheritedLinks = 0;
+        heap2.inheritedCuts = 0;
+        heap2.payloadBytes = 0;
     }
     
     
+    /**
+     *
+     * Remove all items. Every item is detached (item.node == null), so it can
+     * be reinserted into this or another heap. The counters (links, cuts, ...)
+     * are kept; they describe the history of the heap, not its content.
+     *
+     */
+
+    // Complexity O(n), no allocation
+    public void clear()
+    {
+        this.modCount++;
+        if (this.idIndex != null) {
+            this.idIndex.clear();
+        }
+        if (this.min == null) {
+            return;
+        }
+        if (this.listener != null) {
+            this.listener.onClear();
+        }
+        // Turn the root ring into a singly linked work list and splice every
+        // child ring into it in front of the remaining work: no stack needed
+        HeapNode node = this.min.node;
+        node.prev.next = null;
+        while (node != null) {
+            HeapNode next = node.next;
+            HeapNode child = node.child;
+            if (child != null) {
+                child.prev.next = next;
+                next = child;
+            }
+            if (node.item != null) {
+                node.item.node = null;
+            }
+            node.next = null;
+            node.prev = null;
+            node.child = null;
+            node.parent = null;
+            recycle(node);
+            node = next;
+        }
+        this.min = null;
+        this.size = 0;
+        this.numTrees = 0;
+        this.markedNodes = 0;
+        this.payloadBytes = 0;
+    }
+
+    /**
+     *
+     * Keep up to capacity removed nodes for reuse by later inserts, so a heap
+     * that is filled and emptied repeatedly stops allocating nodes (0 = off,
+     * the default). Reused nodes are reset; a caller must not keep using a
+     * HeapNode after its item was removed.
+     *
+     */
+
+    /**
+     *
+     * Consolidate root lists of at least threshold roots on the common
+     * ForkJoinPool, in segments of at least minSegment roots (this heap only;
+     * Integer.MAX_VALUE turns parallel linking off). The defaults are
+     * DEFAULT_PARALLEL_LINKING_THRESHOLD and DEFAULT_PARALLEL_LINKING_MIN_SEGMENT.
+     *
+     */
+
+    // Complexity O(1)
+    public void setParallelLinking(int threshold, int minSegment)
+    {
+        if (threshold < 1 || minSegment < 1) {
+            throw new IllegalArgumentException("threshold and minSegment must be >= 1");
+        }
+        this.parallelLinkingThreshold = threshold;
+        this.parallelLinkingMinSegment = minSegment;
+    }
+
+    // Complexity O(1), or O(dropped spares) when the capacity shrinks
+    public void setNodePoolCapacity(int capacity)
+    {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be >= 0");
+        }
+        this.nodePoolCapacity = capacity;
+        while (this.spareNodeCount > capacity) {
+            HeapNode spare = this.spareNodes;
+            this.spareNodes = spare.next;
+            spare.next = null;
+            this.spareNodeCount--;
+        }
+    }
+
+    // Complexity O(1)
+    public int spareNodes()
+    {
+        return this.spareNodeCount;
+    }
+
+    // Complexity O(1)
+    // Keeps a detached node (links already cleared) as a spare if the pool has room
+    private void recycle(HeapNode node)
+    {
+        if (this.spareNodeCount >= this.nodePoolCapacity) {
+            return;
+        }
+        node.item = null;
+        node.rank = 0;
+        node.mark = false;
+        node.next = this.spareNodes;
+        this.spareNodes = node;
+        this.spareNodeCount++;
+    }
+
+
     /**
      * 
      * Return the number of elements in the heap
@@ -721,7 +1581,7 @@ public class Heap
      */
 
     // Complexity: O(1)
-    public int totalLinks()
+    public long totalLinks()
     {
         return this.linksCount;
     }
@@ -734,7 +1594,7 @@ public class Heap
      */
 
     // Complexity: O(1)
-    public int totalCuts()
+    public long totalCuts()
     {
         return this.cutsCount;
     }
@@ -747,12 +1607,420 @@ public class Heap
      */
 
     // Complexity: O(1)
-    public int totalHeapifyCosts()
+    public long totalHeapifyCosts()
     {
         return this.heapifyCostCount;
     }
+
+
+    /**
+     *
+     * Return the number of deleteMin calls made on this heap.
+     *
+     */
+
+    // Complexity: O(1)
+    public long totalDeleteMins()
+    {
+        return this.deleteMinCount;
+    }
     
     
+    /**
+     *
+     * Return the retained memory of the heap (nodes, items, payload Strings,
+     * and the heap's own spare nodes, id index, bucket array and op stats),
+     * estimated from the object layout of the running JVM.
+     *
+     */
+
+    // Complexity: O(1)
+    public HeapFootprint footprint()
+    {
+        return new HeapFootprint(this.size, this.payloadBytes, this.spareNodeCount,
+                this.idIndex == null ? 0 : this.idIndex.capacity(),
+                this.bucketScratch == null ? 0 : this.bucketScratch.length,
+                this.opStats != null);
+    }
+
+
+    /**
+     *
+     * Walk the whole forest and return its shape: rank histogram of the roots,
+     * number of nodes and of marked nodes per depth, plus the cheap peaks
+     * maintained on the fly (see peakNumTrees()).
+     *
+     */
+
+    // Complexity: O(n)
+    public HeapShapeStats shapeStats()
+    {
+        int[] rootRanks = new int[bucketCount()];
+        int[] nodesPerDepth = new int[8];
+        int[] markedPerDepth = new int[8];
+
+        if (this.min != null) {
+            // Explicit stack of (node, depth) instead of recursion
+            HeapNode[] stack = new HeapNode[16];
+            int[] depths = new int[16];
+            int top = 0;
+
+            HeapNode root = this.min.node;
+            do {
+                rootRanks[root.rank]++;
+                stack[top] = root;
+                depths[top++] = 0;
+
+                while (top > 0) {
+                    HeapNode node = stack[--top];
+                    int depth = depths[top];
+
+                    if (depth >= nodesPerDepth.length) {
+                        nodesPerDepth = Arrays.copyOf(nodesPerDepth, 2 * nodesPerDepth.length);
+                        markedPerDepth = Arrays.copyOf(markedPerDepth, 2 * markedPerDepth.length);
+                    }
+                    nodesPerDepth[depth]++;
+                    if (node.mark) {
+                        markedPerDepth[depth]++;
+                    }
+
+                    HeapNode child = node.child;
+                    if (child != null) {
+                        do {
+                            if (top == stack.length) {
+                                stack = Arrays.copyOf(stack, 2 * stack.length);
+                                depths = Arrays.copyOf(depths, 2 * depths.length);
+                            }
+                            stack[top] = child;
+                            depths[top++] = depth + 1;
+                            child = child.next;
+                        } while (child != node.child);
+                    }
+                }
+                root = root.next;
+            } while (root != this.min.node);
+        }
+
+        return new HeapShapeStats(this.size, this.numTrees, this.markedNodes, rootRanks,
+                nodesPerDepth, markedPerDepth, this.peakNumTrees,
+                this.consolidationsCount, this.maxConsolidationRoots);
+    }
+
+
+    /**
+     *
+     * Return the longest root list seen since creation or the last resetShapePeaks().
+     *
+     */
+
+    // Complexity: O(1)
+    public int peakNumTrees()
+    {
+        return this.peakNumTrees;
+    }
+
+
+    /**
+     *
+     * Return the longest root list a single consolidation had to link
+     * since creation or the last resetShapePeaks().
+     *
+     */
+
+    // Complexity: O(1)
+    public int maxConsolidationRoots()
+    {
+        return this.maxConsolidationRoots;
+    }
+
+
+    /**
+     *
+     * Restart the on-the-fly shape peaks from the current state.
+     *
+     */
+
+    // Complexity: O(1)
+    public void resetShapePeaks()
+    {
+        this.peakNumTrees = this.numTrees;
+        this.consolidationsCount = 0;
+        this.maxConsolidationRoots = 0;
+    }
+
+
+    /**
+     *
+     * Start recording per-operation latency and structural cost histograms.
+     * Returns the recorder (the existing one if already recording).
+     * Its snapshot/reset methods may be called from any thread.
+     *
+     */
+
+    // Complexity: O(1)
+    public HeapOpStats enableOpStats()
+    {
+        if (this.opStats == null) {
+            this.opStats = new HeapOpStats();
+        }
+        return this.opStats;
+    }
+
+
+    /**
+     *
+     * Stop recording per-operation statistics.
+     *
+     */
+
+    // Complexity: O(1)
+    public void disableOpStats()
+    {
+        this.opStats = null;
+    }
+
+
+    /**
+     *
+     * Return the per-operation recorder, null if recording is disabled.
+     *
+     */
+
+    // Complexity: O(1)
+    public HeapOpStats opStats()
+    {
+        return this.opStats;
+    }
+
+
+    /**
+     *
+     * Install a listener for structural events (links, cuts, cascades,
+     * consolidations, melds), replacing the previous one. null removes it.
+     *
+     */
+
+    // Complexity: O(1)
+    public void setListener(HeapListener listener)
+    {
+        this.listener = listener;
+    }
+
+
+    /**
+     *
+     * Return the installed listener, null if none.
+     *
+     */
+
+    // Complexity: O(1)
+    public HeapListener listener()
+    {
+        return this.listener;
+    }
+
+
+    /**
+     *
+     * Install the slow-operation detector: callback is invoked after every public
+     * operation whose structural cost exceeds costThreshold, or whose wall time
+     * exceeds nanosThreshold (0 disables the time check and its clock reads).
+     * A null callback turns the detector off.
+     *
+     */
+
+    // Complexity: O(1)
+    public void setSlowOpDetector(long costThreshold, long nanosThreshold, SlowOpListener callback)
+    {
+        this.slowOpCostThreshold = costThreshold;
+        this.slowOpNanosThreshold = (callback == null) ? 0 : Math.max(0, nanosThreshold);
+        this.slowOpListener = callback;
+    }
+
+
+    /**
+     *
+     * Return the structural cost (links + cuts + heapify swaps) of the most
+     * expensive single public operation since creation or resetMaxOpCost().
+     *
+     */
+
+    // Complexity: O(1)
+    public long maxOpCost()
+    {
+        return this.maxOpCost;
+    }
+
+
+    /**
+     *
+     * Return the type of the operation that set maxOpCost(), null if none yet.
+     *
+     */
+
+    // Complexity: O(1)
+    public OpType maxOpCostType()
+    {
+        return this.maxOpCostType;
+    }
+
+
+    // Complexity: O(1)
+    public void resetMaxOpCost()
+    {
+        this.maxOpCost = 0;
+        this.maxOpCostType = null;
+    }
+
+
+    // Complexity: O(1)
+    // Whether the public operations need wall time
+    private boolean timedOps()
+    {
+        return this.opStats != null || this.slowOpNanosThreshold > 0;
+    }
+
+
+    // Complexity: O(1)
+    // Bookkeeping after every public operation: running max, histograms, slow-op callback
+    private void endOp(OpType op, long startCost, long startNanos)
+    {
+        this.modCount++;
+        long cost = structuralCost() - startCost;
+        if (cost > this.maxOpCost) {
+            this.maxOpCost = cost;
+            this.maxOpCostType = op;
+        }
+
+        if (this.opStats == null && this.slowOpListener == null) {
+            return;
+        }
+
+        long nanos = timedOps() ? System.nanoTime() - startNanos : 0;
+        if (this.opStats != null) {
+            this.opStats.record(op, nanos, cost);
+        }
+        if (this.slowOpListener != null
+                && (cost > this.slowOpCostThreshold
+                    || (this.slowOpNanosThreshold > 0 && nanos > this.slowOpNanosThreshold))) {
+            this.slowOpListener.onSlowOp(op, cost, nanos, this.size, this.numTrees);
+        }
+    }
+
+
+    // Complexity: O(1)
+    // Cost as defined for the experiments: links + cuts + heapify swaps
+    private long structuralCost()
+    {
+        return this.linksCount + this.cutsCount + this.heapifyCostCount;
+    }
+
+
+    /**
+     * The public operations, used to tag per-operation statistics.
+     */
+    public enum OpType {
+        INSERT, DELETE_MIN, DECREASE_KEY, DELETE, MELD, EXTRACT_UP_TO
+    }
+
+
+    /**
+     * Ordered iterator of orderedIterator(): a binary min-heap of nodes (by key)
+     * holding the roots and the children of every node returned so far.
+     */
+    private static final class OrderedIterator implements Iterator<HeapItem> {
+        private final Heap heap;
+        private final int expectedModCount;
+        private HeapNode[] frontier;
+        private int count;
+
+        OrderedIterator(Heap heap) {
+            this.heap = heap;
+            this.expectedModCount = heap.modCount;
+            this.frontier = new HeapNode[Math.max(16, heap.numTrees)];
+            if (heap.min != null) {
+                // Roots in ring order, then heapified bottom-up: O(T)
+                HeapNode root = heap.min.node;
+                do {
+                    add(root);
+                    root = root.next;
+                } while (root != heap.min.node);
+                for (int i = count / 2 - 1; i >= 0; i--) {
+                    siftDown(i);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return count > 0;
+        }
+
+        @Override
+        public HeapItem next() {
+            if (heap.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (count == 0) {
+                throw new NoSuchElementException();
+            }
+            HeapNode node = frontier[0];
+            frontier[0] = frontier[--count];
+            frontier[count] = null;
+            siftDown(0);
+            HeapNode child = node.child;
+            if (child != null) {
+                do {
+                    add(child);
+                    siftUp(count - 1);
+                    child = child.next;
+                } while (child != node.child);
+            }
+            return node.item;
+        }
+
+        private void add(HeapNode node) {
+            if (count == frontier.length) {
+                frontier = Arrays.copyOf(frontier, 2 * count);
+            }
+            frontier[count++] = node;
+        }
+
+        private void siftUp(int i) {
+            HeapNode node = frontier[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (frontier[parent].item.key <= node.item.key) {
+                    break;
+                }
+                frontier[i] = frontier[parent];
+                i = parent;
+            }
+            frontier[i] = node;
+        }
+
+        private void siftDown(int i) {
+            if (count == 0) {
+                return;
+            }
+            HeapNode node = frontier[i];
+            int half = count >>> 1;
+            while (i < half) {
+                int c = 2 * i + 1;
+                if (c + 1 < count && frontier[c + 1].item.key < frontier[c].item.key) {
+                    c++;
+                }
+                if (node.item.key <= frontier[c].item.key) {
+                    break;
+                }
+                frontier[i] = frontier[c];
+                i = c;
+            }
+            frontier[i] = node;
+        }
+    }
+
+
     /**
      * Class implementing a node in a Heap.
      *  
@@ -791,6 +2059,7 @@ public class Heap
         public HeapNode node;
         public int key;
         public String info;
+        public long id; // caller-defined, see insert(key, info, id)
 
         public HeapItem(HeapNode node, int key, String info) {
             this.node = node;
@@ -1,4 +1,14 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapExperiments.java
@@ -31,9 +41,29 @@ import java.util.Random;
  *  - avgHeapifyUp
  *  - avgMaxOpCost
  *
+ * Parallel mode (third CLI argument = number of threads):
+ *  Every (run, experiment, heap type) cell is independent, so cells run on a
+ *  fixed thread pool. Permutation i is always seeded with BASE_SEED + i, no matter
+ *  which thread builds it, and the aggregates are summed in the sequential order,
+ *  so all structural averages are identical to the sequential run.
+ *  Timings of concurrent cells compete for caches and memory bandwidth: for
+ *  trustworthy avgTimeMs pin the JVM to isolated cores (e.g. taskset -c) and keep
+ *  threads <= pinned cores.
+ *
+ * Workload mode:
+ *  java HeapExperiments --workload <file> [--runs R] [--warmup W] [--format text|csv|json] [--out file]
+ *  runs a HeapWorkload description (operation mix, key and decrease-key
+ *  distributions, meld sizes, phases; see HeapWorkload) on all heap types.
+ *  Each run generates the workload with seed + run, and every heap type executes
+ *  that same program. Before measuring, every heap type executes the program of
+ *  the first run W times (default 2) to warm up the JIT. Results are averaged per
+ *  (heap type, phase); csv and json are meant for plotting.
+ *
  * Operation cost definition (per assignment):
  *  cost(op) = Δlinks + Δcuts + ΔheapifyUp  (delta for that single operation)
  *  maxOpCost = max cost(op) over all operations executed in that experiment run.
+ *  Heap tracks this itself per public operation (Heap.maxOpCost()), so the
+ *  experiments no longer diff the counters around every call.
  */
 public class HeapExperiments {
 
@@ -46,22 +76,6 @@ public class HeapExperiments {
     // Exp2: target remaining size
     private static final int EXP2_TARGET_REMAIN = 46;
 
-    /** The 4 heap variants required by the assignment */
-    private enum HeapType {
-        BINOMIAL(false, false),
-        LAZY_BINOMIAL(true, false),
-        FIBONACCI(true, true),
-        BINOMIAL_WITH_CUTS(false, true);
-
-        final boolean lazyMelds;
-        final boolean lazyDecreaseKeys;
-
-        HeapType(boolean lm, boolean ldk) {
-            this.lazyMelds = lm;
-            this.lazyDecreaseKeys = ldk;
-        }
-    }
-
     /** Per-run result (one run = one permutation) */
     private static final class RunStats {
         double timeMs;
@@ -112,16 +126,27 @@ public class HeapExperiments {
         }
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 1 && args[0].startsWith("--")) {
+            runWorkload(args);
+            return;
+        }
+
         int n = DEFAULT_N;
         int runs = DEFAULT_RUNS;
 
-        // Optional CLI overrides: java HeapExperiments 100000 10
+        int threads = 1;
+
+        // Optional CLI overrides: java HeapExperiments 100000 10 [threads]
         if (args.length >= 1) n = Integer.parseInt(args[0]);
         if (args.length >= 2) runs = Integer.parseInt(args[1]);
+        if (args.length >= 3) threads = Integer.parseInt(args[2]);
 
-        System.out.println("n=" + n + ", runs=" + runs);
+        System.out.println("n=" + n + ", runs=" + runs + ", threads=" + threads);
         System.out.println("SeedBase=" + BASE_SEED);
+        if (threads > Runtime.getRuntime().availableProcessors()) {
+            System.out.println("WARNING: more threads than available processors, timings will be inflated");
+        }
         System.out.println();
 
         Agg[][] agg = new Agg[3][HeapType.values().length];
@@ -131,20 +156,24 @@ public class HeapExperiments {
             }
         }
 
-        for (int run = 0; run < runs; run++) {
-            long seed = BASE_SEED + run;
+        if (threads > 1) {
+            runParallel(n, runs, threads, agg);
+        } else {
+            for (int run = 0; run < runs; run++) {
+                long seed = BASE_SEED + run;
 
-            // One permutation per runIndex; reused for all experiments and heap types
-            int[] perm = makePermutation(n, seed);
+                // One permutation per runIndex; reused for all experiments and heap types
+                int[] perm = makePermutation(n, seed);
 
-            for (int exp = 1; exp <= 3; exp++) {
-                for (HeapType type : HeapType.values()) {
-                    RunStats s = runSingle(exp, type, perm);
-                    agg[exp - 1][type.ordinal()].add(s);
+                for (int exp = 1; exp <= 3; exp++) {
+                    for (HeapType type : HeapType.values()) {
+                        RunStats s = runSingle(exp, type, perm);
+                        agg[exp - 1][type.ordinal()].add(s);
+                    }
                 }
-            }
 
-            System.out.println("run " + (run + 1) + "/" + runs + " done");
+                System.out.println("run " + (run + 1) + "/" + runs + " done");
+            }
         }
 
         System.out.println("\n===== RESULTS (AVERAGE OVER RUNS) =====");
@@ -156,13 +185,78 @@ public class HeapExperiments {
         }
     }
 
+    /**
+     * Runs all (run, experiment, heap type) cells on a fixed thread pool.
+     * Only a small window of runs is in flight, so at most a few permutations
+     * of size n are alive at once. Results are added to agg in the same order
+     * as the sequential loop.
+     */
+    private static void runParallel(int n, int runs, int threads, Agg[][] agg) {
+        HeapType[] types = HeapType.values();
+        int cellsPerRun = 3 * types.length;
+        int window = Math.max(2, (threads + cellsPerRun - 1) / cellsPerRun + 1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<List<Future<RunStats>>> inFlight = new ArrayList<>();
+            int nextToCollect = 0;
+
+            for (int run = 0; run < runs; run++) {
+                // Permutation of this run is built on a worker as well (seed depends only on the run)
+                long seed = BASE_SEED + run;
+                Future<int[]> perm = pool.submit(() -> makePermutation(n, seed));
+
+                List<Future<RunStats>> cells = new ArrayList<>(cellsPerRun);
+                for (int exp = 1; exp <= 3; exp++) {
+                    for (HeapType type : types) {
+                        int experimentId = exp;
+                        cells.add(pool.submit(() -> runSingle(experimentId, type, perm.get())));
+                    }
+                }
+                inFlight.add(cells);
+
+                if (inFlight.size() - nextToCollect >= window) {
+                    collectRun(inFlight, nextToCollect++, runs, types, agg);
+                }
+            }
+
+            while (nextToCollect < inFlight.size()) {
+                collectRun(inFlight, nextToCollect++, runs, types, agg);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Waits for all cells of one run and adds them to agg in sequential order */
+    private static void collectRun(List<List<Future<RunStats>>> inFlight, int run, int runs,
+                                   HeapType[] types, Agg[][] agg) {
+        List<Future<RunStats>> cells = inFlight.get(run);
+        try {
+            int i = 0;
+            for (int exp = 1; exp <= 3; exp++) {
+                for (HeapType type : types) {
+                    agg[exp - 1][type.ordinal()].add(cells.get(i++).get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for run " + (run + 1), e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("run " + (run + 1) + " failed", e.getCause());
+        }
+        inFlight.set(run, null); // let the permutation of this run be collected
+
+        System.out.println("run " + (run + 1) + "/" + runs + " done");
+    }
+
     /**
      * Runs one experiment for one heap type using a fixed permutation.
      * Returns all metrics collected for the assignment table.
      */
     private static RunStats runSingle(int experimentId, HeapType type, int[] perm) {
         int n = perm.length;
-        Heap heap = new Heap(type.lazyMelds, type.lazyDecreaseKeys);
+        Heap heap = type.newHeap();
 
         // Need key -> HeapItem pointers for Exp2 and Exp3
         Heap.HeapItem[] byKey = (experimentId == 2 || experimentId == 3)
@@ -170,24 +264,19 @@ public class HeapExperiments {
                 : null;
 
         RunStats stats = new RunStats();
-        long maxCost = 0;
 
         long t0 = System.nanoTime();
 
         // 1) Insert all keys in perm order
         for (int i = 0; i < n; i++) {
             int key = perm[i];
-            long cost = costOfOpBeforeAfter(heap, () -> {
-                Heap.HeapItem it = heap.insert(key, String.valueOf(key));
-                if (byKey != null) byKey[key] = it;
-            });
-            if (cost > maxCost) maxCost = cost;
+            Heap.HeapItem it = heap.insert(key, String.valueOf(key));
+            if (byKey != null) byKey[key] = it;
         }
 
         // 2) deleteMin once
         if (heap.findMin() != null) {
-            long cost = costOfOpBeforeAfter(heap, heap::deleteMin);
-            if (cost > maxCost) maxCost = cost;
+            heap.deleteMin();
         }
 
         // 3) Experiment-specific part
@@ -204,9 +293,7 @@ public class HeapExperiments {
                     }
                     if (k <= 0) break; // safety (should not happen)
 
-                    Heap.HeapItem victim = byKey[k];
-                    long cost = costOfOpBeforeAfter(heap, () -> heap.delete(victim));
-                    if (cost > maxCost) maxCost = cost;
+                    heap.delete(byKey[k]);
 
                     k--;
                 }
@@ -224,14 +311,12 @@ public class HeapExperiments {
                 int diff = it.key; // reduce from current key to 0
                 if (diff <= 0) continue;
 
-                long cost = costOfOpBeforeAfter(heap, () -> heap.decreaseKey(it, diff));
-                if (cost > maxCost) maxCost = cost;
+                heap.decreaseKey(it, diff);
             }
 
             // deleteMin once again
             if (heap.findMin() != null) {
-                long cost = costOfOpBeforeAfter(heap, heap::deleteMin);
-                if (cost > maxCost) maxCost = cost;
+                heap.deleteMin();
             }
         }
 
@@ -244,27 +329,169 @@ public class HeapExperiments {
         stats.links = heap.totalLinks();
         stats.cuts = heap.totalCuts();
         stats.heapify = heap.totalHeapifyCosts();
-        stats.maxOpCost = maxCost;
+        stats.maxOpCost = heap.maxOpCost();
 
         return stats;
     }
 
-    /**
-     * Operation cost definition from the assignment:
-     * cost(op) = Δlinks + Δcuts + ΔheapifyUp
-     */
-    private static long costOfOpBeforeAfter(Heap heap, Runnable op) {
-        long links0 = heap.totalLinks();
-        long cuts0 = heap.totalCuts();
-        long heapify0 = heap.totalHeapifyCosts();
+    // ================== Workload mode ==================
 
-        op.run();
+    private static final int DEFAULT_WARMUP = 2;
 
-        long links1 = heap.totalLinks();
-        long cuts1 = heap.totalCuts();
-        long heapify1 = heap.totalHeapifyCosts();
+    private static void runWorkload(String[] args) throws IOException {
+        Path file = null;
+        int runs = DEFAULT_RUNS;
+        int warmup = DEFAULT_WARMUP;
+        String format = "text";
+        Path out = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--workload": file = Path.of(requireValue(args[i], value)); i++; break;
+                case "--runs": runs = Integer.parseInt(requireValue(args[i], value)); i++; break;
+                case "--warmup": warmup = Integer.parseInt(requireValue(args[i], value)); i++; break;
+                case "--format": format = requireValue(args[i], value); i++; break;
+                case "--out": out = Path.of(requireValue(args[i], value)); i++; break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (file == null) {
+            throw new IllegalArgumentException("usage: java HeapExperiments --workload <file> "
+                    + "[--runs R] [--warmup W] [--format text|csv|json] [--out file]");
+        }
+        if (!format.equals("text") && !format.equals("csv") && !format.equals("json")) {
+            throw new IllegalArgumentException("unknown format " + format);
+        }
+
+        HeapWorkload workload = HeapWorkload.parse(file);
+        System.err.println(workload);
+        System.err.println("runs=" + runs + ", warmup=" + warmup);
+
+        HeapType[] types = HeapType.values();
+        HeapWorkload.Program first = workload.generate(workload.seed);
+        int phases = first.phaseCount();
+
+        for (int w = 0; w < warmup; w++) {
+            for (HeapType type : types) {
+                HeapWorkload.execute(first, type.lazyMelds, type.lazyDecreaseKeys);
+            }
+        }
+
+        // sums[type][phase]
+        HeapWorkload.PhaseResult[][] sums = new HeapWorkload.PhaseResult[types.length][phases];
+        for (HeapWorkload.PhaseResult[] row : sums) {
+            for (int p = 0; p < phases; p++) row[p] = new HeapWorkload.PhaseResult();
+        }
+        for (int run = 0; run < runs; run++) {
+            HeapWorkload.Program program = run == 0 ? first : workload.generate(workload.seed + run);
+            for (HeapType type : types) {
+                HeapWorkload.PhaseResult[] r = HeapWorkload.execute(program, type.lazyMelds, type.lazyDecreaseKeys);
+                for (int p = 0; p < phases; p++) {
+                    HeapWorkload.PhaseResult sum = sums[type.ordinal()][p];
+                    sum.ops += r[p].ops;
+                    sum.nanos += r[p].nanos;
+                    sum.links += r[p].links;
+                    sum.cuts += r[p].cuts;
+                    sum.heapify += r[p].heapify;
+                    sum.maxOpCost += r[p].maxOpCost;
+                    sum.finalSize += r[p].finalSize;
+                    sum.finalNumTrees += r[p].finalNumTrees;
+                }
+            }
+            first = null; // let the first program be collected
+            System.err.println("run " + (run + 1) + "/" + runs + " done");
+        }
+
+        PrintStream ps = out == null ? System.out : new PrintStream(out.toFile(), "UTF-8");
+        try {
+            writeWorkloadResults(ps, format, workload, runs, types, sums, phaseNames(workload));
+        } finally {
+            if (out != null) ps.close();
+        }
+    }
+
+    private static String requireValue(String option, String value) {
+        if (value == null) throw new IllegalArgumentException("missing value for " + option);
+        return value;
+    }
+
+    private static String[] phaseNames(HeapWorkload workload) {
+        String[] names = new String[workload.phases.size()];
+        for (int p = 0; p < names.length; p++) names[p] = workload.phases.get(p).name;
+        return names;
+    }
+
+    private static final String[] WORKLOAD_COLUMNS = {
+            "workload", "heapType", "phase", "runs", "ops", "avgTimeMs", "avgNsPerOp",
+            "avgLinks", "avgCuts", "avgHeapifyUp", "avgMaxOpCost", "avgFinalSize", "avgNumTrees"
+    };
+
+    /** Writes the averages per (heap type, phase) as text, csv or a json array */
+    private static void writeWorkloadResults(PrintStream ps, String format, HeapWorkload workload, int runs,
+                                             HeapType[] types, HeapWorkload.PhaseResult[][] sums, String[] phases) {
+        if (format.equals("csv")) {
+            ps.println(String.join(",", WORKLOAD_COLUMNS));
+        } else if (format.equals("json")) {
+            ps.println("[");
+        } else {
+            ps.println("===== WORKLOAD " + workload.name + " (AVERAGE OVER " + runs + " RUNS) =====");
+        }
+
+        boolean firstRow = true;
+        for (HeapType type : types) {
+            for (int p = 0; p < phases.length; p++) {
+                HeapWorkload.PhaseResult s = sums[type.ordinal()][p];
+                double r = Math.max(1, runs);
+                double avgOps = s.ops / r;
+                Object[] values = {
+                        workload.name, type.name(), phases[p], runs, avgOps, s.nanos / r / 1e6,
+                        avgOps == 0 ? 0.0 : s.nanos / r / avgOps, s.links / r, s.cuts / r, s.heapify / r,
+                        s.maxOpCost / r, s.finalSize / r, s.finalNumTrees / r
+                };
+
+                if (format.equals("csv")) {
+                    StringBuilder line = new StringBuilder();
+                    for (int c = 0; c < values.length; c++) {
+                        if (c > 0) line.append(',');
+                        line.append(formatValue(values[c], true));
+                    }
+                    ps.println(line);
+                } else if (format.equals("json")) {
+                    StringBuilder line = new StringBuilder(firstRow ? "  {" : ", {");
+                    for (int c = 0; c < values.length; c++) {
+                        if (c > 0) line.append(", ");
+                        line.append('"').append(WORKLOAD_COLUMNS[c]).append("\": ").append(formatValue(values[c], false));
+                    }
+                    ps.println(line.append('}'));
+                } else {
+                    if (p == 0) ps.println("\n--- " + type.name() + " ---");
+                    ps.println(String.format(Locale.ROOT,
+                            "%-12s ops=%.0f | avgTimeMs=%.2f | avgNsPerOp=%.1f | avgLinks=%.2f | avgCuts=%.2f | avgHeapifyUp=%.2f | avgMaxOpCost=%.2f | avgFinalSize=%.2f | avgNumTrees=%.2f",
+                            phases[p], values[4], values[5], values[6], values[7], values[8], values[9],
+                            values[10], values[11], values[12]));
+                }
+                firstRow = false;
+            }
+        }
+        if (format.equals("json")) {
+            ps.println("]");
+        }
+    }
 
-        return (links1 - links0) + (cuts1 - cuts0) + (heapify1 - heapify0);
+    // Strings are quoted (csv: only when needed), numbers use '.' and 2 decimals
+    private static String formatValue(Object v, boolean csv) {
+        if (v instanceof Double) {
+            return String.format(Locale.ROOT, "%.2f", (Double) v);
+        }
+        if (v instanceof String) {
+            String str = (String) v;
+            if (csv) {
+                return str.matches("[^,\"\n]*") ? str : '"' + str.replace("\"", "\"\"") + '"';
+            }
+            return '"' + str.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+        }
+        return String.valueOf(v);
     }
 
     /** Fisher–Yates shuffle: returns a random permutation of 1..n using the given seed */
@@ -0,0 +1,176 @@
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * HeapFootprint
+ *
+ * Retained memory of one Heap, as returned by Heap.footprint(), split into
+ *  - node structure (HeapNode objects)
+ *  - items (HeapItem objects)
+ *  - payloads (the info Strings and their byte arrays)
+ *  - internal memory of the heap: spare nodes kept for reuse, the id index,
+ *    the bucket array of successive linking and the per-operation histograms
+ *
+ * Object sizes follow the HotSpot layout of the running JVM: header and
+ * reference sizes depend on UseCompressedClassPointers / UseCompressedOops,
+ * objects are padded to ObjectAlignmentInBytes. The shallow sizes of HeapNode
+ * and HeapItem are computed once, by reflection over their fields.
+ *
+ * Payload bytes are maintained incrementally by Heap on insert/deleteMin/meld,
+ * at O(1) per String (see stringBytes()), counting every item's String
+ * separately (a String shared by many items is counted many times), and assume
+ * info is not reassigned while the item is in the heap.
+ */
+public final class HeapFootprint {
+
+    public static final boolean COMPRESSED_OOPS;
+    public static final boolean COMPRESSED_CLASS_POINTERS;
+    public static final int OBJECT_ALIGNMENT;
+    public static final int REFERENCE_BYTES;
+    public static final int OBJECT_HEADER_BYTES;
+    public static final int ARRAY_HEADER_BYTES;
+
+    public static final long NODE_BYTES;
+    public static final long ITEM_BYTES;
+    public static final long HEAP_BYTES;
+    public static final long STRING_BYTES;
+    public static final long OP_STATS_BYTES;
+
+    static {
+        COMPRESSED_OOPS = booleanVmOption("UseCompressedOops", Runtime.getRuntime().maxMemory() < (32L << 30));
+        COMPRESSED_CLASS_POINTERS = booleanVmOption("UseCompressedClassPointers", COMPRESSED_OOPS);
+        OBJECT_ALIGNMENT = intVmOption("ObjectAlignmentInBytes", 8);
+        REFERENCE_BYTES = COMPRESSED_OOPS ? 4 : 8;
+        OBJECT_HEADER_BYTES = COMPRESSED_CLASS_POINTERS ? 12 : 16;
+        ARRAY_HEADER_BYTES = OBJECT_HEADER_BYTES + 4;
+
+        NODE_BYTES = shallowSize(Heap.HeapNode.class);
+        ITEM_BYTES = shallowSize(Heap.HeapItem.class);
+        HEAP_BYTES = shallowSize(Heap.class);
+        STRING_BYTES = shallowSize(String.class);
+
+        // HeapOpStats: two arrays of one LatencyHistogram per operation type
+        int ops = Heap.OpType.values().length;
+        OP_STATS_BYTES = shallowSize(HeapOpStats.class) + 2 * arrayBytes(ops, REFERENCE_BYTES)
+                + 2L * ops * (shallowSize(LatencyHistogram.class) + shallowSize(AtomicLongArray.class)
+                        + arrayBytes(LatencyHistogram.BUCKETS, 8));
+    }
+
+    public final int entries;
+    public final long nodeBytes;
+    public final long itemBytes;
+    public final long payloadBytes;
+    public final long heapObjectBytes;
+    public final long spareNodeBytes;    // Nodes kept for reuse (Heap.setNodePoolCapacity())
+    public final long idIndexBytes;      // Heap.enableIdIndex()
+    public final long bucketBytes;       // Bucket array kept between successive linking passes
+    public final long opStatsBytes;      // Heap.enableOpStats()
+
+    HeapFootprint(int entries, long payloadBytes, int spareNodes, int idIndexCapacity, int bucketCapacity, boolean opStats) {
+        this.entries = entries;
+        this.nodeBytes = entries * NODE_BYTES;
+        this.itemBytes = entries * ITEM_BYTES;
+        this.payloadBytes = payloadBytes;
+        this.heapObjectBytes = HEAP_BYTES;
+        this.spareNodeBytes = spareNodes * NODE_BYTES;
+        this.idIndexBytes = idIndexCapacity == 0 ? 0 : shallowSize(HeapIdIndex.class)
+                + arrayBytes(idIndexCapacity, 8) + arrayBytes(idIndexCapacity, REFERENCE_BYTES);
+        this.bucketBytes = bucketCapacity == 0 ? 0 : arrayBytes(bucketCapacity, REFERENCE_BYTES);
+        this.opStatsBytes = opStats ? OP_STATS_BYTES : 0;
+    }
+
+    /** Memory of the heap that does not depend on its entries */
+    public long internalBytes() {
+        return spareNodeBytes + idIndexBytes + bucketBytes + opStatsBytes;
+    }
+
+    public long totalBytes() {
+        return heapObjectBytes + nodeBytes + itemBytes + payloadBytes + internalBytes();
+    }
+
+    public double bytesPerEntry() {
+        return entries == 0 ? 0 : (double) (nodeBytes + itemBytes + payloadBytes) / entries;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("entries=%d total=%d B (nodes=%d, items=%d, payloads=%d, heap=%d, internal=%d) | %.1f B/entry",
+                entries, totalBytes(), nodeBytes, itemBytes, payloadBytes, heapObjectBytes, internalBytes(), bytesPerEntry());
+    }
+
+    // ================== Layout ==================
+
+    // Complexity O(1)
+    // Retained size of a String payload: the String object plus its byte array, taken
+    // as LATIN1 (one byte per char); a String with chars above 0xFF is UTF16 and holds
+    // up to length() bytes more. Estimated from length() alone, so the heap operations
+    // that keep Heap.payloadBytes do not scan their Strings.
+    public static long stringBytes(String s) {
+        if (s == null) {
+            return 0;
+        }
+        return STRING_BYTES + arrayBytes(s.length(), 1);
+    }
+
+    // Header plus length elements, padded
+    static long arrayBytes(long length, int elementBytes) {
+        return align(ARRAY_HEADER_BYTES + length * elementBytes);
+    }
+
+    // Header plus instance fields (declared in the class and its superclasses), padded
+    static long shallowSize(Class<?> type) {
+        long bytes = OBJECT_HEADER_BYTES;
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(f.getModifiers())) {
+                    bytes += fieldBytes(f.getType());
+                }
+            }
+        }
+        return align(bytes);
+    }
+
+    private static int fieldBytes(Class<?> type) {
+        if (!type.isPrimitive()) return REFERENCE_BYTES;
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        return 1; // boolean, byte
+    }
+
+    private static long align(long bytes) {
+        return (bytes + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT * OBJECT_ALIGNMENT;
+    }
+
+    private static HotSpotDiagnosticMXBean hotSpot() {
+        try {
+            return ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        } catch (RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static boolean booleanVmOption(String name, boolean fallback) {
+        HotSpotDiagnosticMXBean bean = hotSpot();
+        if (bean == null) return fallback;
+        try {
+            return Boolean.parseBoolean(bean.getVMOption(name).getValue());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    private static int intVmOption(String name, int fallback) {
+        HotSpotDiagnosticMXBean bean = hotSpot();
+        if (bean == null) return fallback;
+        try {
+            return Integer.parseInt(bean.getVMOption(name).getValue());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * HeapFootprintBenchmark.java
+ *
+ * Prints bytes per entry for every heap mode: the O(1) estimate of
+ * Heap.footprint() next to the used-memory delta measured around building the heap.
+ *
+ *   java HeapFootprintBenchmark [n] [payloadLength]
+ *
+ * Run with a fixed heap (e.g. -Xms2g -Xmx2g) so the measurement is not disturbed
+ * by heap resizing. Measured numbers also contain GC noise of a few KB.
+ */
+public class HeapFootprintBenchmark {
+
+    private static final int DEFAULT_N = 1_000_000;
+    private static final int DEFAULT_PAYLOAD_LENGTH = 8;
+
+    public static void main(String[] args) {
+        int n = DEFAULT_N;
+        int payloadLength = DEFAULT_PAYLOAD_LENGTH;
+
+        if (args.length >= 1) n = Integer.parseInt(args[0]);
+        if (args.length >= 2) payloadLength = Integer.parseInt(args[1]);
+
+        System.out.println("n=" + n + ", payloadLength=" + payloadLength);
+        System.out.println("compressedOops=" + HeapFootprint.COMPRESSED_OOPS
+                + ", compressedClassPointers=" + HeapFootprint.COMPRESSED_CLASS_POINTERS
+                + ", alignment=" + HeapFootprint.OBJECT_ALIGNMENT);
+        System.out.println("HeapNode=" + HeapFootprint.NODE_BYTES + " B, HeapItem=" + HeapFootprint.ITEM_BYTES
+                + " B, String(" + payloadLength + " chars)=" + HeapFootprint.stringBytes(payload(0, payloadLength)) + " B");
+        System.out.println();
+
+        for (HeapType type : HeapType.values()) {
+            measure(type, n, payloadLength);
+        }
+    }
+
+    // One method call per mode, so nothing of the previous mode stays reachable from locals
+    private static void measure(HeapType type, int n, int payloadLength) {
+        // Payloads are created before the first measurement: the measured delta
+        // is nodes + items only, payload bytes come from the estimate
+        String[] payloads = new String[n];
+        for (int i = 0; i < n; i++) {
+            payloads[i] = payload(i, payloadLength);
+        }
+
+        long before = usedMemory();
+        Heap heap = type.newHeap();
+        for (int i = 0; i < n; i++) {
+            heap.insert(1 + (int) ((i * 2654435761L) % n), payloads[i]);
+        }
+        long after = usedMemory();
+
+        HeapFootprint fp = heap.footprint();
+        double measuredStructure = (double) (after - before) / n;
+        double estimatedStructure = (double) (fp.nodeBytes + fp.itemBytes) / n;
+
+        System.out.println(type.name());
+        System.out.println("  estimate: " + fp);
+        System.out.printf("  nodes+items B/entry: estimated=%.1f measured=%.1f%n",
+                estimatedStructure, measuredStructure);
+
+        // keep heap and payloads reachable until after the measurement
+        if (heap.size() != payloads.length) throw new IllegalStateException("size mismatch");
+    }
+
+    private static String payload(int i, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        String digits = Integer.toString(i);
+        for (int k = 0; k < length; k++) {
+            sb.append(digits.charAt(k % digits.length()));
+        }
+        return sb.toString();
+    }
+
+    private static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
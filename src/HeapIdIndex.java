@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * HeapIdIndex
+ *
+ * Index from item ids (HeapItem.id) to the items of one Heap, kept by the heap
+ * itself once enabled (see Heap.enableIdIndex()). Open addressing with linear
+ * probing over a long[] of ids and a parallel HeapItem[]: no boxing, no entry
+ * objects. Id 0 marks a free slot, which matches the heap's convention that
+ * items inserted without an id (id 0) are not indexed. Removal shifts the
+ * following entries of the probe run back, so there are no tombstones. The
+ * table doubles at half full.
+ */
+final class HeapIdIndex {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] ids;
+    private Heap.HeapItem[] items;
+    private int mask;
+    private int size;
+
+    HeapIdIndex(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2L * expected) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    // Complexity O(1) expected
+    Heap.HeapItem get(long id) {
+        if (id == 0) {
+            return null;
+        }
+        for (int i = slot(id); ; i = (i + 1) & mask) {
+            long k = ids[i];
+            if (k == id) {
+                return items[i];
+            }
+            if (k == 0) {
+                return null;
+            }
+        }
+    }
+
+    // Complexity O(1) expected
+    /** Adds item under item.id (not 0); false, and nothing changed, if the id is taken */
+    boolean put(Heap.HeapItem item) {
+        long id = item.id;
+        int i = slot(id);
+        for (long k; (k = ids[i]) != 0; i = (i + 1) & mask) {
+            if (k == id) {
+                return false;
+            }
+        }
+        ids[i] = id;
+        items[i] = item;
+        if (++size > (mask + 1) >>> 1) {
+            rehash(2 * (mask + 1));
+        }
+        return true;
+    }
+
+    // Complexity O(1) expected
+    void remove(long id) {
+        int i = slot(id);
+        for (long k; (k = ids[i]) != id; i = (i + 1) & mask) {
+            if (k == 0) {
+                return;
+            }
+        }
+        size--;
+        // Shift later entries of the run back into the hole when their home allows it
+        for (int hole = i, j = (i + 1) & mask; ; j = (j + 1) & mask) {
+            long k = ids[j];
+            if (k == 0) {
+                ids[hole] = 0;
+                items[hole] = null;
+                return;
+            }
+            int home = slot(k);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                ids[hole] = k;
+                items[hole] = items[j];
+                hole = j;
+            }
+        }
+    }
+
+    // Complexity O(capacity)
+    void clear() {
+        Arrays.fill(ids, 0);
+        Arrays.fill(items, null);
+        size = 0;
+    }
+
+    private int slot(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        items = new Heap.HeapItem[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldIds = ids;
+        Heap.HeapItem[] oldItems = items;
+        allocate(capacity);
+        for (int j = 0; j < oldIds.length; j++) {
+            long id = oldIds[j];
+            if (id != 0) {
+                int i = slot(id);
+                while (ids[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                ids[i] = id;
+                items[i] = oldItems[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * HeapIdIndexBenchmark.java
+ *
+ * Operations by external id (random 64-bit ids) on each of the 4 heap types:
+ * N inserts, then N decreaseKeys and N/10 deletes picked by id, then deleteMin
+ * until empty, with
+ *  - a HashMap<Long, HeapItem> side table kept by the caller (boxed keys,
+ *    one entry object per item, removal on every deleteMin)
+ *  - the heap's own id index (Heap.enableIdIndex(), decreaseKeyById,
+ *    deleteById)
+ *
+ *   java HeapIdIndexBenchmark [n]
+ *
+ * Both runs must pop the same keys. Times are the fastest of RUNS repetitions,
+ * after one warm-up.
+ */
+public class HeapIdIndexBenchmark {
+
+    private static final int DEFAULT_N = 1_000_000;
+    private static final int RUNS = 3;
+    private static final long SEED = 20260115L;
+
+    public static void main(String[] args) {
+        int n = DEFAULT_N;
+        if (args.length >= 1) n = Integer.parseInt(args[0]);
+
+        Random rnd = new Random(SEED);
+        long[] ids = new long[n];
+        int[] keys = new int[n];
+        int[] picks = new int[n];
+        int[] diffs = new int[n];
+        for (int i = 0; i < n; i++) {
+            long id;
+            do {
+                id = rnd.nextLong();
+            } while (id == 0);
+            ids[i] = id;
+            keys[i] = 1_000_000 + rnd.nextInt(Integer.MAX_VALUE - 1_000_000);
+            picks[i] = rnd.nextInt(n);
+            diffs[i] = 1 + rnd.nextInt(1000);
+        }
+
+        System.out.println("n=" + n);
+        for (HeapType type : HeapType.values()) {
+            double mapBest = Double.MAX_VALUE;
+            double indexBest = Double.MAX_VALUE;
+            for (int run = 0; run <= RUNS; run++) {
+                long t0 = System.nanoTime();
+                long mapSum = withHashMap(type, ids, keys, picks, diffs);
+                long t1 = System.nanoTime();
+                long indexSum = withIndex(type, ids, keys, picks, diffs);
+                long t2 = System.nanoTime();
+                if (mapSum != indexSum) {
+                    throw new IllegalStateException(type + ": popped keys differ");
+                }
+                if (run > 0) {
+                    mapBest = Math.min(mapBest, (t1 - t0) / 1e9);
+                    indexBest = Math.min(indexBest, (t2 - t1) / 1e9);
+                }
+            }
+            System.out.printf("%-20s -> hashMapMs=%.1f | idIndexMs=%.1f | speedup=%.2f%n",
+                    type.name(), mapBest * 1e3, indexBest * 1e3, mapBest / indexBest);
+        }
+    }
+
+    private static long withHashMap(HeapType type, long[] ids, int[] keys, int[] picks, int[] diffs) {
+        int n = ids.length;
+        Heap heap = type.newHeap();
+        HashMap<Long, Heap.HeapItem> byId = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            byId.put(ids[i], heap.insert(keys[i], null, ids[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            Heap.HeapItem item = byId.get(ids[picks[i]]);
+            if (item != null) {
+                heap.decreaseKey(item, diffs[i]);
+            }
+        }
+        for (int i = 0; i < n / 10; i++) {
+            Heap.HeapItem item = byId.remove(ids[picks[n - 1 - i]]);
+            if (item != null) {
+                heap.delete(item);
+            }
+        }
+        long sum = 0;
+        Heap.HeapItem min;
+        while ((min = heap.findMin()) != null) {
+            sum += min.key;
+            byId.remove(min.id);
+            heap.deleteMin();
+        }
+        return sum;
+    }
+
+    private static long withIndex(HeapType type, long[] ids, int[] keys, int[] picks, int[] diffs) {
+        int n = ids.length;
+        Heap heap = type.newHeap();
+        heap.enableIdIndex();
+        for (int i = 0; i < n; i++) {
+            heap.insert(keys[i], null, ids[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            heap.decreaseKeyById(ids[picks[i]], diffs[i]);
+        }
+        for (int i = 0; i < n / 10; i++) {
+            heap.deleteById(ids[picks[n - 1 - i]]);
+        }
+        long sum = 0;
+        Heap.HeapItem min;
+        while ((min = heap.findMin()) != null) {
+            sum += min.key;
+            heap.deleteMin();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,78 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * HeapJfrEvents
+ *
+ * JDK Flight Recorder events emitted by Heap. They are disabled by default and
+ * turned on through JFR settings, e.g. with the settings file shipped in jfr/:
+ *
+ *   java -XX:StartFlightRecording:settings=jfr/heap.jfc,filename=heap.jfr ...
+ *
+ * While disabled (or with no recording running) Heap only calls begin() and
+ * shouldCommit() on an event object that the JIT scalar-replaces, so the cost is
+ * a couple of instructions per consolidation / cut cascade / heapify chain.
+ */
+public final class HeapJfrEvents {
+
+    private HeapJfrEvents() {
+    }
+
+    @Name("heap.Consolidation")
+    @Label("Heap Consolidation")
+    @Category({"Heap"})
+    @Description("One successive linking pass over the root list")
+    @Enabled(false)
+    @Threshold("0 ns")
+    @StackTrace(false)
+    public static final class Consolidation extends Event {
+        @Label("Roots Before")
+        public int rootsBefore;
+
+        @Label("Roots After")
+        public int rootsAfter;
+
+        @Label("Links")
+        public long links;
+
+        @Label("Bucket Array Size")
+        public int bucketCount;
+
+        @Label("Parallel")
+        public boolean parallel;
+    }
+
+    @Name("heap.CutCascade")
+    @Label("Heap Cut Cascade")
+    @Category({"Heap"})
+    @Description("Cut of a node by a lazy decreaseKey and the cascading cuts of its marked ancestors")
+    @Enabled(false)
+    @Threshold("0 ns")
+    @StackTrace(false)
+    public static final class CutCascade extends Event {
+        @Label("Depth")
+        @Description("Number of cascading cuts after the first one")
+        public int depth;
+
+        @Label("Cuts")
+        public int cuts;
+    }
+
+    @Name("heap.HeapifyUp")
+    @Label("Heap Heapify-Up Chain")
+    @Category({"Heap"})
+    @Description("Item swaps of one non-lazy decreaseKey")
+    @Enabled(false)
+    @Threshold("0 ns")
+    @StackTrace(false)
+    public static final class HeapifyUp extends Event {
+        @Label("Swaps")
+        public int swaps;
+    }
+}
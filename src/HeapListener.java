@@ -0,0 +1,98 @@
+/**
+ * HeapListener
+ *
+ * Receives the events of a Heap, installed with Heap.setListener():
+ *  - operation events (insert, deleteMin, decreaseKey, delete, extractUpTo, meld,
+ *    clear), once per
+ *    public call that changes the heap; internal calls are not reported
+ *  - structural events (links, cuts, cascades, consolidations)
+ * All methods have empty defaults, so an implementation only overrides what it
+ * needs (feeding a metrics system, tracing, ...). Callbacks run synchronously on
+ * the thread that performs the heap operation and must not modify the heap.
+ * Use compose() to install several listeners on one heap.
+ *
+ * A heap without a listener pays one null check per event site.
+ */
+public interface HeapListener {
+
+    /** item was inserted (called after the insert) */
+    default void onInsert(Heap.HeapItem item) {
+    }
+
+    /** min is about to be removed by deleteMin */
+    default void onDeleteMin(Heap.HeapItem min) {
+    }
+
+    /** The key of item is about to be decreased by diff (diff > 0) */
+    default void onDecreaseKey(Heap.HeapItem item, int diff) {
+    }
+
+    /** item is about to be deleted (by extractUpTo: has been removed, with the others of that call) */
+    default void onDelete(Heap.HeapItem item) {
+    }
+
+    /**
+     * extractUpTo(threshold) removed the given items (called once the heap is
+     * consistent again; removed must not be modified). The default reports
+     * every item to onDelete.
+     */
+    default void onExtractUpTo(int threshold, Heap.HeapItem[] removed) {
+        for (Heap.HeapItem item : removed) {
+            onDelete(item);
+        }
+    }
+
+    /** child became a child of parent during successive linking */
+    default void onLink(Heap.HeapItem parent, Heap.HeapItem child) {
+    }
+
+    /** item's node was cut from its parent and moved to the root list */
+    default void onCut(Heap.HeapItem item) {
+    }
+
+    /**
+     * A lazy decreaseKey of item cut it from its parent.
+     * depth = number of further (cascading) cuts of marked ancestors.
+     */
+    default void onCascadingCut(Heap.HeapItem item, int depth) {
+    }
+
+    /** Successive linking starts over rootCount trees */
+    default void onConsolidationStart(int rootCount) {
+    }
+
+    /** Successive linking finished with rootCount trees after the given number of links */
+    default void onConsolidationEnd(int rootCount, long links) {
+    }
+
+    /**
+     * other is about to be melded into the heap. Its counters (totalLinks, totalCuts,
+     * totalHeapifyCosts) are added to the heap's own history by the meld.
+     */
+    default void onMeld(Heap other) {
+    }
+
+    /** Every item is about to be removed by clear() (not called for an empty heap) */
+    default void onClear() {
+    }
+
+    /** A listener forwarding every event to first and then to second */
+    static HeapListener compose(HeapListener first, HeapListener second) {
+        if (first == null) return second;
+        if (second == null) return first;
+        return new HeapListener() {
+            @Override public void onInsert(Heap.HeapItem item) { first.onInsert(item); second.onInsert(item); }
+            @Override public void onDeleteMin(Heap.HeapItem min) { first.onDeleteMin(min); second.onDeleteMin(min); }
+            @Override public void onDecreaseKey(Heap.HeapItem item, int diff) { first.onDecreaseKey(item, diff); second.onDecreaseKey(item, diff); }
+            @Override public void onDelete(Heap.HeapItem item) { first.onDelete(item); second.onDelete(item); }
+            @Override public void onExtractUpTo(int threshold, Heap.HeapItem[] removed) { first.onExtractUpTo(threshold, removed); second.onExtractUpTo(threshold, removed); }
+            @Override public void onLink(Heap.HeapItem parent, Heap.HeapItem child) { first.onLink(parent, child); second.onLink(parent, child); }
+            @Override public void onCut(Heap.HeapItem item) { first.onCut(item); second.onCut(item); }
+            @Override public void onCascadingCut(Heap.HeapItem item, int depth) { first.onCascadingCut(item, depth); second.onCascadingCut(item, depth); }
+            @Override public void onConsolidationStart(int rootCount) { first.onConsolidationStart(rootCount); second.onConsolidationStart(rootCount); }
+            @Override public void onConsolidationEnd(int rootCount, long links) { first.onConsolidationEnd(rootCount, links); second.onConsolidationEnd(rootCount, links); }
+            @Override public void onMeld(Heap other) { first.onMeld(other); second.onMeld(other); }
+            @Override public void onClear() { first.onClear(); second.onClear(); }
+        };
+    }
+}
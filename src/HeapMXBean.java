@@ -0,0 +1,37 @@
+/**
+ * HeapMXBean
+ *
+ * Management interface of one named Heap, registered with HeapMonitor.register().
+ * Counters are read from the live heap without locking, so values are a
+ * best-effort view while the owning thread keeps mutating it.
+ * Rates are per second, averaged since the previous read of the same attribute
+ * (at least HeapMonitor.MIN_RATE_INTERVAL_NANOS apart).
+ */
+public interface HeapMXBean {
+
+    String getName();
+
+    boolean isLazyMelds();
+
+    boolean isLazyDecreaseKeys();
+
+    int getSize();
+
+    int getNumTrees();
+
+    int getMarkedNodes();
+
+    long getTotalLinks();
+
+    long getTotalCuts();
+
+    long getTotalHeapifyCosts();
+
+    long getTotalDeleteMins();
+
+    double getLinksPerSecond();
+
+    double getCutsPerSecond();
+
+    double getDeleteMinsPerSecond();
+}
@@ -0,0 +1,246 @@
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * HeapMonitor
+ *
+ * Opt-in JMX exposure of a Heap as an MXBean named "heap:type=Heap,name=<name>".
+ *
+ *   HeapMonitor monitor = HeapMonitor.register("jobQueue", heap);
+ *   ...
+ *   monitor.unregister();
+ *
+ * A registration costs one small object and nothing on the heap operations:
+ * attributes are computed only when a JMX client reads them, and no thread is
+ * started. The heap is held weakly, so a forgotten registration does not keep a
+ * dead heap alive: once the heap is collected the MXBean unregisters itself, at
+ * the next read of one of its attributes or the next register() call.
+ *
+ * Rates count only the work done by the heap itself. meld() adds the melded
+ * heap's lifetime links and cuts to totalLinks()/totalCuts(); those inherited
+ * counts are left out of LinksPerSecond and CutsPerSecond, so a meld does not
+ * show up as a spike. A heap melded into another has its counters reset to 0;
+ * its rates read 0 for that interval rather than going negative.
+ */
+public final class HeapMonitor implements HeapMXBean {
+
+    /** Rates are recomputed at most this often; faster reads return the last rate */
+    public static final long MIN_RATE_INTERVAL_NANOS = 1_000_000_000L;
+
+    /** Where the GC enqueues the references of collected heaps */
+    private static final ReferenceQueue<Heap> COLLECTED = new ReferenceQueue<>();
+
+    private final String name;
+    private final ObjectName objectName;
+    private final HeapRef heapRef;
+    private final boolean lazyMelds;
+    private final boolean lazyDecreaseKeys;
+    private boolean registered;   // Guards the name against a later registration of another heap
+
+    private final Rate linksRate = new Rate(heap -> heap.linksCount - heap.inheritedLinks);
+    private final Rate cutsRate = new Rate(heap -> heap.cutsCount - heap.inheritedCuts);
+    private final Rate deleteMinsRate = new Rate(Heap::totalDeleteMins);
+
+    private HeapMonitor(String name, ObjectName objectName, Heap heap) {
+        this.name = name;
+        this.objectName = objectName;
+        this.heapRef = new HeapRef(heap, this);
+        this.lazyMelds = heap.lazyMelds;
+        this.lazyDecreaseKeys = heap.lazyDecreaseKeys;
+    }
+
+    /**
+     * Register heap under the given name in the platform MBean server.
+     * Throws IllegalArgumentException if the name is already registered.
+     */
+    public static HeapMonitor register(String name, Heap heap) {
+        if (heap == null) {
+            throw new IllegalArgumentException("heap is null");
+        }
+        unregisterCollected();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = objectNameFor(name);
+            HeapMonitor monitor = new HeapMonitor(name, objectName, heap);
+            server.registerMBean(monitor, objectName);
+            synchronized (monitor) {
+                monitor.registered = true;
+            }
+            return monitor;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("cannot register heap '" + name + "'", e);
+        }
+    }
+
+    public static ObjectName objectNameFor(String name) throws JMException {
+        return new ObjectName("heap:type=Heap,name=" + ObjectName.quote(name));
+    }
+
+    /** Remove the MXBean (no-op if already removed) */
+    public synchronized void unregister() {
+        if (!registered) {
+            return;
+        }
+        registered = false;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot unregister heap '" + name + "'", e);
+        }
+    }
+
+    public ObjectName objectName() {
+        return objectName;
+    }
+
+    /** The monitored heap, null (and the MXBean unregistered) once it has been collected */
+    private Heap heap() {
+        Heap heap = heapRef.get();
+        if (heap == null) {
+            unregister();
+        }
+        return heap;
+    }
+
+    // Unregister the monitors whose heaps the GC has cleared since the last call
+    private static void unregisterCollected() {
+        for (Reference<? extends Heap> ref; (ref = COLLECTED.poll()) != null; ) {
+            ((HeapRef) ref).monitor.unregister();
+        }
+    }
+
+    /** Weak reference to the heap that remembers its monitor, for COLLECTED */
+    private static final class HeapRef extends WeakReference<Heap> {
+        final HeapMonitor monitor;
+
+        HeapRef(Heap heap, HeapMonitor monitor) {
+            super(heap, COLLECTED);
+            this.monitor = monitor;
+        }
+    }
+
+    // ================== HeapMXBean ==================
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isLazyMelds() {
+        return lazyMelds;
+    }
+
+    @Override
+    public boolean isLazyDecreaseKeys() {
+        return lazyDecreaseKeys;
+    }
+
+    @Override
+    public int getSize() {
+        Heap heap = heap();
+        return heap == null ? 0 : heap.size();
+    }
+
+    @Override
+    public int getNumTrees() {
+        Heap heap = heap();
+        return heap == null ? 0 : heap.numTrees();
+    }
+
+    @Override
+    public int getMarkedNodes() {
+        Heap heap = heap();
+        return heap == null ? 0 : heap.numMarkedNodes();
+    }
+
+    @Override
+    public long getTotalLinks() {
+        Heap heap = heap();
+        return heap == null ? 0 : heap.totalLinks();
+    }
+
+    @Override
+    public long getTotalCuts() {
+        Heap heap = heap();
+        return heap == null ? 0 : heap.totalCuts();
+    }
+
+    @Override
+    public long getTotalHeapifyCosts() {
+        Heap heap = heap();
+        return heap == null ? 0 : heap.totalHeapifyCosts();
+    }
+
+    @Override
+    public long getTotalDeleteMins() {
+        Heap heap = heap();
+        return heap == null ? 0 : heap.totalDeleteMins();
+    }
+
+    @Override
+    public double getLinksPerSecond() {
+        return linksRate.perSecond();
+    }
+
+    @Override
+    public double getCutsPerSecond() {
+        return cutsRate.perSecond();
+    }
+
+    @Override
+    public double getDeleteMinsPerSecond() {
+        return deleteMinsRate.perSecond();
+    }
+
+    /**
+     * Rate of one monotonic counter between two reads.
+     * The first read only takes the baseline and reports 0, and so does the
+     * first interval after the counter was reset.
+     */
+    private final class Rate {
+        private final ToLongFunction<Heap> counter;
+        private long lastValue;
+        private long lastNanos;
+        private double lastRate;
+
+        Rate(ToLongFunction<Heap> counter) {
+            this.counter = counter;
+            this.lastNanos = Long.MIN_VALUE;
+        }
+
+        synchronized double perSecond() {
+            Heap heap = heap();
+            if (heap == null) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            long value = counter.applyAsLong(heap);
+
+            if (lastNanos == Long.MIN_VALUE) {
+                lastValue = value;
+                lastNanos = now;
+                return 0;
+            }
+            long elapsed = now - lastNanos;
+            if (elapsed >= MIN_RATE_INTERVAL_NANOS) {
+                // A counter that went down was reset (the heap was melded into another):
+                // the work since then is unknown, so report 0 and count from the new value
+                lastRate = value < lastValue ? 0 : (value - lastValue) * 1e9 / elapsed;
+                lastValue = value;
+                lastNanos = now;
+            }
+            return lastRate;
+        }
+    }
+}
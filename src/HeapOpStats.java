@@ -0,0 +1,83 @@
+/**
+ * HeapOpStats
+ *
+ * Per-operation statistics of one Heap, enabled with Heap.enableOpStats().
+ * For every operation type it keeps two LatencyHistograms:
+ *  - wall time in nanoseconds
+ *  - structural cost = links + cuts + heapify swaps done by that single call
+ *    (the same cost definition as in HeapExperiments)
+ *
+ * Nested calls are not double counted: delete() is recorded once as DELETE even
+ * though it decreases the key and deletes the minimum internally.
+ */
+public final class HeapOpStats {
+
+    private static final Heap.OpType[] OPS = Heap.OpType.values();
+
+    private final LatencyHistogram[] nanos = new LatencyHistogram[OPS.length];
+    private final LatencyHistogram[] costs = new LatencyHistogram[OPS.length];
+
+    public HeapOpStats() {
+        for (int i = 0; i < OPS.length; i++) {
+            nanos[i] = new LatencyHistogram();
+            costs[i] = new LatencyHistogram();
+        }
+    }
+
+    // Complexity O(1)
+    void record(Heap.OpType op, long elapsedNanos, long cost) {
+        nanos[op.ordinal()].record(elapsedNanos);
+        costs[op.ordinal()].record(cost);
+    }
+
+    /** Copy of all histograms, safe to call while the heap is being used */
+    public Snapshot snapshot() {
+        return new Snapshot(this, false);
+    }
+
+    /** Copy of all histograms that also clears them (for interval reporting) */
+    public Snapshot snapshotAndReset() {
+        return new Snapshot(this, true);
+    }
+
+    public void reset() {
+        for (int i = 0; i < OPS.length; i++) {
+            nanos[i].reset();
+            costs[i].reset();
+        }
+    }
+
+    /**
+     * Immutable per-operation histograms.
+     */
+    public static final class Snapshot {
+        private final LatencyHistogram.Snapshot[] nanos = new LatencyHistogram.Snapshot[OPS.length];
+        private final LatencyHistogram.Snapshot[] costs = new LatencyHistogram.Snapshot[OPS.length];
+
+        private Snapshot(HeapOpStats stats, boolean reset) {
+            for (int i = 0; i < OPS.length; i++) {
+                nanos[i] = reset ? stats.nanos[i].snapshotAndReset() : stats.nanos[i].snapshot();
+                costs[i] = reset ? stats.costs[i].snapshotAndReset() : stats.costs[i].snapshot();
+            }
+        }
+
+        public LatencyHistogram.Snapshot nanos(Heap.OpType op) {
+            return nanos[op.ordinal()];
+        }
+
+        public LatencyHistogram.Snapshot cost(Heap.OpType op) {
+            return costs[op.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Heap.OpType op : OPS) {
+                if (nanos[op.ordinal()].count() == 0) continue;
+                sb.append(String.format("%-12s ns: %s%n", op, nanos[op.ordinal()]));
+                sb.append(String.format("%-12s cost: %s%n", "", costs[op.ordinal()]));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Random;
+
+/**
+ * HeapPeekBenchmark.java
+ *
+ * "What are the next k items" on a heap of N items, for each of the 4 heap
+ * types, without changing the heap:
+ *  - Heap.peekK(k), exploring the forest through a frontier heap
+ *  - the alternative without it: copy the heap (re-insert every item) and
+ *    deleteMin k times on the copy
+ *
+ *   java HeapPeekBenchmark [n] [k]
+ *
+ * The heap is aged (deleteMins and decreaseKeys) and then gets N/100 fresh
+ * inserts, so the lazy types have a long root list. Both answers are compared
+ * key by key. Times are the fastest of RUNS repetitions, after one warm-up.
+ */
+public class HeapPeekBenchmark {
+
+    private static final int DEFAULT_N = 1_000_000;
+    private static final int DEFAULT_K = 100;
+    private static final int RUNS = 5;
+    private static final long SEED = 20260115L;
+
+    public static void main(String[] args) {
+        int n = DEFAULT_N;
+        int k = DEFAULT_K;
+        if (args.length >= 1) n = Integer.parseInt(args[0]);
+        if (args.length >= 2) k = Integer.parseInt(args[1]);
+
+        System.out.println("n=" + n + " k=" + k);
+        for (HeapType type : HeapType.values()) {
+            Heap heap = agedHeap(type, n);
+
+            double peekBest = Double.MAX_VALUE;
+            Heap.HeapItem[] top = null;
+            for (int run = 0; run <= RUNS; run++) {
+                long t0 = System.nanoTime();
+                top = heap.peekK(k);
+                double seconds = (System.nanoTime() - t0) / 1e9;
+                if (run > 0) peekBest = Math.min(peekBest, seconds);
+            }
+
+            double copyBest = Double.MAX_VALUE;
+            Heap.HeapItem[] items = HeapTraceRecorder.items(heap);
+            for (int run = 0; run <= RUNS; run++) {
+                long t0 = System.nanoTime();
+                Heap copy = type.newHeap();
+                for (Heap.HeapItem item : items) {
+                    copy.insert(item.key, item.info, item.id);
+                }
+                int[] keys = new int[Math.min(k, copy.size())];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = copy.findMin().key;
+                    copy.deleteMin();
+                }
+                double seconds = (System.nanoTime() - t0) / 1e9;
+                if (run > 0) copyBest = Math.min(copyBest, seconds);
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] != top[i].key) {
+                        throw new IllegalStateException(type + ": peekK differs at " + i);
+                    }
+                }
+            }
+
+            System.out.printf("%-20s -> peekKUs=%.1f | copyAndDeleteMinMs=%.1f | speedup=%.0f | numTrees=%d%n",
+                    type.name(), peekBest * 1e6, copyBest * 1e3, copyBest / peekBest, heap.numTrees());
+        }
+    }
+
+    private static Heap agedHeap(HeapType type, int n) {
+        Random rnd = new Random(SEED);
+        Heap heap = type.newHeap();
+        Heap.HeapItem[] items = new Heap.HeapItem[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = heap.insert(1 + rnd.nextInt(Integer.MAX_VALUE - 1), null, i + 1);
+        }
+        for (int i = 0; i < n / 100; i++) {
+            heap.deleteMin();
+        }
+        for (int i = 0; i < n / 20; i++) {
+            Heap.HeapItem item = items[rnd.nextInt(n)];
+            if (item.node != null && item.key > 1) {
+                heap.decreaseKey(item, 1 + rnd.nextInt(item.key - 1));
+            }
+        }
+        for (int i = 0; i < n / 100; i++) {
+            heap.insert(1 + rnd.nextInt(Integer.MAX_VALUE - 1), null, n + i + 1);
+        }
+        return heap;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * HeapShapeStats
+ *
+ * Immutable result of Heap.shapeStats(): the shape of the forest at one moment.
+ *  - rank histogram of the roots
+ *  - number of nodes and of marked nodes at every depth (roots are depth 0)
+ *  - the cheap peaks that Heap maintains between walks
+ *
+ * Useful to spot degenerate shapes before they cost a slow deleteMin, e.g. the
+ * long singleton root list left by lazy inserts (see singletonRootFraction()).
+ */
+public final class HeapShapeStats {
+
+    public final int size;
+    public final int numTrees;
+    public final int markedNodes;
+
+    private final int[] rootRanks;       // rootRanks[r] = number of roots of rank r
+    private final int[] nodesPerDepth;   // nodesPerDepth[d] = number of nodes at depth d
+    private final int[] markedPerDepth;  // markedPerDepth[d] = number of marked nodes at depth d
+
+    public final int peakNumTrees;
+    public final long consolidations;
+    public final int maxConsolidationRoots;
+
+    HeapShapeStats(int size, int numTrees, int markedNodes, int[] rootRanks, int[] nodesPerDepth,
+                   int[] markedPerDepth, int peakNumTrees, long consolidations, int maxConsolidationRoots) {
+        this.size = size;
+        this.numTrees = numTrees;
+        this.markedNodes = markedNodes;
+        this.rootRanks = trim(rootRanks);
+        this.nodesPerDepth = trim(nodesPerDepth);
+        this.markedPerDepth = java.util.Arrays.copyOf(markedPerDepth, this.nodesPerDepth.length);
+        this.peakNumTrees = peakNumTrees;
+        this.consolidations = consolidations;
+        this.maxConsolidationRoots = maxConsolidationRoots;
+    }
+
+    // Drop the trailing zero entries
+    private static int[] trim(int[] a) {
+        int len = a.length;
+        while (len > 0 && a[len - 1] == 0) len--;
+        return java.util.Arrays.copyOf(a, len);
+    }
+
+    /** Number of roots of the given rank */
+    public int rootsOfRank(int rank) {
+        return rank < rootRanks.length ? rootRanks[rank] : 0;
+    }
+
+    /** Largest root rank, -1 for an empty heap */
+    public int maxRootRank() {
+        return rootRanks.length - 1;
+    }
+
+    /** Number of nodes at the given depth */
+    public int nodesAtDepth(int depth) {
+        return depth < nodesPerDepth.length ? nodesPerDepth[depth] : 0;
+    }
+
+    /** Depth of the deepest node, -1 for an empty heap */
+    public int maxDepth() {
+        return nodesPerDepth.length - 1;
+    }
+
+    /** Fraction of the nodes at the given depth that are marked */
+    public double markedFraction(int depth) {
+        int nodes = nodesAtDepth(depth);
+        return nodes == 0 ? 0 : (double) markedPerDepth[depth] / nodes;
+    }
+
+    /** Average depth of a node */
+    public double averageDepth() {
+        if (size == 0) return 0;
+        long sum = 0;
+        for (int d = 0; d < nodesPerDepth.length; d++) sum += (long) d * nodesPerDepth[d];
+        return (double) sum / size;
+    }
+
+    /** Fraction of the roots that are singletons (rank 0). Close to 1 with many roots = slow next deleteMin */
+    public double singletonRootFraction() {
+        return numTrees == 0 ? 0 : (double) rootsOfRank(0) / numTrees;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("size=%d numTrees=%d markedNodes=%d peakNumTrees=%d consolidations=%d maxConsolidationRoots=%d%n",
+                size, numTrees, markedNodes, peakNumTrees, consolidations, maxConsolidationRoots));
+        sb.append("rootRanks:");
+        for (int r = 0; r < rootRanks.length; r++) sb.append(' ').append(r).append('=').append(rootRanks[r]);
+        sb.append(String.format("%ndepth  nodes  marked%n"));
+        for (int d = 0; d < nodesPerDepth.length; d++) {
+            sb.append(String.format("%5d %6d %6.2f%%%n", d, nodesPerDepth[d], 100 * markedFraction(d)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,323 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * HeapSnapshot
+ *
+ * Saves a Heap to a compact binary file and restores it with exactly the same
+ * forest: the same trees, child order, ranks and marks, so numTrees(),
+ * numMarkedNodes() and the cost of every later operation match the original.
+ * The cumulative counters (totalLinks, totalCuts, totalHeapifyCosts,
+ * totalDeleteMins) are restored too.
+ *
+ *   HeapSnapshot.write(heap, Path.of("queue.snap"));
+ *   Heap restored = HeapSnapshot.read(Path.of("queue.snap"));
+ *
+ * File layout (little endian): a header of HEADER_BYTES
+ *   MAGIC, VERSION, flags (bit 0 lazyMelds, bit 1 lazyDecreaseKeys), size,
+ *   numTrees, markedNodes, number of roots (ints), then linksCount, cutsCount,
+ *   heapifyCostCount, deleteMinCount (longs)
+ * followed by one record per node, in root-list order starting at the min with
+ * every tree in preorder (children in ring order):
+ *   flags (byte: MARKED, HAS_ID, HAS_INFO), key (int), rank (short),
+ *   number of children (short), [id (long) if HAS_ID], [info length (int) and
+ *   UTF-8 bytes if HAS_INFO]
+ * A node without id or info takes 9 bytes.
+ *
+ * read() maps the file and builds the nodes in one sequential pass, wiring
+ * each sibling ring as it is read; no linking, no comparisons. Listeners, op
+ * statistics and the node pool are not part of a snapshot.
+ */
+public final class HeapSnapshot {
+
+    public static final int MAGIC = 0x48534E50; // "HSNP"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 7 * 4 + 4 * 8;
+    public static final int NODE_BYTES = 1 + 4 + 2 + 2;
+
+    static final byte MARKED = 1;
+    static final byte HAS_ID = 2;
+    static final byte HAS_INFO = 4;
+
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int WINDOW_BYTES = 64 << 20;
+
+    private HeapSnapshot() {
+    }
+
+    // Complexity O(n), one sequential write
+    /** Writes heap to file (created or truncated); returns the number of bytes written */
+    public static long write(Heap heap, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            Heap.HeapNode first = heap.min == null ? null : heap.min.node;
+            int roots = 0;
+            if (first != null) {
+                Heap.HeapNode r = first;
+                do {
+                    roots++;
+                    r = r.next;
+                } while (r != first);
+            }
+            buf.putInt(MAGIC).putInt(VERSION)
+                    .putInt((heap.lazyMelds ? 1 : 0) | (heap.lazyDecreaseKeys ? 2 : 0))
+                    .putInt(heap.size).putInt(heap.numTrees).putInt(heap.markedNodes).putInt(roots)
+                    .putLong(heap.linksCount).putLong(heap.cutsCount)
+                    .putLong(heap.heapifyCostCount).putLong(heap.deleteMinCount);
+            long bytes = HEADER_BYTES;
+
+            // Preorder without recursion: the stack keeps (next sibling, first of its ring)
+            Heap.HeapNode[] stack = new Heap.HeapNode[32];
+            int top = 0;
+            Heap.HeapNode node = first;
+            while (node != null) {
+                bytes += writeNode(channel, buf, node);
+                Heap.HeapNode next;
+                if (node.child != null) {
+                    if (top + 2 > stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * stack.length);
+                    }
+                    stack[top++] = node.next;
+                    stack[top++] = first;
+                    first = node.child;
+                    next = first;
+                } else {
+                    next = node.next;
+                    while (next == first) {
+                        if (top == 0) {
+                            next = null;
+                            break;
+                        }
+                        first = stack[--top];
+                        next = stack[--top];
+                    }
+                }
+                node = next;
+            }
+            drain(channel, buf.flip());
+            return bytes;
+        }
+    }
+
+    // Complexity O(n), one sequential pass over the mapped file
+    /** Restores a heap written by write() */
+    public static Heap read(Path file) throws IOException {
+        return read(file, null);
+    }
+
+    /** As read(file), handing every restored item to onItem (in file order) */
+    public static Heap read(Path file, Consumer<Heap.HeapItem> onItem) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedInput in = new MappedInput(channel);
+            in.ensure(HEADER_BYTES);
+            ByteBuffer w = in.window;
+            if (w.getInt() != MAGIC) {
+                throw new IOException(file + ": not a heap snapshot");
+            }
+            int version = w.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported snapshot version " + version);
+            }
+            int flags = w.getInt();
+            Heap heap = new Heap((flags & 1) != 0, (flags & 2) != 0);
+            int size = w.getInt();
+            int numTrees = w.getInt();
+            int markedNodes = w.getInt();
+            int roots = w.getInt();
+            heap.linksCount = w.getLong();
+            heap.cutsCount = w.getLong();
+            heap.heapifyCostCount = w.getLong();
+            heap.deleteMinCount = w.getLong();
+
+            // One frame per open sibling ring: its parent, children still to read, first and last node read
+            Heap.HeapNode[] parents = new Heap.HeapNode[32];
+            Heap.HeapNode[] firsts = new Heap.HeapNode[32];
+            Heap.HeapNode[] lasts = new Heap.HeapNode[32];
+            int[] remaining = new int[32];
+            int top = 0;
+            remaining[top++] = roots;
+            long payloadBytes = 0;
+            int count = 0;
+            Heap.HeapNode rootRing = null;
+
+            while (top > 0) {
+                int f = top - 1;
+                if (remaining[f] == 0) {
+                    Heap.HeapNode first = firsts[f];
+                    if (first != null) {
+                        first.prev = lasts[f];
+                        lasts[f].next = first;
+                    }
+                    if (parents[f] != null) {
+                        parents[f].child = first;
+                    } else {
+                        rootRing = first;
+                    }
+                    parents[f] = firsts[f] = lasts[f] = null;
+                    top--;
+                    continue;
+                }
+                remaining[f]--;
+
+                in.ensure(NODE_BYTES);
+                w = in.window;
+                byte nodeFlags = w.get();
+                int key = w.getInt();
+                int rank = w.getShort();
+                int children = w.getShort() & 0xFFFF;
+                long id = 0;
+                String info = null;
+                if ((nodeFlags & HAS_ID) != 0) {
+                    in.ensure(8);
+                    id = in.window.getLong();
+                }
+                if ((nodeFlags & HAS_INFO) != 0) {
+                    in.ensure(4);
+                    int len = in.window.getInt();
+                    in.ensure(len);
+                    byte[] bytes = new byte[len];
+                    in.window.get(bytes);
+                    info = new String(bytes, StandardCharsets.UTF_8);
+                }
+
+                Heap.HeapItem item = new Heap.HeapItem(null, key, info);
+                item.id = id;
+                Heap.HeapNode node = new Heap.HeapNode(item, null, null, null, parents[f], rank);
+                node.mark = (nodeFlags & MARKED) != 0;
+                item.node = node;
+                if (firsts[f] == null) {
+                    firsts[f] = node;
+                } else {
+                    lasts[f].next = node;
+                    node.prev = lasts[f];
+                }
+                lasts[f] = node;
+                payloadBytes += HeapFootprint.stringBytes(info);
+                count++;
+                if (onItem != null) {
+                    onItem.accept(item);
+                }
+
+                if (children > 0) {
+                    if (top == remaining.length) {
+                        int n = 2 * top;
+                        parents = Arrays.copyOf(parents, n);
+                        firsts = Arrays.copyOf(firsts, n);
+                        lasts = Arrays.copyOf(lasts, n);
+                        remaining = Arrays.copyOf(remaining, n);
+                    }
+                    parents[top] = node;
+                    remaining[top++] = children;
+                }
+            }
+            if (count != size) {
+                throw new IOException(file + ": " + count + " nodes, header says " + size);
+            }
+
+            heap.min = rootRing == null ? null : rootRing.item;
+            heap.size = size;
+            heap.numTrees = numTrees;
+            heap.markedNodes = markedNodes;
+            heap.peakNumTrees = numTrees;
+            heap.payloadBytes = payloadBytes;
+            return heap;
+        }
+    }
+
+    // ================== Internals ==================
+
+    private static int writeNode(FileChannel channel, ByteBuffer buf, Heap.HeapNode node) throws IOException {
+        Heap.HeapItem item = node.item;
+        int children = 0;
+        Heap.HeapNode c = node.child;
+        if (c != null) {
+            do {
+                children++;
+                c = c.next;
+            } while (c != node.child);
+        }
+        if (children > 0xFFFF || node.rank > Short.MAX_VALUE) {
+            throw new IllegalStateException("node with " + children + " children, rank " + node.rank);
+        }
+        byte[] info = item.info == null ? null : item.info.getBytes(StandardCharsets.UTF_8);
+        byte flags = (byte) ((node.mark ? MARKED : 0) | (item.id != 0 ? HAS_ID : 0) | (info != null ? HAS_INFO : 0));
+        int bytes = NODE_BYTES + (item.id != 0 ? 8 : 0) + (info != null ? 4 + info.length : 0);
+
+        if (buf.remaining() < NODE_BYTES + 8 + 4) {
+            drain(channel, buf.flip());
+        }
+        buf.put(flags).putInt(item.key).putShort((short) node.rank).putShort((short) children);
+        if (item.id != 0) {
+            buf.putLong(item.id);
+        }
+        if (info != null) {
+            buf.putInt(info.length);
+            int done = 0;
+            while (done < info.length) {
+                if (!buf.hasRemaining()) {
+                    drain(channel, buf.flip());
+                }
+                int len = Math.min(buf.remaining(), info.length - done);
+                buf.put(info, done, len);
+                done += len;
+            }
+        }
+        return bytes;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Sequential reads through mapped windows; ensure(n) remaps so that n bytes
+     * are available. Also reads HeapWal's logs.
+     */
+    static final class MappedInput {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        MappedByteBuffer window;
+
+        MappedInput(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0, 0);
+        }
+
+        void ensure(int n) throws IOException {
+            if (window.remaining() >= n) {
+                return;
+            }
+            long position = windowStart + window.position();
+            if (size - position < n) {
+                throw new IOException("file truncated at byte " + position);
+            }
+            map(position, n);
+        }
+
+        /** Bytes left after the current position */
+        long remaining() {
+            return size - windowStart - window.position();
+        }
+
+        private void map(long position, int atLeast) throws IOException {
+            long len = Math.min(size - position, Math.max(WINDOW_BYTES, atLeast));
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, len);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = position;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * HeapSnapshotBenchmark.java
+ *
+ * Restart cost of a heap of N items, for each of the 4 heap types:
+ *  - HeapSnapshot.write and HeapSnapshot.read (MB/s of the snapshot file)
+ *  - the alternative: re-inserting all N (key, info, id) entries with
+ *    Heap.insert, plus the first deleteMin, which pays the consolidation a lazy
+ *    heap postponed (a restored heap has its consolidated shape already)
+ *
+ *   java HeapSnapshotBenchmark [n] [tmpDir]
+ *
+ * The heap is aged before the snapshot (deleteMins and decreaseKeys), so it
+ * has several trees and marked nodes. Every restore is checked against the
+ * original's size, numTrees and numMarkedNodes. Times are the fastest of RUNS
+ * repetitions, after one warm-up.
+ */
+public class HeapSnapshotBenchmark {
+
+    private static final int DEFAULT_N = 2_000_000;
+    private static final int RUNS = 3;
+    private static final long SEED = 20260115L;
+
+    public static void main(String[] args) throws IOException {
+        int n = DEFAULT_N;
+        Path tmpDir = Path.of(System.getProperty("java.io.tmpdir"));
+        if (args.length >= 1) n = Integer.parseInt(args[0]);
+        if (args.length >= 2) tmpDir = Path.of(args[1]);
+
+        int[] keys = new int[n];
+        Random rnd = new Random(SEED);
+        for (int i = 0; i < n; i++) {
+            keys[i] = 1 + rnd.nextInt(Integer.MAX_VALUE - 1);
+        }
+
+        Path file = Files.createTempFile(tmpDir, "heap", ".snap");
+        try {
+            System.out.println("n=" + n);
+            for (HeapType type : HeapType.values()) {
+                Heap heap = agedHeap(type, keys);
+
+                long bytes = 0;
+                double writeBest = Double.MAX_VALUE;
+                double readBest = Double.MAX_VALUE;
+                for (int run = 0; run <= RUNS; run++) {
+                    long t0 = System.nanoTime();
+                    bytes = HeapSnapshot.write(heap, file);
+                    long t1 = System.nanoTime();
+                    Heap restored = HeapSnapshot.read(file);
+                    long t2 = System.nanoTime();
+                    if (restored.size() != heap.size() || restored.numTrees() != heap.numTrees()
+                            || restored.numMarkedNodes() != heap.numMarkedNodes()) {
+                        throw new IllegalStateException(type + ": restored heap differs");
+                    }
+                    if (run > 0) {
+                        writeBest = Math.min(writeBest, (t1 - t0) / 1e9);
+                        readBest = Math.min(readBest, (t2 - t1) / 1e9);
+                    }
+                }
+
+                double insertBest = Double.MAX_VALUE;
+                double consolidateBest = Double.MAX_VALUE;
+                Heap.HeapItem[] items = HeapTraceRecorder.items(heap);
+                for (int run = 0; run <= RUNS; run++) {
+                    long t0 = System.nanoTime();
+                    Heap rebuilt = type.newHeap();
+                    for (Heap.HeapItem item : items) {
+                        rebuilt.insert(item.key, item.info, item.id);
+                    }
+                    long t1 = System.nanoTime();
+                    rebuilt.deleteMin();
+                    long t2 = System.nanoTime();
+                    if (run > 0) {
+                        insertBest = Math.min(insertBest, (t1 - t0) / 1e9);
+                        consolidateBest = Math.min(consolidateBest, (t2 - t1) / 1e9);
+                    }
+                }
+
+                double mb = bytes / 1e6;
+                System.out.printf("%-20s -> snapshotMB=%.1f | bytesPerNode=%.1f | writeMBps=%.0f | readMBps=%.0f | readMs=%.1f"
+                                + " | reinsertMs=%.1f (+firstDeleteMinMs=%.1f) | restoreSpeedup=%.2f | numTrees=%d | marked=%d%n",
+                        type.name(), mb, (double) bytes / heap.size(), mb / writeBest, mb / readBest, readBest * 1e3,
+                        insertBest * 1e3, consolidateBest * 1e3, (insertBest + consolidateBest) / readBest,
+                        heap.numTrees(), heap.numMarkedNodes());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Inserted, consolidated by deleteMins and given marks by decreaseKeys; ids set, no info
+    private static Heap agedHeap(HeapType type, int[] keys) {
+        Heap heap = type.newHeap();
+        Heap.HeapItem[] items = new Heap.HeapItem[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            items[i] = heap.insert(keys[i], null, i + 1);
+        }
+        Random rnd = new Random(SEED + 1);
+        for (int i = 0; i < keys.length / 100; i++) {
+            heap.deleteMin();
+        }
+        for (int i = 0; i < keys.length / 20; i++) {
+            Heap.HeapItem item = items[rnd.nextInt(keys.length)];
+            if (item.node != null && item.key > 1) {
+                heap.decreaseKey(item, 1 + rnd.nextInt(item.key - 1));
+            }
+        }
+        return heap;
+    }
+}
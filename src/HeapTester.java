@@ -33,6 +33,18 @@ public class HeapTester {
         System.out.println("\n--- " + subsectionName + " ---");
     }
 
+    /**
+     * The 4 modes as {lazyMelds, lazyDecreaseKeys}, for scenarios that run on each
+     */
+    private static final boolean[][] MODES = {{false, false}, {true, false}, {true, true}, {false, true}};
+
+    /**
+     * Suffix naming a mode in test names: " (lm=..., ldk=...)"
+     */
+    private static String modeLabel(boolean[] mode) {
+        return " (lm=" + mode[0] + ", ldk=" + mode[1] + ")";
+    }
+
     /**
      * Assert that a condition is true, print PASS/FAIL accordingly
      */
@@ -50,7 +62,7 @@ public class HeapTester {
     /**
      * Assert that two integers are equal
      */
-    private static void assertEquals(String testName, int expected, int actual) {
+    private static void assertEquals(String testName, long expected, long actual) {
         totalTests++;
         if (expected == actual) {
             passedTests++;
@@ -64,7 +76,7 @@ public class HeapTester {
     /**
      * Assert that actual >= expected
      */
-    private static void assertAtLeast(String testName, int minExpected, int actual) {
+    private static void assertAtLeast(String testName, long minExpected, long actual) {
         totalTests++;
         if (actual >= minExpected) {
             passedTests++;
@@ -78,7 +90,7 @@ public class HeapTester {
     /**
      * Assert that actual > 0
      */
-    private static void assertPositive(String testName, int actual) {
+    private static void assertPositive(String testName, long actual) {
         totalTests++;
         if (actual > 0) {
             passedTests++;
@@ -342,14 +354,14 @@ public class HeapTester {
         
         heap.deleteMin(); // consolidate again
         
-        int cutsBeforeFirst = heap.totalCuts();
+        long cutsBeforeFirst = heap.totalCuts();
         System.out.println("  Total cuts before operations: " + cutsBeforeFirst);
         
         // Decrease a key to trigger a cut (if it violates heap property)
         // We decrease deepItem3 to be less than its potential parent
         heap.decreaseKey(deepItem3, 115); // 120 - 115 = 5
         
-        int cutsAfterFirst = heap.totalCuts();
+        long cutsAfterFirst = heap.totalCuts();
         int markedAfterFirst = heap.numMarkedNodes();
         
         System.out.println("  After first decreaseKey:");
@@ -362,7 +374,7 @@ public class HeapTester {
         // Now decrease another key to potentially trigger cascading cut
         heap.decreaseKey(deepItem2, 105); // 110 - 105 = 5
         
-        int cutsAfterSecond = heap.totalCuts();
+        long cutsAfterSecond = heap.totalCuts();
         int markedAfterSecond = heap.numMarkedNodes();
         
         System.out.println("  After second decreaseKey:");
@@ -397,19 +409,19 @@ public class HeapTester {
         }
         heap.deleteMin(); // consolidate to add these to tree
         
-        int cutsBefore = heap.totalCuts();
+        long cutsBefore = heap.totalCuts();
         int markedBefore = heap.numMarkedNodes();
         
         // Cut first child (parent gets marked)
         heap.decreaseKey(tocut[0], 1700); // becomes key 0
         
-        int cutsAfter1 = heap.totalCuts();
+        long cutsAfter1 = heap.totalCuts();
         int markedAfter1 = heap.numMarkedNodes();
         
         // Cut sibling of first child (parent already marked -> cascade)
         heap.decreaseKey(tocut[1], 1700); // becomes key 1
         
-        int cutsAfter2 = heap.totalCuts();
+        long cutsAfter2 = heap.totalCuts();
         int markedAfter2 = heap.numMarkedNodes();
         
         System.out.println("  Cascade Test Results:");
@@ -443,7 +455,7 @@ public class HeapTester {
         assertEquals("NumTrees for 8 elements", 1, heap.numTrees()); // Single B3 tree
         assertEquals("FindMin should be 100", 100, heap.findMin().key);
         
-        int heapifyCostBefore = heap.totalHeapifyCosts();
+        long heapifyCostBefore = heap.totalHeapifyCosts();
         System.out.println("  HeapifyCost before decreaseKey: " + heapifyCostBefore);
 
         printSubsection("DecreaseKey to Trigger Heapify");
@@ -451,7 +463,7 @@ public class HeapTester {
         // Decrease it to become the new minimum
         heap.decreaseKey(items[0], 799); // 800 - 799 = 1 (new min)
         
-        int heapifyCostAfter = heap.totalHeapifyCosts();
+        long heapifyCostAfter = heap.totalHeapifyCosts();
         System.out.println("  HeapifyCost after decreaseKey: " + heapifyCostAfter);
         
         assertPositive("HeapifyCost increased", heapifyCostAfter - heapifyCostBefore);
@@ -473,12 +485,12 @@ public class HeapTester {
         // Force consolidation
         heap2.deleteMin(); // removes 1000
         
-        int costBefore = heap2.totalHeapifyCosts();
+        long costBefore = heap2.totalHeapifyCosts();
         
         // Decrease deep item significantly to force multiple swaps
         heap2.decreaseKey(deepItem, 19999); // becomes 1
         
-        int costAfter = heap2.totalHeapifyCosts();
+        long costAfter = heap2.totalHeapifyCosts();
         
         System.out.println("  HeapifyCost before: " + costBefore + ", after: " + costAfter);
         assertPositive("Multiple heapify swaps occurred", costAfter - costBefore);
@@ -503,16 +515,16 @@ public class HeapTester {
         for (int i = 1; i <= 8; i++) {
             heap1.insert(i, "h1_" + i);
         }
-        int links1 = heap1.totalLinks();
-        int heapify1 = heap1.totalHeapifyCosts();
+        long links1 = heap1.totalLinks();
+        long heapify1 = heap1.totalHeapifyCosts();
         System.out.println("  Heap1 - links: " + links1 + ", heapifyCosts: " + heapify1);
         
         // Build heap2: 4 elements -> 3 links
         for (int i = 10; i <= 13; i++) {
             heap2.insert(i, "h2_" + i);
         }
-        int links2 = heap2.totalLinks();
-        int heapify2 = heap2.totalHeapifyCosts();
+        long links2 = heap2.totalLinks();
+        long heapify2 = heap2.totalHeapifyCosts();
         System.out.println("  Heap2 - links: " + links2 + ", heapifyCosts: " + heapify2);
         
         // Meld
@@ -539,7 +551,7 @@ public class HeapTester {
         fibHeap1.deleteMin();
         fibHeap1.decreaseKey(cutItem1, 4999); // trigger cut
         
-        int cuts1 = fibHeap1.totalCuts();
+        long cuts1 = fibHeap1.totalCuts();
         int marked1 = fibHeap1.numMarkedNodes();
         System.out.println("  FibHeap1 - cuts: " + cuts1 + ", marked: " + marked1);
         
@@ -552,7 +564,7 @@ public class HeapTester {
         fibHeap2.deleteMin();
         fibHeap2.decreaseKey(cutItem2, 3999); // trigger cut
         
-        int cuts2 = fibHeap2.totalCuts();
+        long cuts2 = fibHeap2.totalCuts();
         int marked2 = fibHeap2.numMarkedNodes();
         System.out.println("  FibHeap2 - cuts: " + cuts2 + ", marked: " + marked2);
         
@@ -644,9 +656,9 @@ public class HeapTester {
         }
         fibHeap.deleteMin(); // consolidate
         
-        int cutsBefore = fibHeap.totalCuts();
+        long cutsBefore = fibHeap.totalCuts();
         fibHeap.delete(items[5]); // delete node with key 60
-        int cutsAfter = fibHeap.totalCuts();
+        long cutsAfter = fibHeap.totalCuts();
         
         assertEquals("Size after delete in Fib heap", 8, fibHeap.size());
         System.out.println("  Cuts before: " + cutsBefore + ", after: " + cutsAfter);
@@ -724,6 +736,1706 @@ public class HeapTester {
         assertEquals("All removed", 0, heap.size());
     }
 
+    /**
+     * Additional Scenario: Parallel Successive Linking
+     *
+     * Consolidate a huge lazy root list once sequentially and once on the
+     * ForkJoinPool. Link counts and the resulting forest must match.
+     */
+    private static void testScenario11_ParallelLinking() {
+        printSection("Scenario 11: Parallel Successive Linking");
+
+        int n = 200_000;
+        int[] keys = new int[n];
+        java.util.Random rnd = new java.util.Random(42);
+        for (int i = 0; i < n; i++) {
+            keys[i] = 1 + rnd.nextInt(1_000_000);
+        }
+
+        Heap sequential = new Heap(true, true);
+        Heap parallel = new Heap(true, true);
+        for (int key : keys) {
+            sequential.insert(key, "s");
+            parallel.insert(key, "p");
+        }
+
+        sequential.setParallelLinking(Integer.MAX_VALUE, Heap.DEFAULT_PARALLEL_LINKING_MIN_SEGMENT);
+        sequential.deleteMin();
+
+        parallel.setParallelLinking(1_000, 1_000);
+        parallel.deleteMin();
+
+        assertEquals("Same links as sequential", sequential.totalLinks(), parallel.totalLinks());
+        assertEquals("Same numTrees as sequential", sequential.numTrees(), parallel.numTrees());
+        assertEquals("Same size", sequential.size(), parallel.size());
+        assertEquals("Same min", sequential.findMin().key, parallel.findMin().key);
+
+        boolean sameOrder = true;
+        for (int i = 0; i < 1_000; i++) {
+            sequential.deleteMin();
+            parallel.deleteMin();
+            if (sequential.findMin().key != parallel.findMin().key) {
+                sameOrder = false;
+            }
+        }
+        assertTrue("Same deleteMin order afterwards", sameOrder);
+
+        boolean rejected = false;
+        try {
+            new Heap(true, true).setParallelLinking(0, 1);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assertTrue("Threshold must be positive", rejected);
+    }
+
+    /**
+     * Additional Scenario: Per-Operation Statistics
+     *
+     * Every public call is recorded once, under its own type, with its
+     * structural cost (links + cuts + heapify swaps).
+     */
+    private static void testScenario12_OpStats() {
+        printSection("Scenario 12: Per-Operation Statistics");
+
+        Heap heap = new Heap(false, false);
+        HeapOpStats stats = heap.enableOpStats();
+
+        Heap.HeapItem[] items = new Heap.HeapItem[8];
+        for (int i = 0; i < 8; i++) {
+            items[i] = heap.insert((i + 1) * 10, "s" + i);
+        }
+        heap.delete(items[5]);
+        heap.decreaseKey(items[7], 75);
+
+        Heap other = new Heap(false, false);
+        other.insert(1, "o1");
+        other.insert(2, "o2");
+        heap.meld(other);
+
+        HeapOpStats.Snapshot snap = stats.snapshot();
+        assertEquals("Inserts recorded", 8, snap.nanos(Heap.OpType.INSERT).count());
+        assertEquals("Delete recorded once as DELETE", 1, snap.nanos(Heap.OpType.DELETE).count());
+        assertEquals("No DELETE_MIN inside delete", 0, snap.nanos(Heap.OpType.DELETE_MIN).count());
+        assertEquals("DecreaseKey recorded", 1, snap.nanos(Heap.OpType.DECREASE_KEY).count());
+        assertEquals("Meld recorded", 1, snap.nanos(Heap.OpType.MELD).count());
+
+        // Costs below 32 are stored exactly, so the sum of insert costs is the link count after 8 inserts
+        LatencyHistogram.Snapshot insertCost = snap.cost(Heap.OpType.INSERT);
+        assertEquals("Insert costs sum to 7 links", 7, Math.round(insertCost.mean() * insertCost.count()));
+        // 7 + 2 items: 4 roots become 2, heap2 already did 1 link of its own that must not be counted
+        assertEquals("Meld cost excludes heap2 history", 2, snap.cost(Heap.OpType.MELD).max());
+
+        // An empty heap2 keeps its history, so melding it costs 0, not minus that history
+        Heap drained = new Heap(false, false);
+        drained.insert(1, null);
+        drained.insert(2, null);
+        drained.deleteMin();
+        drained.deleteMin();
+        long[] emptyMeldCost = {-1};
+        heap.setSlowOpDetector(-1, 0, (op, cost, nanos, size, numTrees) -> {
+            if (op == Heap.OpType.MELD) emptyMeldCost[0] = cost;
+        });
+        heap.meld(drained);
+        heap.setSlowOpDetector(0, 0, null);
+        assertEquals("Meld of an empty heap with history costs 0", 0, emptyMeldCost[0]);
+
+        stats.reset();
+        assertEquals("Reset clears histograms", 0, stats.snapshot().nanos(Heap.OpType.INSERT).count());
+
+        heap.disableOpStats();
+        heap.insert(500, "off");
+        assertNull("Recording disabled", heap.opStats());
+    }
+
+    /**
+     * Additional Scenario: Listener Events and 64-bit Counters
+     *
+     * Events seen by a listener must add up to the heap counters, and the
+     * counters must keep counting past Integer.MAX_VALUE.
+     */
+    private static void testScenario13_ListenerAndCounters() {
+        printSection("Scenario 13: Listener Events and 64-bit Counters");
+
+        final long[] events = new long[6]; // links, cuts, cascades, cascade depth, consolidation links, melds
+        HeapListener counting = new HeapListener() {
+            @Override public void onLink(Heap.HeapItem parent, Heap.HeapItem child) { events[0]++; }
+            @Override public void onCut(Heap.HeapItem item) { events[1]++; }
+            @Override public void onCascadingCut(Heap.HeapItem item, int depth) { events[2]++; events[3] += depth; }
+            @Override public void onConsolidationEnd(int rootCount, long links) { events[4] += links; }
+            @Override public void onMeld(Heap other) { events[5]++; }
+        };
+
+        Heap heap = new Heap(true, true);
+        heap.setListener(counting);
+        Heap.HeapItem[] items = new Heap.HeapItem[64];
+        for (int i = 0; i < 64; i++) {
+            items[i] = heap.insert(1000 + i, "l" + i);
+        }
+        heap.deleteMin();
+        for (int i = 63; i >= 40; i--) {
+            heap.decreaseKey(items[i], 999 + i - (63 - i));
+        }
+        heap.deleteMin();
+
+        assertEquals("Link events == totalLinks", heap.totalLinks(), events[0]);
+        assertEquals("Consolidation links == totalLinks", heap.totalLinks(), events[4]);
+        assertEquals("Cut events == totalCuts", heap.totalCuts(), events[1]);
+        assertEquals("First cuts + cascade depths == totalCuts", heap.totalCuts(), events[2] + events[3]);
+        assertEquals("Inserts are not reported as melds", 0, events[5]);
+
+        Heap other = new Heap(true, true);
+        other.insert(5, "o");
+        heap.meld(other);
+        assertEquals("Meld reported", 1, events[5]);
+
+        printSubsection("Counters past Integer.MAX_VALUE");
+        Heap big = new Heap(false, false);
+        big.linksCount = Integer.MAX_VALUE;
+        for (int i = 1; i <= 4; i++) {
+            big.insert(i, "b" + i);
+        }
+        assertEquals("Links counted past int range", (long) Integer.MAX_VALUE + 3, big.totalLinks());
+    }
+
+    /**
+     * Additional Scenario: JMX Exposure
+     *
+     * A registered heap is visible in the platform MBean server and its
+     * attributes follow the live heap.
+     */
+    private static void testScenario14_JmxMonitor() throws Exception {
+        printSection("Scenario 14: JMX Exposure");
+
+        javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+        Heap heap = new Heap(true, true);
+        HeapMonitor monitor = HeapMonitor.register("tester", heap);
+        try {
+            for (int i = 1; i <= 16; i++) {
+                heap.insert(i, "j" + i);
+            }
+            heap.deleteMin();
+
+            assertTrue("MXBean registered", server.isRegistered(monitor.objectName()));
+            assertEquals("Size attribute", 15, (Integer) server.getAttribute(monitor.objectName(), "Size"));
+            assertEquals("NumTrees attribute", heap.numTrees(), (Integer) server.getAttribute(monitor.objectName(), "NumTrees"));
+            assertEquals("TotalLinks attribute", heap.totalLinks(), (Long) server.getAttribute(monitor.objectName(), "TotalLinks"));
+            assertEquals("TotalDeleteMins attribute", 1, (Long) server.getAttribute(monitor.objectName(), "TotalDeleteMins"));
+
+            boolean duplicateRejected = false;
+            try {
+                HeapMonitor.register("tester", new Heap(true, true));
+            } catch (IllegalArgumentException e) {
+                duplicateRejected = true;
+            }
+            assertTrue("Duplicate name rejected", duplicateRejected);
+
+            // Links inherited by meld are counted in TotalLinks but kept apart for LinksPerSecond
+            Heap other = new Heap(true, true);
+            for (int i = 1; i <= 8; i++) other.insert(100 + i, null);
+            other.deleteMin();
+            long otherLinks = other.totalLinks();
+            long ownLinks = heap.totalLinks() - heap.inheritedLinks;
+            heap.meld(other);
+            assertEquals("TotalLinks includes inherited links", ownLinks + otherLinks, (Long) server.getAttribute(monitor.objectName(), "TotalLinks"));
+            assertEquals("inherited links kept apart", otherLinks, heap.inheritedLinks);
+
+            // Melding the monitored heap away resets its counters: a rate of 0, never negative
+            for (Heap.HeapItem item : HeapTraceRecorder.items(heap)) {
+                if (item.node.parent != null) {
+                    heap.decreaseKey(item, item.key - 1);   // A cut for the meld to reset
+                    break;
+                }
+            }
+            assertPositive("own cuts before the reset", heap.cutsCount - heap.inheritedCuts);
+            server.getAttribute(monitor.objectName(), "LinksPerSecond");
+            server.getAttribute(monitor.objectName(), "CutsPerSecond");
+            new Heap(true, true).meld(heap);
+            Thread.sleep(HeapMonitor.MIN_RATE_INTERVAL_NANOS / 1_000_000 + 50);
+            assertTrue("links rate after reset not negative", (Double) server.getAttribute(monitor.objectName(), "LinksPerSecond") >= 0);
+            assertTrue("cuts rate after reset not negative", (Double) server.getAttribute(monitor.objectName(), "CutsPerSecond") >= 0);
+        } finally {
+            monitor.unregister();
+        }
+        assertTrue("MXBean unregistered", !server.isRegistered(monitor.objectName()));
+
+        // A collected heap's MXBean goes away by itself
+        HeapMonitor forgotten = HeapMonitor.register("forgotten", new Heap(false, false));
+        for (int i = 0; i < 100 && server.isRegistered(forgotten.objectName()); i++) {
+            server.getAttribute(forgotten.objectName(), "Size");
+            System.gc();
+        }
+        assertTrue("collected heap unregistered", !server.isRegistered(forgotten.objectName()));
+        HeapMonitor.register("forgotten", new Heap(false, false)).unregister();
+    }
+
+    /**
+     * Additional Scenario: Shape Statistics
+     *
+     * The forest walk agrees with the heap counters, and the peak root list
+     * shows the singleton list built by lazy inserts.
+     */
+    private static void testScenario15_ShapeStats() {
+        printSection("Scenario 15: Shape Statistics");
+
+        Heap heap = new Heap(true, true);
+        for (int i = 1; i <= 100; i++) {
+            heap.insert(i, "s" + i);
+        }
+        HeapShapeStats before = heap.shapeStats();
+        assertEquals("All roots are singletons", 100, before.rootsOfRank(0));
+        assertTrue("Singleton fraction is 1", before.singletonRootFraction() == 1.0);
+        assertEquals("Peak root list", 100, heap.peakNumTrees());
+
+        heap.deleteMin(); // 99 = 1100011b -> trees of rank 6, 5, 1, 0
+        HeapShapeStats after = heap.shapeStats();
+        assertEquals("Walk covers all nodes", 99, after.size);
+        assertEquals("Root ranks after consolidation", 4, after.rootsOfRank(0) + after.rootsOfRank(1)
+                + after.rootsOfRank(5) + after.rootsOfRank(6));
+        assertEquals("Deepest node of a rank 6 binomial tree", 6, after.maxDepth());
+        assertEquals("Peak kept after consolidation", 100, after.peakNumTrees);
+        assertEquals("Largest consolidation", 99, heap.maxConsolidationRoots());
+
+        heap.resetShapePeaks();
+        assertEquals("Peak reset to current numTrees", heap.numTrees(), heap.peakNumTrees());
+    }
+
+    /**
+     * Additional Scenario: Memory Footprint
+     *
+     * Payload bytes follow inserts, melds and deletes, the structure part is
+     * size times the node and item layout sizes, and the heap's own arrays,
+     * spare nodes and statistics are counted as internal memory.
+     */
+    private static void testScenario16_Footprint() {
+        printSection("Scenario 16: Memory Footprint");
+
+        Heap heap = new Heap(true, true);
+        Heap other = new Heap(true, true);
+        Heap.HeapItem a = heap.insert(1, "alpha");
+        heap.insert(2, "beta");
+        other.insert(3, "gamma");
+        heap.meld(other);
+
+        long expectedPayload = HeapFootprint.stringBytes("alpha") + HeapFootprint.stringBytes("beta")
+                + HeapFootprint.stringBytes("gamma");
+        HeapFootprint fp = heap.footprint();
+        assertEquals("Payload bytes after meld", expectedPayload, fp.payloadBytes);
+        assertEquals("Melded heap keeps no payload", 0, other.footprint().payloadBytes);
+        assertEquals("Node bytes", 3 * HeapFootprint.NODE_BYTES, fp.nodeBytes);
+        assertEquals("Item bytes", 3 * HeapFootprint.ITEM_BYTES, fp.itemBytes);
+
+        heap.delete(a);
+        assertEquals("Payload bytes after delete", expectedPayload - HeapFootprint.stringBytes("alpha"),
+                heap.footprint().payloadBytes);
+        heap.deleteMin();
+        heap.deleteMin();
+        assertEquals("Empty heap has no payload", 0, heap.footprint().payloadBytes);
+
+        // The heap's own memory: spare nodes, id index, bucket array, op stats
+        Heap internal = new Heap(false, false);
+        assertEquals("New heap has no internal memory", 0, internal.footprint().internalBytes());
+        internal.setNodePoolCapacity(4);
+        internal.enableIdIndex();
+        internal.enableOpStats();
+        for (int i = 1; i <= 6; i++) internal.insert(i, null, i);
+        internal.deleteMin();
+        internal.deleteMin();
+        fp = internal.footprint();
+        assertEquals("Spare node bytes", 2 * HeapFootprint.NODE_BYTES, fp.spareNodeBytes);
+        assertPositive("Id index bytes", fp.idIndexBytes);
+        assertPositive("Bucket array bytes", fp.bucketBytes);
+        assertEquals("Op stats bytes", HeapFootprint.OP_STATS_BYTES, fp.opStatsBytes);
+        assertEquals("Total includes internal memory", fp.heapObjectBytes + fp.nodeBytes + fp.itemBytes
+                + fp.spareNodeBytes + fp.idIndexBytes + fp.bucketBytes + fp.opStatsBytes, fp.totalBytes());
+    }
+
+    /**
+     * Additional Scenario: Slow-Operation Detector
+     *
+     * The first deleteMin after many lazy inserts links almost every node,
+     * which is exactly the O(n) operation the detector must report.
+     */
+    private static void testScenario17_SlowOpDetector() {
+        printSection("Scenario 17: Slow-Operation Detector");
+
+        Heap heap = new Heap(true, true);
+        final Heap.OpType[] reportedOp = new Heap.OpType[1];
+        final long[] reported = new long[3]; // calls, cost, numTrees
+        heap.setSlowOpDetector(100, 0, (op, cost, nanos, size, numTrees) -> {
+            reported[0]++;
+            reported[1] = cost;
+            reported[2] = numTrees;
+            reportedOp[0] = op;
+        });
+
+        for (int i = 1; i <= 1000; i++) {
+            heap.insert(i, "d" + i);
+        }
+        assertEquals("Cheap inserts are not reported", 0, reported[0]);
+
+        heap.deleteMin(); // 999 roots -> popcount(999) = 8 trees, 991 links
+        assertEquals("Expensive deleteMin reported once", 1, reported[0]);
+        assertTrue("Reported as DELETE_MIN", reportedOp[0] == Heap.OpType.DELETE_MIN);
+        assertEquals("Reported cost", 991, reported[1]);
+        assertEquals("Reported numTrees", 8, reported[2]);
+        assertEquals("Running max cost", 991, heap.maxOpCost());
+        assertTrue("Running max type", heap.maxOpCostType() == Heap.OpType.DELETE_MIN);
+
+        printSubsection("Time threshold");
+        heap.setSlowOpDetector(Long.MAX_VALUE, 1, (op, cost, nanos, size, numTrees) -> reported[0]++);
+        long before = reported[0];
+        heap.insert(5000, "t");
+        heap.deleteMin();
+        assertEquals("Every operation is slower than 1 ns", before + 2, reported[0]);
+
+        heap.setSlowOpDetector(0, 0, null);
+        heap.resetMaxOpCost();
+        heap.insert(6000, "u");
+        assertEquals("Max cost restarts after reset", 0, heap.maxOpCost());
+    }
+
+    /**
+     * Additional Scenario: Trace Recording and Replay
+     *
+     * Replaying a recorded trace in the same mode must reproduce the same
+     * structure, so the structural costs of the replay equal the original ones.
+     */
+    private static void testScenario18_TraceReplay() throws Exception {
+        printSection("Scenario 18: Trace Recording and Replay");
+
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("heap", ".trace");
+        try {
+            final long[] inserts = new long[1];
+            HeapListener previous = new HeapListener() {
+                @Override public void onInsert(Heap.HeapItem item) { inserts[0]++; }
+            };
+            Heap heap = new Heap(true, true);
+            heap.setListener(previous);
+            HeapTraceRecorder recorder = HeapTraceRecorder.attach(heap, file);
+
+            Heap.HeapItem[] items = new Heap.HeapItem[200];
+            for (int i = 0; i < 200; i++) {
+                items[i] = heap.insert(1000 + (i * 37) % 200, "r" + i);
+            }
+            heap.deleteMin();
+            for (int i = 0; i < 200; i += 3) {
+                heap.decreaseKey(items[i], 500 + i % 7);
+            }
+            heap.delete(items[100]);
+            heap.deleteMin();
+
+            Heap other = new Heap(true, true);
+            for (int i = 0; i < 20; i++) {
+                other.insert(10 + i, "o" + i);
+            }
+            heap.meld(other);
+            heap.deleteMin();
+
+            recorder.close();
+            assertTrue("Previous listener restored", heap.listener() == previous);
+            assertEquals("Previous listener kept receiving events", 200, inserts[0]);
+            // 200 inserts, 2+1 deleteMins, 67 decreaseKeys, 1 delete, 1 meld + 20 meld items
+            assertEquals("Records written", 291, recorder.records());
+            assertEquals("File size", HeapTraceRecorder.HEADER_BYTES + 291L * HeapTraceRecorder.RECORD_BYTES,
+                    java.nio.file.Files.size(file));
+
+            HeapTraceReplayer.Trace trace = HeapTraceReplayer.load(file);
+            assertEquals("Records loaded", 291, trace.length);
+            HeapTraceReplayer.Result r = HeapTraceReplayer.replay(trace, true, true);
+            assertEquals("Replayed operations", 271, r.operations);
+            assertEquals("Replayed links", heap.totalLinks(), r.links);
+            assertEquals("Replayed cuts", heap.totalCuts(), r.cuts);
+            assertEquals("Replayed size", heap.size(), r.finalSize);
+
+            printSubsection("Replay in another mode, attach to a non-empty heap");
+            HeapTraceReplayer.Result binomial = HeapTraceReplayer.replay(trace, false, false);
+            assertEquals("Binomial replay size", heap.size(), binomial.finalSize);
+            assertEquals("No cuts in binomial mode", 0, binomial.cuts);
+
+            recorder = HeapTraceRecorder.attach(heap, file);
+            int sizeAtAttach = heap.size();
+            heap.deleteMin();
+            recorder.close();
+            HeapTraceReplayer.Result tail = HeapTraceReplayer.replay(HeapTraceReplayer.load(file), true, true);
+            assertEquals("Existing items written as inserts", sizeAtAttach + 1, tail.operations);
+            assertEquals("Tail replay size", heap.size(), tail.finalSize);
+
+            printSubsection("extractUpTo and clear as one record each");
+            Heap swept = new Heap(true, true);
+            recorder = HeapTraceRecorder.attach(swept, file);
+            Heap.HeapItem[] swept100 = new Heap.HeapItem[100];
+            for (int i = 0; i < 100; i++) {
+                swept100[i] = swept.insert(1 + (i * 53) % 100, null);
+            }
+            swept.deleteMin();
+            assertEquals("extractUpTo removed", 29, swept.extractUpTo(30, item -> { }));
+            int decreases = 0;
+            for (int i = 0; i < 100; i += 5) {
+                if (swept100[i].node != null) {
+                    swept.decreaseKey(swept100[i], 1);   // Handles of the survivors still line up
+                    decreases++;
+                }
+            }
+            swept.clear();
+            for (int i = 0; i < 10; i++) {
+                swept.insert(200 + i, null);
+            }
+            swept.deleteMin();
+            recorder.close();
+            assertEquals("Records for extractUpTo and clear", 100 + 1 + 1 + decreases + 1 + 10 + 1, recorder.records());
+            HeapTraceReplayer.Result sweptReplay = HeapTraceReplayer.replay(HeapTraceReplayer.load(file), true, true);
+            assertEquals("Swept replay links", swept.totalLinks(), sweptReplay.links);
+            assertEquals("Swept replay cuts", swept.totalCuts(), sweptReplay.cuts);
+            assertEquals("Swept replay size", swept.size(), sweptReplay.finalSize);
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Additional Scenario: Graph Algorithms
+     *
+     * Dijkstra and Prim (one handle per vertex, vertex = item id) must agree
+     * with Bellman-Ford and Kruskal on random graphs, in every mode.
+     */
+    private static void testScenario19_GraphAlgorithms() {
+        printSection("Scenario 19: Graph Algorithms");
+
+        Heap idHeap = new Heap(true, true);
+        Heap.HeapItem withId = idHeap.insert(5, "v", 42);
+        Heap.HeapItem withoutId = idHeap.insert(6, "w");
+        assertEquals("Item keeps its id", 42, withId.id);
+        assertEquals("Default id", 0, withoutId.id);
+
+        java.util.Random rnd = new java.util.Random(7);
+        int n = 60, m = 150;
+        int[] from = new int[m], to = new int[m], w = new int[m];
+        for (int i = 0; i < m; i++) {
+            from[i] = rnd.nextInt(n);
+            to[i] = rnd.nextInt(n);
+            w[i] = rnd.nextInt(20);
+        }
+        CsrGraph directed = CsrGraph.fromEdges(n, m, from, to, w, false);
+        CsrGraph undirected = CsrGraph.fromEdges(n, m, from, to, w, true);
+
+        // Bellman-Ford from vertex 0
+        long[] expected = new long[n];
+        java.util.Arrays.fill(expected, GraphAlgorithms.UNREACHABLE);
+        expected[0] = 0;
+        for (int round = 0; round < n; round++) {
+            for (int i = 0; i < m; i++) {
+                if (expected[from[i]] != GraphAlgorithms.UNREACHABLE && expected[from[i]] + w[i] < expected[to[i]]) {
+                    expected[to[i]] = expected[from[i]] + w[i];
+                }
+            }
+        }
+
+        // Kruskal
+        Integer[] order = new Integer[m];
+        for (int i = 0; i < m; i++) order[i] = i;
+        java.util.Arrays.sort(order, (a, b) -> Integer.compare(w[a], w[b]));
+        int[] uf = new int[n];
+        for (int v = 0; v < n; v++) uf[v] = v;
+        long mstWeight = 0;
+        int components = n;
+        for (int i : order) {
+            int a = from[i], b = to[i];
+            while (uf[a] != a) a = uf[a];
+            while (uf[b] != b) b = uf[b];
+            if (a != b) {
+                uf[a] = b;
+                mstWeight += w[i];
+                components--;
+            }
+        }
+
+        for (boolean[] mode : MODES) {
+            String name = modeLabel(mode);
+            Heap heap = new Heap(mode[0], mode[1]);
+            GraphAlgorithms.ShortestPaths sp = GraphAlgorithms.dijkstra(directed, 0, heap);
+            assertTrue("Dijkstra distances" + name, java.util.Arrays.equals(expected, sp.dist));
+            assertEquals("Heap empty after dijkstra" + name, 0, heap.size());
+
+            int far = 0;
+            for (int v = 0; v < n; v++) {
+                if (sp.dist[v] != GraphAlgorithms.UNREACHABLE && sp.dist[v] > sp.dist[far]) far = v;
+            }
+            int[] path = sp.pathTo(far);
+            long length = 0;
+            for (int i = 0; i + 1 < path.length; i++) {
+                long best = Long.MAX_VALUE;
+                for (int e = directed.edgeStart(path[i]); e < directed.edgeEnd(path[i]); e++) {
+                    if (directed.target(e) == path[i + 1]) best = Math.min(best, directed.weight(e));
+                }
+                length += best;
+            }
+            assertEquals("Path length matches distance" + name, sp.dist[far], length);
+            GraphAlgorithms.ShortestPaths p2p = GraphAlgorithms.shortestPath(directed, 0, far, new Heap(mode[0], mode[1]));
+            assertEquals("Point-to-point" + name, expected[far], p2p.dist[far]);
+            assertTrue("Point-to-point path" + name, java.util.Arrays.equals(path, p2p.pathTo(far)));
+
+            GraphAlgorithms.SpanningForest forest = GraphAlgorithms.prim(undirected, new Heap(mode[0], mode[1]));
+            assertEquals("Prim weight" + name, mstWeight, forest.totalWeight);
+            assertEquals("Prim trees" + name, components, forest.trees);
+        }
+    }
+
+    /**
+     * Additional Scenario: Reusable Heaps and A*
+     *
+     * clear() detaches every item so it can be reinserted, the node pool
+     * recycles removed nodes, and a reused A* engine matches Dijkstra.
+     */
+    private static void testScenario20_ReuseAndAStar() {
+        printSection("Scenario 20: Reusable Heaps and A*");
+
+        for (boolean[] mode : MODES) {
+            String name = modeLabel(mode);
+            Heap heap = new Heap(mode[0], mode[1]);
+            heap.setNodePoolCapacity(100);
+            Heap.HeapItem[] items = new Heap.HeapItem[50];
+            for (int i = 0; i < 50; i++) {
+                items[i] = heap.insert(100 + i, "c" + i, i);
+            }
+            heap.deleteMin();
+            heap.decreaseKey(items[40], 30);
+            heap.deleteMin(); // items[40]
+            assertEquals("Removed nodes are kept" + name, 2, heap.spareNodes());
+
+            heap.clear();
+            assertEquals("Size after clear" + name, 0, heap.size());
+            assertEquals("Trees after clear" + name, 0, heap.numTrees());
+            assertEquals("Marks after clear" + name, 0, heap.numMarkedNodes());
+            assertTrue("Min after clear" + name, heap.findMin() == null);
+            boolean detached = true;
+            for (Heap.HeapItem it : items) detached &= it.node == null;
+            assertTrue("All items detached" + name, detached);
+            assertEquals("All nodes kept" + name, 50, heap.spareNodes());
+
+            for (int i = 49; i >= 0; i--) {
+                heap.reinsert(items[i], 1000 - i);
+            }
+            assertEquals("Reinsert reuses nodes" + name, 0, heap.spareNodes());
+            assertEquals("Size after reinsert" + name, 50, heap.size());
+            boolean sorted = true;
+            for (int i = 49; i >= 0; i--) {
+                sorted &= heap.findMin() == items[i] && heap.findMin().id == i;
+                heap.deleteMin();
+            }
+            assertTrue("Reinserted items come out in key order" + name, sorted);
+        }
+
+        boolean rejected = false;
+        Heap other = new Heap(true, true);
+        Heap.HeapItem live = other.insert(1, "x");
+        try {
+            other.reinsert(live, 2);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assertTrue("Reinsert of an item still in a heap is rejected", rejected);
+
+        printSubsection("A* against Dijkstra");
+        CsrGraph grid = CsrGraph.grid(20, 30, 9, 3);
+        AStarSearch.Heuristic landmarks = AStarSearch.landmarks(grid, 3, 5);
+        AStarSearch.Heuristic manhattan = AStarSearch.manhattan(30, 1);
+        java.util.Random rnd = new java.util.Random(11);
+        for (boolean[] mode : MODES) {
+            String name = modeLabel(mode);
+            AStarSearch engine = new AStarSearch(grid, mode[0], mode[1]);
+            boolean same = true;
+            boolean fewer = true;
+            for (int q = 0; q < 30; q++) {
+                int s = rnd.nextInt(grid.n), t = rnd.nextInt(grid.n);
+                GraphAlgorithms.ShortestPaths sp = GraphAlgorithms.dijkstra(grid, s, new Heap(mode[0], mode[1]));
+                AStarSearch.Heuristic h = (q % 3 == 0) ? AStarSearch.ZERO : (q % 3 == 1) ? landmarks : manhattan;
+                same &= engine.query(s, t, h) == sp.dist[t];
+                int[] path = engine.path();
+                same &= path.length > 0 && path[0] == s && path[path.length - 1] == t;
+                fewer &= engine.expanded <= sp.settled;
+            }
+            assertTrue("A* distances and paths" + name, same);
+            assertTrue("A* expands no more than Dijkstra" + name, fewer);
+        }
+    }
+
+    /**
+     * Additional Scenario: Delta-Stepping
+     *
+     * Both bucket paths (parallel relaxation and Heap-driven Dijkstra) must
+     * give the Dijkstra distances, for narrow and wide buckets.
+     */
+    private static void testScenario21_DeltaStepping() {
+        printSection("Scenario 21: Delta-Stepping");
+
+        CsrGraph[] graphs = {CsrGraph.grid(15, 20, 50, 1), CsrGraph.scaleFree(400, 3, 50, 2)};
+        String[] names = {"grid", "scale-free"};
+        for (int gi = 0; gi < graphs.length; gi++) {
+            CsrGraph g = graphs[gi];
+            long[] expected = GraphAlgorithms.dijkstra(g, 7, new Heap(true, true)).dist;
+            for (int delta : new int[]{1, 10, 60, 1000}) {
+                for (int threshold : new int[]{1, Integer.MAX_VALUE}) {
+                    DeltaStepping ds = new DeltaStepping(g, delta);
+                    ds.parallelThreshold = threshold;
+                    ds.minSegment = 8;
+                    DeltaStepping.Result r = ds.run(7);
+                    String path = threshold == 1 ? "parallel" : "heap";
+                    assertTrue(names[gi] + " delta=" + delta + " " + path,
+                            java.util.Arrays.equals(expected, r.dist));
+                    if (threshold == 1) {
+                        assertEquals(names[gi] + " delta=" + delta + " all buckets parallel", r.buckets, r.parallelBuckets);
+                    } else {
+                        assertEquals(names[gi] + " delta=" + delta + " one expansion per vertex", g.n, r.expansions);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void testScenario22_EventScheduler() {
+        printSection("Scenario 22: Event Scheduler");
+
+        for (boolean[] mode : MODES) {
+            String m = modeLabel(mode);
+            EventScheduler<String> sim = new EventScheduler<>(mode[0], mode[1]);
+            StringBuilder order = new StringBuilder();
+
+            // Equal timestamps fire in scheduling order
+            sim.schedule(5, "c");
+            EventScheduler.Handle<String> x = sim.schedule(9, "x");
+            sim.schedule(5, "d");
+            sim.schedule(2, "a");
+            EventScheduler.Handle<String> y = sim.schedule(7, "y");
+            sim.schedule(5, "e");
+            EventScheduler.Handle<String> b = sim.schedule(3, "b");
+            // Beyond the int key range: waits in the overflow list
+            long far = 5L * Integer.MAX_VALUE;
+            sim.schedule(far + 1, "g");
+            EventScheduler.Handle<String> f = sim.schedule(far, "f");
+            EventScheduler.Handle<String> dropped = sim.schedule(far + 2, "dropped");
+
+            assertTrue("cancel in heap" + m, sim.cancel(x));
+            assertTrue("cancel twice" + m, !sim.cancel(x));
+            assertTrue("cancel in overflow" + m, sim.cancel(dropped));
+            sim.reschedule(y, 5);     // earlier: after c, d, e
+            sim.reschedule(b, 6);     // later
+            assertEquals("pending" + m, 8, sim.size());
+
+            long n = sim.run((s, time, e) -> {
+                order.append(e).append('@').append(time == far || time == far + 1 ? "far" : String.valueOf(time)).append(' ');
+                if (e.equals("c")) {
+                    s.schedule(time, "h");         // same time, after the current batch
+                    s.cancel(s.schedule(time, "never"));
+                }
+                if (e.equals("d")) {
+                    // e is still waiting in the current batch
+                    EventScheduler.Handle<String> w = s.schedule(time + 1, "w");
+                    s.reschedule(w, time);
+                }
+            }, 5);
+            assertEquals("dispatched until 5" + m, 7, n);
+            assertTrue("order until 5" + m, order.toString().equals("a@2 c@5 d@5 e@5 y@5 h@5 w@5 "));
+            assertEquals("now" + m, 5, sim.now());
+
+            order.setLength(0);
+            sim.run((s, time, e) -> order.append(e).append(' '), Long.MAX_VALUE);
+            assertTrue("order after 5" + m, order.toString().equals("b f g "));
+            assertTrue("fired handle not pending" + m, !f.isPending() && !sim.cancel(f));
+            assertEquals("empty" + m, 0, sim.size());
+            assertEquals("now after overflow" + m, far + 1, sim.now());
+
+            // Cancel inside the batch being dispatched
+            sim.schedule(far + 10, "first");
+            EventScheduler.Handle<String> later = sim.schedule(far + 10, "later");
+            sim.schedule(far + 5, "early");
+            order.setLength(0);
+            sim.run((s, time, e) -> {
+                order.append(e).append(' ');
+                if (e.equals("first")) s.cancel(later);
+            }, Long.MAX_VALUE);
+            assertTrue("cancel within batch" + m, order.toString().equals("early first "));
+        }
+
+        // Against a sorted reference: random times, cancels and reschedules
+        java.util.Random rnd = new java.util.Random(22);
+        EventScheduler<Integer> sim = new EventScheduler<>(true, true);
+        java.util.List<EventScheduler.Handle<Integer>> handles = new java.util.ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            handles.add(sim.schedule(rnd.nextInt(300), i));
+        }
+        for (int i = 0; i < 500; i++) {
+            EventScheduler.Handle<Integer> h = handles.get(rnd.nextInt(handles.size()));
+            if (!h.isPending()) continue;
+            if (rnd.nextBoolean()) {
+                sim.cancel(h);
+            } else {
+                // A reschedule orders the event as if scheduled now: move it to the end
+                sim.reschedule(h, rnd.nextInt(300));
+                handles.remove(h);
+                handles.add(h);
+            }
+        }
+        java.util.List<Integer> expected = new java.util.ArrayList<>();
+        handles.stream().filter(EventScheduler.Handle::isPending)
+                .sorted(java.util.Comparator.comparingLong(EventScheduler.Handle::time))
+                .forEach(h -> expected.add(h.event));
+        java.util.List<Integer> actual = new java.util.ArrayList<>();
+        sim.run((s, time, e) -> actual.add(e), Long.MAX_VALUE);
+        assertTrue("random: (time, sequence) order", expected.equals(actual));
+        assertEquals("random: batches", 300, sim.batches);
+    }
+
+    private static void testScenario23_TimerWheel() {
+        printSection("Scenario 23: Timer Wheel");
+
+        long[] starts = {0, TimerWheel.SPAN - 70, 5 * TimerWheel.SPAN + 12345};
+        for (boolean[] mode : MODES) {
+            for (long start : starts) {
+                String m = " (lm=" + mode[0] + ", ldk=" + mode[1] + ", start=" + start + ")";
+                java.util.Random rnd = new java.util.Random(start + (mode[0] ? 2 : 0) + (mode[1] ? 1 : 0));
+                TimerWheel<Integer> wheel = new TimerWheel<>(mode[0], mode[1], start);
+                java.util.List<TimerWheel.Timer<Integer>> timers = new java.util.ArrayList<>();
+                java.util.List<Long> expectedTick = new java.util.ArrayList<>();
+                long[] firedAt = new long[4000];
+                java.util.Arrays.fill(firedAt, -1);
+
+                for (int i = 0; i < 2000; i++) {
+                    long d;
+                    switch (rnd.nextInt(5)) {
+                        case 0: d = start - rnd.nextInt(50); break;                         // already due
+                        case 1: d = start + rnd.nextInt(200); break;                        // level 0/1
+                        case 2: d = start + rnd.nextInt(1 << 20); break;                    // upper levels
+                        case 3: d = start + TimerWheel.SPAN + rnd.nextInt(1 << 26); break;  // heap
+                        default: d = start + (1L << 32) + rnd.nextInt(1 << 26); break;      // beyond int ticks
+                    }
+                    d = Math.max(d, 0);
+                    timers.add(wheel.add(d, i));
+                    expectedTick.add(Math.max(d, start + 1));
+                }
+                assertEquals("size" + m, 2000, wheel.size());
+                assertTrue("far timers in heap" + m, wheel.heapSize() > 0);
+
+                int cancelled = 0;
+                for (int i = 0; i < 2000; i += 3) {
+                    if (wheel.cancel(timers.get(i))) cancelled++;
+                }
+                assertTrue("cancel twice" + m, !wheel.cancel(timers.get(0)));
+
+                boolean[] ok = {true};
+                long end = start + (1L << 32) + (1 << 27);
+                while (wheel.now() < end) {
+                    long to = Math.min(end, wheel.now() + 1 + (rnd.nextBoolean() ? rnd.nextInt(100) : rnd.nextInt(1 << 24)));
+                    wheel.advanceTo(to, (w, deadline, id) -> {
+                        ok[0] &= firedAt[id] == -1 && deadline == timers.get(id).deadline();
+                        firedAt[id] = w.now();
+                        if (id % 7 == 0 && timers.size() < firedAt.length) {
+                            // Handlers may add (also due right away) and cancel timers
+                            long d = w.now() + id % 100;
+                            timers.add(w.add(d, timers.size()));
+                            expectedTick.add(Math.max(d, w.now() + 1));
+                            w.cancel(timers.get((id * 31) % timers.size()));
+                        }
+                    });
+                }
+
+                int firedCount = 0;
+                for (int i = 0; i < timers.size(); i++) {
+                    TimerWheel.Timer<Integer> t = timers.get(i);
+                    if (firedAt[i] >= 0) {
+                        firedCount++;
+                        ok[0] &= firedAt[i] == expectedTick.get(i);
+                    } else {
+                        ok[0] &= !t.isPending() || expectedTick.get(i) > end;
+                    }
+                }
+                assertTrue("fired once, at the exact tick" + m, ok[0]);
+                assertEquals("fired counter" + m, firedCount, wheel.fired);
+                assertEquals("all accounted" + m, timers.size(), wheel.fired + wheel.cancelled + wheel.size());
+                assertAtLeast("cancelled" + m, cancelled, wheel.cancelled);
+                assertPositive("migrated" + m, wheel.migrated);
+                assertPositive("cascaded" + m, wheel.cascaded);
+            }
+        }
+    }
+
+    private static void testScenario24_ExternalSort() throws Exception {
+        printSection("Scenario 24: External Sort");
+
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("extsort");
+        java.nio.file.Path input = dir.resolve("input.bin");
+        java.nio.file.Path output = dir.resolve("output.bin");
+        try {
+            java.util.Random rnd = new java.util.Random(24);
+            int[] sizes = {0, 1, 37, 1000, 20000};
+            for (int n : sizes) {
+                int[] keys = new int[n];
+                for (int i = 0; i < n; i++) {
+                    // Duplicates, negatives and a presorted half
+                    keys[i] = i < n / 2 ? rnd.nextInt(200) - 100 : i;
+                }
+                java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(4 * n).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+                buf.asIntBuffer().put(keys);
+                java.nio.file.Files.write(input, buf.array());
+
+                ExternalSort sorter = new ExternalSort(400, dir);   // 100 keys per run
+                sorter.windowBytes = 64;                             // many window boundaries
+                sorter.fanIn = 7;                                    // several merge passes
+                long records = sorter.sort(input, output);
+                assertEquals("n=" + n + " records", n, records);
+
+                java.nio.ByteBuffer out = java.nio.ByteBuffer.wrap(java.nio.file.Files.readAllBytes(output)).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+                int[] sorted = new int[out.remaining() / 4];
+                out.asIntBuffer().get(sorted);
+                java.util.Arrays.sort(keys);
+                assertTrue("n=" + n + " sorted", java.util.Arrays.equals(keys, sorted));
+                assertEquals("n=" + n + " runs", (n + 99) / 100, sorter.runsCreated);
+                if (n == 20000) {
+                    assertEquals("n=" + n + " passes", 3, sorter.mergePasses);
+                    assertTrue("n=" + n + " presorted half needs few heap operations", sorter.runSwitches < n);
+                }
+                try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+                    assertEquals("n=" + n + " temporary runs deleted", 2, files.count());
+                }
+            }
+
+            java.nio.file.Files.write(input, new byte[]{1, 2, 3});
+            boolean rejected = false;
+            try {
+                new ExternalSort(400, dir).sort(input, output);
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            assertTrue("partial record rejected", rejected);
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+                for (java.nio.file.Path f : (Iterable<java.nio.file.Path>) files::iterator) {
+                    java.nio.file.Files.deleteIfExists(f);
+                }
+            }
+            java.nio.file.Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void testScenario25_ExternalHeap() throws Exception {
+        printSection("Scenario 25: External-Memory Heap");
+
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("spill");
+        try {
+            for (boolean[] mode : MODES) {
+                String m = modeLabel(mode);
+                java.util.Random rnd = new java.util.Random(25);
+                java.util.PriorityQueue<Long> reference = new java.util.PriorityQueue<>();
+                boolean ok = true;
+                long seq = 0;
+                long maxRuns = 0;
+                try (ExternalHeap q = new ExternalHeap(8192, dir, mode[0], mode[1])) {
+                    q.windowRecords = 64;
+                    q.maxRuns = 4;
+                    for (int step = 0; step < 30000; step++) {
+                        int phase = step / 5000;
+                        boolean insert = phase % 2 == 0 ? rnd.nextInt(10) < 7 : rnd.nextInt(10) < 3;
+                        if (insert) {
+                            int key;
+                            switch (phase % 3) {
+                                case 0: key = rnd.nextInt(1000) - 500; break;         // duplicates, negatives
+                                case 1: key = step; break;                            // increasing
+                                default: key = 1_000_000 - step; break;               // decreasing
+                            }
+                            // id carries the key, to check that ids travel with their keys
+                            long id = ((long) key << 32) | (seq++ & 0xFFFFFFFFL);
+                            q.insert(key, id);
+                            reference.add(id);
+                        } else if (!reference.isEmpty()) {
+                            long expected = reference.poll();
+                            long id = q.minId();
+                            ok &= q.minKey() == (int) (expected >> 32) && (int) (id >> 32) == q.minKey();
+                            q.deleteMin();
+                        }
+                        ok &= q.size() == reference.size();
+                        maxRuns = Math.max(maxRuns, q.runCount());
+                    }
+                    while (!reference.isEmpty()) {
+                        ok &= q.minKey() == (int) (reference.poll() >> 32);
+                        q.deleteMin();
+                    }
+                    assertTrue("same minima as an unbounded heap" + m, ok && q.isEmpty());
+                    assertTrue("memory bounded" + m, q.inMemory() <= q.heapCapacity());
+                    assertPositive("splits" + m, q.splits);
+                    assertPositive("compactions" + m, q.compactions);
+                    assertTrue("at most maxRuns runs" + m, maxRuns <= 4);
+
+                    boolean threw = false;
+                    try {
+                        q.minKey();
+                    } catch (IllegalStateException e) {
+                        threw = true;
+                    }
+                    assertTrue("minKey on empty throws" + m, threw);
+                    q.insert(5, 5);
+                    for (int i = 0; i < 2000; i++) q.insert(1000 + i, i);
+                }
+                try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+                    assertEquals("run files deleted on close" + m, 0, files.count());
+                }
+            }
+        } finally {
+            java.nio.file.Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void testScenario26_Snapshot() throws Exception {
+        printSection("Scenario 26: Snapshot and Restore");
+
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("heap", ".snap");
+        try {
+            for (boolean[] mode : MODES) {
+                String m = modeLabel(mode);
+                java.util.Random rnd = new java.util.Random(26);
+                Heap heap = new Heap(mode[0], mode[1]);
+                Heap.HeapItem[] inserted = new Heap.HeapItem[3000];
+                String[] infos = {null, "", "job", "\u00e9t\u00e9 \u4f5c\u696d"};
+                for (int i = 0; i < inserted.length; i++) {
+                    inserted[i] = heap.insert(1 + rnd.nextInt(100000), infos[i % infos.length], i % 5 == 0 ? 0 : i);
+                }
+                for (int i = 0; i < 300; i++) heap.deleteMin();
+                for (int i = 0; i < 600; i++) {
+                    Heap.HeapItem item = inserted[rnd.nextInt(inserted.length)];
+                    if (item.node != null && item.key > 1) heap.decreaseKey(item, 1 + rnd.nextInt(item.key - 1));
+                }
+                assertPositive("original has marks" + m, mode[1] ? heap.numMarkedNodes() : 1);
+
+                HeapSnapshot.write(heap, file);
+                java.util.List<Heap.HeapItem> handedOut = new java.util.ArrayList<>();
+                Heap restored = HeapSnapshot.read(file, handedOut::add);
+
+                assertEquals("size" + m, heap.size(), restored.size());
+                assertEquals("numTrees" + m, heap.numTrees(), restored.numTrees());
+                assertEquals("markedNodes" + m, heap.numMarkedNodes(), restored.numMarkedNodes());
+                assertEquals("totalLinks" + m, heap.totalLinks(), restored.totalLinks());
+                assertEquals("totalCuts" + m, heap.totalCuts(), restored.totalCuts());
+                assertEquals("payloadBytes" + m, heap.footprint().payloadBytes, restored.footprint().payloadBytes);
+                assertTrue("mode" + m, restored.lazyMelds == mode[0] && restored.lazyDecreaseKeys == mode[1]);
+
+                Heap.HeapItem[] a = HeapTraceRecorder.items(heap);
+                Heap.HeapItem[] b = HeapTraceRecorder.items(restored);
+                boolean same = a.length == b.length;
+                for (int i = 0; same && i < a.length; i++) {
+                    Heap.HeapNode x = a[i].node;
+                    Heap.HeapNode y = b[i].node;
+                    same = a[i].key == b[i].key && a[i].id == b[i].id && java.util.Objects.equals(a[i].info, b[i].info)
+                            && x.rank == y.rank && x.mark == y.mark
+                            && (x.parent == null) == (y.parent == null)
+                            && (x.parent == null || x.parent.item.key == y.parent.item.key)
+                            && y.next.prev == y && y.prev.next == y && (y.child == null || y.child.parent == y);
+                }
+                assertTrue("same forest, node by node" + m, same);
+                java.util.Set<Heap.HeapItem> all = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+                all.addAll(java.util.Arrays.asList(b));
+                assertTrue("every restored item handed out once" + m, all.containsAll(handedOut) && handedOut.size() == b.length);
+
+                // Same shape, so the same operations cost the same on both
+                java.util.Map<Heap.HeapItem, Heap.HeapItem> twin = new java.util.IdentityHashMap<>();
+                for (int i = 0; i < a.length; i++) twin.put(a[i], b[i]);
+                boolean sameRun = true;
+                for (int i = 0; i < 400; i++) {
+                    int op = rnd.nextInt(3);
+                    if (op == 0) {
+                        int key = 1 + rnd.nextInt(100000);
+                        twin.put(heap.insert(key, null, i), restored.insert(key, null, i));
+                    } else if (op == 1) {
+                        twin.remove(heap.findMin());
+                        heap.deleteMin();
+                        restored.deleteMin();
+                    } else {
+                        Heap.HeapItem item = HeapTraceRecorder.items(heap)[rnd.nextInt(heap.size())];
+                        if (item.key > 1) {
+                            int diff = 1 + rnd.nextInt(item.key - 1);
+                            Heap.HeapItem other = twin.get(item);
+                            heap.decreaseKey(item, diff);
+                            restored.decreaseKey(other, diff);
+                        }
+                    }
+                    sameRun &= heap.findMin().key == restored.findMin().key
+                            && heap.totalLinks() == restored.totalLinks() && heap.totalCuts() == restored.totalCuts()
+                            && heap.numTrees() == restored.numTrees() && heap.numMarkedNodes() == restored.numMarkedNodes();
+                }
+                assertTrue("later operations identical" + m, sameRun);
+            }
+
+            Heap empty = new Heap(true, true);
+            HeapSnapshot.write(empty, file);
+            Heap back = HeapSnapshot.read(file);
+            assertNull("empty heap round trip", back.findMin());
+            assertEquals("empty heap size", 0, back.size());
+
+            java.nio.file.Files.write(file, new byte[HeapSnapshot.HEADER_BYTES]);
+            boolean rejected = false;
+            try {
+                HeapSnapshot.read(file);
+            } catch (java.io.IOException e) {
+                rejected = true;
+            }
+            assertTrue("bad magic rejected", rejected);
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    private static void testScenario27_WriteAheadLog() throws Exception {
+        printSection("Scenario 27: Write-Ahead Log and Recovery");
+
+        HeapWal.FsyncPolicy[] policies = HeapWal.FsyncPolicy.values();
+        for (int mi = 0; mi < MODES.length; mi++) {
+            boolean[] mode = MODES[mi];
+            String m = modeLabel(mode);
+            java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("heapwal");
+            try {
+                java.util.Random rnd = new java.util.Random(27 + mi);
+                Heap heap = new Heap(mode[0], mode[1]);
+                // Keyed above the random keys below, so that deleteMin leaves them alone
+                for (int i = 0; i < 50; i++) heap.insert(200000 + rnd.nextInt(1000), "pre" + i, i % 2 == 0 ? 0 : 100000 + i);
+
+                // A small ring, so appends wrap around and wait for the writer
+                HeapWal wal = HeapWal.attach(heap, dir, policies[mi % policies.length], 1, 256);
+                Heap.HeapItem[] pre = HeapTraceRecorder.items(heap);
+                java.util.List<Heap.HeapItem> live = new java.util.ArrayList<>(java.util.Arrays.asList(pre));
+                assertTrue("items already in the heap get ids at attach" + m, live.stream().allMatch(item -> item.id != 0));
+                String[] infos = {null, "", "job", "\u00e9t\u00e9"};
+                long nextId = 1;
+                for (int step = 0; step < 3000; step++) {
+                    int op = rnd.nextInt(10);
+                    if (op < 4 || heap.size() == 0) {
+                        long id = rnd.nextInt(4) == 0 ? 0 : nextId++;
+                        live.add(heap.insert(1 + rnd.nextInt(100000), infos[step % infos.length], id));
+                    } else if (op < 6) {
+                        live.remove(heap.findMin());
+                        heap.deleteMin();
+                    } else if (op < 8) {
+                        Heap.HeapItem item = live.get(rnd.nextInt(live.size()));
+                        if (item.key > 1) heap.decreaseKey(item, 1 + rnd.nextInt(item.key - 1));
+                    } else if (op < 9) {
+                        Heap.HeapItem item = live.remove(rnd.nextInt(live.size()));
+                        heap.delete(item);
+                    } else {
+                        Heap other = new Heap(mode[0], mode[1]);
+                        for (int k = 0; k < 5; k++) live.add(other.insert(1 + rnd.nextInt(100000), "meld", k % 2 == 0 ? 0 : nextId++));
+                        heap.meld(other);
+                    }
+                    if (step == 1500) {
+                        long before = wal.generation();
+                        wal.checkpoint();
+                        assertEquals("checkpoint starts a generation" + m, before + 1, wal.generation());
+                    }
+                }
+                assertTrue("id-less items were given ids" + m, live.stream().allMatch(item -> item.id != 0));
+                // Logged after the checkpoint, operations on items from before attach must find them on replay
+                int touched = 0;
+                for (Heap.HeapItem item : pre) {
+                    if (item.node == null) continue;
+                    if (touched++ % 2 == 0) {
+                        heap.decreaseKey(item, item.key - 1 - touched);
+                    } else {
+                        live.remove(item);
+                        heap.delete(item);
+                    }
+                }
+                assertTrue("items from before attach left to operate on" + m, touched >= 10);
+
+                // Crash: what has been synced must come back, without closing the log
+                wal.sync();
+                HeapWal.Recovery r = HeapWal.recover(dir, mode[0], mode[1]);
+                assertEquals("recovered size" + m, heap.size(), r.heap.size());
+                assertEquals("recovered min" + m, heap.findMin().key, r.heap.findMin().key);
+                assertTrue("recovered contents" + m, contents(heap).equals(contents(r.heap)));
+                assertEquals("recovered from the checkpoint" + m, wal.generation(), r.generation);
+                assertTrue("clean log" + m, !r.torn);
+                assertTrue("recovered heap has no id index" + m, !r.heap.hasIdIndex());
+                long files;
+                try (java.util.stream.Stream<java.nio.file.Path> list = java.nio.file.Files.list(dir)) {
+                    files = list.count();
+                }
+                assertEquals("older generations deleted" + m, 2L, files);
+
+                // A torn tail (a frame cut short by the crash) is dropped
+                java.nio.file.Path log = dir.resolve("log-" + wal.generation() + ".wal");
+                wal.close();
+                assertNull("listener restored" + m, heap.listener());
+                java.nio.file.Files.write(log, new byte[]{40, 0, 0, 0, 1, 2, 3, 4, 5}, java.nio.file.StandardOpenOption.APPEND);
+                r = HeapWal.recover(dir, mode[0], mode[1]);
+                assertTrue("torn tail detected" + m, r.torn);
+                assertTrue("torn tail ignored" + m, contents(heap).equals(contents(r.heap)));
+
+                // Recovered heaps can be logged again and keep their ids apart
+                HeapWal again = HeapWal.attach(r.heap, dir, HeapWal.FsyncPolicy.NEVER, 0, 1 << 12);
+                Heap.HeapItem fresh = r.heap.insert(7, null);
+                r.heap.deleteMin();
+                again.close();
+                assertTrue("fresh auto id" + m, fresh.id != 0 && live.stream().noneMatch(item -> item.id == fresh.id));
+                HeapWal.Recovery r2 = HeapWal.recover(dir, mode[0], mode[1]);
+                assertTrue("second recovery" + m, contents(r.heap).equals(contents(r2.heap)));
+            } finally {
+                try (java.util.stream.Stream<java.nio.file.Path> list = java.nio.file.Files.list(dir)) {
+                    for (java.nio.file.Path f : (Iterable<java.nio.file.Path>) list::iterator) java.nio.file.Files.delete(f);
+                }
+                java.nio.file.Files.delete(dir);
+            }
+        }
+
+        // Records larger than a frame are split across frames and joined again on replay
+        java.nio.file.Path big = java.nio.file.Files.createTempDirectory("heapwal");
+        try {
+            Heap heap = new Heap(true, true);
+            HeapWal wal = HeapWal.attach(heap, big, HeapWal.FsyncPolicy.NEVER, 0, 1 << 22);
+            for (int i = 0; i < 8; i++) heap.insert(1 + i, String.valueOf((char) ('a' + i)).repeat(700_000), i + 1);
+            heap.deleteMin();
+            wal.close();
+            HeapWal.Recovery r = HeapWal.recover(big, true, true);
+            assertEquals("records across frames replayed", 9L, r.replayed);
+            assertTrue("records across frames recovered", contents(heap).equals(contents(r.heap)) && !r.torn);
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> list = java.nio.file.Files.list(big)) {
+                for (java.nio.file.Path f : (Iterable<java.nio.file.Path>) list::iterator) java.nio.file.Files.delete(f);
+            }
+            java.nio.file.Files.delete(big);
+        }
+
+        // A cleared heap stays cleared, and its items can come back under the same ids
+        java.nio.file.Path cleared = java.nio.file.Files.createTempDirectory("heapwal");
+        try {
+            Heap heap = new Heap(true, true);
+            HeapWal wal = HeapWal.attach(heap, cleared, HeapWal.FsyncPolicy.NEVER, 0, 1 << 12);
+            Heap.HeapItem x = heap.insert(5, "x");
+            heap.insert(7, "y");
+            heap.clear();
+            heap.reinsert(x, 9);
+            heap.insert(3, "z");
+            wal.sync();
+            HeapWal.Recovery r = HeapWal.recover(cleared, true, true);
+            wal.close();
+            assertTrue("clear recovered", contents(heap).equals(contents(r.heap)) && !r.torn);
+            assertEquals("clear replayed as one record", 5L, r.replayed);
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> list = java.nio.file.Files.list(cleared)) {
+                for (java.nio.file.Path f : (Iterable<java.nio.file.Path>) list::iterator) java.nio.file.Files.delete(f);
+            }
+            java.nio.file.Files.delete(cleared);
+        }
+
+        // Logs alone (no snapshot) replay into an empty heap
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("heapwal");
+        try {
+            HeapWal.Recovery empty = HeapWal.recover(dir, true, true);
+            assertEquals("empty dir recovers an empty heap", 0, empty.heap.size());
+            assertEquals("no snapshot", -1L, empty.generation);
+        } finally {
+            java.nio.file.Files.delete(dir);
+        }
+    }
+
+    // (key, id, info) of every item, sorted
+    private static java.util.List<String> contents(Heap heap) {
+        java.util.List<String> out = new java.util.ArrayList<>();
+        for (Heap.HeapItem item : HeapTraceRecorder.items(heap)) out.add(item.key + ":" + item.id + ":" + item.info);
+        java.util.Collections.sort(out);
+        return out;
+    }
+
+    private static void testScenario28_PersistentHeap() {
+        printSection("Scenario 28: Persistent Heap Versions");
+
+        java.util.Random rnd = new java.util.Random(28);
+        PersistentHeap v = PersistentHeap.EMPTY;
+        java.util.PriorityQueue<Integer> pq = new java.util.PriorityQueue<>();
+        java.util.List<PersistentHeap> versions = new java.util.ArrayList<>();
+        java.util.List<java.util.List<Integer>> expected = new java.util.ArrayList<>();
+        boolean sameMin = true;
+        boolean pathCopied = true;
+        for (int step = 0; step < 20000; step++) {
+            if (rnd.nextInt(3) < 2 || v.isEmpty()) {
+                int key = 1 + rnd.nextInt(1000);
+                v = v.insert(key, "k" + key, step + 1);
+                pq.add(key);
+            } else {
+                v = v.deleteMin();
+                pq.poll();
+            }
+            sameMin &= v.size() == pq.size() && (v.isEmpty() ? pq.isEmpty() : v.findMin().key == pq.peek());
+            // Right spines have at most log2(n + 1) nodes each
+            pathCopied &= v.nodesCopied() <= 2 * (32 - Integer.numberOfLeadingZeros(v.size() + 1)) + 1;
+            if (step % 2000 == 0) {
+                versions.add(v);
+                java.util.List<Integer> keys = new java.util.ArrayList<>(pq);
+                java.util.Collections.sort(keys);
+                expected.add(keys);
+            }
+        }
+        assertTrue("min and size match a PriorityQueue", sameMin);
+        assertTrue("each version copies O(log n) nodes", pathCopied);
+
+        // Old versions are unchanged by everything after them
+        boolean unchanged = true;
+        for (int i = 0; i < versions.size(); i++) {
+            unchanged &= drain(versions.get(i)).equals(expected.get(i));
+        }
+        assertTrue("old versions unchanged", unchanged);
+
+        // Meld keeps both arguments
+        PersistentHeap a = versions.get(3);
+        PersistentHeap b = versions.get(7);
+        PersistentHeap both = a.meld(b);
+        java.util.List<Integer> union = new java.util.ArrayList<>(expected.get(3));
+        union.addAll(expected.get(7));
+        java.util.Collections.sort(union);
+        assertTrue("meld holds both", drain(both).equals(union));
+        assertTrue("meld arguments unchanged", drain(a).equals(expected.get(3)) && drain(b).equals(expected.get(7)));
+        int[] visited = new int[1];
+        both.forEach(node -> visited[0]++);
+        assertEquals("forEach visits every entry", both.size(), visited[0]);
+
+        assertTrue("empty deleteMin", PersistentHeap.EMPTY.deleteMin() == PersistentHeap.EMPTY);
+        assertNull("empty findMin", PersistentHeap.EMPTY.findMin());
+        PersistentHeap.Node min = PersistentHeap.EMPTY.insert(4, "x", 9).insert(2, "y", 8).findMin();
+        assertTrue("entry fields", min.key == 2 && "y".equals(min.info) && min.id == 8);
+
+        // One writer, O(1) snapshots for readers
+        PersistentHeap.Latest latest = new PersistentHeap.Latest();
+        for (int i = 10; i > 0; i--) latest.insert(i, null, i);
+        PersistentHeap snap = latest.snapshot();
+        assertEquals("Latest deleteMin", 1, latest.deleteMin().key);
+        latest.insert(0, null, 0);
+        assertEquals("snapshot keeps its size", 10, snap.size());
+        assertEquals("snapshot keeps its min", 1, snap.findMin().key);
+        assertEquals("latest min", 0, latest.snapshot().findMin().key);
+    }
+
+    // Keys of a version in order, by repeated deleteMin on the (unchanged) version
+    private static java.util.List<Integer> drain(PersistentHeap v) {
+        java.util.List<Integer> keys = new java.util.ArrayList<>();
+        for (; !v.isEmpty(); v = v.deleteMin()) keys.add(v.findMin().key);
+        return keys;
+    }
+
+    private static void testScenario29_PeekAndOrderedIteration() {
+        printSection("Scenario 29: Non-destructive Top-k and Ordered Iteration");
+
+        for (boolean[] mode : MODES) {
+            String m = modeLabel(mode);
+            java.util.Random rnd = new java.util.Random(29);
+            Heap heap = new Heap(mode[0], mode[1]);
+            Heap.HeapItem[] items = new Heap.HeapItem[5000];
+            for (int i = 0; i < items.length; i++) items[i] = heap.insert(1 + rnd.nextInt(2000), null, i);
+            for (int i = 0; i < 500; i++) heap.deleteMin();
+            for (int i = 0; i < 1000; i++) {
+                Heap.HeapItem item = items[rnd.nextInt(items.length)];
+                if (item.node != null && item.key > 1) heap.decreaseKey(item, 1 + rnd.nextInt(item.key - 1));
+            }
+            for (int i = 0; i < 300; i++) heap.insert(1 + rnd.nextInt(2000), null, -i); // loose roots when lazy
+
+            Heap.HeapItem[] all = HeapTraceRecorder.items(heap);
+            int[] sorted = new int[all.length];
+            for (int j = 0; j < all.length; j++) sorted[j] = all[j].key;
+            java.util.Arrays.sort(sorted);
+
+            Heap.HeapItem min = heap.findMin();
+            long[] before = {heap.size(), heap.numTrees(), heap.numMarkedNodes(), heap.totalLinks(), heap.totalCuts(),
+                    heap.totalHeapifyCosts(), heap.totalDeleteMins(), heap.maxOpCost(), heap.peakNumTrees()};
+
+            Heap.HeapItem[] top = heap.peekK(100);
+            boolean ordered = top.length == 100;
+            for (int i = 0; ordered && i < top.length; i++) ordered = top[i].key == sorted[i] && top[i].node != null;
+            assertTrue("peekK(100) = 100 smallest, ascending" + m, ordered);
+
+            java.util.Iterator<Heap.HeapItem> it = heap.orderedIterator();
+            java.util.Set<Heap.HeapItem> seen = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+            boolean full = true;
+            int i = 0;
+            while (it.hasNext()) {
+                Heap.HeapItem item = it.next();
+                full &= i < sorted.length && item.key == sorted[i++] && seen.add(item);
+            }
+            assertTrue("iterator visits every item once, in order" + m, full && i == sorted.length);
+            boolean exhausted = false;
+            try {
+                it.next();
+            } catch (java.util.NoSuchElementException e) {
+                exhausted = true;
+            }
+            assertTrue("NoSuchElementException at the end" + m, exhausted);
+
+            long[] after = {heap.size(), heap.numTrees(), heap.numMarkedNodes(), heap.totalLinks(), heap.totalCuts(),
+                    heap.totalHeapifyCosts(), heap.totalDeleteMins(), heap.maxOpCost(), heap.peakNumTrees()};
+            assertTrue("state and counters untouched" + m, java.util.Arrays.equals(before, after) && heap.findMin() == min);
+
+            assertEquals("peekK(0)" + m, 0, heap.peekK(0).length);
+            assertEquals("peekK beyond size" + m, heap.size(), heap.peekK(heap.size() + 10).length);
+
+            // Fail fast on modification, also of a heap melded away
+            it = heap.orderedIterator();
+            it.next();
+            heap.insert(7, null);
+            boolean failed = false;
+            try {
+                it.next();
+            } catch (java.util.ConcurrentModificationException e) {
+                failed = true;
+            }
+            assertTrue("insert invalidates the iterator" + m, failed);
+
+            Heap other = new Heap(mode[0], mode[1]);
+            other.insert(3, null);
+            it = other.orderedIterator();
+            heap.meld(other);
+            failed = false;
+            try {
+                it.next();
+            } catch (java.util.ConcurrentModificationException e) {
+                failed = true;
+            }
+            assertTrue("meld invalidates the melded heap's iterator" + m, failed);
+        }
+
+        Heap empty = new Heap(true, true);
+        assertTrue("empty heap iterator", !empty.orderedIterator().hasNext() && empty.peekK(5).length == 0);
+    }
+
+    private static void testScenario30_ExtractUpTo() {
+        printSection("Scenario 30: Threshold Extraction");
+
+        for (boolean[] mode : MODES) {
+            String m = modeLabel(mode);
+            java.util.Random rnd = new java.util.Random(30);
+            Heap heap = new Heap(mode[0], mode[1]);
+            Heap.HeapItem[] items = new Heap.HeapItem[4000];
+            for (int i = 0; i < items.length; i++) items[i] = heap.insert(1 + rnd.nextInt(100000), "i" + i, i);
+            for (int i = 0; i < 200; i++) heap.deleteMin();
+            for (int i = 0; i < 1500; i++) {
+                Heap.HeapItem item = items[rnd.nextInt(items.length)];
+                if (item.node != null && item.key > 1) heap.decreaseKey(item, 1 + rnd.nextInt(Math.min(item.key - 1, 20000)));
+            }
+            for (int i = 0; i < 200; i++) heap.insert(1 + rnd.nextInt(100000), null, -i);
+            assertPositive("marks before extraction" + m, mode[1] ? heap.numMarkedNodes() : 1);
+
+            int[] counts = new int[2];
+            heap.setListener(new HeapListener() {
+                @Override public void onDelete(Heap.HeapItem item) { counts[0]++; }
+                @Override public void onConsolidationStart(int rootCount) { counts[1]++; }
+            });
+
+            int threshold = 30000;
+            java.util.List<Integer> expectedOut = new java.util.ArrayList<>();
+            java.util.List<Integer> expectedRest = new java.util.ArrayList<>();
+            for (Heap.HeapItem item : HeapTraceRecorder.items(heap)) {
+                (item.key <= threshold ? expectedOut : expectedRest).add(item.key);
+            }
+            java.util.Collections.sort(expectedOut);
+            java.util.Collections.sort(expectedRest);
+            long payloadBefore = heap.footprint().payloadBytes;
+
+            java.util.List<Heap.HeapItem> out = new java.util.ArrayList<>();
+            int n = heap.extractUpTo(threshold, out::add);
+            java.util.List<Integer> outKeys = new java.util.ArrayList<>();
+            boolean detached = true;
+            long payloadOut = 0;
+            for (Heap.HeapItem item : out) {
+                outKeys.add(item.key);
+                detached &= item.node == null;
+                payloadOut += HeapFootprint.stringBytes(item.info);
+            }
+            java.util.Collections.sort(outKeys);
+            assertEquals("count returned" + m, expectedOut.size(), n);
+            assertTrue("exactly the keys <= threshold" + m, outKeys.equals(expectedOut));
+            assertTrue("extracted items detached" + m, detached);
+            assertEquals("one consolidation" + m, 1, counts[1]);
+            assertEquals("one onDelete per item" + m, n, counts[0]);
+            assertEquals("size" + m, expectedRest.size(), heap.size());
+            assertEquals("payloadBytes" + m, payloadBefore - payloadOut, heap.footprint().payloadBytes);
+            assertTrue("min above threshold" + m, heap.findMin().key > threshold);
+
+            // Structure: heap order, parent links, marks and roots as counted
+            int roots = 0;
+            int marked = 0;
+            boolean valid = true;
+            for (Heap.HeapItem item : HeapTraceRecorder.items(heap)) {
+                Heap.HeapNode node = item.node;
+                valid &= node != null && node.item == item && node.next.prev == node && node.prev.next == node;
+                if (node.parent == null) {
+                    roots++;
+                    valid &= !node.mark;
+                } else {
+                    valid &= node.parent.item.key <= item.key;
+                }
+                if (node.mark) marked++;
+                if (node.child != null) valid &= node.child.parent == node;
+            }
+            assertTrue("heap structure valid" + m, valid);
+            assertEquals("numTrees" + m, roots, heap.numTrees());
+            assertEquals("numMarkedNodes" + m, marked, heap.numMarkedNodes());
+            heap.setListener(null);
+
+            assertEquals("nothing below the min" + m, 0, heap.extractUpTo(threshold, item -> { }));
+            java.util.List<Integer> rest = new java.util.ArrayList<>();
+            while (heap.size() > 0) {
+                rest.add(heap.findMin().key);
+                heap.deleteMin();
+            }
+            assertTrue("remaining items in order" + m, rest.equals(expectedRest));
+
+            for (int i = 0; i < 50; i++) heap.insert(1 + rnd.nextInt(100), null);
+            assertEquals("extract everything" + m, 50, heap.extractUpTo(Integer.MAX_VALUE, item -> { }));
+            assertTrue("heap emptied" + m, heap.findMin() == null && heap.size() == 0 && heap.numTrees() == 0);
+        }
+
+        // Counted like any other modification
+        Heap heap = new Heap(true, true);
+        for (int i = 1; i <= 10; i++) heap.insert(i, null);
+        java.util.Iterator<Heap.HeapItem> it = heap.orderedIterator();
+        HeapOpStats stats = heap.enableOpStats();
+        heap.extractUpTo(3, item -> { });
+        assertEquals("recorded as EXTRACT_UP_TO", 1, stats.snapshot().nanos(Heap.OpType.EXTRACT_UP_TO).count());
+        boolean failed = false;
+        try {
+            it.next();
+        } catch (java.util.ConcurrentModificationException e) {
+            failed = true;
+        }
+        assertTrue("extractUpTo invalidates iterators", failed);
+
+        // The listener hears of the removals once the heap is consistent again
+        Heap guarded = new Heap(true, true);
+        for (int i = 1; i <= 20; i++) guarded.insert(i, null);
+        guarded.deleteMin();   // builds trees, so the removals promote children
+        boolean[] after = {true};
+        guarded.setListener(new HeapListener() {
+            @Override public void onDelete(Heap.HeapItem item) {
+                after[0] &= item.node == null && guarded.size() == 12 && guarded.findMin().key == 9;
+                throw new IllegalStateException("listener failure");
+            }
+        });
+        boolean thrown = false;
+        try {
+            guarded.extractUpTo(8, item -> { });
+        } catch (IllegalStateException e) {
+            thrown = true;
+        }
+        assertTrue("listener failure propagates", thrown);
+        assertTrue("onDelete after the removal", after[0]);
+        guarded.setListener(null);
+        java.util.List<Integer> left = new java.util.ArrayList<>();
+        while (guarded.size() > 0) {
+            left.add(guarded.findMin().key);
+            guarded.deleteMin();
+        }
+        java.util.List<Integer> nineToTwenty = new java.util.ArrayList<>();
+        for (int k = 9; k <= 20; k++) nineToTwenty.add(k);
+        assertTrue("heap intact after a failing listener", left.equals(nineToTwenty));
+    }
+
+    private static void testScenario31_IdIndex() {
+        printSection("Scenario 31: Id Index");
+
+        for (boolean[] mode : MODES) {
+            String m = modeLabel(mode);
+            java.util.Random rnd = new java.util.Random(31);
+            Heap heap = new Heap(mode[0], mode[1]);
+            for (int i = 1; i <= 100; i++) heap.insert(1 + rnd.nextInt(1000), null, i);
+            heap.insert(5, null);   // id 0: not indexed
+            heap.enableIdIndex();
+            assertTrue("index built from current items" + m, heap.hasIdIndex() && heap.contains(37) && !heap.contains(0));
+
+            // Random operations against a map of the expected id -> key
+            java.util.Map<Long, Integer> model = new java.util.HashMap<>();
+            for (Heap.HeapItem item : HeapTraceRecorder.items(heap)) if (item.id != 0) model.put(item.id, item.key);
+            long nextId = 101;
+            boolean consistent = true;
+            for (int step = 0; step < 20000; step++) {
+                int op = rnd.nextInt(6);
+                if (op <= 1 || model.isEmpty()) {
+                    long id = rnd.nextInt(8) == 0 ? -nextId : nextId;   // negative ids too
+                    nextId++;
+                    int key = 1 + rnd.nextInt(100000);
+                    heap.insert(key, null, id);
+                    model.put(id, key);
+                } else if (op == 2) {
+                    Heap.HeapItem min = heap.findMin();
+                    model.remove(min.id);
+                    heap.deleteMin();
+                } else {
+                    long id = model.size() > 0 && rnd.nextInt(10) > 0
+                            ? (Long) model.keySet().toArray()[rnd.nextInt(model.size())] : nextId + 5;
+                    Integer key = model.get(id);
+                    if (op == 3) {
+                        int diff = key == null || key <= 1 ? 1 : 1 + rnd.nextInt(key - 1);
+                        consistent &= heap.decreaseKeyById(id, diff) == (key != null);
+                        if (key != null) model.put(id, key - diff);
+                    } else if (op == 4) {
+                        consistent &= heap.deleteById(id) == (key != null);
+                        model.remove(id);
+                    } else {
+                        int threshold = heap.findMin().key + rnd.nextInt(50);
+                        heap.extractUpTo(threshold, item -> model.remove(item.id));
+                    }
+                }
+                if (step % 500 == 0) {
+                    for (java.util.Map.Entry<Long, Integer> e : model.entrySet()) {
+                        Heap.HeapItem item = heap.findById(e.getKey());
+                        consistent &= item != null && item.node != null && item.key == e.getValue();
+                    }
+                }
+            }
+            assertTrue("index follows inserts and every kind of removal" + m, consistent);
+            assertTrue("removed ids are gone" + m, !heap.contains(nextId + 5));
+
+            // Duplicate ids are rejected before anything changes
+            long taken = model.keySet().iterator().next();
+            int size = heap.size();
+            boolean rejected = false;
+            try {
+                heap.insert(1, null, taken);
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            assertTrue("duplicate insert rejected" + m, rejected && heap.size() == size);
+
+            // Meld: heap2's items join the index, heap2's index empties
+            Heap other = new Heap(mode[0], mode[1]);
+            other.enableIdIndex();
+            other.insert(3, null, 1_000_000_001L);
+            other.insert(4, null, 1_000_000_002L);
+            heap.meld(other);
+            assertTrue("melded ids indexed" + m, heap.contains(1_000_000_001L) && heap.findById(1_000_000_002L).key == 4);
+            assertTrue("heap2 index emptied" + m, !other.contains(1_000_000_001L));
+
+            Heap clash = new Heap(mode[0], mode[1]);
+            clash.insert(2, null, 1_000_000_003L);
+            clash.insert(2, null, taken);
+            size = heap.size();
+            rejected = false;
+            try {
+                heap.meld(clash);
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            assertTrue("meld with a taken id rejected" + m, rejected && heap.size() == size && clash.size() == 2
+                    && !heap.contains(1_000_000_003L));
+
+            // Reinsert and clear
+            Heap.HeapItem min = heap.findMin();
+            heap.deleteMin();
+            heap.reinsert(min, 7);
+            assertTrue("reinsert indexed" + m, min.id == 0 || heap.findById(min.id) == min);
+            heap.clear();
+            assertTrue("clear empties the index" + m, !heap.contains(taken) && !heap.contains(1_000_000_001L));
+        }
+
+        Heap plain = new Heap(true, true);
+        plain.insert(1, null, 9);
+        plain.insert(2, null, 9);
+        boolean rejected = false;
+        try {
+            plain.enableIdIndex();
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assertTrue("enable with duplicate ids rejected", rejected && !plain.hasIdIndex());
+        rejected = false;
+        try {
+            plain.findById(9);
+        } catch (IllegalStateException e) {
+            rejected = true;
+        }
+        assertTrue("findById without an index", rejected);
+        plain.disableIdIndex();
+    }
+
+    /**
+     * Additional Scenario: Shipped Workloads
+     *
+     * Every workload in workloads/ runs (shortened, for the seeds of the first
+     * HeapExperiments runs) against a reference multiset of keys kept by a
+     * listener: keys stay >= 1, each deleteMin removes the reference minimum,
+     * and the final contents agree.
+     */
+    private static void testScenario32_ShippedWorkloads() throws Exception {
+        printSection("Scenario 32: Shipped Workloads");
+
+        // Run from the project root or from a build directory below it
+        java.nio.file.Path dir = java.nio.file.Paths.get("workloads");
+        if (!java.nio.file.Files.isDirectory(dir)) dir = java.nio.file.Paths.get("..", "workloads");
+        assertTrue("workloads directory found", java.nio.file.Files.isDirectory(dir));
+        if (!java.nio.file.Files.isDirectory(dir)) return;
+
+        java.util.List<java.nio.file.Path> files;
+        try (java.util.stream.Stream<java.nio.file.Path> list = java.nio.file.Files.list(dir)) {
+            files = list.filter(f -> f.toString().endsWith(".workload")).sorted().collect(java.util.stream.Collectors.toList());
+        }
+        assertTrue("dijkstra-like.workload shipped", files.contains(dir.resolve("dijkstra-like.workload")));
+        for (java.nio.file.Path file : files) {
+            HeapWorkload workload = HeapWorkload.parse(file);
+            for (HeapWorkload.Phase phase : workload.phases) phase.ops = Math.min(phase.ops, 20_000);
+            HeapWorkload.Program[] programs = new HeapWorkload.Program[5];
+            for (int run = 0; run < programs.length; run++) programs[run] = workload.generate(workload.seed + run);
+            for (boolean[] mode : MODES) {
+                String m = " (" + file.getFileName() + ", " + modeLabel(mode).substring(2);
+                boolean[] valid = {true, true, true};   // keys >= 1, deleteMin takes the reference minimum, same contents
+                for (HeapWorkload.Program program : programs) {
+                    java.util.TreeMap<Integer, Integer> reference = new java.util.TreeMap<>();
+                    Heap heap = new Heap(mode[0], mode[1]);
+                    heap.setListener(new HeapListener() {
+                        @Override public void onInsert(Heap.HeapItem item) {
+                            valid[0] &= item.key >= 1;
+                            reference.merge(item.key, 1, Integer::sum);
+                        }
+                        @Override public void onDeleteMin(Heap.HeapItem min) {
+                            valid[1] &= min.key == reference.firstKey();
+                            reference.merge(min.key, -1, (a, b) -> a + b == 0 ? null : a + b);
+                        }
+                        @Override public void onDecreaseKey(Heap.HeapItem item, int diff) {
+                            valid[0] &= diff >= 0 && item.key - diff >= 1;
+                            reference.merge(item.key, -1, (a, b) -> a + b == 0 ? null : a + b);
+                            reference.merge(item.key - diff, 1, Integer::sum);
+                        }
+                        @Override public void onDelete(Heap.HeapItem item) {
+                            reference.merge(item.key, -1, (a, b) -> a + b == 0 ? null : a + b);
+                        }
+                        @Override public void onMeld(Heap other) {
+                            for (Heap.HeapItem item : HeapTraceRecorder.items(other)) {
+                                valid[0] &= item.key >= 1;
+                                reference.merge(item.key, 1, Integer::sum);
+                            }
+                        }
+                    });
+                    HeapWorkload.execute(program, heap);
+
+                    java.util.List<Integer> expected = new java.util.ArrayList<>();
+                    reference.forEach((key, count) -> expected.addAll(java.util.Collections.nCopies(count, key)));
+                    java.util.List<Integer> actual = new java.util.ArrayList<>();
+                    for (Heap.HeapItem item : HeapTraceRecorder.items(heap)) actual.add(item.key);
+                    java.util.Collections.sort(actual);
+                    valid[2] &= expected.equals(actual);
+                }
+                assertTrue("keys stay >= 1" + m, valid[0]);
+                assertTrue("deleteMin removes the minimum" + m, valid[1]);
+                assertTrue("contents match the reference" + m, valid[2]);
+            }
+        }
+
+        boolean rejected = false;
+        try {
+            HeapWorkload.parse(java.util.Arrays.asList("phase p", "ops 1", "mix insert=100", "keys monotone 0 50"), "test");
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assertTrue("key range starting at 0 rejected", rejected);
+
+        // The links made while building the melded heaps are not the phase's: eager binomial
+        // links every item but one per tree, 10 heaps of 50 = 110010b items bring 10 * 47 along
+        HeapWorkload melding = HeapWorkload.parse(java.util.Arrays.asList(
+                "phase melds", "ops 10", "mix meld=100", "keys uniform 1 1000", "meld 50 50"), "test");
+        HeapWorkload.PhaseResult meldPhase = HeapWorkload.execute(melding.generate(1), false, false)[0];
+        assertEquals("melded heaps' own links left out", 500 - meldPhase.finalNumTrees - 10 * 47, meldPhase.links);
+    }
+
     // ================== Main Entry Point ==================
 
     public static void main(String[] args) {
@@ -750,6 +2462,28 @@ public class HeapTester {
             testScenario8_DeleteNode();
             testScenario9_EdgeCases();
             testScenario10_DuplicateKeys();
+            testScenario11_ParallelLinking();
+            testScenario12_OpStats();
+            testScenario13_ListenerAndCounters();
+            testScenario14_JmxMonitor();
+            testScenario15_ShapeStats();
+            testScenario16_Footprint();
+            testScenario17_SlowOpDetector();
+            testScenario18_TraceReplay();
+            testScenario19_GraphAlgorithms();
+            testScenario20_ReuseAndAStar();
+            testScenario21_DeltaStepping();
+            testScenario22_EventScheduler();
+            testScenario23_TimerWheel();
+            testScenario24_ExternalSort();
+            testScenario25_ExternalHeap();
+            testScenario26_Snapshot();
+            testScenario27_WriteAheadLog();
+            testScenario28_PersistentHeap();
+            testScenario29_PeekAndOrderedIteration();
+            testScenario30_ExtractUpTo();
+            testScenario31_IdIndex();
+            testScenario32_ShippedWorkloads();
 
         } catch (Exception e) {
             System.out.println("\n*** EXCEPTION OCCURRED ***");
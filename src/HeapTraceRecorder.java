@@ -0,0 +1,333 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * HeapTraceRecorder
+ *
+ * Records every operation of one Heap into a compact binary trace file, to be
+ * re-run later by HeapTraceReplayer against any heap mode.
+ *
+ *   HeapTraceRecorder rec = HeapTraceRecorder.attach(heap, Path.of("queue.trace"));
+ *   ... use heap ...
+ *   rec.close();
+ *
+ * File layout (little endian): a header of MAGIC (int) and VERSION (int), then
+ * fixed-size records of RECORD_BYTES: op (byte), handle (long), key (int), diff (int).
+ *  - INSERT        handle of the new item, its key
+ *  - DELETE_MIN    handle and key of the removed min
+ *  - DECREASE_KEY  handle, key before the decrease, diff
+ *  - DELETE        handle and key of the deleted item
+ *  - MELD          handle -1, key = number of melded items, followed by one
+ *                  MELD_ITEM record (new handle, key) per item of the other heap
+ *  - EXTRACT_UP_TO handle -1, key = threshold, diff = number of items removed
+ *  - CLEAR         handle -1, key = number of items removed
+ * Handles are dense ids 0, 1, 2, ... in order of first appearance, so the
+ * replayer can keep its items in an array. Items already in the heap when the
+ * recorder is attached are written as INSERT records. The handles of the items
+ * in the heap are kept in an identity hash table of primitive longs, so
+ * recording boxes nothing.
+ *
+ * The recorder is installed as the heap's listener (composed with any listener
+ * already set; close() restores it). While it is installed, consolidations run
+ * sequentially (see Heap.setParallelLinking()). Records are buffered and
+ * written with one FileChannel write per BUFFER_BYTES. I/O errors are rethrown
+ * as UncheckedIOException from the heap operation that triggered the write.
+ */
+public final class HeapTraceRecorder implements HeapListener, Closeable {
+
+    public static final int MAGIC = 0x48545243; // "HTRC"
+    public static final int VERSION = 2;   // 2 added EXTRACT_UP_TO and CLEAR
+    public static final int HEADER_BYTES = 8;
+    public static final int RECORD_BYTES = 1 + 8 + 4 + 4;
+    public static final int BUFFER_BYTES = RECORD_BYTES * 4096;
+
+    public static final byte INSERT = 1;
+    public static final byte DELETE_MIN = 2;
+    public static final byte DECREASE_KEY = 3;
+    public static final byte DELETE = 4;
+    public static final byte MELD = 5;
+    public static final byte MELD_ITEM = 6;
+    public static final byte EXTRACT_UP_TO = 7;
+    public static final byte CLEAR = 8;
+
+    private final Heap heap;
+    private final HeapListener previousListener;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final HandleTable handles = new HandleTable();
+    private long nextHandle;
+    private long records;
+    private boolean closed;
+
+    private HeapTraceRecorder(Heap heap, FileChannel channel) {
+        this.heap = heap;
+        this.previousListener = heap.listener();
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Start recording heap into file (created or truncated).
+     * The current items of heap are written first, as INSERT records.
+     */
+    public static HeapTraceRecorder attach(Heap heap, Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        HeapTraceRecorder recorder = new HeapTraceRecorder(heap, channel);
+        recorder.buffer.putInt(MAGIC).putInt(VERSION);
+        for (Heap.HeapItem item : items(heap)) {
+            recorder.write(INSERT, recorder.newHandle(item), item.key, 0);
+        }
+        heap.setListener(HeapListener.compose(recorder.previousListener, recorder));
+        return recorder;
+    }
+
+    /** Number of records written so far (buffered ones included) */
+    public long records() {
+        return records;
+    }
+
+    // ================== HeapListener ==================
+
+    @Override
+    public void onInsert(Heap.HeapItem item) {
+        write(INSERT, newHandle(item), item.key, 0);
+    }
+
+    @Override
+    public void onDeleteMin(Heap.HeapItem min) {
+        write(DELETE_MIN, removeHandle(min), min.key, 0);
+    }
+
+    @Override
+    public void onDecreaseKey(Heap.HeapItem item, int diff) {
+        write(DECREASE_KEY, handle(item), item.key, diff);
+    }
+
+    @Override
+    public void onDelete(Heap.HeapItem item) {
+        write(DELETE, removeHandle(item), item.key, 0);
+    }
+
+    @Override
+    public void onMeld(Heap other) {
+        Heap.HeapItem[] melded = items(other);
+        write(MELD, -1, melded.length, 0);
+        for (Heap.HeapItem item : melded) {
+            write(MELD_ITEM, newHandle(item), item.key, 0);
+        }
+    }
+
+    @Override
+    public void onExtractUpTo(int threshold, Heap.HeapItem[] removed) {
+        for (Heap.HeapItem item : removed) {
+            handles.remove(item);
+        }
+        write(EXTRACT_UP_TO, -1, threshold, removed.length);
+    }
+
+    @Override
+    public void onClear() {
+        handles.clear();
+        write(CLEAR, -1, heap.size(), 0);
+    }
+
+    // ================== Output ==================
+
+    private void write(byte op, long handle, int key, int diff) {
+        if (closed) {
+            return;
+        }
+        if (buffer.remaining() < RECORD_BYTES) {
+            flush();
+        }
+        buffer.put(op).putLong(handle).putInt(key).putInt(diff);
+        records++;
+    }
+
+    /** Write the buffered records to the file */
+    public void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /** Stop recording: restore the previous listener, flush and close the file */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        heap.setListener(previousListener);
+        try {
+            flush();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    // ================== Handles ==================
+
+    private long newHandle(Heap.HeapItem item) {
+        long h = nextHandle++;
+        handles.put(item, h);
+        return h;
+    }
+
+    private long handle(Heap.HeapItem item) {
+        return handles.get(item);
+    }
+
+    private long removeHandle(Heap.HeapItem item) {
+        return handles.remove(item);
+    }
+
+    /**
+     * Identity map from the items in the heap to their handles: open addressing
+     * with linear probing over a HeapItem[] and a parallel long[], like
+     * HeapIdIndex. Removal shifts the following entries of the probe run back,
+     * so there are no tombstones. The table doubles at half full.
+     */
+    private static final class HandleTable {
+        private Heap.HeapItem[] items = new Heap.HeapItem[16];
+        private long[] values = new long[16];
+        private int mask = 15;
+        private int size;
+
+        // Complexity O(1) expected
+        long get(Heap.HeapItem item) {
+            for (int i = slot(item); ; i = (i + 1) & mask) {
+                Heap.HeapItem k = items[i];
+                if (k == null) {
+                    return -1;
+                }
+                if (k == item) {
+                    return values[i];
+                }
+            }
+        }
+
+        // Complexity O(1) expected
+        void put(Heap.HeapItem item, long value) {
+            int i = slot(item);
+            for (Heap.HeapItem k; (k = items[i]) != null; i = (i + 1) & mask) {
+                if (k == item) {
+                    values[i] = value;
+                    return;
+                }
+            }
+            items[i] = item;
+            values[i] = value;
+            if (++size > (mask + 1) >>> 1) {
+                rehash(2 * (mask + 1));
+            }
+        }
+
+        // Complexity O(1) expected
+        /** Removes item; returns its handle, -1 if it had none */
+        long remove(Heap.HeapItem item) {
+            if (item == null) {
+                return -1;
+            }
+            int i = slot(item);
+            for (Heap.HeapItem k; (k = items[i]) != item; i = (i + 1) & mask) {
+                if (k == null) {
+                    return -1;
+                }
+            }
+            long value = values[i];
+            size--;
+            // Shift later entries of the run back into the hole when their home allows it
+            for (int hole = i, j = (i + 1) & mask; ; j = (j + 1) & mask) {
+                Heap.HeapItem k = items[j];
+                if (k == null) {
+                    items[hole] = null;
+                    return value;
+                }
+                int home = slot(k);
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    items[hole] = k;
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+        }
+
+        // Complexity O(capacity)
+        void clear() {
+            Arrays.fill(items, null);
+            size = 0;
+        }
+
+        private int slot(Heap.HeapItem item) {
+            int h = System.identityHashCode(item) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void rehash(int capacity) {
+            Heap.HeapItem[] oldItems = items;
+            long[] oldValues = values;
+            items = new Heap.HeapItem[capacity];
+            values = new long[capacity];
+            mask = capacity - 1;
+            for (int j = 0; j < oldItems.length; j++) {
+                Heap.HeapItem k = oldItems[j];
+                if (k != null) {
+                    int i = slot(k);
+                    while (items[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    items[i] = k;
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+    }
+
+    // Complexity O(n)
+    // All items of heap, in root-list order with every tree in preorder
+    static Heap.HeapItem[] items(Heap heap) {
+        Heap.HeapItem[] result = new Heap.HeapItem[heap.size()];
+        if (heap.min == null) {
+            return result;
+        }
+        int count = 0;
+        Heap.HeapNode[] stack = new Heap.HeapNode[16];
+        int top = 0;
+        Heap.HeapNode root = heap.min.node;
+        do {
+            stack[top++] = root;
+            while (top > 0) {
+                Heap.HeapNode node = stack[--top];
+                result[count++] = node.item;
+                Heap.HeapNode child = node.child;
+                if (child != null) {
+                    do {
+                        if (top == stack.length) {
+                            stack = java.util.Arrays.copyOf(stack, 2 * stack.length);
+                        }
+                        stack[top++] = child;
+                        child = child.next;
+                    } while (child != node.child);
+                }
+            }
+            root = root.next;
+        } while (root != heap.min.node);
+        return result;
+    }
+}
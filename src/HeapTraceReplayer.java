@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * HeapTraceReplayer
+ *
+ * Re-runs a trace written by HeapTraceRecorder against any heap mode and
+ * reports time and structural costs, so a recorded workload becomes a benchmark.
+ *
+ *   java HeapTraceReplayer <trace file> [runs]
+ *
+ * runs every mode (same 4 variants as HeapExperiments) on the trace.
+ *
+ * The trace is decoded into primitive arrays once (load()); replay() only times
+ * the heap operations. Replay is deterministic for a given mode. Note that with
+ * duplicate keys a different mode may remove a different (equal-key) item on
+ * deleteMin than the recorded one; later operations on the recorded handle are
+ * then applied to an item that is no longer in the heap, which Heap ignores.
+ */
+public final class HeapTraceReplayer {
+
+    /** A decoded trace */
+    public static final class Trace {
+        public final int length;
+        final byte[] ops;
+        final long[] handles;
+        final int[] keys;
+        final int[] diffs;
+        final long handleCount;
+
+        Trace(byte[] ops, long[] handles, int[] keys, int[] diffs) {
+            this.length = ops.length;
+            this.ops = ops;
+            this.handles = handles;
+            this.keys = keys;
+            this.diffs = diffs;
+            long max = -1;
+            for (long h : handles) max = Math.max(max, h);
+            this.handleCount = max + 1;
+        }
+    }
+
+    /** Result of one replay */
+    public static final class Result {
+        public long nanos;
+        public long operations;
+        public long links;
+        public long cuts;
+        public long heapifyCosts;
+        public long maxOpCost;
+        public Heap.OpType maxOpCostType;
+        public int finalSize;
+        public int finalNumTrees;
+
+        @Override
+        public String toString() {
+            return String.format("ops=%d timeMs=%.3f nsPerOp=%.1f links=%d cuts=%d heapifyCosts=%d maxOpCost=%d(%s) finalSize=%d finalNumTrees=%d",
+                    operations, nanos / 1e6, operations == 0 ? 0 : (double) nanos / operations,
+                    links, cuts, heapifyCosts, maxOpCost, maxOpCostType, finalSize, finalNumTrees);
+        }
+    }
+
+    private HeapTraceReplayer() {
+    }
+
+    // Complexity O(records)
+    public static Trace load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long bytes = channel.size();
+            if (bytes < HeapTraceRecorder.HEADER_BYTES) {
+                throw new IOException(file + ": not a heap trace (too short)");
+            }
+            long body = bytes - HeapTraceRecorder.HEADER_BYTES;
+            if (body % HeapTraceRecorder.RECORD_BYTES != 0
+                    || body / HeapTraceRecorder.RECORD_BYTES > Integer.MAX_VALUE) {
+                throw new IOException(file + ": truncated or oversized heap trace");
+            }
+            int n = (int) (body / HeapTraceRecorder.RECORD_BYTES);
+            byte[] ops = new byte[n];
+            long[] handles = new long[n];
+            int[] keys = new int[n];
+            int[] diffs = new int[n];
+
+            // Mapped in windows, since one MappedByteBuffer is limited to 2 GB
+            long windowRecords = Integer.MAX_VALUE / HeapTraceRecorder.RECORD_BYTES;
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HeapTraceRecorder.HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != HeapTraceRecorder.MAGIC) {
+                throw new IOException(file + ": not a heap trace (bad magic)");
+            }
+            int version = header.getInt();
+            if (version < 1 || version > HeapTraceRecorder.VERSION) {   // Version 1 is a subset of 2
+                throw new IOException(file + ": unsupported trace version " + version);
+            }
+            for (long first = 0; first < n; first += windowRecords) {
+                int count = (int) Math.min(windowRecords, n - first);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HeapTraceRecorder.HEADER_BYTES + first * HeapTraceRecorder.RECORD_BYTES,
+                        (long) count * HeapTraceRecorder.RECORD_BYTES);
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = (int) first, end = (int) first + count; i < end; i++) {
+                    ops[i] = buf.get();
+                    handles[i] = buf.getLong();
+                    keys[i] = buf.getInt();
+                    diffs[i] = buf.getInt();
+                }
+            }
+            return new Trace(ops, handles, keys, diffs);
+        }
+    }
+
+    // Complexity O(records) plus the cost of the replayed operations
+    public static Result replay(Trace trace, boolean lazyMelds, boolean lazyDecreaseKeys) {
+        if (trace.handleCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many handles in trace: " + trace.handleCount);
+        }
+        Heap.HeapItem[] items = new Heap.HeapItem[(int) trace.handleCount];
+        Heap heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        byte[] ops = trace.ops;
+        long[] handles = trace.handles;
+        int[] keys = trace.keys;
+        int[] diffs = trace.diffs;
+        long operations = 0;
+
+        long start = System.nanoTime();
+        int i = 0;
+        while (i < trace.length) {
+            byte op = ops[i];
+            switch (op) {
+                case HeapTraceRecorder.INSERT:
+                    items[(int) handles[i]] = heap.insert(keys[i], null);
+                    i++;
+                    break;
+                case HeapTraceRecorder.DELETE_MIN:
+                    heap.deleteMin();
+                    i++;
+                    break;
+                case HeapTraceRecorder.DECREASE_KEY:
+                    heap.decreaseKey(item(items, handles[i]), diffs[i]);
+                    i++;
+                    break;
+                case HeapTraceRecorder.DELETE:
+                    heap.delete(item(items, handles[i]));
+                    i++;
+                    break;
+                case HeapTraceRecorder.MELD: {
+                    // The other heap is rebuilt by inserts (not timed as part of the meld)
+                    int count = keys[i++];
+                    long pause = System.nanoTime();
+                    Heap other = new Heap(lazyMelds, lazyDecreaseKeys);
+                    for (int k = 0; k < count; k++, i++) {
+                        items[(int) handles[i]] = other.insert(keys[i], null);
+                    }
+                    start += System.nanoTime() - pause;
+                    heap.meld(other);
+                    break;
+                }
+                case HeapTraceRecorder.EXTRACT_UP_TO:
+                    heap.extractUpTo(keys[i], item -> { });
+                    i++;
+                    break;
+                case HeapTraceRecorder.CLEAR:
+                    heap.clear();
+                    i++;
+                    break;
+                default:
+                    throw new IllegalStateException("bad trace record " + i + ": op " + op);
+            }
+            operations++;
+        }
+        long nanos = System.nanoTime() - start;
+
+        Result r = new Result();
+        r.nanos = nanos;
+        r.operations = operations;
+        r.links = heap.totalLinks();
+        r.cuts = heap.totalCuts();
+        r.heapifyCosts = heap.totalHeapifyCosts();
+        r.maxOpCost = heap.maxOpCost();
+        r.maxOpCostType = heap.maxOpCostType();
+        r.finalSize = heap.size();
+        r.finalNumTrees = heap.numTrees();
+        return r;
+    }
+
+    private static Heap.HeapItem item(Heap.HeapItem[] items, long handle) {
+        return handle < 0 ? null : items[(int) handle];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java HeapTraceReplayer <trace file> [runs]");
+            System.exit(2);
+        }
+        Trace trace = load(Path.of(args[0]));
+        int runs = args.length >= 2 ? Integer.parseInt(args[1]) : 3;
+        System.out.println("trace=" + args[0] + " records=" + trace.length + " handles=" + trace.handleCount);
+
+        for (HeapType type : HeapType.values()) {
+            // The first run warms up the JIT; the fastest of the remaining runs is reported
+            Result best = replay(trace, type.lazyMelds, type.lazyDecreaseKeys);
+            for (int run = 1; run < runs; run++) {
+                Result r = replay(trace, type.lazyMelds, type.lazyDecreaseKeys);
+                if (run == 1 || r.nanos < best.nanos) best = r;
+            }
+            System.out.println(type.name() + " | " + best);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * HeapType
+ *
+ * The 4 heap variants required by the assignment, as the (lazyMelds,
+ * lazyDecreaseKeys) pair passed to the Heap constructor. Shared by the
+ * experiments, the benchmarks and the trace replayer.
+ */
+public enum HeapType {
+    BINOMIAL(false, false),
+    LAZY_BINOMIAL(true, false),
+    FIBONACCI(true, true),
+    BINOMIAL_WITH_CUTS(false, true);
+
+    public final boolean lazyMelds;
+    public final boolean lazyDecreaseKeys;
+
+    HeapType(boolean lm, boolean ldk) {
+        this.lazyMelds = lm;
+        this.lazyDecreaseKeys = ldk;
+    }
+
+    /** A new empty heap of this variant */
+    public Heap newHeap() {
+        return new Heap(lazyMelds, lazyDecreaseKeys);
+    }
+}
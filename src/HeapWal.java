@@ -0,0 +1,589 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * HeapWal
+ *
+ * Write-ahead log for one Heap: every operation is appended as a logical record,
+ * so the heap can be rebuilt after a crash from the last checkpoint (a
+ * HeapSnapshot) plus the log written since.
+ *
+ *   HeapWal wal = HeapWal.attach(heap, dir, HeapWal.FsyncPolicy.INTERVAL, 10, 1 << 20);
+ *   ... use heap ...
+ *   wal.sync();          // everything so far is on disk
+ *   wal.checkpoint();    // snapshot, start a new log
+ *   wal.close();
+ *
+ *   HeapWal.Recovery r = HeapWal.recover(dir, true, true);   // after a crash
+ *
+ * Records are logical and refer to items by id (HeapItem.id): INSERT (id, key,
+ * info), DELETE_MIN (id of the removed min), DECREASE_KEY (id, diff), DELETE (id),
+ * one MELD_ITEM (like INSERT) per item of a melded heap, and CLEAR (no item). Items with id 0
+ * (inserted so, or already in the heap at attach()) get a fresh negative id
+ * from the log (item.id is set), since a record must name its item; ids must
+ * otherwise be unique.
+ *
+ * Hot path: the log is installed as the heap's listener (composed with any
+ * listener already set). A record is encoded into a bounded ring buffer; the
+ * operation blocks only while the ring is full. A writer thread drains
+ * everything in the ring as one group commit (lingering up to a millisecond
+ * while less than a quarter of the ring is used and no sync() waits): one
+ * frame (length, CRC32C, payload) per write, then an fsync according to the
+ * policy:
+ *  - ALWAYS    after every group commit
+ *  - INTERVAL  at most every fsyncIntervalMillis
+ *  - NEVER     only on sync(), checkpoint() and close()
+ * Recovery stops at the first incomplete or corrupt frame (a torn tail). It
+ * reads a log through mapped windows and applies each record as soon as it is
+ * complete, so a log of any size replays in memory bounded by a frame plus the
+ * largest record.
+ *
+ * Files in dir: snapshot-G.snap is the heap at checkpoint G and log-G.wal the
+ * operations after it. Recovery loads the highest complete snapshot and replays
+ * the logs from its generation on; a checkpoint deletes older generations once
+ * the new snapshot is durable. attach() starts a new generation with a
+ * checkpoint of the heap as it is.
+ *
+ * The heap is used from one thread; the log's writer thread never touches it.
+ */
+public final class HeapWal implements HeapListener, Closeable {
+
+    public static final int MAGIC = 0x4857414C; // "HWAL"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 4 + 4 + 8;
+    public static final int FRAME_HEADER_BYTES = 4 + 4;
+    public static final int RECORD_BYTES = 1 + 8 + 4 + 4 + 4;   // without the info bytes
+
+    public static final byte INSERT = HeapTraceRecorder.INSERT;
+    public static final byte DELETE_MIN = HeapTraceRecorder.DELETE_MIN;
+    public static final byte DECREASE_KEY = HeapTraceRecorder.DECREASE_KEY;
+    public static final byte DELETE = HeapTraceRecorder.DELETE;
+    public static final byte MELD_ITEM = HeapTraceRecorder.MELD_ITEM;
+    public static final byte CLEAR = HeapTraceRecorder.CLEAR;
+
+    private static final int FRAME_BYTES = 1 << 20;
+    private static final long LINGER_NANOS = 1_000_000L;
+
+    public enum FsyncPolicy { ALWAYS, INTERVAL, NEVER }
+
+    /** Result of recover() */
+    public static final class Recovery {
+        public final Heap heap;
+        public long generation = -1;    // generation of the snapshot loaded, -1 if none
+        public long replayed;           // log records applied
+        public boolean torn;            // a log ended with an incomplete or corrupt frame
+
+        Recovery(Heap heap) {
+            this.heap = heap;
+        }
+    }
+
+    private final Heap heap;
+    private final HeapListener previousListener;
+    private final Path dir;
+    private final FsyncPolicy policy;
+    private final long fsyncIntervalNanos;
+
+    // Ring buffer: positions grow forever, index = position & mask.
+    // Written by the heap thread (tail) and the writer thread (head, written, synced).
+    private final byte[] ring;
+    private final int mask;
+    private final int commitBytes;
+    private volatile long tail;
+    private volatile long head;
+    private volatile long synced;
+    private volatile long syncRequest;
+    private volatile boolean writerSleeping;
+    private volatile boolean closing;
+    private volatile Thread syncWaiter;
+    private volatile IOException failure;
+
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final Object channelLock = new Object();
+    private FileChannel channel;
+    private long generation;
+    private long nextAutoId = Long.MIN_VALUE + 1;
+    private final Thread writer;
+    private boolean closed;
+
+    // Counters (appendWaits on the heap thread, the others written by the writer thread)
+    public long records;
+    public long appendWaits;        // Appends that found the ring full
+    public volatile long commits;   // Group commits (one write each)
+    public volatile long fsyncs;
+
+    private HeapWal(Heap heap, Path dir, FsyncPolicy policy, long fsyncIntervalMillis, int ringBytes) {
+        if (ringBytes < 64 || Integer.bitCount(ringBytes) != 1) {
+            throw new IllegalArgumentException("ringBytes must be a power of two >= 64");
+        }
+        this.heap = heap;
+        this.previousListener = heap.listener();
+        this.dir = dir;
+        this.policy = policy;
+        this.fsyncIntervalNanos = fsyncIntervalMillis * 1_000_000L;
+        this.ring = new byte[ringBytes];
+        this.mask = ringBytes - 1;
+        this.commitBytes = Math.min(ringBytes / 4, FRAME_BYTES);
+        this.writer = new Thread(this::writeLoop, "heap-wal-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Start logging heap into dir (created if needed). Writes a checkpoint of
+     * the heap as it is now, as a new generation after any files in dir.
+     * ringBytes (a power of two) bounds the records not yet written; it must
+     * hold the largest record (RECORD_BYTES plus the UTF-8 bytes of an info).
+     */
+    public static HeapWal attach(Heap heap, Path dir, FsyncPolicy policy, long fsyncIntervalMillis, int ringBytes) throws IOException {
+        Files.createDirectories(dir);
+        HeapWal wal = new HeapWal(heap, dir, policy, fsyncIntervalMillis, ringBytes);
+        Heap.HeapItem[] items = HeapTraceRecorder.items(heap);
+        for (Heap.HeapItem item : items) {
+            if (item.id < 0 && item.id >= wal.nextAutoId) {
+                wal.nextAutoId = item.id + 1;
+            }
+        }
+        for (Heap.HeapItem item : items) {
+            wal.ensureId(item);
+        }
+        long[] gens = generations(dir);
+        wal.startGeneration(gens.length == 0 ? 1 : gens[gens.length - 1] + 1);
+        heap.setListener(HeapListener.compose(wal.previousListener, wal));
+        wal.writer.start();
+        return wal;
+    }
+
+    /** Generation of the current log */
+    public long generation() {
+        return generation;
+    }
+
+    // Complexity O(records not yet durable), waits for the writer thread
+    /** Block until every operation so far is written and fsynced */
+    public void sync() throws IOException {
+        long target = tail;
+        if (synced >= target) {
+            return;
+        }
+        syncWaiter = Thread.currentThread();
+        syncRequest = target;
+        LockSupport.unpark(writer);
+        while (synced < target) {
+            if (failure != null) {
+                throw failure;
+            }
+            LockSupport.parkNanos(this, 1_000_000);
+        }
+        syncWaiter = null;
+    }
+
+    // Complexity O(n) (a snapshot of the heap)
+    /** Snapshot the heap and continue with a new, empty log; older generations are deleted */
+    public void checkpoint() throws IOException {
+        sync();
+        startGeneration(generation + 1);
+    }
+
+    /** Stop logging: sync, stop the writer thread and restore the previous listener */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        heap.setListener(previousListener);
+        try {
+            sync();
+        } finally {
+            closing = true;
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (channelLock) {
+                channel.close();
+            }
+        }
+    }
+
+    // ================== Listener: one record per operation ==================
+
+    @Override
+    public void onInsert(Heap.HeapItem item) {
+        append(INSERT, item);
+    }
+
+    @Override
+    public void onDeleteMin(Heap.HeapItem min) {
+        append(DELETE_MIN, min.id, min.key, 0, null);
+    }
+
+    @Override
+    public void onDecreaseKey(Heap.HeapItem item, int diff) {
+        append(DECREASE_KEY, item.id, item.key, diff, null);
+    }
+
+    @Override
+    public void onDelete(Heap.HeapItem item) {
+        append(DELETE, item.id, item.key, 0, null);
+    }
+
+    @Override
+    public void onMeld(Heap other) {
+        for (Heap.HeapItem item : HeapTraceRecorder.items(other)) {
+            append(MELD_ITEM, item);
+        }
+    }
+
+    @Override
+    public void onClear() {
+        append(CLEAR, 0, 0, 0, null);
+    }
+
+    private void append(byte op, Heap.HeapItem item) {
+        ensureId(item);
+        append(op, item.id, item.key, 0, item.info == null ? null : item.info.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void ensureId(Heap.HeapItem item) {
+        if (item.id == 0) {
+            item.id = nextAutoId++;
+            heap.indexAssignedId(item);
+        }
+    }
+
+    // Complexity O(record size); blocks only while the ring is full
+    private void append(byte op, long id, int key, int diff, byte[] info) {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        int n = RECORD_BYTES + (info == null ? 0 : info.length);
+        if (n > ring.length) {
+            throw new IllegalArgumentException("record of " + n + " bytes does not fit the ring buffer");
+        }
+        long t = tail;
+        if (ring.length - (t - head) < n) {
+            appendWaits++;
+            while (ring.length - (t - head) < n) {
+                LockSupport.unpark(writer);
+                if (failure != null) {
+                    throw new UncheckedIOException(failure);
+                }
+                Thread.onSpinWait();
+            }
+        }
+        record.clear();
+        record.put(op).putLong(id).putInt(key).putInt(diff).putInt(info == null ? -1 : info.length);
+        copyIn(t, record.array(), RECORD_BYTES);
+        if (info != null) {
+            copyIn(t + RECORD_BYTES, info, info.length);
+        }
+        tail = t + n;
+        records++;
+        if (writerSleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void copyIn(long position, byte[] src, int len) {
+        int i = (int) position & mask;
+        int first = Math.min(len, ring.length - i);
+        System.arraycopy(src, 0, ring, i, first);
+        System.arraycopy(src, first, ring, 0, len - first);
+    }
+
+    // ================== Writer thread ==================
+
+    private void writeLoop() {
+        ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_HEADER_BYTES + FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] chunk = new byte[FRAME_BYTES];
+        CRC32C crc = new CRC32C();
+        long lastFsync = System.nanoTime();
+        try {
+            while (true) {
+                long h = head;
+                long t = tail;
+                if (h < t && t - h < commitBytes && syncRequest <= synced && !closing) {
+                    // Linger briefly so that a group commit carries more than a few records
+                    LockSupport.parkNanos(this, LINGER_NANOS);
+                    t = tail;
+                }
+                if (h < t) {
+                    // Group commit: everything in the ring, in frames of at most FRAME_BYTES
+                    synchronized (channelLock) {
+                        for (long p = h; p < t; ) {
+                            int len = (int) Math.min(FRAME_BYTES, t - p);
+                            int i = (int) p & mask;
+                            int first = Math.min(len, ring.length - i);
+                            System.arraycopy(ring, i, chunk, 0, first);
+                            System.arraycopy(ring, 0, chunk, first, len - first);
+                            crc.reset();
+                            crc.update(chunk, 0, len);
+                            frame.clear();
+                            frame.putInt(len).putInt((int) crc.getValue()).put(chunk, 0, len).flip();
+                            while (frame.hasRemaining()) {
+                                channel.write(frame);
+                            }
+                            p += len;
+                        }
+                    }
+                    head = t;
+                    commits++;
+                }
+                long now = System.nanoTime();
+                boolean due = policy == FsyncPolicy.ALWAYS
+                        || (policy == FsyncPolicy.INTERVAL && now - lastFsync >= fsyncIntervalNanos);
+                if (synced < t && (due || syncRequest > synced)) {
+                    synchronized (channelLock) {
+                        channel.force(false);
+                    }
+                    fsyncs++;
+                    lastFsync = now;
+                    synced = t;
+                    Thread waiter = syncWaiter;
+                    if (waiter != null) {
+                        LockSupport.unpark(waiter);
+                    }
+                }
+                if (tail == t) {
+                    if (closing) {
+                        return;
+                    }
+                    writerSleeping = true;
+                    if (tail == t && syncRequest <= synced && !closing) {
+                        long wait = policy == FsyncPolicy.INTERVAL && synced < t
+                                ? Math.max(0, fsyncIntervalNanos - (System.nanoTime() - lastFsync)) : 50_000_000L;
+                        LockSupport.parkNanos(this, wait);
+                    }
+                    writerSleeping = false;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            Thread waiter = syncWaiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    // ================== Generations ==================
+
+    // Durable snapshot of the heap as generation g, then log g; older files go.
+    // Called with the ring drained (attach, checkpoint), on the heap thread.
+    private void startGeneration(long g) throws IOException {
+        Path snapshot = dir.resolve("snapshot-" + g + ".snap");
+        Path tmp = dir.resolve("snapshot-" + g + ".snap.tmp");
+        HeapSnapshot.write(heap, tmp);
+        try (FileChannel c = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            c.force(true);
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        FileChannel log = FileChannel.open(dir.resolve("log-" + g + ".wal"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(g).flip();
+        while (header.hasRemaining()) {
+            log.write(header);
+        }
+        log.force(true);
+        forceDirectory(dir);
+
+        synchronized (channelLock) {
+            if (channel != null) {
+                channel.close();
+            }
+            channel = log;
+        }
+        generation = g;
+        for (long old : generations(dir)) {
+            if (old < g) {
+                Files.deleteIfExists(dir.resolve("snapshot-" + old + ".snap"));
+                Files.deleteIfExists(dir.resolve("log-" + old + ".wal"));
+            }
+        }
+    }
+
+    // Makes the renames and new files of dir durable (where the platform allows)
+    private static void forceDirectory(Path dir) {
+        try (FileChannel c = FileChannel.open(dir, StandardOpenOption.READ)) {
+            c.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform; the files themselves are forced
+        }
+    }
+
+    // Generations with a snapshot or a log in dir, ascending
+    private static long[] generations(Path dir) throws IOException {
+        List<Long> gens = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(f -> {
+                String name = f.getFileName().toString();
+                String digits = null;
+                if (name.startsWith("snapshot-") && name.endsWith(".snap")) {
+                    digits = name.substring(9, name.length() - 5);
+                } else if (name.startsWith("log-") && name.endsWith(".wal")) {
+                    digits = name.substring(4, name.length() - 4);
+                }
+                if (digits != null && !digits.isEmpty() && digits.chars().allMatch(Character::isDigit)) {
+                    gens.add(Long.parseLong(digits));
+                }
+            });
+        }
+        return gens.stream().mapToLong(Long::longValue).distinct().sorted().toArray();
+    }
+
+    // ================== Recovery ==================
+
+    // Complexity O(snapshot + log records)
+    /**
+     * Rebuild the heap logged in dir: the highest snapshot, then the logs from
+     * its generation on. Without a snapshot, the logs are replayed into an empty
+     * heap of the given mode.
+     */
+    public static Recovery recover(Path dir, boolean lazyMelds, boolean lazyDecreaseKeys) throws IOException {
+        long[] gens = generations(dir);
+        long snapshotGen = -1;
+        for (long g : gens) {
+            if (Files.exists(dir.resolve("snapshot-" + g + ".snap"))) {
+                snapshotGen = g;
+            }
+        }
+        Heap heap;
+        if (snapshotGen >= 0) {
+            heap = HeapSnapshot.read(dir.resolve("snapshot-" + snapshotGen + ".snap"));
+        } else {
+            heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        }
+        heap.enableIdIndex();   // Replay finds items by id, the caller gets a plain heap
+        Recovery r = new Recovery(heap);
+        r.generation = snapshotGen;
+        for (long g : gens) {
+            Path log = dir.resolve("log-" + g + ".wal");
+            if (g >= snapshotGen && Files.exists(log)) {
+                replay(log, r);
+            }
+        }
+        heap.disableIdIndex();
+        return r;
+    }
+
+    // Complexity O(log size), memory O(frame + largest record): the log is read
+    // through mapped windows, and every record is applied as soon as it is complete
+    private static void replay(Path log, Recovery r) throws IOException {
+        try (FileChannel c = FileChannel.open(log, StandardOpenOption.READ)) {
+            if (c.size() < HEADER_BYTES) {
+                r.torn = true;
+                return;
+            }
+            HeapSnapshot.MappedInput in = new HeapSnapshot.MappedInput(c);
+            in.ensure(HEADER_BYTES);
+            if (in.window.getInt() != MAGIC || in.window.getInt() != VERSION) {
+                throw new IOException(log + ": not a heap log");
+            }
+            in.window.getLong();
+            // Checked frame payloads, pending[start, end) not applied yet (records may span frames)
+            byte[] pending = new byte[2 * FRAME_BYTES];
+            int start = 0;
+            int end = 0;
+            CRC32C crc = new CRC32C();
+            while (in.remaining() >= FRAME_HEADER_BYTES) {
+                in.ensure(FRAME_HEADER_BYTES);
+                int len = in.window.getInt();
+                int sum = in.window.getInt();
+                if (len <= 0 || len > FRAME_BYTES || len > in.remaining()) {
+                    r.torn = true;
+                    break;
+                }
+                if (pending.length - end < len) {
+                    int kept = end - start;
+                    byte[] to = pending.length - kept < len ? new byte[Math.max(2 * pending.length, kept + len)] : pending;
+                    System.arraycopy(pending, start, to, 0, kept);
+                    pending = to;
+                    start = 0;
+                    end = kept;
+                }
+                in.ensure(len);
+                in.window.get(pending, end, len);
+                crc.reset();
+                crc.update(pending, end, len);
+                if ((int) crc.getValue() != sum) {
+                    r.torn = true;
+                    break;
+                }
+                end += len;
+                start = apply(pending, start, end, r, log);
+            }
+            if (in.remaining() > 0 || start < end) {
+                r.torn = true;
+            }
+        }
+    }
+
+    // Applies the complete records in buf[start, end); returns where the first incomplete one starts
+    private static int apply(byte[] buf, int start, int end, Recovery r, Path log) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(buf, start, end - start).order(ByteOrder.LITTLE_ENDIAN);
+        Heap heap = r.heap;
+        while (b.remaining() >= RECORD_BYTES) {
+            int at = b.position();
+            byte op = b.get();
+            long id = b.getLong();
+            int key = b.getInt();
+            int diff = b.getInt();
+            int infoLength = b.getInt();
+            if (infoLength > b.remaining()) {
+                return at;
+            }
+            String info = null;
+            if (infoLength >= 0) {
+                info = new String(buf, b.position(), infoLength, StandardCharsets.UTF_8);
+                b.position(b.position() + infoLength);
+            }
+            Heap.HeapItem item;
+            switch (op) {
+                case INSERT:
+                case MELD_ITEM:
+                    heap.insert(key, info, id);
+                    break;
+                case DELETE_MIN:
+                    item = heap.findById(id);
+                    if (heap.findMin() == item) {
+                        heap.deleteMin();
+                    } else {
+                        heap.delete(item); // an equal key chosen differently
+                    }
+                    break;
+                case DECREASE_KEY:
+                    heap.decreaseKeyById(id, diff);
+                    break;
+                case DELETE:
+                    heap.deleteById(id);
+                    break;
+                case CLEAR:
+                    heap.clear();
+                    break;
+                default:
+                    throw new IOException(log + ": unknown record type " + op);
+            }
+            r.replayed++;
+        }
+        return b.position();
+    }
+}
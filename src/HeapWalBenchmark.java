@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * HeapWalBenchmark.java
+ *
+ * Cost of logging a Heap with HeapWal, for each of the 4 heap types: the same
+ * operation mix (inserts with ids, deleteMins, decreaseKeys) in Mops/s
+ *  - without a log
+ *  - with a log under each fsync policy (ALWAYS, INTERVAL, NEVER), including
+ *    the final sync()
+ * and the time to recover the logged heap from its checkpoint and log.
+ *
+ *   java HeapWalBenchmark [ops] [dir]
+ *
+ * Every recovery is checked against the logged heap's size and min. Times are
+ * the fastest of RUNS repetitions, after one warm-up.
+ */
+public class HeapWalBenchmark {
+
+    private static final int DEFAULT_OPS = 1_000_000;
+    private static final int RUNS = 3;
+    private static final int RING_BYTES = 1 << 22;
+    private static final long FSYNC_INTERVAL_MILLIS = 10;
+    private static final long SEED = 20260115L;
+
+    public static void main(String[] args) throws IOException {
+        int ops = DEFAULT_OPS;
+        Path base = Path.of(System.getProperty("java.io.tmpdir"));
+        if (args.length >= 1) ops = Integer.parseInt(args[0]);
+        if (args.length >= 2) base = Path.of(args[1]);
+
+        System.out.println("ops=" + ops);
+        for (HeapType type : HeapType.values()) {
+            double plain = Double.MAX_VALUE;
+            for (int run = 0; run <= RUNS; run++) {
+                long t0 = System.nanoTime();
+                workload(type.newHeap(), ops);
+                if (run > 0) plain = Math.min(plain, (System.nanoTime() - t0) / 1e9);
+            }
+            System.out.printf("%-20s -> noLog Mops=%.2f%n", type.name(), ops / plain / 1e6);
+
+            for (HeapWal.FsyncPolicy policy : HeapWal.FsyncPolicy.values()) {
+                double best = Double.MAX_VALUE;
+                double recoverBest = Double.MAX_VALUE;
+                long commits = 0;
+                long fsyncs = 0;
+                long waits = 0;
+                for (int run = 0; run <= RUNS; run++) {
+                    Path dir = Files.createTempDirectory(base, "heapwal");
+                    try {
+                        Heap heap = type.newHeap();
+                        HeapWal wal = HeapWal.attach(heap, dir, policy, FSYNC_INTERVAL_MILLIS, RING_BYTES);
+                        long t0 = System.nanoTime();
+                        workload(heap, ops);
+                        wal.sync();
+                        long t1 = System.nanoTime();
+                        wal.close();
+                        commits = wal.commits;
+                        fsyncs = wal.fsyncs;
+                        waits = wal.appendWaits;
+
+                        long t2 = System.nanoTime();
+                        HeapWal.Recovery r = HeapWal.recover(dir, type.lazyMelds, type.lazyDecreaseKeys);
+                        long t3 = System.nanoTime();
+                        if (r.heap.size() != heap.size() || r.heap.findMin().key != heap.findMin().key) {
+                            throw new IllegalStateException(type + " " + policy + ": recovered heap differs");
+                        }
+                        if (run > 0) {
+                            best = Math.min(best, (t1 - t0) / 1e9);
+                            recoverBest = Math.min(recoverBest, (t3 - t2) / 1e9);
+                        }
+                    } finally {
+                        deleteAll(dir);
+                    }
+                }
+                System.out.printf("%-20s -> %-8s Mops=%.2f | overhead=%.2fx | groupCommits=%d | fsyncs=%d | ringFullWaits=%d | recoverMs=%.1f%n",
+                        "", policy.name(), ops / best / 1e6, best / plain, commits, fsyncs, waits, recoverBest * 1e3);
+            }
+        }
+    }
+
+    // Insert-heavy mix that keeps the heap growing: 50% insert, 25% deleteMin, 25% decreaseKey
+    private static void workload(Heap heap, int ops) {
+        Random rnd = new Random(SEED);
+        Heap.HeapItem[] items = new Heap.HeapItem[ops];
+        int count = 0;
+        for (int i = 0; i < ops; i++) {
+            int op = rnd.nextInt(4);
+            if (op <= 1 || heap.size() == 0) {
+                items[count++] = heap.insert(1 + rnd.nextInt(Integer.MAX_VALUE - 1), null, i + 1);
+            } else if (op == 2) {
+                heap.deleteMin();
+            } else {
+                Heap.HeapItem item = items[rnd.nextInt(count)];
+                if (item.node != null && item.key > 1) {
+                    heap.decreaseKey(item, 1 + rnd.nextInt(item.key - 1));
+                }
+            }
+        }
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+}
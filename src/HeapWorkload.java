@@ -0,0 +1,635 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * HeapWorkload
+ *
+ * A workload description for HeapExperiments (java HeapExperiments --workload <file>).
+ * The format is line based; '#' starts a comment, tokens are separated by blanks:
+ *
+ *   name    mixed-zipf
+ *   seed    42
+ *
+ *   phase   build                      # phases run in order on the same heap
+ *   ops     200000                     # number of operations in the phase
+ *   mix     insert=100                 # percentages, must add up to 100
+ *   keys    uniform 1 1000000
+ *
+ *   phase   steady
+ *   ops     1000000
+ *   mix     insert=40 deleteMin=30 decreaseKey=20 delete=5 meld=5
+ *   keys    zipf 1000000 1.1
+ *   decrease fraction 0.1 0.9
+ *   meld    10 1000                    # size of every melded heap, uniform in [10, 1000]
+ *
+ * Key distributions (for inserted and melded keys, which Heap requires to be
+ * >= 1, so every range must lie within [1, Integer.MAX_VALUE]):
+ *   uniform <lo> <hi>                  uniform in [lo, hi]
+ *   zipf <n> <s>                       key k in [1, n] with probability ~ 1 / k^s
+ *   monotone <start> <maxStep>         increasing keys, each step uniform in [0, maxStep]
+ *   clustered <clusters> <width> <lo> <hi>
+ *                                      uniform within +-width around one of the
+ *                                      cluster centers (centers uniform in [lo, hi]),
+ *                                      clamped to >= 1
+ * Decrease-key magnitudes (diff of every decreaseKey, capped at key - 1 so the
+ * new key stays >= 1):
+ *   uniform <lo> <hi>                  diff uniform in [lo, hi]  (default: uniform 1 100)
+ *   fraction <lo> <hi>                 diff = key * f, f uniform in [lo, hi]
+ *   tozero                             diff = key - 1 (the key drops to 1, the smallest key)
+ *
+ * Unset settings of a phase are inherited from the previous phase (except ops
+ * and name). decreaseKey and delete act on a random item still in the heap;
+ * they are skipped while the heap is empty.
+ *
+ * generate() turns the description into a Program of primitive arrays once per
+ * seed, so every heap type executes exactly the same operation sequence and the
+ * timed loop contains nothing but heap calls and array reads. The heaps melded
+ * in by a phase are built before it is timed, and their own links, cuts and
+ * heapify costs are not counted as the phase's.
+ */
+public final class HeapWorkload {
+
+    static final byte INSERT = 0;
+    static final byte DELETE_MIN = 1;
+    static final byte DECREASE_KEY = 2;
+    static final byte DELETE = 3;
+    static final byte MELD = 4;
+
+    private static final String[] OP_NAMES = {"insert", "deleteMin", "decreaseKey", "delete", "meld"};
+
+    public final String name;
+    public final long seed;
+    public final List<Phase> phases;
+
+    private HeapWorkload(String name, long seed, List<Phase> phases) {
+        this.name = name;
+        this.seed = seed;
+        this.phases = phases;
+    }
+
+    /** One phase of the workload */
+    public static final class Phase {
+        public String name;
+        public long ops;
+        final int[] mix = new int[OP_NAMES.length];   // percentages per op
+        String[] keys = {"uniform", "1", "1000000"};
+        String[] decrease = {"uniform", "1", "100"};
+        int meldMin = 1;
+        int meldMax = 1000;
+
+        Phase copySettings(String newName) {
+            Phase p = new Phase();
+            p.name = newName;
+            System.arraycopy(mix, 0, p.mix, 0, mix.length);
+            p.keys = keys;
+            p.decrease = decrease;
+            p.meldMin = meldMin;
+            p.meldMax = meldMax;
+            return p;
+        }
+    }
+
+    // ================== Parsing ==================
+
+    public static HeapWorkload parse(Path file) throws IOException {
+        return parse(Files.readAllLines(file), file.toString());
+    }
+
+    public static HeapWorkload parse(List<String> lines, String source) {
+        String name = source;
+        long seed = 20260115L;
+        List<Phase> phases = new ArrayList<>();
+        Phase current = null;
+
+        for (int ln = 0; ln < lines.size(); ln++) {
+            String line = lines.get(ln);
+            int hash = line.indexOf('#');
+            if (hash >= 0) line = line.substring(0, hash);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            String[] tok = line.split("\\s+");
+            String where = source + ":" + (ln + 1);
+            try {
+                switch (tok[0]) {
+                    case "name":
+                        name = tok[1];
+                        break;
+                    case "seed":
+                        seed = Long.parseLong(tok[1]);
+                        break;
+                    case "phase":
+                        current = current == null ? new Phase() : current.copySettings(null);
+                        current.name = tok.length > 1 ? tok[1] : "phase" + (phases.size() + 1);
+                        phases.add(current);
+                        break;
+                    case "ops":
+                        requirePhase(current).ops = Long.parseLong(tok[1]);
+                        break;
+                    case "mix":
+                        parseMix(requirePhase(current), tok);
+                        break;
+                    case "keys":
+                        newKeyDistribution(tok, 1, new Random(0)); // validate now
+                        requirePhase(current).keys = Arrays.copyOfRange(tok, 1, tok.length);
+                        break;
+                    case "decrease":
+                        parseDiff(tok, 1);
+                        requirePhase(current).decrease = Arrays.copyOfRange(tok, 1, tok.length);
+                        break;
+                    case "meld": {
+                        Phase p = requirePhase(current);
+                        p.meldMin = Integer.parseInt(tok[1]);
+                        p.meldMax = tok.length > 2 ? Integer.parseInt(tok[2]) : p.meldMin;
+                        if (p.meldMin < 0 || p.meldMax < p.meldMin) {
+                            throw new IllegalArgumentException("bad meld size range");
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("unknown setting '" + tok[0] + "'");
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException(where + ": missing value for '" + tok[0] + "'");
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(where + ": " + e.getMessage(), e);
+            }
+        }
+        if (phases.isEmpty()) {
+            throw new IllegalArgumentException(source + ": no phase defined");
+        }
+        for (Phase p : phases) {
+            if (p.ops < 0) throw new IllegalArgumentException(source + ": phase " + p.name + " has negative ops");
+            if (Arrays.stream(p.mix).sum() != 100) {
+                throw new IllegalArgumentException(source + ": mix of phase " + p.name + " does not add up to 100");
+            }
+        }
+        return new HeapWorkload(name, seed, phases);
+    }
+
+    private static Phase requirePhase(Phase p) {
+        if (p == null) throw new IllegalArgumentException("setting outside of a phase");
+        return p;
+    }
+
+    private static void parseMix(Phase p, String[] tok) {
+        Arrays.fill(p.mix, 0);
+        for (int i = 1; i < tok.length; i++) {
+            int eq = tok[i].indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected op=percent, got '" + tok[i] + "'");
+            String op = tok[i].substring(0, eq);
+            int idx = Arrays.asList(OP_NAMES).indexOf(op);
+            if (idx < 0) throw new IllegalArgumentException("unknown op '" + op + "'");
+            p.mix[idx] = Integer.parseInt(tok[i].substring(eq + 1));
+        }
+    }
+
+    // ================== Distributions ==================
+
+    /** Source of keys; may keep state (monotone) */
+    interface KeyDistribution {
+        int next();
+    }
+
+    static KeyDistribution newKeyDistribution(String[] tok, int at, Random rnd) {
+        switch (tok[at]) {
+            case "uniform": {
+                long lo = Long.parseLong(tok[at + 1]);
+                long hi = Long.parseLong(tok[at + 2]);
+                checkRange(lo, hi);
+                return () -> (int) (lo + (long) (rnd.nextDouble() * (hi - lo + 1)));
+            }
+            case "zipf": {
+                ZipfSampler zipf = new ZipfSampler(Integer.parseInt(tok[at + 1]), Double.parseDouble(tok[at + 2]), rnd);
+                return zipf::next;
+            }
+            case "monotone": {
+                long start = Long.parseLong(tok[at + 1]);
+                int maxStep = Integer.parseInt(tok[at + 2]);
+                checkRange(start, start);
+                if (maxStep < 0) throw new IllegalArgumentException("monotone step must be >= 0");
+                long[] last = {start};
+                return () -> {
+                    long k = Math.min(Integer.MAX_VALUE, last[0] + rnd.nextInt(maxStep + 1));
+                    last[0] = k;
+                    return (int) k;
+                };
+            }
+            case "clustered": {
+                int clusters = Integer.parseInt(tok[at + 1]);
+                int width = Integer.parseInt(tok[at + 2]);
+                long lo = Long.parseLong(tok[at + 3]);
+                long hi = Long.parseLong(tok[at + 4]);
+                checkRange(lo, hi);
+                if (clusters <= 0 || width < 0) throw new IllegalArgumentException("bad clustered parameters");
+                long[] centers = new long[clusters];
+                for (int c = 0; c < clusters; c++) centers[c] = lo + (long) (rnd.nextDouble() * (hi - lo + 1));
+                return () -> {
+                    long k = centers[rnd.nextInt(clusters)] + rnd.nextInt(2 * width + 1) - width;
+                    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, k));
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown key distribution '" + tok[at] + "'");
+        }
+    }
+
+    private static void checkRange(long lo, long hi) {
+        if (lo > hi || lo < 1 || hi > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("bad key range [" + lo + ", " + hi + "] (keys must be >= 1)");
+        }
+    }
+
+    // Diff kinds, resolved against the current key at run time
+    private static final int DIFF_ABSOLUTE = 0;
+    private static final int DIFF_PER_MILLION = 1;
+    private static final int DIFF_TO_ZERO = 2;
+
+    // {kind, lo, hi}
+    private static long[] parseDiff(String[] tok, int at) {
+        switch (tok[at]) {
+            case "uniform": {
+                long lo = Long.parseLong(tok[at + 1]);
+                long hi = Long.parseLong(tok[at + 2]);
+                if (lo < 1 || hi < lo || hi > Integer.MAX_VALUE) throw new IllegalArgumentException("bad diff range");
+                return new long[]{DIFF_ABSOLUTE, lo, hi};
+            }
+            case "fraction": {
+                double lo = Double.parseDouble(tok[at + 1]);
+                double hi = Double.parseDouble(tok[at + 2]);
+                if (lo < 0 || hi < lo || hi > 1) throw new IllegalArgumentException("fraction must be within [0, 1]");
+                return new long[]{DIFF_PER_MILLION, Math.round(lo * 1e6), Math.round(hi * 1e6)};
+            }
+            case "tozero":
+                return new long[]{DIFF_TO_ZERO, 0, 0};
+            default:
+                throw new IllegalArgumentException("unknown decrease distribution '" + tok[at] + "'");
+        }
+    }
+
+    /**
+     * Zipf sampler by rejection-inversion (Hörmann and Derflinger, 1996):
+     * O(1) expected time and memory for any n, no table of probabilities.
+     */
+    static final class ZipfSampler {
+        private final int n;
+        private final double s;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double sConst;
+        private final Random rnd;
+
+        ZipfSampler(int n, double s, Random rnd) {
+            if (n < 1 || s <= 0) throw new IllegalArgumentException("zipf needs n >= 1 and s > 0");
+            this.n = n;
+            this.s = s;
+            this.rnd = rnd;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.sConst = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        int next() {
+            while (true) {
+                double u = hIntegralN + rnd.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) (x + 0.5);
+                if (k < 1) k = 1;
+                else if (k > n) k = n;
+                if (k - x <= sConst || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-s * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - s) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = x * (1 - s);
+            if (t < -1) t = -1;
+            return Math.exp(helper1(t) * x);
+        }
+
+        // log(1 + x) / x, stable near 0
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x, stable near 0
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+        }
+    }
+
+    // ================== Program ==================
+
+    /** The generated operations of one phase */
+    static final class PhaseProgram {
+        final String name;
+        final byte[] ops;
+        final int[] args;       // insert: key, decreaseKey/delete: random slot, meld: number of keys
+        final int[] diffs;      // decreaseKey: absolute diff or fraction per million
+        final int diffKind;
+        final int[] meldKeys;   // keys of all melded heaps, consumed in order
+
+        PhaseProgram(String name, byte[] ops, int[] args, int[] diffs, int diffKind, int[] meldKeys) {
+            this.name = name;
+            this.ops = ops;
+            this.args = args;
+            this.diffs = diffs;
+            this.diffKind = diffKind;
+            this.meldKeys = meldKeys;
+        }
+    }
+
+    /** A workload turned into arrays, for one seed */
+    public static final class Program {
+        final PhaseProgram[] phases;
+
+        Program(PhaseProgram[] phases) {
+            this.phases = phases;
+        }
+
+        public int phaseCount() {
+            return phases.length;
+        }
+
+        public String phaseName(int i) {
+            return phases[i].name;
+        }
+    }
+
+    // Complexity O(total ops + total meld sizes)
+    public Program generate(long runSeed) {
+        Random rnd = new Random(runSeed);
+        PhaseProgram[] result = new PhaseProgram[phases.size()];
+        for (int p = 0; p < phases.size(); p++) {
+            Phase phase = phases.get(p);
+            if (phase.ops > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("phase " + phase.name + " has too many ops for one program");
+            }
+            int n = (int) phase.ops;
+            KeyDistribution keys = newKeyDistribution(phase.keys, 0, rnd);
+            long[] diff = parseDiff(phase.decrease, 0);
+
+            int[] cumulative = new int[OP_NAMES.length];
+            int sum = 0;
+            for (int i = 0; i < cumulative.length; i++) {
+                sum += phase.mix[i];
+                cumulative[i] = sum;
+            }
+
+            byte[] ops = new byte[n];
+            int[] args = new int[n];
+            int[] diffs = new int[n];
+            int[] meldKeys = new int[16];
+            int meldKeyCount = 0;
+
+            for (int i = 0; i < n; i++) {
+                int r = rnd.nextInt(100);
+                byte op = 0;
+                while (r >= cumulative[op]) op++;
+                ops[i] = op;
+                switch (op) {
+                    case INSERT:
+                        args[i] = keys.next();
+                        break;
+                    case DECREASE_KEY:
+                        args[i] = rnd.nextInt(Integer.MAX_VALUE);
+                        diffs[i] = (int) (diff[1] + (long) (rnd.nextDouble() * (diff[2] - diff[1] + 1)));
+                        break;
+                    case DELETE:
+                        args[i] = rnd.nextInt(Integer.MAX_VALUE);
+                        break;
+                    case MELD: {
+                        int size = phase.meldMin + rnd.nextInt(phase.meldMax - phase.meldMin + 1);
+                        args[i] = size;
+                        if (meldKeyCount + size > meldKeys.length) {
+                            meldKeys = Arrays.copyOf(meldKeys, Math.max(2 * meldKeys.length, meldKeyCount + size));
+                        }
+                        for (int k = 0; k < size; k++) meldKeys[meldKeyCount++] = keys.next();
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+            result[p] = new PhaseProgram(phase.name, ops, args, diffs, (int) diff[0],
+                    Arrays.copyOf(meldKeys, meldKeyCount));
+        }
+        return new Program(result);
+    }
+
+    // ================== Execution ==================
+
+    /** Measured values of one phase on one heap */
+    public static final class PhaseResult {
+        public long ops;
+        public long nanos;
+        public long links;
+        public long cuts;
+        public long heapify;
+        public long maxOpCost;
+        public int finalSize;
+        public int finalNumTrees;
+    }
+
+    /**
+     * Items that may still be in the heap, for picking random decreaseKey and
+     * delete targets. Items removed by deleteMin are dropped lazily, when picked
+     * or when the array is full, so deleteMin needs no lookup.
+     */
+    private static final class LiveItems {
+        Heap.HeapItem[] items = new Heap.HeapItem[1024];
+        int count;
+
+        void add(Heap.HeapItem item) {
+            if (count == items.length) {
+                compact();
+                if (count > items.length / 2) items = Arrays.copyOf(items, 2 * items.length);
+            }
+            items[count++] = item;
+        }
+
+        // Same as add() for each of added, with one copy
+        void addAll(Heap.HeapItem[] added) {
+            if (count + added.length > items.length) {
+                compact();
+                if (count + added.length > items.length / 2) {
+                    items = Arrays.copyOf(items, Math.max(2 * items.length, 2 * (count + added.length)));
+                }
+            }
+            System.arraycopy(added, 0, items, count, added.length);
+            count += added.length;
+        }
+
+        // Index of a live item chosen by slot, -1 if there is none
+        int pick(int slot) {
+            while (count > 0) {
+                int idx = slot % count;
+                if (items[idx].node != null) return idx;
+                removeAt(idx);
+            }
+            return -1;
+        }
+
+        void removeAt(int idx) {
+            items[idx] = items[--count];
+            items[count] = null;
+        }
+
+        private void compact() {
+            int j = 0;
+            for (int i = 0; i < count; i++) {
+                if (items[i].node != null) items[j++] = items[i];
+            }
+            Arrays.fill(items, j, count, null);
+            count = j;
+        }
+    }
+
+    // Complexity O(ops) plus the cost of the heap operations
+    // Runs every phase of program on a new heap; returns one result per phase
+    public static PhaseResult[] execute(Program program, boolean lazyMelds, boolean lazyDecreaseKeys) {
+        return execute(program, new Heap(lazyMelds, lazyDecreaseKeys));
+    }
+
+    // Same, on the given (empty) heap, e.g. one with a listener attached
+    static PhaseResult[] execute(Program program, Heap heap) {
+        boolean lazyMelds = heap.lazyMelds;
+        boolean lazyDecreaseKeys = heap.lazyDecreaseKeys;
+        LiveItems live = new LiveItems();
+        PhaseResult[] results = new PhaseResult[program.phases.length];
+
+        for (int p = 0; p < program.phases.length; p++) {
+            PhaseProgram phase = program.phases[p];
+            byte[] ops = phase.ops;
+            int[] args = phase.args;
+            int[] diffs = phase.diffs;
+            int[] meldKeys = phase.meldKeys;
+
+            // The heaps melded in by this phase are built before the clock starts;
+            // their own links, cuts and heapify costs, which meld adds to heap's, are left out
+            int melds = 0;
+            for (byte op : ops) {
+                if (op == MELD) melds++;
+            }
+            Heap[] others = new Heap[melds];
+            Heap.HeapItem[][] otherItems = new Heap.HeapItem[melds][];
+            long meldLinks = 0;
+            long meldCuts = 0;
+            long meldHeapify = 0;
+            for (int i = 0, m = 0, meldCursor = 0; i < ops.length; i++) {
+                if (ops[i] != MELD) continue;
+                Heap other = new Heap(lazyMelds, lazyDecreaseKeys);
+                Heap.HeapItem[] added = new Heap.HeapItem[args[i]];
+                for (int k = 0; k < added.length; k++) {
+                    added[k] = other.insert(meldKeys[meldCursor++], null);
+                }
+                meldLinks += other.totalLinks();
+                meldCuts += other.totalCuts();
+                meldHeapify += other.totalHeapifyCosts();
+                others[m] = other;
+                otherItems[m++] = added;
+            }
+            int meld = 0;
+
+            long links0 = heap.totalLinks();
+            long cuts0 = heap.totalCuts();
+            long heapify0 = heap.totalHeapifyCosts();
+            heap.resetMaxOpCost();
+
+            long t0 = System.nanoTime();
+            for (int i = 0; i < ops.length; i++) {
+                switch (ops[i]) {
+                    case INSERT:
+                        live.add(heap.insert(args[i], null));
+                        break;
+                    case DELETE_MIN:
+                        heap.deleteMin();
+                        break;
+                    case DECREASE_KEY: {
+                        int idx = live.pick(args[i]);
+                        if (idx >= 0) {
+                            Heap.HeapItem item = live.items[idx];
+                            long diff = resolveDiff(phase.diffKind, diffs[i], item.key);
+                            if (diff > 0) heap.decreaseKey(item, (int) diff);
+                        }
+                        break;
+                    }
+                    case DELETE: {
+                        int idx = live.pick(args[i]);
+                        if (idx >= 0) {
+                            heap.delete(live.items[idx]);
+                            live.removeAt(idx);
+                        }
+                        break;
+                    }
+                    case MELD:
+                        live.addAll(otherItems[meld]);
+                        heap.meld(others[meld]);
+                        others[meld] = null;
+                        otherItems[meld++] = null;
+                        break;
+                    default:
+                        throw new IllegalStateException("bad op " + ops[i]);
+                }
+            }
+            long t1 = System.nanoTime();
+
+            PhaseResult r = new PhaseResult();
+            r.ops = ops.length;
+            r.nanos = t1 - t0;
+            r.links = heap.totalLinks() - links0 - meldLinks;
+            r.cuts = heap.totalCuts() - cuts0 - meldCuts;
+            r.heapify = heap.totalHeapifyCosts() - heapify0 - meldHeapify;
+            r.maxOpCost = heap.maxOpCost();
+            r.finalSize = heap.size();
+            r.finalNumTrees = heap.numTrees();
+            results[p] = r;
+        }
+        return results;
+    }
+
+    // diff for one decreaseKey of an item with the given key; <= 0 means skip.
+    // Capped at key - 1: the new key stays >= 1, as Heap (and delete) require.
+    private static long resolveDiff(int kind, int value, int key) {
+        long diff;
+        if (kind == DIFF_ABSOLUTE) {
+            diff = value;
+        } else if (kind == DIFF_PER_MILLION) {
+            diff = (long) key * value / 1_000_000;
+        } else {
+            diff = key;
+        }
+        return Math.min(diff, key - 1L);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("workload ").append(name).append(" (seed ").append(seed).append(')');
+        for (Phase p : phases) {
+            sb.append(String.format(Locale.ROOT, "%n  phase %s: ops=%d mix=", p.name, p.ops));
+            for (int i = 0; i < OP_NAMES.length; i++) {
+                if (p.mix[i] > 0) sb.append(OP_NAMES[i]).append('=').append(p.mix[i]).append(' ');
+            }
+            sb.append("keys=").append(String.join(" ", p.keys));
+            if (p.mix[DECREASE_KEY] > 0) sb.append(" decrease=").append(String.join(" ", p.decrease));
+            if (p.mix[MELD] > 0) sb.append(" meld=").append(p.meldMin).append("..").append(p.meldMax);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram
+ *
+ * HDR-style log-linear histogram of non-negative long values (nanoseconds, costs).
+ * Every power of two is split into SUB_BUCKETS/2 linear sub-buckets, so a recorded
+ * value is reported with a relative error below 2 / SUB_BUCKETS (about 6%),
+ * using a fixed array of less than 1000 counters for the whole long range.
+ *
+ * record() is meant for a single owner thread. snapshot()/reset() may be called
+ * from any other thread: counters are atomic, so a concurrent record() is counted
+ * either before or after a reset, never lost.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;      // exact values below this
+    private static final int HALF = SUB_BUCKETS >> 1;
+    static final int BUCKETS = (64 - SUB_BITS) * HALF + SUB_BUCKETS;   // counters, read by HeapFootprint
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    // Complexity O(1)
+    public void record(long value) {
+        counts.getAndIncrement(indexOf(value));
+    }
+
+    // Complexity O(BUCKETS)
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    // Complexity O(BUCKETS)
+    // Atomically moves every counter into the returned snapshot (interval recording)
+    public Snapshot snapshotAndReset() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.getAndSet(i, 0);
+        }
+        return new Snapshot(copy);
+    }
+
+    // Complexity O(BUCKETS)
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    // Complexity O(1)
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;   // >= 1
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    // Complexity O(1)
+    // Highest value that falls into the bucket (HDR "highest equivalent value")
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long sub = index % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Immutable copy of the counters at one moment.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) total += c;
+            this.totalCount = total;
+        }
+
+        public long count() {
+            return totalCount;
+        }
+
+        /** Smallest recorded value v such that p percent of the values are <= v (0 if empty) */
+        public long valueAtPercentile(double p) {
+            if (totalCount == 0) return 0;
+            long rank = (long) Math.ceil(p / 100.0 * totalCount);
+            if (rank < 1) rank = 1;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return highestValueOf(i);
+            }
+            return max();
+        }
+
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) return highestValueOf(i);
+            }
+            return 0;
+        }
+
+        public double mean() {
+            if (totalCount == 0) return 0;
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) sum += (double) counts[i] * highestValueOf(i);
+            }
+            return sum / totalCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d p50=%d p99=%d p999=%d max=%d",
+                    count(), valueAtPercentile(50), valueAtPercentile(99), valueAtPercentile(99.9), max());
+        }
+    }
+}
@@ -329,9 +329,9 @@ public class MegaHeapTest {
         Heap.HeapItem y1 = h2.insert(4, "y1"); m2.insert(y1, 4);
         Heap.HeapItem y2 = h2.insert(6, "y2"); m2.insert(y2, 6);
 
-        int linksBefore = h1.totalLinks() + h2.totalLinks();
-        int cutsBefore  = h1.totalCuts()  + h2.totalCuts();
-        int heapifyBefore = h1.totalHeapifyCosts() + h2.totalHeapifyCosts();
+        long linksBefore = h1.totalLinks() + h2.totalLinks();
+        long cutsBefore  = h1.totalCuts()  + h2.totalCuts();
+        long heapifyBefore = h1.totalHeapifyCosts() + h2.totalHeapifyCosts();
 
         h1.meld(h2);
         m1.absorb(m2);
@@ -376,7 +376,7 @@ public class MegaHeapTest {
                 m4.insert(it, i);
             }
             // сделаем deleteMin чтобы образовались деревья
-            int cutsBeforeDelMin = h4.totalCuts();
+            long cutsBeforeDelMin = h4.totalCuts();
             h4.deleteMin(); m4.deleteMin();
 
             // deleteMin не должен увеличивать cuts
@@ -398,7 +398,7 @@ public class MegaHeapTest {
             Heap h2 = new Heap(lazyMelds, lazyDecreaseKeys);
             RefModel m2 = new RefModel();
 
-            int lastLinks = 0, lastCuts = 0, lastHeapify = 0;
+            long lastLinks = 0, lastCuts = 0, lastHeapify = 0;
 
             for (int op = 1; op <= OPS_PER_TRIAL; op++) {
                 int roll = rnd.nextInt(100);
@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * PersistentHeap
+ *
+ * Immutable (persistent) min-heap: every operation returns a new version and
+ * leaves the old one unchanged, so a snapshot is just a reference to a version,
+ * O(1), and stays consistent while later versions are produced.
+ *
+ *   PersistentHeap v1 = PersistentHeap.EMPTY.insert(5, "a").insert(3, "b");
+ *   PersistentHeap snapshot = v1;              // O(1)
+ *   PersistentHeap v2 = v1.deleteMin();        // snapshot still holds 3 and 5
+ *
+ * A leftist heap with path copying: the rank of a node (length of its right
+ * spine) is at most log2(size + 1), and meld walks only the right spines of its
+ * two arguments. A new version copies the nodes on that path, O(log n), and
+ * shares every other node with the versions it came from; nodesCopied()
+ * reports the count for the operation that produced a version. There are no
+ * handles, so no decreaseKey or delete: an entry can live in many versions.
+ *
+ * Latest keeps the current version for one writer and any number of readers:
+ * the writer replaces it with each operation, readers take snapshot().
+ */
+public final class PersistentHeap {
+
+    /** The empty heap */
+    public static final PersistentHeap EMPTY = new PersistentHeap(null, 0);
+
+    /** A heap node: the entry (key, info, id) and its two subtrees, never modified */
+    public static final class Node {
+        public final int key;
+        public final String info;
+        public final long id;
+        final Node left;
+        final Node right;
+        final int rank;   // Length of the right spine (0 for a missing subtree)
+        final int size;
+
+        Node(int key, String info, long id, Node left, Node right) {
+            this.key = key;
+            this.info = info;
+            this.id = id;
+            // Leftist: the subtree with the shorter right spine goes right
+            if (rank(left) < rank(right)) {
+                Node t = left;
+                left = right;
+                right = t;
+            }
+            this.left = left;
+            this.right = right;
+            this.rank = rank(right) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    private final Node root;
+    private final int nodesCopied;
+
+    private PersistentHeap(Node root, int nodesCopied) {
+        this.root = root;
+        this.nodesCopied = nodesCopied;
+    }
+
+    // Complexity O(1)
+    public int size() {
+        return root == null ? 0 : root.size;
+    }
+
+    // Complexity O(1)
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    // Complexity O(1)
+    /** The minimum entry, null if empty */
+    public Node findMin() {
+        return root;
+    }
+
+    // Complexity O(log n)
+    /** This heap plus (key, info) */
+    public PersistentHeap insert(int key, String info) {
+        return insert(key, info, 0);
+    }
+
+    // Complexity O(log n)
+    /** This heap plus (key, info, id) */
+    public PersistentHeap insert(int key, String info, long id) {
+        int[] copied = new int[1];
+        Node root = meld(this.root, new Node(key, info, id, null, null), copied);
+        return new PersistentHeap(root, copied[0] + 1);
+    }
+
+    // Complexity O(log n)
+    /** This heap without its minimum (this if empty) */
+    public PersistentHeap deleteMin() {
+        if (root == null) {
+            return this;
+        }
+        int[] copied = new int[1];
+        return new PersistentHeap(meld(root.left, root.right, copied), copied[0]);
+    }
+
+    // Complexity O(log n + log m)
+    /** The entries of this heap and other; both stay unchanged */
+    public PersistentHeap meld(PersistentHeap other) {
+        if (other.root == null) {
+            return this;
+        }
+        if (root == null) {
+            return other;
+        }
+        int[] copied = new int[1];
+        return new PersistentHeap(meld(root, other.root, copied), copied[0]);
+    }
+
+    // Complexity O(1)
+    /** Nodes allocated by the operation that produced this version (its memory beyond the shared ones) */
+    public int nodesCopied() {
+        return nodesCopied;
+    }
+
+    // Complexity O(n)
+    /** Visit every entry, in no particular order */
+    public void forEach(Consumer<Node> action) {
+        if (root == null) {
+            return;
+        }
+        Node[] stack = new Node[32];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            action.accept(node);
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            if (node.left != null) {
+                stack[top++] = node.left;
+            }
+            if (node.right != null) {
+                stack[top++] = node.right;
+            }
+        }
+    }
+
+    /** Current version of a heap with one writer; readers take O(1) snapshots */
+    public static final class Latest {
+        private volatile PersistentHeap version = EMPTY;
+
+        // Complexity O(1)
+        public PersistentHeap snapshot() {
+            return version;
+        }
+
+        public void insert(int key, String info, long id) {
+            version = version.insert(key, info, id);
+        }
+
+        /** Removes and returns the minimum entry, null if empty */
+        public Node deleteMin() {
+            PersistentHeap v = version;
+            Node min = v.findMin();
+            version = v.deleteMin();
+            return min;
+        }
+
+        public void meld(PersistentHeap other) {
+            version = version.meld(other);
+        }
+    }
+
+    // ================== Internals ==================
+
+    // Merges the right spines of a and b, copying each spine node on the path.
+    // Recursion depth is at most rank(a) + rank(b) <= 2 log2(n + 1).
+    private static Node meld(Node a, Node b, int[] copied) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (b.key < a.key) {
+            Node t = a;
+            a = b;
+            b = t;
+        }
+        copied[0]++;
+        return new Node(a.key, a.info, a.id, a.left, meld(a.right, b, copied));
+    }
+
+    private static int rank(Node node) {
+        return node == null ? 0 : node.rank;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+}
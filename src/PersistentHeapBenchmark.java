@@ -0,0 +1,126 @@
+import java.util.Random;
+
+/**
+ * PersistentHeapBenchmark.java
+ *
+ * Consistent snapshots of a changing queue: a writer applies OPS operations
+ * (50% insert, 50% deleteMin) to a queue of N entries and takes a snapshot
+ * every SNAPSHOT_EVERY operations, as a reader would need it.
+ *  - Heap (each of the 4 types): a snapshot is a copy, re-inserting every
+ *    (key, info, id), O(n)
+ *  - PersistentHeap: a snapshot is the current version, O(1); each operation
+ *    copies O(log n) nodes
+ *
+ *   java PersistentHeapBenchmark [n] [ops] [snapshotEvery]
+ *
+ * Reports operations per second with and without the snapshots, the time per
+ * snapshot and, for PersistentHeap, the bytes a version adds over the one
+ * before it. Every snapshot's size is checked. Times are the fastest of RUNS
+ * repetitions, after one warm-up.
+ */
+public class PersistentHeapBenchmark {
+
+    private static final int DEFAULT_N = 200_000;
+    private static final int DEFAULT_OPS = 200_000;
+    private static final int DEFAULT_SNAPSHOT_EVERY = 2000;
+    private static final int RUNS = 3;
+    private static final long SEED = 20260115L;
+
+    public static void main(String[] args) {
+        int n = DEFAULT_N;
+        int ops = DEFAULT_OPS;
+        int snapshotEvery = DEFAULT_SNAPSHOT_EVERY;
+        if (args.length >= 1) n = Integer.parseInt(args[0]);
+        if (args.length >= 2) ops = Integer.parseInt(args[1]);
+        if (args.length >= 3) snapshotEvery = Integer.parseInt(args[2]);
+
+        Random rnd = new Random(SEED);
+        int[] keys = new int[n + ops];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 1 + rnd.nextInt(Integer.MAX_VALUE - 1);
+        }
+        boolean[] inserts = new boolean[ops];
+        for (int i = 0; i < ops; i++) {
+            inserts[i] = rnd.nextBoolean();
+        }
+        int snapshots = ops / snapshotEvery;
+        System.out.println("n=" + n + " ops=" + ops + " snapshots=" + snapshots);
+
+        for (HeapType type : HeapType.values()) {
+            double plain = Double.MAX_VALUE;
+            double withSnapshots = Double.MAX_VALUE;
+            for (int run = 0; run <= RUNS; run++) {
+                for (int snap = 0; snap <= 1; snap++) {
+                    Heap heap = type.newHeap();
+                    for (int i = 0; i < n; i++) {
+                        heap.insert(keys[i], null, i + 1);
+                    }
+                    long t0 = System.nanoTime();
+                    for (int i = 0; i < ops; i++) {
+                        if (inserts[i]) {
+                            heap.insert(keys[n + i], null, n + i + 1);
+                        } else {
+                            heap.deleteMin();
+                        }
+                        if (snap == 1 && (i + 1) % snapshotEvery == 0) {
+                            Heap copy = type.newHeap();
+                            for (Heap.HeapItem item : HeapTraceRecorder.items(heap)) {
+                                copy.insert(item.key, item.info, item.id);
+                            }
+                            if (copy.size() != heap.size()) {
+                                throw new IllegalStateException(type + ": snapshot size differs");
+                            }
+                        }
+                    }
+                    double seconds = (System.nanoTime() - t0) / 1e9;
+                    if (run > 0) {
+                        if (snap == 0) plain = Math.min(plain, seconds);
+                        else withSnapshots = Math.min(withSnapshots, seconds);
+                    }
+                }
+            }
+            print(type.name(), ops, plain, withSnapshots, snapshots, -1);
+        }
+
+        double plain = Double.MAX_VALUE;
+        double withSnapshots = Double.MAX_VALUE;
+        long copied = 0;
+        for (int run = 0; run <= RUNS; run++) {
+            for (int snap = 0; snap <= 1; snap++) {
+                PersistentHeap heap = PersistentHeap.EMPTY;
+                for (int i = 0; i < n; i++) {
+                    heap = heap.insert(keys[i], null, i + 1);
+                }
+                PersistentHeap[] kept = new PersistentHeap[snapshots];
+                copied = 0;
+                long t0 = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    heap = inserts[i] ? heap.insert(keys[n + i], null, n + i + 1) : heap.deleteMin();
+                    copied += heap.nodesCopied();
+                    if (snap == 1 && (i + 1) % snapshotEvery == 0) {
+                        kept[(i + 1) / snapshotEvery - 1] = heap;
+                    }
+                }
+                double seconds = (System.nanoTime() - t0) / 1e9;
+                for (PersistentHeap v : kept) {
+                    if (snap == 1 && v.size() > n + ops) {
+                        throw new IllegalStateException("PersistentHeap: snapshot size " + v.size());
+                    }
+                }
+                if (run > 0) {
+                    if (snap == 0) plain = Math.min(plain, seconds);
+                    else withSnapshots = Math.min(withSnapshots, seconds);
+                }
+            }
+        }
+        print("PersistentHeap", ops, plain, withSnapshots, snapshots,
+                (double) copied / ops * HeapFootprint.shallowSize(PersistentHeap.Node.class));
+    }
+
+    private static void print(String name, int ops, double plain, double withSnapshots, int snapshots, double bytesPerVersion) {
+        System.out.printf("%-20s -> Mops=%.2f | withSnapshotsMops=%.3f | snapshotUs=%.1f%s%n",
+                name, ops / plain / 1e6, ops / withSnapshots / 1e6,
+                snapshots == 0 ? 0.0 : Math.max(0, withSnapshots - plain) / snapshots * 1e6,
+                bytesPerVersion < 0 ? "" : String.format(" | bytesPerVersion=%.0f", bytesPerVersion));
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * SlowOpListener
+ *
+ * Callback of the slow-operation detector, installed with Heap.setSlowOpDetector().
+ * Invoked synchronously, right after the offending operation, on the thread that
+ * performed it. Must not modify the heap.
+ */
+@FunctionalInterface
+public interface SlowOpListener {
+
+    /**
+     * op took cost = links + cuts + heapify swaps and nanos of wall time
+     * (0 if no time threshold and no op stats are enabled). size and numTrees
+     * describe the heap after the operation.
+     */
+    void onSlowOp(Heap.OpType op, long cost, long nanos, int size, int numTrees);
+}
@@ -0,0 +1,319 @@
+import java.util.Arrays;
+
+/**
+ * TimerWheel
+ *
+ * Timer service for many short-lived timeouts: a hierarchical timing wheel
+ * (Varghese and Lauck) for near deadlines, with a Heap behind it for the far ones.
+ *
+ *   TimerWheel<Request> timers = new TimerWheel<>(true, true);
+ *   TimerWheel.Timer<Request> t = timers.add(deadline, request);   // O(1)
+ *   timers.cancel(t);                                             // O(1)
+ *   timers.advanceTo(clock, (w, deadline, request) -> ...);
+ *
+ * Time is a long tick count (for example milliseconds), deadlines must be >= 0.
+ * The wheel has LEVELS levels of SLOTS slots; a slot of level l spans
+ * SLOTS^l ticks, so the wheel covers SPAN = SLOTS^LEVELS ticks (2^24) ahead:
+ *  - add: the timer goes to the lowest level whose slot range still holds the
+ *    deadline, into an intrusive doubly linked slot list: O(1)
+ *  - cancel: unlink from the slot list: O(1), no heap work
+ *  - advancing into a slot of a higher level moves its timers down (cascade),
+ *    each timer at most LEVELS times over its life
+ *  - timers beyond the wheel wait in the Heap, keyed by the span they fall in
+ *    (deadline / SPAN); when the clock enters a span, all its timers migrate
+ *    into the wheel with one extractUpTo (a single consolidation)
+ *
+ * Timers fire exactly at their tick (not rounded to a slot), in no particular
+ * order within a tick. A timer added with a deadline that already passed fires
+ * at the next tick. Empty stretches of the wheel are skipped with the level
+ * occupancy bitmaps, so advancing an idle wheel is cheap.
+ * Not thread safe.
+ */
+public final class TimerWheel<T> {
+
+    /** Receives expired timers; may add and cancel timers */
+    public interface ExpiryHandler<T> {
+        void onExpire(TimerWheel<T> wheel, long deadline, T payload);
+    }
+
+    /** A pending timeout, used to cancel it */
+    public static final class Timer<T> {
+        public final T payload;
+        final long deadline;
+        Timer<T> prev;
+        Timer<T> next;
+        int bucket = -1;        // level * SLOTS + slot while in the wheel, -1 otherwise
+        int heapSlot = -1;      // slot of its HeapItem while in the heap, -1 otherwise
+        boolean done;           // fired or cancelled
+
+        Timer(long deadline, T payload) {
+            this.deadline = deadline;
+            this.payload = payload;
+        }
+
+        public long deadline() {
+            return deadline;
+        }
+
+        /** True until the timer fired or was cancelled */
+        public boolean isPending() {
+            return !done;
+        }
+    }
+
+    public static final int SLOT_BITS = 6;
+    public static final int SLOTS = 1 << SLOT_BITS;
+    public static final int LEVELS = 4;
+    public static final int SPAN_BITS = SLOT_BITS * LEVELS;
+    public static final long SPAN = 1L << SPAN_BITS;
+    private static final long MAX_DEADLINE = ((long) Integer.MAX_VALUE << SPAN_BITS) - 1;
+
+    private final Timer<T>[] heads = newTimerArray(LEVELS * SLOTS);
+    private final long[] occupied = new long[LEVELS];   // bit s of level l: slot s is not empty
+    private long now;
+    private int wheelCount;
+
+    // Far timers: one reusable HeapItem per slot, key = deadline >>> SPAN_BITS
+    private final Heap heap;
+    private Heap.HeapItem[] items = new Heap.HeapItem[16];
+    private Timer<T>[] heapTimers = newTimerArray(16);
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    public long fired;
+    public long cancelled;
+    public long cascaded;       // Timers moved down a level
+    public long migrated;       // Timers moved from the heap into the wheel
+
+    public TimerWheel(boolean lazyMelds, boolean lazyDecreaseKeys) {
+        this(lazyMelds, lazyDecreaseKeys, 0);
+    }
+
+    /** A wheel whose clock starts at start */
+    public TimerWheel(boolean lazyMelds, boolean lazyDecreaseKeys, long start) {
+        if (start < 0) {
+            throw new IllegalArgumentException("start must be >= 0");
+        }
+        this.heap = new Heap(lazyMelds, lazyDecreaseKeys);
+        this.heap.setNodePoolCapacity(Integer.MAX_VALUE);
+        this.now = start;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Timer<T>[] newTimerArray(int n) {
+        return (Timer<T>[]) new Timer<?>[n];
+    }
+
+    /** The current tick: every timer with an earlier or equal deadline has fired */
+    public long now() {
+        return now;
+    }
+
+    /** Number of pending timers */
+    public int size() {
+        return wheelCount + heap.size();
+    }
+
+    /** Number of pending timers waiting in the heap */
+    public int heapSize() {
+        return heap.size();
+    }
+
+    /** The far-timer heap (for its counters; do not modify it) */
+    public Heap heap() {
+        return heap;
+    }
+
+    // Complexity O(1) in the wheel, a Heap insert (O(1) amortized with lazyMelds) beyond it
+    /** Add a timer firing at deadline (the next tick if deadline <= now()) */
+    public Timer<T> add(long deadline, T payload) {
+        if (deadline < 0 || deadline > MAX_DEADLINE) {
+            throw new IllegalArgumentException("deadline out of range: " + deadline);
+        }
+        Timer<T> t = new Timer<>(deadline, payload);
+        place(t, now + 1);
+        return t;
+    }
+
+    // Complexity O(1) in the wheel, O(log n) amortized (Heap.delete) beyond it
+    /** Cancel a pending timer; returns false if it already fired or was cancelled */
+    public boolean cancel(Timer<T> t) {
+        if (t.done) {
+            return false;
+        }
+        t.done = true;
+        cancelled++;
+        if (t.bucket >= 0) {
+            unlink(t);
+        } else {
+            heap.delete(items[t.heapSlot]);
+            freeHeapSlot(t);
+        }
+        return true;
+    }
+
+    // Complexity O(ticks with work + fired + cascaded + migrated); idle stretches are skipped
+    /** Move the clock to time (>= now()), firing every timer with deadline <= time */
+    public long advanceTo(long time, ExpiryHandler<T> handler) {
+        if (time < now) {
+            throw new IllegalArgumentException("time " + time + " is before now " + now);
+        }
+        long count = 0;
+        while (now < time) {
+            long t = nextTick(time);
+            now = t;
+            if ((t & (SPAN - 1)) == 0) {
+                migrate(t);
+            }
+            // Top-down: a cascaded timer may land in a lower slot that is cascaded next
+            for (int level = LEVELS - 1; level >= 1; level--) {
+                if ((t & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (t >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                }
+            }
+            int bucket = (int) t & (SLOTS - 1);
+            Timer<T> head;
+            while ((head = heads[bucket]) != null) {
+                unlink(head);
+                head.done = true;
+                fired++;
+                count++;
+                handler.onExpire(this, head.deadline, head.payload);
+            }
+        }
+        return count;
+    }
+
+    // ================== Internals ==================
+
+    // The next tick after now that can have work: now + 1, or the next boundary of
+    // the lowest non-empty level (or of the heap span) when the levels below it are empty
+    private long nextTick(long time) {
+        long t = now + 1;
+        int level = 0;
+        while (level < LEVELS && occupied[level] == 0) {
+            level++;
+        }
+        if (level > 0) {
+            int bits = level < LEVELS ? SLOT_BITS * level : SPAN_BITS;
+            long boundary = ((now >>> bits) + 1) << bits;
+            if (level == LEVELS && heap.size() == 0) {
+                boundary = time; // nothing pending at all
+            }
+            t = Math.max(t, Math.min(boundary, time));
+        }
+        return t;
+    }
+
+    // Wheel position of a timer relative to now, or the heap if it lies beyond the wheel.
+    // earliest is now + 1 for new timers and now for timers moved while tick now is processed.
+    private void place(Timer<T> t, long earliest) {
+        long e = Math.max(t.deadline, earliest);
+        for (int level = 0; level < LEVELS; level++) {
+            int high = SLOT_BITS * (level + 1);
+            if ((e >>> high) == (now >>> high)) {
+                link(t, level, (int) (e >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                return;
+            }
+        }
+        int slot = allocHeapSlot(t);
+        Heap.HeapItem item = items[slot];
+        int key = (int) (e >>> SPAN_BITS);
+        if (item == null) {
+            items[slot] = heap.insert(key, null, slot);
+        } else {
+            heap.reinsert(item, key);
+        }
+    }
+
+    // Clock entered a new span: move its heap timers into the wheel
+    private void migrate(long t) {
+        long span = t >>> SPAN_BITS;
+        heap.extractUpTo((int) Math.min(span, Integer.MAX_VALUE), this::migrateItem);
+    }
+
+    private void migrateItem(Heap.HeapItem item) {
+        Timer<T> timer = heapTimers[(int) item.id];
+        freeHeapSlot(timer);
+        migrated++;
+        place(timer, now);
+    }
+
+    private void cascade(int level, int slot) {
+        int bucket = level * SLOTS + slot;
+        Timer<T> t = heads[bucket];
+        if (t == null) {
+            return;
+        }
+        heads[bucket] = null;
+        occupied[level] &= ~(1L << slot);
+        while (t != null) {
+            Timer<T> next = t.next;
+            t.prev = null;
+            t.next = null;
+            t.bucket = -1;
+            wheelCount--;
+            cascaded++;
+            place(t, now);
+            t = next;
+        }
+    }
+
+    private void link(Timer<T> t, int level, int slot) {
+        int bucket = level * SLOTS + slot;
+        Timer<T> head = heads[bucket];
+        t.next = head;
+        if (head != null) {
+            head.prev = t;
+        }
+        heads[bucket] = t;
+        t.bucket = bucket;
+        occupied[level] |= 1L << slot;
+        wheelCount++;
+    }
+
+    private void unlink(Timer<T> t) {
+        int bucket = t.bucket;
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            heads[bucket] = t.next;
+            if (t.next == null) {
+                occupied[bucket >>> SLOT_BITS] &= ~(1L << (bucket & (SLOTS - 1)));
+            }
+        }
+        if (t.next != null) {
+            t.next.prev = t.prev;
+        }
+        t.prev = null;
+        t.next = null;
+        t.bucket = -1;
+        wheelCount--;
+    }
+
+    private int allocHeapSlot(Timer<T> t) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = slotCount++;
+            if (slot == items.length) {
+                items = Arrays.copyOf(items, 2 * slot);
+                heapTimers = Arrays.copyOf(heapTimers, 2 * slot);
+            }
+        }
+        heapTimers[slot] = t;
+        t.heapSlot = slot;
+        return slot;
+    }
+
+    private void freeHeapSlot(Timer<T> t) {
+        heapTimers[t.heapSlot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, 2 * freeCount);
+        }
+        freeSlots[freeCount++] = t.heapSlot;
+        t.heapSlot = -1;
+    }
+}
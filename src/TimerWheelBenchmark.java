@@ -0,0 +1,132 @@
+import java.util.SplittableRandom;
+
+/**
+ * TimerWheelBenchmark.java
+ *
+ * Timeout workload: N timers are added with deadlines TIMEOUT +- JITTER ticks
+ * ahead (FAR_PERCENT of them far beyond the wheel), CANCEL_PERCENT are
+ * cancelled before they fire, and the clock then advances until the rest fired.
+ * Each phase (add, cancel, expire) is timed separately, for
+ *  - TimerWheel (hierarchical wheel, far timers in a Fibonacci-mode Heap)
+ *  - a plain Heap of each of the 4 types: key = deadline, cancel = Heap.delete,
+ *    expire = deleteMin while the min deadline has passed
+ *
+ *   java TimerWheelBenchmark [timers] [cancelPercent]
+ *
+ * Both sides must fire the same number of timers. Times are the fastest of RUNS
+ * repetitions, after one warm-up.
+ */
+public class TimerWheelBenchmark {
+
+    private static final int DEFAULT_TIMERS = 2_000_000;
+    private static final int DEFAULT_CANCEL_PERCENT = 90;
+    private static final int TIMEOUT = 30_000;
+    private static final int JITTER = 5_000;
+    private static final int FAR_PERCENT = 1;
+    private static final int FAR_TIMEOUT = 100_000_000;   // > TimerWheel.SPAN
+    private static final int RUNS = 3;
+    private static final long SEED = 20260115L;
+
+    public static void main(String[] args) {
+        int timers = DEFAULT_TIMERS;
+        int cancelPercent = DEFAULT_CANCEL_PERCENT;
+        if (args.length >= 1) timers = Integer.parseInt(args[0]);
+        if (args.length >= 2) cancelPercent = Integer.parseInt(args[1]);
+
+        SplittableRandom rnd = new SplittableRandom(SEED);
+        long[] deadlines = new long[timers];
+        for (int i = 0; i < timers; i++) {
+            int base = rnd.nextInt(100) < FAR_PERCENT ? FAR_TIMEOUT : TIMEOUT;
+            deadlines[i] = base - JITTER + rnd.nextInt(2 * JITTER + 1);
+        }
+        // Cancel order: a random cancelPercent of the timers
+        int[] order = new int[timers];
+        for (int i = 0; i < timers; i++) order[i] = i;
+        for (int i = timers - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        int cancels = (int) ((long) timers * cancelPercent / 100);
+        long end = FAR_TIMEOUT + JITTER;
+
+        System.out.println("timers=" + timers + ", cancelled=" + cancels + ", far=" + FAR_PERCENT + "%");
+
+        double[] wheel = best(() -> runWheel(deadlines, order, cancels, end));
+        print("TimerWheel", wheel, timers, cancels);
+        for (HeapType type : HeapType.values()) {
+            double[] h = best(() -> runHeap(type, deadlines, order, cancels, end));
+            if (h[3] != wheel[3]) {
+                throw new IllegalStateException(type + " fired " + h[3] + " timers, TimerWheel " + wheel[3]);
+            }
+            print(type.name(), h, timers, cancels);
+            System.out.printf("%-20s    cancel speedup of TimerWheel=%.1f%n", "", h[1] / wheel[1]);
+        }
+    }
+
+    private interface Run {
+        double[] run();
+    }
+
+    /** Fastest of RUNS runs per phase, after a warm-up */
+    private static double[] best(Run r) {
+        r.run();
+        double[] best = r.run();
+        for (int i = 1; i < RUNS; i++) {
+            double[] x = r.run();
+            for (int p = 0; p < 3; p++) best[p] = Math.min(best[p], x[p]);
+        }
+        return best;
+    }
+
+    private static void print(String name, double[] r, int timers, int cancels) {
+        System.out.printf("%-20s -> addsPerSec=%.0f | cancelsPerSec=%.0f | expireMs=%.2f | fired=%.0f%n",
+                name, timers / r[0], cancels / r[1], r[2] * 1e3, r[3]);
+    }
+
+    /** Returns {addSeconds, cancelSeconds, expireSeconds, fired} */
+    private static double[] runWheel(long[] deadlines, int[] order, int cancels, long end) {
+        TimerWheel<Integer> wheel = new TimerWheel<>(true, true);
+        @SuppressWarnings("unchecked")
+        TimerWheel.Timer<Integer>[] handles = (TimerWheel.Timer<Integer>[]) new TimerWheel.Timer<?>[deadlines.length];
+        Integer payload = 0;
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < deadlines.length; i++) {
+            handles[i] = wheel.add(deadlines[i], payload);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < cancels; i++) {
+            wheel.cancel(handles[order[i]]);
+        }
+        long t2 = System.nanoTime();
+        long fired = wheel.advanceTo(end, (w, deadline, p) -> { });
+        long t3 = System.nanoTime();
+        return new double[]{(t1 - t0) / 1e9, (t2 - t1) / 1e9, (t3 - t2) / 1e9, fired};
+    }
+
+    /** Returns {addSeconds, cancelSeconds, expireSeconds, fired} */
+    private static double[] runHeap(HeapType type, long[] deadlines, int[] order, int cancels, long end) {
+        Heap heap = type.newHeap();
+        Heap.HeapItem[] handles = new Heap.HeapItem[deadlines.length];
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < deadlines.length; i++) {
+            handles[i] = heap.insert((int) deadlines[i], null, i);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < cancels; i++) {
+            heap.delete(handles[order[i]]);
+        }
+        long t2 = System.nanoTime();
+        long fired = 0;
+        Heap.HeapItem min;
+        while ((min = heap.findMin()) != null && min.key <= end) {
+            heap.deleteMin();
+            fired++;
+        }
+        long t3 = System.nanoTime();
+        return new double[]{(t1 - t0) / 1e9, (t2 - t1) / 1e9, (t3 - t2) / 1e9, fired};
+    }
+}